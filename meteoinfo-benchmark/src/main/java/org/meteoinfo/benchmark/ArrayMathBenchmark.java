@@ -0,0 +1,121 @@
+package org.meteoinfo.benchmark;
+
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.InvalidRangeException;
+import org.meteoinfo.ndarray.Range;
+import org.meteoinfo.ndarray.math.ArrayExpression;
+import org.meteoinfo.ndarray.math.ArrayKernel;
+import org.meteoinfo.ndarray.math.ArrayMath;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the generic ArrayMath code paths (kernel=false) with the primitive
+ * storage kernels (kernel=true).
+ * <p>
+ * Run with: java -Xmx12g -jar meteoinfo-benchmark/target/benchmarks.jar ArrayMathBenchmark
+ * -p size=1000000,10000000
+ *
+ * @author wyq
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx12g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ArrayMathBenchmark {
+
+    @Param({"1000000", "10000000", "100000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean kernel;
+
+    @Param({"DOUBLE", "FLOAT"})
+    public String dataType;
+
+    @Param({"false", "true"})
+    public boolean strided;
+
+    private Array a;
+    private Array b;
+    private Array condition;
+    private Array missing;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidRangeException {
+        ArrayKernel.setEnabled(kernel);
+        DataType dt = DataType.valueOf(dataType);
+        int ny = 1000;
+        int nx = size / ny;
+        a = create(dt, strided ? new int[]{ny, nx * 2} : new int[]{ny, nx}, 1);
+        b = create(dt, strided ? new int[]{ny, nx * 2} : new int[]{ny, nx}, 2);
+        if (strided) {
+            List<Range> ranges = new ArrayList<>();
+            ranges.add(new Range(0, ny - 1));
+            ranges.add(new Range(0, nx * 2 - 1, 2));
+            a = a.section(ranges);
+            b = b.section(ranges);
+        }
+        condition = ArrayMath.greaterThan(a, b);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpMissing() {
+        if (missing == null || missing.getSize() != a.getSize()) {
+            missing = a.copy();
+        }
+        for (int i = 0; i < missing.getSize(); i += 97) {
+            missing.setDouble(i, -9999.0);
+        }
+    }
+
+    private static Array create(DataType dataType, int[] shape, int seed) {
+        Array r = Array.factory(dataType, shape);
+        for (int i = 0; i < r.getSize(); i++) {
+            r.setDouble(i, (i * 31 + seed * 17) % 1000 * 0.1);
+        }
+        return r;
+    }
+
+    @Benchmark
+    public Array add() {
+        return ArrayMath.add(a, b);
+    }
+
+    @Benchmark
+    public Array addScalar() {
+        return ArrayMath.sub(a, 273.15);
+    }
+
+    @Benchmark
+    public Array mul() {
+        return ArrayMath.mul(a, b);
+    }
+
+    @Benchmark
+    public Array where() {
+        return ArrayMath.where(condition, a, b);
+    }
+
+    @Benchmark
+    public Array missingToNaN() {
+        ArrayMath.missingToNaN(missing, -9999.0);
+        return missing;
+    }
+
+    @Benchmark
+    public Array chain() {
+        return ArrayMath.add(ArrayMath.mul(ArrayMath.sub(a, 273.15), 1.8), 32);
+    }
+
+    @Benchmark
+    public Array fused() {
+        return ArrayExpression.of(a).sub(273.15).mul(1.8).add(32).eval();
+    }
+}
@@ -24,9 +24,11 @@ import org.meteoinfo.data.meteodata.StationModelData;
 import org.meteoinfo.render.java2d.ContourDraw;
 import org.meteoinfo.render.java2d.Draw;
 import org.meteoinfo.geometry.legend.LegendManage;
+import org.meteoinfo.geometry.colors.ColorLookup;
 import org.meteoinfo.geometry.colors.ExtendType;
 import org.meteoinfo.geometry.colors.Normalize;
 import org.meteoinfo.geometry.colors.OpacityTransferFunction;
+import org.meteoinfo.geometry.colors.RasterRenderer;
 import org.meteoinfo.geometry.colors.TransferFunction;
 import org.meteoinfo.geometry.graphic.Graphic;
 import org.meteoinfo.geometry.graphic.GraphicCollection;
@@ -2824,93 +2826,23 @@ public class GraphicFactory {
      * @return Image graphic
      */
     public static Graphic createImage(Array gdata, List<Number> extent, boolean yReverse) {
+        return createImage(gdata, extent, yReverse, null);
+    }
+
+    /**
+     * Create image
+     *
+     * @param gdata data array
+     * @param extent Extent
+     * @param yReverse Y axis reverse or not
+     * @param image Image to reuse if it has the same size, e.g. the image of the previous animation frame
+     * @return Image graphic
+     */
+    public static Graphic createImage(Array gdata, List<Number> extent, boolean yReverse, BufferedImage image) {
         int width, height;
         width = gdata.getShape()[1];
         height = gdata.getShape()[0];
-        Color undefColor = Color.white;
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Color color;
-        Index index = gdata.getIndex();
-        boolean isAlpha = gdata.getShape()[2] == 4;
-        if (gdata.getDataType() == DataType.FLOAT || gdata.getDataType() == DataType.DOUBLE) {
-            float r, g, b;
-            if (isAlpha) {
-                float a;
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        r = gdata.getFloat(index.set(i, j, 0));
-                        g = gdata.getFloat(index.set(i, j, 1));
-                        b = gdata.getFloat(index.set(i, j, 2));
-                        a = gdata.getFloat(index.set(i, j, 3));
-                        if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b) || Double.isNaN(a)) {
-                            color = undefColor;
-                        } else {
-                            color = new Color(r, g, b, a);
-                        }
-                        if (yReverse)
-                            aImage.setRGB(j, i, color.getRGB());
-                        else
-                            aImage.setRGB(j, height - i - 1, color.getRGB());
-                    }
-                }
-            } else {
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        r = gdata.getFloat(index.set(i, j, 0));
-                        g = gdata.getFloat(index.set(i, j, 1));
-                        b = gdata.getFloat(index.set(i, j, 2));
-                        if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b)) {
-                            color = undefColor;
-                        } else {
-                            color = new Color(r, g, b);
-                        }
-                        if (yReverse)
-                            aImage.setRGB(j, i, color.getRGB());
-                        else
-                            aImage.setRGB(j, height - i - 1, color.getRGB());
-                    }
-                }
-            }
-        } else {
-            int r, g, b;
-            if (isAlpha) {
-                int a;
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        r = gdata.getInt(index.set(i, j, 0));
-                        g = gdata.getInt(index.set(i, j, 1));
-                        b = gdata.getInt(index.set(i, j, 2));
-                        a = gdata.getInt(index.set(i, j, 3));
-                        if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b) || Double.isNaN(a)) {
-                            color = undefColor;
-                        } else {
-                            color = new Color(r, g, b, a);
-                        }
-                        if (yReverse)
-                            aImage.setRGB(j, i, color.getRGB());
-                        else
-                            aImage.setRGB(j, height - i - 1, color.getRGB());
-                    }
-                }
-            } else {
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        r = gdata.getInt(index.set(i, j, 0));
-                        g = gdata.getInt(index.set(i, j, 1));
-                        b = gdata.getInt(index.set(i, j, 2));
-                        if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b)) {
-                            color = undefColor;
-                        } else {
-                            color = new Color(r, g, b);
-                        }
-                        if (yReverse)
-                            aImage.setRGB(j, i, color.getRGB());
-                        else
-                            aImage.setRGB(j, height - i - 1, color.getRGB());
-                    }
-                }
-            }
-        }
+        BufferedImage aImage = RasterRenderer.renderRGB(gdata, !yReverse, image);
 
         ImageShape ishape = new ImageShape();
         double minx, maxx, miny, maxy;
@@ -2951,102 +2883,23 @@ public class GraphicFactory {
      * @return Image graphic
      */
     public static Graphic createImage(List<Array> data, List<Number> extent, boolean yReverse) {
+        return createImage(data, extent, yReverse, null);
+    }
+
+    /**
+     * Create image by RGB data array
+     *
+     * @param data RGB data array list
+     * @param extent Extent
+     * @param yReverse Y coordinate reverse or not
+     * @param image Image to reuse if it has the same size, e.g. the image of the previous animation frame
+     * @return Image graphic
+     */
+    public static Graphic createImage(List<Array> data, List<Number> extent, boolean yReverse, BufferedImage image) {
         int width, height;
         width = data.get(0).getShape()[1];
         height = data.get(0).getShape()[0];
-        Color undefColor = Color.white;
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Color color;
-        boolean isAlpha = data.size() == 4;
-        Array rdata = data.get(0);
-        Array gdata = data.get(1);
-        Array bdata = data.get(2);
-        Index rindex = rdata.getIndex();
-        Index gindex = gdata.getIndex();
-        Index bindex = bdata.getIndex();
-        if (rdata.getDataType() == DataType.FLOAT || rdata.getDataType() == DataType.DOUBLE) {
-            float r, g, b;
-            if (isAlpha) {
-                float a;
-                Array adata = data.get(3);
-                Index aindex = adata.getIndex();
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        r = rdata.getFloat(rindex.set(i, j));
-                        g = gdata.getFloat(gindex.set(i, j));
-                        b = bdata.getFloat(bindex.set(i, j));
-                        a = adata.getFloat(aindex.set(i, j));
-                        if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b) || Double.isNaN(a)) {
-                            color = undefColor;
-                        } else {
-                            color = new Color(r, g, b, a);
-                        }
-                        if (yReverse)
-                            aImage.setRGB(j, i, color.getRGB());
-                        else
-                            aImage.setRGB(j, height - i - 1, color.getRGB());
-                    }
-                }
-            } else {
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        r = rdata.getFloat(rindex.set(i, j));
-                        g = gdata.getFloat(gindex.set(i, j));
-                        b = bdata.getFloat(bindex.set(i, j));
-                        if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b)) {
-                            color = undefColor;
-                        } else {
-                            color = new Color(r, g, b);
-                        }
-                        if (yReverse)
-                            aImage.setRGB(j, i, color.getRGB());
-                        else
-                            aImage.setRGB(j, height - i - 1, color.getRGB());
-                    }
-                }
-            }
-        } else {
-            int r, g, b;
-            if (isAlpha) {
-                int a;
-                Array adata = data.get(3);
-                Index aindex = adata.getIndex();
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        r = rdata.getInt(rindex.set(i, j));
-                        g = gdata.getInt(gindex.set(i, j));
-                        b = bdata.getInt(bindex.set(i, j));
-                        a = adata.getInt(aindex.set(i, j));
-                        if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b) || Double.isNaN(a)) {
-                            color = undefColor;
-                        } else {
-                            color = new Color(r, g, b, a);
-                        }
-                        if (yReverse)
-                            aImage.setRGB(j, i, color.getRGB());
-                        else
-                            aImage.setRGB(j, height - i - 1, color.getRGB());
-                    }
-                }
-            } else {
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        r = rdata.getInt(rindex.set(i, j));
-                        g = gdata.getInt(gindex.set(i, j));
-                        b = bdata.getInt(bindex.set(i, j));
-                        if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b)) {
-                            color = undefColor;
-                        } else {
-                            color = new Color(r, g, b);
-                        }
-                        if (yReverse)
-                            aImage.setRGB(j, i, color.getRGB());
-                        else
-                            aImage.setRGB(j, height - i - 1, color.getRGB());
-                    }
-                }
-            }
-        }
+        BufferedImage aImage = RasterRenderer.renderRGB(data, !yReverse, image);
 
         ImageShape ishape = new ImageShape();
         double minx, maxx, miny, maxy;
@@ -3130,57 +2983,19 @@ public class GraphicFactory {
      * @return Image
      */
     public static BufferedImage createImage(Array gdata, LegendScheme ls) {
-        gdata = gdata.copyIfView();
-
-        int width, height, breakNum;
-        width = gdata.getShape()[1];
-        height = gdata.getShape()[0];
-        breakNum = ls.getBreakNum();
-        double[] breakValue = new double[breakNum];
-        Color[] breakColor = new Color[breakNum];
-        Color undefColor = Color.white;
-        for (int i = 0; i < breakNum; i++) {
-            breakValue[i] = Double.parseDouble(ls.getLegendBreaks().get(i).getEndValue().toString());
-            breakColor[i] = ls.getLegendBreaks().get(i).getColor();
-            if (ls.getLegendBreaks().get(i).isNoData()) {
-                undefColor = ls.getLegendBreaks().get(i).getColor();
-            }
-        }
-        Color defaultColor = breakColor[breakNum - 1];    //Last color
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        double oneValue;
-        Color oneColor;
-        Index index = gdata.getIndex();
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                index.set(i, j);
-                oneValue = gdata.getDouble(index);
-                if (Double.isNaN(oneValue)) {
-                    oneColor = undefColor;
-                } else {
-                    oneColor = defaultColor;
-                    if (ls.getLegendType() == LegendType.GRADUATED_COLOR) {
-                        for (int k = 0; k < breakNum - 1; k++) {
-                            if (oneValue < breakValue[k]) {
-                                oneColor = breakColor[k];
-                                break;
-                            }
-                        }
-                    } else {
-                        for (int k = 0; k < breakNum - 1; k++) {
-                            if (oneValue == breakValue[k]) {
-                                oneColor = breakColor[k];
-                                break;
-                            }
-                        }
-                    }
-                }
-                //aImage.setRGB(j, height - i - 1, oneColor.getRGB());
-                aImage.setRGB(j, i, oneColor.getRGB());
-            }
-        }
+        return createImage(gdata, ls, (BufferedImage) null);
+    }
 
-        return aImage;
+    /**
+     * Create image
+     *
+     * @param gdata Grid data array
+     * @param ls Legend scheme
+     * @param image Image to reuse if it has the same size, e.g. the image of the previous animation frame
+     * @return Image
+     */
+    public static BufferedImage createImage(Array gdata, LegendScheme ls, BufferedImage image) {
+        return RasterRenderer.render(gdata, ColorLookup.ofBreaks(ls, false), false, image);
     }
 
     /**
@@ -3192,52 +3007,11 @@ public class GraphicFactory {
      * @return Image graphic
      */
     public static Graphic createImage(Array gdata, LegendScheme ls, List<Number> extent) {
-        int width, height, breakNum;
+        int width, height;
         width = gdata.getShape()[1];
         height = gdata.getShape()[0];
-        breakNum = ls.getBreakNum();
-        double[] breakValue = new double[breakNum];
-        Color[] breakColor = new Color[breakNum];
-        Color undefColor = Color.white;
-        for (int i = 0; i < breakNum; i++) {
-            breakValue[i] = Double.parseDouble(ls.getLegendBreaks().get(i).getEndValue().toString());
-            breakColor[i] = ls.getLegendBreaks().get(i).getColor();
-            if (ls.getLegendBreaks().get(i).isNoData()) {
-                undefColor = ls.getLegendBreaks().get(i).getColor();
-            }
-        }
-        Color defaultColor = breakColor[breakNum - 1];    //Last color
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        double oneValue;
-        Color oneColor;
-        Index index = gdata.getIndex();
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                index.set(i, j);
-                oneValue = gdata.getDouble(index);
-                if (Double.isNaN(oneValue)) {
-                    oneColor = undefColor;
-                } else {
-                    oneColor = defaultColor;
-                    if (ls.getLegendType() == LegendType.GRADUATED_COLOR) {
-                        for (int k = 0; k < breakNum - 1; k++) {
-                            if (oneValue < breakValue[k]) {
-                                oneColor = breakColor[k];
-                                break;
-                            }
-                        }
-                    } else {
-                        for (int k = 0; k < breakNum - 1; k++) {
-                            if (oneValue == breakValue[k]) {
-                                oneColor = breakColor[k];
-                                break;
-                            }
-                        }
-                    }
-                }
-                aImage.setRGB(j, height - i - 1, oneColor.getRGB());
-            }
-        }
+        BufferedImage aImage = RasterRenderer.render(gdata, width, height, ColorLookup.ofBreaks(ls, false),
+                true, null);
 
         ImageShape ishape = new ImageShape();
         double minx, maxx, miny, maxy;
@@ -3266,50 +3040,12 @@ public class GraphicFactory {
      * @return Image graphic
      */
     public static Graphic createImage(GridArray gdata, LegendScheme ls) {
-        int width, height, breakNum;
+        int width, height;
         width = gdata.getXNum();
         height = gdata.getYNum();
-        breakNum = ls.getBreakNum();
-        double[] breakValue = new double[breakNum];
-        Color[] breakColor = new Color[breakNum];
-        Color undefColor = Color.white;
-        for (int i = 0; i < breakNum; i++) {
-            breakValue[i] = Double.parseDouble(ls.getLegendBreaks().get(i).getEndValue().toString());
-            breakColor[i] = ls.getLegendBreaks().get(i).getColor();
-            if (ls.getLegendBreaks().get(i).isNoData()) {
-                undefColor = ls.getLegendBreaks().get(i).getColor();
-            }
-        }
-        Color defaultColor = breakColor[breakNum - 1];    //Last color
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        double oneValue;
-        Color oneColor;
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                oneValue = gdata.getDoubleValue(i, j);
-                if (Double.isNaN(oneValue) || MIMath.doubleEquals(oneValue, gdata.missingValue)) {
-                    oneColor = undefColor;
-                } else {
-                    oneColor = defaultColor;
-                    if (ls.getLegendType() == LegendType.GRADUATED_COLOR) {
-                        for (int k = 0; k < breakNum - 1; k++) {
-                            if (oneValue < breakValue[k]) {
-                                oneColor = breakColor[k];
-                                break;
-                            }
-                        }
-                    } else {
-                        for (int k = 0; k < breakNum - 1; k++) {
-                            if (oneValue == breakValue[k]) {
-                                oneColor = breakColor[k];
-                                break;
-                            }
-                        }
-                    }
-                }
-                aImage.setRGB(j, height - i - 1, oneColor.getRGB());
-            }
-        }
+        ColorLookup lookup = ColorLookup.ofBreaks(ls, false);
+        lookup.setMissingValue(gdata.missingValue);
+        BufferedImage aImage = RasterRenderer.render(gdata.getData(), width, height, lookup, true, null);
 
         ImageShape ishape = new ImageShape();
         double xdelta = BigDecimalUtil.mul(gdata.getXDelt(), 0.5);
@@ -3333,79 +3069,30 @@ public class GraphicFactory {
      * @return Image graphic
      */
     public static Graphic createImage(GridArray gdata, LegendScheme ls, List<Number> extent) {
-        int width, height, breakNum;
+        return createImage(gdata, ls, extent, null);
+    }
+
+    /**
+     * Create image
+     *
+     * @param gdata Grid data array
+     * @param ls Legend scheme
+     * @param extent Extent
+     * @param image Image to reuse if it has the same size, e.g. the image of the previous animation frame
+     * @return Image graphic
+     */
+    public static Graphic createImage(GridArray gdata, LegendScheme ls, List<Number> extent, BufferedImage image) {
+        int width, height;
         width = gdata.getXNum();
         height = gdata.getYNum();
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ColorLookup lookup;
         if (ls.getColorMap() == null) {
-            breakNum = ls.getValidBreakNum();
-            double[] breakValue = new double[breakNum];
-            Color[] breakColor = new Color[breakNum];
-            Color undefColor = Color.white;
-            int idx = 0;
-            for (ColorBreak cb : ls.getLegendBreaks()) {
-                if (cb.isNoData()) {
-                    undefColor = cb.getColor();
-                } else {
-                    breakValue[idx] = Double.parseDouble(cb.getEndValue().toString());
-                    breakColor[idx] = cb.getColor();
-                    idx += 1;
-                }
-            }
-            Color defaultColor = breakColor[breakNum - 1];    //Last color
-            double oneValue;
-            Color oneColor;
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    oneValue = gdata.getDoubleValue(i, j);
-                    if (Double.isNaN(oneValue) || MIMath.doubleEquals(oneValue, gdata.missingValue)) {
-                        oneColor = undefColor;
-                    } else {
-                        oneColor = defaultColor;
-                        if (ls.getLegendType() == LegendType.GRADUATED_COLOR) {
-                            for (int k = 0; k < breakNum - 1; k++) {
-                                if (oneValue < breakValue[k]) {
-                                    oneColor = breakColor[k];
-                                    break;
-                                }
-                            }
-                        } else {
-                            for (int k = 0; k < breakNum - 1; k++) {
-                                if (oneValue == breakValue[k]) {
-                                    oneColor = breakColor[k];
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    aImage.setRGB(j, height - i - 1, oneColor.getRGB());
-                }
-            }
+            lookup = ColorLookup.ofBreaks(ls, true);
         } else {
-            ColorMap colorMap = ls.getColorMap();
-            int n = colorMap.getColorCount();
-            Normalize normalize = ls.getNormalize();
-            double v;
-            Color fillColor = colorMap.getFillColor();
-            Color color;
-            int idx;
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    v = gdata.getDoubleValue(i, j);
-                    if (Double.isNaN(v) || MIMath.doubleEquals(v, gdata.missingValue)) {
-                        color = fillColor;
-                    } else {
-                        idx = (int) (normalize.apply(v).floatValue() * n);
-                        if (idx < 0)
-                            idx = 0;
-                        else if (idx >= n)
-                            idx = n - 1;
-                        color = colorMap.getColor(idx);
-                    }
-                    aImage.setRGB(j, height - i - 1, color.getRGB());
-                }
-            }
+            lookup = ColorLookup.ofColorMap(ls.getColorMap(), ls.getNormalize());
         }
+        lookup.setMissingValue(gdata.missingValue);
+        BufferedImage aImage = RasterRenderer.render(gdata.getData(), width, height, lookup, true, image);
 
         ImageShape ishape = new ImageShape();
         double xmin, xmax, ymin, ymax;
@@ -3439,83 +3126,35 @@ public class GraphicFactory {
      * @return Image graphic
      */
     public static Graphic createImage(Array data, Array xa, Array ya, LegendScheme ls, List<Number> extent) {
-        data = data.copyIfView();
+        return createImage(data, xa, ya, ls, extent, null);
+    }
+
+    /**
+     * Create image
+     *
+     * @param data Grid data array
+     * @param xa X coordinates array
+     * @param ya Y coordinates array
+     * @param ls Legend scheme
+     * @param extent Extent
+     * @param image Image to reuse if it has the same size, e.g. the image of the previous animation frame
+     * @return Image graphic
+     */
+    public static Graphic createImage(Array data, Array xa, Array ya, LegendScheme ls, List<Number> extent,
+                                      BufferedImage image) {
         xa = xa.copyIfView();
         ya = ya.copyIfView();
 
-        int width, height, breakNum;
+        int width, height;
         width = (int) xa.getSize();
         height = (int) ya.getSize();
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ColorLookup lookup;
         if (ls.getColorMap() == null) {
-            breakNum = ls.getValidBreakNum();
-            double[] breakValue = new double[breakNum];
-            Color[] breakColor = new Color[breakNum];
-            Color undefColor = Color.white;
-            int idx = 0;
-            for (ColorBreak cb : ls.getLegendBreaks()) {
-                if (cb.isNoData()) {
-                    undefColor = cb.getColor();
-                } else {
-                    breakValue[idx] = Double.parseDouble(cb.getEndValue().toString());
-                    breakColor[idx] = cb.getColor();
-                    idx += 1;
-                }
-            }
-            Color defaultColor = breakColor[breakNum - 1];    //Last color
-            double oneValue;
-            Color oneColor;
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    oneValue = data.getDouble(i * width + j);
-                    if (Double.isNaN(oneValue)) {
-                        oneColor = undefColor;
-                    } else {
-                        oneColor = defaultColor;
-                        if (ls.getLegendType() == LegendType.GRADUATED_COLOR) {
-                            for (int k = 0; k < breakNum - 1; k++) {
-                                if (oneValue < breakValue[k]) {
-                                    oneColor = breakColor[k];
-                                    break;
-                                }
-                            }
-                        } else {
-                            for (int k = 0; k < breakNum - 1; k++) {
-                                if (oneValue == breakValue[k]) {
-                                    oneColor = breakColor[k];
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    aImage.setRGB(j, height - i - 1, oneColor.getRGB());
-                }
-            }
+            lookup = ColorLookup.ofBreaks(ls, true);
         } else {
-            ColorMap colorMap = ls.getColorMap();
-            int n = colorMap.getColorCount();
-            Normalize normalize = ls.getNormalize();
-            double v;
-            Color fillColor = colorMap.getFillColor();
-            Color color;
-            int idx;
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    v = data.getDouble(i * width + j);
-                    if (Double.isNaN(v)) {
-                        color = fillColor;
-                    } else {
-                        idx = (int) (normalize.apply(v).floatValue() * n);
-                        if (idx < 0)
-                            idx = 0;
-                        else if (idx >= n)
-                            idx = n - 1;
-                        color = colorMap.getColor(idx);
-                    }
-                    aImage.setRGB(j, height - i - 1, color.getRGB());
-                }
-            }
+            lookup = ColorLookup.ofColorMap(ls.getColorMap(), ls.getNormalize());
         }
+        BufferedImage aImage = RasterRenderer.render(data, width, height, lookup, true, image);
 
         ImageShape ishape = new ImageShape();
         double xmin, xmax, ymin, ymax;
@@ -0,0 +1,148 @@
+package org.meteoinfo.common.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only memory mapped file.
+ * <p>
+ * The file is mapped lazily in segments, so files larger than 2 GB are
+ * supported. Each segment overlaps the next one by a margin, so a block not
+ * larger than the margin never crosses a segment boundary and can be read
+ * directly from one mapping. Larger blocks are read through the file channel.
+ *
+ * @author wyq
+ */
+public class MappedFile implements Closeable {
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final long size;
+    private final int margin;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Constructor
+     *
+     * @param fileName File name
+     * @throws IOException
+     */
+    public MappedFile(String fileName) throws IOException {
+        this(fileName, 1 << 24);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param fileName File name
+     * @param margin Segment overlap margin in bytes
+     * @throws IOException
+     */
+    public MappedFile(String fileName, int margin) throws IOException {
+        this.fileName = fileName;
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        this.size = channel.size();
+        this.margin = Math.max(0, Math.min(margin, Integer.MAX_VALUE - (int) SEGMENT_SIZE));
+        this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+    }
+
+    /**
+     * Get file name
+     *
+     * @return File name
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Get file size
+     *
+     * @return File size in bytes
+     */
+    public long size() {
+        return this.size;
+    }
+
+    private synchronized MappedByteBuffer segment(int idx) throws IOException {
+        MappedByteBuffer buffer = segments[idx];
+        if (buffer == null) {
+            long start = idx * SEGMENT_SIZE;
+            long len = Math.min(SEGMENT_SIZE + margin, size - start);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+            segments[idx] = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Get a byte buffer of a block of the file. The returned buffer is
+     * independent of other callers, so it is safe to use from several threads.
+     *
+     * @param position Block position in the file
+     * @param length Block length in bytes
+     * @param byteOrder Byte order
+     * @return Byte buffer with the block between its position and limit
+     * @throws IOException
+     */
+    public ByteBuffer getBuffer(long position, int length, ByteOrder byteOrder) throws IOException {
+        if (position < 0 || position + length > size) {
+            throw new IOException("Block [" + position + ", " + (position + length) + ") is out of file " +
+                    fileName + " with size " + size);
+        }
+
+        int idx = (int) (position / SEGMENT_SIZE);
+        int offset = (int) (position - idx * SEGMENT_SIZE);
+        ByteBuffer buffer;
+        if (length == 0 || (long) offset + length <= SEGMENT_SIZE + margin) {
+            buffer = segment(idx).duplicate();
+            buffer.position(offset);
+            buffer.limit(offset + length);
+            buffer = buffer.slice();
+        } else {
+            buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file " + fileName);
+                }
+            }
+            buffer.flip();
+        }
+        buffer.order(byteOrder);
+
+        return buffer;
+    }
+
+    /**
+     * Read float values
+     *
+     * @param position Position in the file
+     * @param dst Destination array
+     * @param off Destination offset
+     * @param n Number of values
+     * @param byteOrder Byte order
+     * @throws IOException
+     */
+    public void readFloats(long position, float[] dst, int off, int n, ByteOrder byteOrder) throws IOException {
+        getBuffer(position, n * 4, byteOrder).asFloatBuffer().get(dst, off, n);
+    }
+
+    /**
+     * Close the file channel. Mapped segments are released by the garbage
+     * collector.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,134 @@
+package org.meteoinfo.common.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of opened memory mapped files. The least recently used files are
+ * evicted when the pool is full, which bounds the number of open handles for
+ * data sets split into many template files.
+ * <p>
+ * Files are reference counted: each {@link #acquire(String)} must be paired
+ * with a {@link #release(MappedFile)}. An evicted file is closed when its
+ * last holder releases it, so a file is never closed while it is being read.
+ *
+ * @author wyq
+ */
+public class MappedFilePool implements Closeable {
+
+    private final int maxFiles;
+    private final int margin;
+    private final LinkedHashMap<String, Entry> files;
+    private final Map<MappedFile, Entry> entries;
+
+    private static class Entry {
+        final MappedFile file;
+        int refs;
+        boolean evicted;
+
+        Entry(MappedFile file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxFiles Maximum number of opened files
+     * @param margin Segment overlap margin in bytes, should not be less than
+     *               the largest block read at once
+     */
+    public MappedFilePool(int maxFiles, int margin) {
+        this.maxFiles = maxFiles;
+        this.margin = margin;
+        this.files = new LinkedHashMap<>(16, 0.75f, true);
+        this.entries = new IdentityHashMap<>();
+    }
+
+    /**
+     * Acquire an opened mapped file, open it if not in the pool. The file
+     * must be released by {@link #release(MappedFile)} after use.
+     *
+     * @param fileName File name
+     * @return Mapped file
+     * @throws IOException
+     */
+    public synchronized MappedFile acquire(String fileName) throws IOException {
+        Entry entry = files.get(fileName);
+        if (entry == null) {
+            entry = new Entry(new MappedFile(fileName, margin));
+            files.put(fileName, entry);
+            entries.put(entry.file, entry);
+            Iterator<Map.Entry<String, Entry>> it = files.entrySet().iterator();
+            while (files.size() > maxFiles && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                evict(eldest);
+            }
+        }
+        entry.refs += 1;
+        return entry.file;
+    }
+
+    /**
+     * Release a mapped file acquired from the pool. The file is closed if it
+     * was evicted and this was the last holder.
+     *
+     * @param file Mapped file
+     */
+    public synchronized void release(MappedFile file) {
+        Entry entry = entries.get(file);
+        if (entry == null || entry.refs == 0) {
+            return;
+        }
+        entry.refs -= 1;
+        if (entry.refs == 0 && entry.evicted) {
+            entries.remove(file);
+            closeQuietly(file);
+        }
+    }
+
+    /**
+     * Get number of pooled files
+     *
+     * @return Number of pooled files
+     */
+    public synchronized int size() {
+        return files.size();
+    }
+
+    private void evict(Entry entry) {
+        if (entry.refs == 0) {
+            entries.remove(entry.file);
+            closeQuietly(entry.file);
+        } else {
+            entry.evicted = true;
+        }
+    }
+
+    private static void closeQuietly(MappedFile file) {
+        try {
+            file.close();
+        } catch (IOException ex) {
+            Logger.getLogger(MappedFilePool.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Close all opened files. Files still acquired are closed when they are
+     * released.
+     */
+    @Override
+    public synchronized void close() {
+        for (Entry entry : files.values()) {
+            evict(entry);
+        }
+        files.clear();
+    }
+}
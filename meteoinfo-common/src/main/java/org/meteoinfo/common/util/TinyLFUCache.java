@@ -0,0 +1,492 @@
+package org.meteoinfo.common.util;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Concurrent weighted cache with W-TinyLFU eviction.
+ * <p>
+ * Keys are spread over independently locked segments. Each segment keeps an
+ * LRU admission window (a tenth of its budget) and a segmented LRU main space
+ * (probation and protected). When the segment is over its weight budget, an
+ * entry leaving the window only stays if a frequency sketch has seen it more
+ * often than the probation victim, so scans of one-off keys can not flush
+ * frequently used entries. All operations are O(1).
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ * @author wyq
+ */
+public class TinyLFUCache<K, V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final long maximumWeight;
+    private final ToLongFunction<V> weigher;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Constructor
+     *
+     * @param maximumWeight Maximum total weight
+     * @param weigher Weight function of values
+     */
+    public TinyLFUCache(long maximumWeight, ToLongFunction<V> weigher) {
+        this(maximumWeight, weigher, 16);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maximumWeight Maximum total weight
+     * @param weigher Weight function of values
+     * @param concurrency Expected number of concurrently accessing threads,
+     *                    rounded up to a power of two segments
+     */
+    public TinyLFUCache(long maximumWeight, ToLongFunction<V> weigher, int concurrency) {
+        int n = 1;
+        while (n < concurrency) {
+            n <<= 1;
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.segmentMask = n - 1;
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] array = (Segment<K, V>[]) new Segment<?, ?>[n];
+        for (int i = 0; i < n; i++) {
+            array[i] = new Segment<>(Math.max(1, maximumWeight / n));
+        }
+        this.segments = array;
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get maximum total weight
+     *
+     * @return Maximum total weight
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Get current total weight
+     *
+     * @return Total weight
+     */
+    public long getWeightedSize() {
+        long w = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                w += segment.weight;
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Get number of entries
+     *
+     * @return Number of entries
+     */
+    public int size() {
+        int n = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                n += segment.map.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Get number of lookups which found a value
+     *
+     * @return Hit count
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Get number of lookups which found no value
+     *
+     * @return Miss count
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Get number of entries evicted to keep the weight budget
+     *
+     * @return Eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    private Segment<K, V> segment(int hash) {
+        return segments[hash & segmentMask];
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Get a cached value
+     *
+     * @param key The key
+     * @return The value, null if not cached
+     */
+    public V get(K key) {
+        int h = hash(key);
+        Segment<K, V> segment = segment(h);
+        V v;
+        synchronized (segment) {
+            v = segment.get(key, h);
+        }
+        if (v == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return v;
+    }
+
+    /**
+     * Check whether a key is cached, without counting an access
+     *
+     * @param key The key
+     * @return Cached or not
+     */
+    public boolean containsKey(K key) {
+        Segment<K, V> segment = segment(hash(key));
+        synchronized (segment) {
+            return segment.map.containsKey(key);
+        }
+    }
+
+    /**
+     * Put a value into the cache. A value heavier than a segment budget is
+     * not cached.
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public void put(K key, V value) {
+        int h = hash(key);
+        long w = weigher.applyAsLong(value);
+        Segment<K, V> segment = segment(h);
+        int evicted;
+        synchronized (segment) {
+            evicted = segment.put(key, value, w, h);
+        }
+        if (evicted > 0) {
+            evictionCount.add(evicted);
+        }
+    }
+
+    /**
+     * Remove a value
+     *
+     * @param key The key
+     * @return Removed value, null if not cached
+     */
+    public V remove(K key) {
+        Segment<K, V> segment = segment(hash(key));
+        synchronized (segment) {
+            Node<K, V> node = segment.map.remove(key);
+            if (node == null) {
+                return null;
+            }
+            segment.unlink(node);
+            return node.value;
+        }
+    }
+
+    /**
+     * Evict entries until the total weight is not more than a fraction of the
+     * maximum weight
+     *
+     * @param fraction Weight fraction to keep, 0 clears the cache
+     */
+    public void trim(double fraction) {
+        int evicted = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                evicted += segment.evictTo((long) (segment.maximum * fraction));
+            }
+        }
+        if (evicted > 0) {
+            evictionCount.add(evicted);
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.queues[WINDOW].clear();
+                segment.queues[PROBATION].clear();
+                segment.queues[PROTECTED].clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * Reset hit, miss and eviction counts
+     */
+    public void resetStatistics() {
+        hitCount.reset();
+        missCount.reset();
+        evictionCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TinyLFUCache[entries=%d, weight=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                size(), getWeightedSize(), maximumWeight, getHitCount(), getMissCount(), getEvictionCount());
+    }
+    // </editor-fold>
+
+    private static final class Node<K, V> {
+        final K key;
+        final int hash;
+        V value;
+        long weight;
+        int queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, long weight, int hash) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Doubly linked LRU queue, head is the most recently used
+     */
+    private static final class Queue<K, V> {
+        Node<K, V> head;
+        Node<K, V> tail;
+        long weight;
+
+        void addFirst(Node<K, V> node) {
+            node.prev = null;
+            node.next = head;
+            if (head == null) {
+                tail = node;
+            } else {
+                head.prev = node;
+            }
+            head = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            weight = 0;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        final long maximum;
+        final long windowMaximum;
+        final long protectedMaximum;
+        final HashMap<K, Node<K, V>> map = new HashMap<>();
+        @SuppressWarnings("unchecked")
+        final Queue<K, V>[] queues = (Queue<K, V>[]) new Queue<?, ?>[]{new Queue<K, V>(), new Queue<K, V>(),
+                new Queue<K, V>()};
+        final FrequencySketch sketch = new FrequencySketch();
+        long weight;
+
+        Segment(long maximum) {
+            this.maximum = maximum;
+            this.windowMaximum = Math.max(1, maximum / 10);
+            this.protectedMaximum = (maximum - windowMaximum) * 4 / 5;
+        }
+
+        V get(K key, int hash) {
+            sketch.increment(hash);
+            Node<K, V> node = map.get(key);
+            if (node == null) {
+                return null;
+            }
+            onHit(node);
+            return node.value;
+        }
+
+        void onHit(Node<K, V> node) {
+            Queue<K, V> queue = queues[node.queue];
+            queue.remove(node);
+            if (node.queue == PROBATION) {
+                node.queue = PROTECTED;
+                queues[PROTECTED].addFirst(node);
+                while (queues[PROTECTED].weight > protectedMaximum && queues[PROTECTED].tail != node) {
+                    Node<K, V> demoted = queues[PROTECTED].tail;
+                    queues[PROTECTED].remove(demoted);
+                    demoted.queue = PROBATION;
+                    queues[PROBATION].addFirst(demoted);
+                }
+            } else {
+                queue.addFirst(node);
+            }
+        }
+
+        int put(K key, V value, long w, int hash) {
+            sketch.increment(hash);
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                queues[node.queue].remove(node);
+                weight -= node.weight;
+                node.value = value;
+                node.weight = w;
+                queues[node.queue].addFirst(node);
+                weight += w;
+                onHit(node);
+            } else {
+                if (w > maximum) {
+                    return 0;
+                }
+                node = new Node<>(key, value, w, hash);
+                map.put(key, node);
+                node.queue = WINDOW;
+                queues[WINDOW].addFirst(node);
+                weight += w;
+            }
+
+            //Entries leaving the window become admission candidates in probation
+            Node<K, V> candidate = null;
+            while (queues[WINDOW].weight > windowMaximum && queues[WINDOW].tail != null) {
+                candidate = queues[WINDOW].tail;
+                queues[WINDOW].remove(candidate);
+                candidate.queue = PROBATION;
+                queues[PROBATION].addFirst(candidate);
+            }
+
+            int evicted = 0;
+            while (weight > maximum) {
+                Node<K, V> victim = queues[PROBATION].tail;
+                if (victim == null) {
+                    victim = queues[PROTECTED].tail != null ? queues[PROTECTED].tail : queues[WINDOW].tail;
+                } else if (candidate != null && candidate != victim && candidate.queue == PROBATION
+                        && sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                    victim = candidate;
+                    candidate = null;
+                }
+                evict(victim);
+                evicted += 1;
+            }
+            return evicted;
+        }
+
+        int evictTo(long target) {
+            int evicted = 0;
+            while (weight > target) {
+                Node<K, V> victim = queues[PROBATION].tail;
+                if (victim == null) {
+                    victim = queues[WINDOW].tail != null ? queues[WINDOW].tail : queues[PROTECTED].tail;
+                }
+                evict(victim);
+                evicted += 1;
+            }
+            return evicted;
+        }
+
+        void evict(Node<K, V> node) {
+            map.remove(node.key);
+            unlink(node);
+        }
+
+        void unlink(Node<K, V> node) {
+            queues[node.queue].remove(node);
+            weight -= node.weight;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, halved periodically so old
+     * popularity fades
+     */
+    private static final class FrequencySketch {
+        private static final int SIZE = 1 << 10;
+        private static final int SAMPLE_SIZE = SIZE * 16 * 5;
+
+        final long[] table = new long[SIZE];
+        int additions;
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                min = Math.min(min, counter(hash, i));
+            }
+            return min;
+        }
+
+        private int index(int hash, int i) {
+            int h = (hash + i) * (0x9E3779B9 + (i << 1));
+            return (h ^ (h >>> 15)) & (SIZE - 1);
+        }
+
+        private int counter(int hash, int i) {
+            int shift = ((hash >>> (i << 2)) & 15) << 2;
+            return (int) ((table[index(hash, i)] >>> shift) & 15L);
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int idx = index(hash, i);
+                int shift = ((hash >>> (i << 2)) & 15) << 2;
+                if (((table[idx] >>> shift) & 15L) != 15L) {
+                    table[idx] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == SAMPLE_SIZE) {
+                for (int i = 0; i < SIZE; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                }
+                additions /= 2;
+            }
+        }
+    }
+}
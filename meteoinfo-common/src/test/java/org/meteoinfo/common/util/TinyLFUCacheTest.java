@@ -0,0 +1,104 @@
+package org.meteoinfo.common.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TinyLFUCacheTest {
+
+    @Test
+    public void testAdmission() {
+        TinyLFUCache<Integer, Integer> cache = new TinyLFUCache<>(100, v -> 1, 1);
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, i);
+        }
+        for (int k = 0; k < 4; k++) {
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, cache.get(i));
+            }
+        }
+
+        //A scan of one-off keys must not flush the frequently used keys
+        for (int i = 1000; i < 3000; i++) {
+            cache.put(i, i);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertTrue(cache.containsKey(i), "hot key " + i);
+        }
+        assertTrue(cache.size() <= 100);
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testWeightEviction() {
+        TinyLFUCache<Integer, byte[]> cache = new TinyLFUCache<>(1000, v -> v.length, 1);
+        Random random = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            cache.put(i, new byte[1 + random.nextInt(60)]);
+            assertTrue(cache.getWeightedSize() <= 1000);
+        }
+
+        //Replacing a value updates the weight
+        cache.clear();
+        cache.put(1, new byte[10]);
+        cache.put(2, new byte[20]);
+        cache.put(1, new byte[30]);
+        assertEquals(50, cache.getWeightedSize());
+        assertEquals(2, cache.size());
+
+        //A value heavier than the budget is not cached
+        cache.put(3, new byte[1001]);
+        assertFalse(cache.containsKey(3));
+        assertEquals(50, cache.getWeightedSize());
+
+        assertArrayEquals(new byte[20], cache.remove(2));
+        assertEquals(30, cache.getWeightedSize());
+        cache.trim(0);
+        assertEquals(0, cache.getWeightedSize());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentPutGet() throws Exception {
+        TinyLFUCache<Integer, Integer> cache = new TinyLFUCache<>(256, v -> 1, 4);
+        AtomicLong gets = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final long seed = t;
+                futures.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 20000; i++) {
+                        int key = random.nextInt(1000);
+                        if (random.nextBoolean()) {
+                            cache.put(key, key * 2);
+                        } else {
+                            gets.incrementAndGet();
+                            Integer v = cache.get(key);
+                            if (v != null) {
+                                assertEquals(key * 2, v.intValue());
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(cache.getWeightedSize() <= 256);
+        assertEquals(cache.size(), cache.getWeightedSize());
+        assertEquals(gets.get(), cache.getHitCount() + cache.getMissCount());
+    }
+}
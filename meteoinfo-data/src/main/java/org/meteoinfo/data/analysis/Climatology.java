@@ -0,0 +1,607 @@
+package org.meteoinfo.data.analysis;
+
+import org.meteoinfo.common.util.JDateUtil;
+import org.meteoinfo.data.dimarray.Dimension;
+import org.meteoinfo.data.dimarray.DimensionType;
+import org.meteoinfo.data.meteodata.DataInfo;
+import org.meteoinfo.data.meteodata.MeteoDataInfo;
+import org.meteoinfo.data.meteodata.Variable;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.math.ArrayMath;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming climatology of a variable over multi-file time series.
+ * <p>
+ * The data files are walked one time step at a time and each field is
+ * accumulated into the calendar bucket (month, season or day of year) of its
+ * time - valid value count, mean and squared deviation sum (Welford),
+ * minimum, maximum and an optional value histogram for percentiles. The
+ * buffers of a bucket are primitive arrays of the grid size allocated when the
+ * bucket is first used, so the memory does not depend on the record length.
+ * It is {@code gridSize * (36 + 4 * binNum)} bytes per used bucket, see
+ * {@link #getMemorySize(long)}: the histogram dominates, a 0.25 degree global
+ * grid with 100 bins takes about 431 MB per month or 154 GB for all days of
+ * year. Configurations whose buffers of all buckets exceed the maximum memory
+ * are rejected when the first field is added, use fewer bins or a coarser
+ * period for large grids. Anomalies are computed the same way by walking the
+ * files again and handing each anomaly field to a consumer, so they can be
+ * written out incrementally.
+ *
+ * @author wyq
+ */
+public class Climatology {
+
+    /**
+     * Calendar period of the climatology buckets
+     */
+    public enum Period {
+        MONTH(12),
+        SEASON(4),
+        DAY_OF_YEAR(366);
+
+        private final int bucketNum;
+
+        Period(int bucketNum) {
+            this.bucketNum = bucketNum;
+        }
+
+        /**
+         * Get bucket number
+         *
+         * @return Bucket number
+         */
+        public int getBucketNum() {
+            return bucketNum;
+        }
+
+        /**
+         * Get bucket index of a time. Seasons are DJF, MAM, JJA and SON. Days
+         * of year are numbered as in a leap year, so that the same calendar
+         * day has the same bucket in all years and February 29 has its own.
+         *
+         * @param time The time
+         * @return Bucket index
+         */
+        public int getBucket(LocalDateTime time) {
+            switch (this) {
+                case MONTH:
+                    return time.getMonthValue() - 1;
+                case SEASON:
+                    return (time.getMonthValue() % 12) / 3;
+                default:
+                    int day = time.getDayOfYear() - 1;
+                    if (day >= 59 && !Year.isLeap(time.getYear())) {
+                        day += 1;
+                    }
+                    return day;
+            }
+        }
+    }
+
+    /**
+     * Climatology statistic
+     */
+    public enum Statistic {
+        COUNT,
+        MEAN,
+        VARIANCE,
+        STD,
+        MIN,
+        MAX
+    }
+
+    /**
+     * Consumer of time step fields
+     */
+    public interface FieldConsumer {
+        /**
+         * Accept a field
+         *
+         * @param time Time of the field
+         * @param field The field
+         * @throws IOException
+         */
+        void accept(LocalDateTime time, Array field) throws IOException;
+    }
+
+    private final String varName;
+    private final Period period;
+    private final Bucket[] buckets;
+    private int[] gridShape;
+    private int gridSize;
+    private int stepNum = 0;
+    private double histMin = Double.NaN;
+    private double histMax = Double.NaN;
+    private int binNum = 0;
+
+    private static class Bucket {
+        final int[] count;
+        final double[] mean;
+        final double[] m2;
+        final double[] min;
+        final double[] max;
+        final int[] hist;
+
+        Bucket(int n, int binNum) {
+            count = new int[n];
+            mean = new double[n];
+            m2 = new double[n];
+            min = new double[n];
+            max = new double[n];
+            Arrays.fill(min, Double.NaN);
+            Arrays.fill(max, Double.NaN);
+            hist = binNum > 0 ? new int[n * binNum] : null;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param varName Variable name
+     * @param period Calendar period
+     */
+    public Climatology(String varName, Period period) {
+        this.varName = varName;
+        this.period = period;
+        this.buckets = new Bucket[period.getBucketNum()];
+    }
+
+    /**
+     * Constructor
+     *
+     * @param varName Variable name
+     * @param period Calendar period name
+     */
+    public Climatology(String varName, String period) {
+        this(varName, Period.valueOf(period.toUpperCase()));
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get variable name
+     *
+     * @return Variable name
+     */
+    public String getVariableName() {
+        return varName;
+    }
+
+    /**
+     * Get calendar period
+     *
+     * @return Calendar period
+     */
+    public Period getPeriod() {
+        return period;
+    }
+
+    /**
+     * Get grid shape
+     *
+     * @return Grid shape, null before any field is added
+     */
+    public int[] getGridShape() {
+        return gridShape == null ? null : gridShape.clone();
+    }
+
+    /**
+     * Get number of accumulated time steps
+     *
+     * @return Time step number
+     */
+    public int getStepNumber() {
+        return stepNum;
+    }
+
+    /**
+     * Get the memory size of the accumulation buffers of all buckets
+     *
+     * @param gridSize Grid size
+     * @return Memory size in bytes
+     */
+    public long getMemorySize(long gridSize) {
+        return gridSize * (36 + 4L * binNum) * buckets.length;
+    }
+
+    /**
+     * Set the value histogram for percentiles. The percentiles are
+     * interpolated in the histogram bins, so the bin width is the resolution of
+     * the percentiles. Values out of the range are counted in the first or last
+     * bin.
+     *
+     * @param min Minimum of the histogram range
+     * @param max Maximum of the histogram range
+     * @param binNum Bin number
+     */
+    public void setHistogram(double min, double max, int binNum) {
+        if (stepNum > 0) {
+            throw new IllegalStateException("The histogram must be set before adding data");
+        }
+        if (!(max > min) || binNum <= 0) {
+            throw new IllegalArgumentException("Invalid histogram range or bin number");
+        }
+        this.histMin = min;
+        this.histMax = max;
+        this.binNum = binNum;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Accumulate all time steps of a data file
+     *
+     * @param dataInfo Meteo data info
+     */
+    public void add(MeteoDataInfo dataInfo) {
+        add(dataInfo.getDataInfo());
+    }
+
+    /**
+     * Accumulate all time steps of a data file
+     *
+     * @param dataInfo Data info
+     */
+    public void add(DataInfo dataInfo) {
+        try {
+            walk(dataInfo, this::add);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Accumulate all time steps of data files
+     *
+     * @param dataInfos Data info list
+     */
+    public void addAll(List<DataInfo> dataInfos) {
+        for (DataInfo dataInfo : dataInfos) {
+            add(dataInfo);
+        }
+    }
+
+    /**
+     * Accumulate a field
+     *
+     * @param time Time of the field
+     * @param field The field, NaN values are skipped
+     */
+    public void add(LocalDateTime time, Array field) {
+        checkGrid(field);
+        int b = period.getBucket(time);
+        if (buckets[b] == null) {
+            buckets[b] = new Bucket(gridSize, binNum);
+        }
+        final Bucket bucket = buckets[b];
+        final Array data = field.copyIfView();
+        final double binWidth = (histMax - histMin) / binNum;
+        ArrayParallel.ChunkTask task = (start, end) -> {
+            for (int i = start; i < end; i++) {
+                double v = data.getDouble(i);
+                if (Double.isNaN(v)) {
+                    continue;
+                }
+                int c = ++bucket.count[i];
+                double d = v - bucket.mean[i];
+                bucket.mean[i] += d / c;
+                bucket.m2[i] += d * (v - bucket.mean[i]);
+                if (c == 1 || v < bucket.min[i]) {
+                    bucket.min[i] = v;
+                }
+                if (c == 1 || v > bucket.max[i]) {
+                    bucket.max[i] = v;
+                }
+                if (bucket.hist != null) {
+                    int bin = (int) ((v - histMin) / binWidth);
+                    bin = Math.max(0, Math.min(binNum - 1, bin));
+                    bucket.hist[i * binNum + bin]++;
+                }
+            }
+        };
+        run(task);
+        stepNum++;
+    }
+
+    private void checkGrid(Array field) {
+        if (gridShape == null) {
+            long n = field.getSize();
+            if (n * binNum > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("The histogram of " + binNum + " bins is too large for grid size "
+                        + n + ", use fewer bins");
+            }
+            long memory = getMemorySize(n);
+            if (memory > Runtime.getRuntime().maxMemory()) {
+                throw new IllegalArgumentException("The climatology buffers of grid size " + n + " need " +
+                        (memory >> 20) + " MB, more than the maximum memory, use fewer bins or a coarser period");
+            }
+            gridShape = field.getShape();
+            gridSize = (int) n;
+        } else if (field.getSize() != gridSize) {
+            throw new IllegalArgumentException("Field size " + field.getSize() +
+                    " does not match the grid size " + gridSize);
+        }
+    }
+
+    private void run(ArrayParallel.ChunkTask task) {
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), gridSize)) {
+            ArrayParallel.forEachChunk(gridSize, task);
+        } else {
+            task.run(0, gridSize);
+        }
+    }
+
+    /**
+     * Walk the time steps of the variable in a data file
+     */
+    private void walk(DataInfo dataInfo, FieldConsumer consumer) throws IOException {
+        Variable var = dataInfo.getVariable(varName);
+        if (var == null) {
+            throw new IllegalArgumentException("The variable is not exist: " + varName);
+        }
+        List<Dimension> dims = var.getDimensions();
+        int tIdx = -1;
+        for (int i = 0; i < dims.size(); i++) {
+            if (dims.get(i).getDimType() == DimensionType.T) {
+                tIdx = i;
+                break;
+            }
+        }
+        if (tIdx < 0) {
+            throw new IllegalArgumentException("No time dimension of the variable: " + varName);
+        }
+
+        int rank = dims.size();
+        int[] origin = new int[rank];
+        int[] size = new int[rank];
+        int[] stride = new int[rank];
+        int[] shape = new int[rank - 1];
+        for (int i = 0, j = 0; i < rank; i++) {
+            size[i] = dims.get(i).getLength();
+            stride[i] = 1;
+            if (i != tIdx) {
+                shape[j++] = size[i];
+            }
+        }
+        size[tIdx] = 1;
+        Dimension tDim = dims.get(tIdx);
+        for (int t = 0; t < tDim.getLength(); t++) {
+            origin[tIdx] = t;
+            Array a = dataInfo.read(varName, origin, size, stride);
+            ArrayMath.missingToNaN(a, dataInfo.getMissingValue());
+            consumer.accept(JDateUtil.fromOADate(tDim.getDimValue(t)), a.reshape(shape));
+        }
+    }
+
+    /**
+     * Compute anomalies of the time steps of data files to the climatology
+     * mean and hand them to a consumer one by one
+     *
+     * @param dataInfos Data info list
+     * @param consumer Anomaly field consumer
+     * @throws IOException
+     */
+    public void forEachAnomaly(List<DataInfo> dataInfos, FieldConsumer consumer) throws IOException {
+        for (DataInfo dataInfo : dataInfos) {
+            walk(dataInfo, (time, field) -> consumer.accept(time, getAnomaly(time, field)));
+        }
+    }
+
+    /**
+     * Get anomaly of a field to the climatology mean
+     *
+     * @param time Time of the field
+     * @param field The field
+     * @return Anomaly field, NaN where the climatology has no valid value
+     */
+    public Array getAnomaly(LocalDateTime time, Array field) {
+        checkGrid(field);
+        final Bucket bucket = buckets[period.getBucket(time)];
+        final Array data = field.copyIfView();
+        final double[] r = new double[gridSize];
+        run((start, end) -> {
+            for (int i = start; i < end; i++) {
+                r[i] = bucket == null || bucket.count[i] == 0 ? Double.NaN : data.getDouble(i) - bucket.mean[i];
+            }
+        });
+        return Array.factory(DataType.DOUBLE, field.getShape(), r);
+    }
+
+    /**
+     * Get a statistic field of a bucket
+     *
+     * @param stat The statistic
+     * @param bucket Bucket index
+     * @return Statistic field, NaN (0 for count) where there is no valid value
+     */
+    public Array getField(Statistic stat, int bucket) {
+        return getField(stat, bucket, 1);
+    }
+
+    /**
+     * Get a statistic field of a bucket
+     *
+     * @param stat The statistic
+     * @param bucket Bucket index
+     * @param ddof Delta degree of freedom of variance and standard deviation
+     * @return Statistic field, NaN (0 for count) where there is no valid value
+     */
+    public Array getField(Statistic stat, int bucket, int ddof) {
+        checkData();
+        Bucket b = buckets[bucket];
+        if (stat == Statistic.COUNT) {
+            int[] r = b == null ? new int[gridSize] : b.count.clone();
+            return Array.factory(DataType.INT, gridShape, r);
+        }
+        double[] r = new double[gridSize];
+        for (int i = 0; i < gridSize; i++) {
+            int c = b == null ? 0 : b.count[i];
+            if (c == 0) {
+                r[i] = Double.NaN;
+                continue;
+            }
+            switch (stat) {
+                case MEAN:
+                    r[i] = b.mean[i];
+                    break;
+                case VARIANCE:
+                    r[i] = c > ddof ? b.m2[i] / (c - ddof) : Double.NaN;
+                    break;
+                case STD:
+                    r[i] = c > ddof ? Math.sqrt(b.m2[i] / (c - ddof)) : Double.NaN;
+                    break;
+                case MIN:
+                    r[i] = b.min[i];
+                    break;
+                default:
+                    r[i] = b.max[i];
+                    break;
+            }
+        }
+        return Array.factory(DataType.DOUBLE, gridShape, r);
+    }
+
+    /**
+     * Get a statistic of all buckets
+     *
+     * @param stat The statistic
+     * @return Statistic array with the bucket dimension first
+     */
+    public Array getClimatology(Statistic stat) {
+        return stack(b -> getField(stat, b));
+    }
+
+    /**
+     * Get percentile field of a bucket from the value histogram
+     *
+     * @param q Percentile in the range of [0, 100]
+     * @param bucket Bucket index
+     * @return Percentile field, NaN where there is no valid value
+     */
+    public Array getPercentile(double q, int bucket) {
+        checkData();
+        if (binNum == 0) {
+            throw new IllegalStateException("No value histogram, set it before adding data");
+        }
+        if (q < 0 || q > 100) {
+            throw new IllegalArgumentException("Percentile must be in the range of [0, 100]");
+        }
+        final Bucket b = buckets[bucket];
+        final double[] r = new double[gridSize];
+        final double binWidth = (histMax - histMin) / binNum;
+        run((start, end) -> {
+            for (int i = start; i < end; i++) {
+                int c = b == null ? 0 : b.count[i];
+                if (c == 0) {
+                    r[i] = Double.NaN;
+                    continue;
+                }
+                double target = q / 100 * c;
+                int o = i * binNum;
+                int cum = 0;
+                int bin = 0;
+                for (; bin < binNum - 1; bin++) {
+                    if (cum + b.hist[o + bin] >= target) {
+                        break;
+                    }
+                    cum += b.hist[o + bin];
+                }
+                int n = b.hist[o + bin];
+                double frac = n > 0 ? (target - cum) / n : 0.5;
+                double v = histMin + (bin + Math.max(0, Math.min(1, frac))) * binWidth;
+                r[i] = Math.max(b.min[i], Math.min(b.max[i], v));
+            }
+        });
+        return Array.factory(DataType.DOUBLE, gridShape, r);
+    }
+
+    /**
+     * Get percentile of all buckets from the value histogram
+     *
+     * @param q Percentile in the range of [0, 100]
+     * @return Percentile array with the bucket dimension first
+     */
+    public Array getPercentile(double q) {
+        return stack(b -> getPercentile(q, b));
+    }
+
+    /**
+     * Hand a statistic field of each bucket with valid values to a consumer
+     * with the time of {@link #getBucketTime(int)}
+     *
+     * @param stat The statistic
+     * @param consumer Field consumer
+     * @throws IOException
+     */
+    public void forEachBucket(Statistic stat, FieldConsumer consumer) throws IOException {
+        checkData();
+        for (int b = 0; b < buckets.length; b++) {
+            if (buckets[b] != null) {
+                consumer.accept(getBucketTime(b), getField(stat, b));
+            }
+        }
+    }
+
+    /**
+     * Get representative time of a bucket - its first day in the year 2000
+     * (December 1999 for DJF)
+     *
+     * @param bucket Bucket index
+     * @return Bucket time
+     */
+    public LocalDateTime getBucketTime(int bucket) {
+        switch (period) {
+            case MONTH:
+                return LocalDateTime.of(2000, bucket + 1, 1, 0, 0);
+            case SEASON:
+                return bucket == 0 ? LocalDateTime.of(1999, 12, 1, 0, 0) :
+                        LocalDateTime.of(2000, bucket * 3, 1, 0, 0);
+            default:
+                return LocalDateTime.of(2000, 1, 1, 0, 0).plusDays(bucket);
+        }
+    }
+
+    /**
+     * Remove all accumulated data
+     */
+    public void clear() {
+        Arrays.fill(buckets, null);
+        gridShape = null;
+        gridSize = 0;
+        stepNum = 0;
+    }
+
+    private void checkData() {
+        if (gridShape == null) {
+            throw new IllegalStateException("No data is accumulated");
+        }
+    }
+
+    private interface BucketField {
+        Array get(int bucket);
+    }
+
+    private Array stack(BucketField f) {
+        checkData();
+        int[] shape = new int[gridShape.length + 1];
+        shape[0] = buckets.length;
+        System.arraycopy(gridShape, 0, shape, 1, gridShape.length);
+        Array r = null;
+        for (int b = 0; b < buckets.length; b++) {
+            Array field = f.get(b);
+            if (r == null) {
+                r = Array.factory(field.getDataType(), shape);
+            }
+            System.arraycopy(field.getStorage(), 0, r.getStorage(), b * gridSize, gridSize);
+        }
+        return r;
+    }
+    // </editor-fold>
+}
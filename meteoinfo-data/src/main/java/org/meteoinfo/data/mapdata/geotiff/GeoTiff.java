@@ -15,9 +15,11 @@ package org.meteoinfo.data.mapdata.geotiff;
 
 import org.locationtech.proj4j.CRSFactory;
 import org.locationtech.proj4j.CoordinateReferenceSystem;
-import org.meteoinfo.common.DataConvert;
+import org.meteoinfo.common.Extent;
+import org.meteoinfo.common.io.MappedFile;
 import org.meteoinfo.data.GridData;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
@@ -33,9 +35,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.meteoinfo.data.GridArray;
-import org.meteoinfo.data.mapdata.geotiff.compression.CompressionDecoder;
-import org.meteoinfo.data.mapdata.geotiff.compression.DeflateCompression;
-import org.meteoinfo.data.mapdata.geotiff.compression.LZWCompression;
 import org.meteoinfo.ndarray.*;
 import org.meteoinfo.ndarray.math.ArrayMath;
 import org.meteoinfo.ndarray.util.BigDecimalUtil;
@@ -66,6 +65,8 @@ public class GeoTiff {
     private int startOverflowData = 0;
     private int nextOverflowData = 0;
     private List<GeoKey> geokeys = new ArrayList();
+    private MappedFile mappedFile;
+    private List<TiledImage> images;
     // </editor-fold>
     // <editor-fold desc="Constructor">
 
@@ -99,6 +100,11 @@ public class GeoTiff {
         if (this.file != null) {
             this.file.close();
         }
+        if (this.mappedFile != null) {
+            this.mappedFile.close();
+            this.mappedFile = null;
+            this.images = null;
+        }
     }
 
     /**
@@ -691,14 +697,99 @@ public class GeoTiff {
      * @return Grid data
      */
     public GridArray getGridArray() {
+        return getGridArray(0);
+    }
+
+    /**
+     * Get grid data of a display size. The image is read with the same stride
+     * in x and y so that neither dimension exceeds the maximum size, and the
+     * pixels are read from the overviews when the file has them, so a large
+     * image is displayed without decoding it at full resolution.
+     *
+     * @param maxSize Maximum grid size of x and y, full resolution if not
+     * positive
+     * @return Grid data
+     */
+    public GridArray getGridArray(int maxSize) {
+        IFDEntry widthIFD = this.findTag(Tag.ImageWidth);
+        IFDEntry heightIFD = this.findTag(Tag.ImageLength);
+        int width = widthIFD.value[0];
+        int height = heightIFD.value[0];
+        int stride = 1;
+        if (maxSize > 0) {
+            stride = Math.max(1, (Math.max(width, height) + maxSize - 1) / maxSize);
+        }
+        int nx = (width + stride - 1) / stride;
+        int ny = (height + stride - 1) / stride;
+        return getGridArray(0, ny, 0, nx, stride);
+    }
+
+    /**
+     * Get grid data of a map window for display. The pixels intersecting the
+     * window are read with the largest stride whose cells are not larger than
+     * the cell size, from the overviews when the file has them, so each zoom
+     * level decodes about as many pixels as it shows. The window start is
+     * aligned to the stride, so the grids of the same stride line up.
+     *
+     * @param extent Window extent in the image coordinates
+     * @param cellSize Cell size to show, normally the map size of a screen
+     * pixel
+     * @return Grid data, null if the window does not intersect the image
+     */
+    public GridArray getGridArray(Extent extent, double cellSize) {
+        IFDEntry widthIFD = this.findTag(Tag.ImageWidth);
+        IFDEntry heightIFD = this.findTag(Tag.ImageLength);
+        int width = widthIFD.value[0];
+        int height = heightIFD.value[0];
+        IFDEntry modelTiePointTag = findTag(Tag.ModelTiepointTag);
+        IFDEntry modelPixelScaleTag = findTag(Tag.ModelPixelScaleTag);
+        double minLon = modelTiePointTag.valueD[3];
+        double maxLat = modelTiePointTag.valueD[4];
+        double xdelt = modelPixelScaleTag.valueD[0];
+        double ydelt = modelPixelScaleTag.valueD[1];
+
+        //Pixels containing the window corners, pixel i is centered at minLon + xdelt * i
+        int x0 = (int) Math.floor((extent.minX - minLon) / xdelt + 0.5);
+        int x1 = (int) Math.floor((extent.maxX - minLon) / xdelt + 0.5);
+        int y0 = (int) Math.floor((maxLat - extent.maxY) / ydelt + 0.5);
+        int y1 = (int) Math.floor((maxLat - extent.minY) / ydelt + 0.5);
+        if (x1 < 0 || x0 >= width || y1 < 0 || y0 >= height) {
+            return null;
+        }
+        int stride = getStride(cellSize);
+        x0 = Math.max(0, x0) / stride * stride;
+        y0 = Math.max(0, y0) / stride * stride;
+        x1 = Math.min(width - 1, x1);
+        y1 = Math.min(height - 1, y1);
+        int nx = (x1 - x0) / stride + 1;
+        int ny = (y1 - y0) / stride + 1;
+        return getGridArray(y0, ny, x0, nx, stride);
+    }
+
+    /**
+     * Get the largest pixel stride whose cells are not larger than a cell size
+     *
+     * @param cellSize Cell size
+     * @return Pixel stride, at least 1
+     */
+    public int getStride(double cellSize) {
+        IFDEntry modelPixelScaleTag = findTag(Tag.ModelPixelScaleTag);
+        double xdelt = modelPixelScaleTag.valueD[0];
+        double ydelt = modelPixelScaleTag.valueD[1];
+        return Math.max(1, (int) Math.min(cellSize / xdelt, cellSize / ydelt));
+    }
+
+    /**
+     * Get grid data of strided pixels of the full resolution image from the
+     * top row, read from the overviews when the stride is larger than 1 and
+     * the file has them
+     */
+    private GridArray getGridArray(int y0, int ny, int x0, int nx, int stride) {
         try {
             //Grid data values
-            IFDEntry widthIFD = this.findTag(Tag.ImageWidth);
-            IFDEntry heightIFD = this.findTag(Tag.ImageLength);
-            int width = widthIFD.value[0];
-            int height = heightIFD.value[0];
             GridArray gData = new GridArray();
-            Array data = readArray();
+            Array data = readArray(new Range(y0, y0 + (ny - 1) * stride, stride),
+                    new Range(x0, x0 + (nx - 1) * stride, stride), true);
             if (data.getRank() == 3) {
                 int[] dShape = data.getShape();
                 int[] origin = new int[]{0, 0, 0};
@@ -708,19 +799,19 @@ public class GeoTiff {
             gData.setData(data);
 
             //Grid data coordinate
-            double[] X = new double[width];
-            double[] Y = new double[height];
+            double[] X = new double[nx];
+            double[] Y = new double[ny];
             IFDEntry modelTiePointTag = findTag(Tag.ModelTiepointTag);
             IFDEntry modelPixelScaleTag = findTag(Tag.ModelPixelScaleTag);
             double minLon = modelTiePointTag.valueD[3];
             double maxLat = modelTiePointTag.valueD[4];
             double xdelt = modelPixelScaleTag.valueD[0];
             double ydelt = modelPixelScaleTag.valueD[1];
-            for (int i = 0; i < width; i++) {
-                X[i] = minLon + xdelt * i;
+            for (int i = 0; i < nx; i++) {
+                X[i] = minLon + xdelt * (x0 + i * stride);
             }
-            for (int i = 0; i < height; i++) {
-                Y[height - i - 1] = maxLat - ydelt * i;
+            for (int i = 0; i < ny; i++) {
+                Y[ny - i - 1] = maxLat - ydelt * (y0 + i * stride);
             }
 
             //gData.data = values;
@@ -951,7 +1042,6 @@ public class GeoTiff {
             int hTileNum = (width + tileWidth - 1) / tileWidth;
             int vTileNum = (height + tileHeight - 1) / tileHeight;
             int tileSize = tileSizeTag.value[0];
-            System.out.println("tileOffset =" + tileOffset + " tileSize=" + tileSize);
             int idx;
             int tileIdx, vIdx, hIdx;
             if (bitsPerSample == 8) {
@@ -1066,305 +1156,83 @@ public class GeoTiff {
     }
 
     /**
-     * Test read data
+     * Get the images of the file, the full resolution image is followed by
+     * the overviews from fine to coarse
      *
-     * @return Data
+     * @return Images
      * @throws IOException
      */
-    public Array readArray() throws IOException {
-        IFDEntry widthIFD = this.findTag(Tag.ImageWidth);
-        IFDEntry heightIFD = this.findTag(Tag.ImageLength);
-        int width = widthIFD.value[0];
-        int height = heightIFD.value[0];
-        IFDEntry samplesPerPixelTag = findTag(Tag.SamplesPerPixel);
-        int samplesPerPixel = samplesPerPixelTag.value[0];    //Number of bands
-        //int[] values = new int[width * height];
-        IFDEntry bitsPerSampleTag = findTag(Tag.BitsPerSample);
-        int bitsPerSample = bitsPerSampleTag.value[0];
-        int[] shape;
-        if (samplesPerPixel == 1) {
-            shape = new int[]{height, width};
-        } else {
-            shape = new int[]{height, width, samplesPerPixel};
-        }
-        DataType dataType = DataType.INT;
-        IFDEntry sampleFormatTag = findTag(Tag.SampleFormat);
-        int sampleFormat = 0;
-        if (sampleFormatTag != null) {
-            sampleFormat = sampleFormatTag.value[0];
-        }
-        switch (bitsPerSample) {
-            case 32:
-                switch (sampleFormat) {
-                    case 3:
-                        dataType = DataType.FLOAT;
-                        break;
-                }
-                break;
-        }
-        Array r = Array.factory(dataType, shape);
-        IFDEntry compressionTag = findTag(Tag.Compression);
-        CompressionDecoder cDecoder = null;
-        if (compressionTag != null){
-            int compression = compressionTag.value[0];
-            if (compression > 1){
-                switch (compression) {
-                    case 5:
-                        cDecoder = new LZWCompression();
-                        break;
-                    case 8:
-                        cDecoder = new DeflateCompression();
-                        break;
-                }
+    private synchronized List<TiledImage> getImages() throws IOException {
+        if (this.images == null) {
+            if (this.mappedFile == null) {
+                this.mappedFile = new MappedFile(this.filename);
             }
-        }
-        IFDEntry tileOffsetTag = findTag(Tag.TileOffsets);
-        ByteBuffer buffer;
-        if (tileOffsetTag != null) {
-            Index index = r.getIndex();
-            long tileOffset;
-            IFDEntry tileSizeTag = findTag(Tag.TileByteCounts);
-            IFDEntry tileLengthTag = findTag(Tag.TileLength);
-            IFDEntry tileWidthTag = findTag(Tag.TileWidth);
-            int tileWidth = tileWidthTag.value[0];
-            int tileHeight = tileLengthTag.value[0];
-            int hTileNum = (width + tileWidth - 1) / tileWidth;
-            int vTileNum = (height + tileHeight - 1) / tileHeight;
-            int tileSize;
-            //System.out.println("tileOffset =" + tileOffset + " tileSize=" + tileSize);
-            int tileIdx, vIdx, hIdx;
-            switch (bitsPerSample) {
-                case 8:
-                    for (int i = 0; i < vTileNum; i++) {
-                        for (int j = 0; j < hTileNum; j++) {
-                            tileIdx = i * hTileNum + j;
-                            tileOffset = tileOffsetTag.valueL[tileIdx];
-                            tileSize = tileSizeTag.value[tileIdx];
-                            buffer = testReadData(tileOffset, tileSize, cDecoder);
-                            for (int h = 0; h < tileHeight; h++) {
-                                vIdx = i * tileHeight + h;
-                                if (vIdx == height) {
-                                    break;
-                                }
-                                for (int w = 0; w < tileWidth; w++) {
-                                    hIdx = j * tileWidth + w;
-                                    if (hIdx == width) {
-                                        buffer.get(new byte[tileWidth - w]);
-                                        break;
-                                    }
-                                    index.set0(vIdx);
-                                    index.set1(hIdx);
-                                    if (samplesPerPixel == 1) {
-                                        if (sampleFormat == 2)
-                                            r.setInt(index, buffer.get());
-                                        else
-                                            r.setInt(index, Byte.toUnsignedInt(buffer.get()));
-                                    } else {
-                                        for (int k = 0; k < samplesPerPixel; k++) {
-                                            index.set2(k);
-                                            if (sampleFormat == 2)
-                                                r.setInt(index, buffer.get());
-                                            else
-                                                r.setInt(index, Byte.toUnsignedInt(buffer.get()));
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    break;
-                case 16:
-                    for (int i = 0; i < vTileNum; i++) {
-                        for (int j = 0; j < hTileNum; j++) {
-                            tileIdx = i * hTileNum + j;
-                            tileOffset = tileOffsetTag.valueL[tileIdx];
-                            tileSize = tileSizeTag.value[tileIdx];
-                            buffer = testReadData(tileOffset, tileSize, cDecoder);
-                            for (int h = 0; h < tileHeight; h++) {
-                                vIdx = i * tileHeight + h;
-                                if (vIdx == height) {
-                                    break;
-                                }
-                                for (int w = 0; w < tileWidth; w++) {
-                                    hIdx = j * tileWidth + w;
-                                    if (hIdx == width) {
-                                        buffer.get(new byte[(tileWidth - w) * 2]);
-                                        break;
-                                    }
-                                    index.set0(vIdx);
-                                    index.set1(hIdx);
-                                    if (samplesPerPixel == 1) {
-                                        r.setInt(index, buffer.getShort());
-                                    } else {
-                                        for (int k = 0; k < samplesPerPixel; k++) {
-                                            index.set2(k);
-                                            r.setInt(index, buffer.getShort());
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    break;
-                case 32:
-                    int size = tileHeight * tileWidth * 4;
-                    for (int i = 0; i < vTileNum; i++) {
-                        for (int j = 0; j < hTileNum; j++) {
-                            tileIdx = i * hTileNum + j;
-                            tileOffset = tileOffsetTag.valueL[tileIdx];
-                            tileSize = tileSizeTag.value[tileIdx];
-                            if (tileSize == 0)
-                                continue;
-
-                            buffer = testReadData(tileOffset, tileSize, cDecoder);
-                            if (buffer.limit() < size){
-                                ByteBuffer nbuffer = ByteBuffer.allocate(size);
-                                nbuffer.put(buffer.array());
-                                buffer = nbuffer;
-                                ((Buffer)buffer).position(0);
-                            }
-                            for (int h = 0; h < tileHeight; h++) {
-                                vIdx = i * tileHeight + h;
-                                if (vIdx == height) {
-                                    break;
-                                }
-                                index.set0(vIdx);
-                                for (int w = 0; w < tileWidth; w++) {
-                                    hIdx = j * tileWidth + w;
-                                    if (hIdx == width) {
-                                        buffer.get(new byte[(tileWidth - w) * 4]);
-                                        break;
-                                    }
-                                    index.set1(hIdx);
-                                    if (samplesPerPixel == 1) {
-                                        if (dataType == DataType.FLOAT) {
-                                            r.setFloat(index, buffer.getFloat());
-                                        } else {
-                                            r.setInt(index, buffer.getInt());
-                                        }
-                                    } else {
-                                        for (int k = 0; k < samplesPerPixel; k++) {
-                                            index.set2(k);
-                                            if (dataType == DataType.FLOAT) {
-                                                r.setFloat(index, buffer.getFloat());
-                                            } else {
-                                                r.setInt(index, buffer.getInt());
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
+            File f = new File(this.filename);
+            String fileKey = f.getAbsolutePath() + "@" + f.lastModified();
+            List<TiledImage> imageList = new ArrayList<>();
+            TiledImage image = new TiledImage(this.directories.get(0), 0, this.mappedFile, fileKey,
+                    this.byteOrder);
+            imageList.add(image);
+            for (int i = 1; i < this.directories.size(); i++) {
+                IFD ifd = this.directories.get(i);
+                int subfileType = TiledImage.getSubfileType(ifd);
+                //Reduced resolution images which are not transparency masks
+                if ((subfileType & 1) == 0 || (subfileType & 4) != 0) {
+                    continue;
+                }
+                try {
+                    TiledImage overview = new TiledImage(ifd, i, this.mappedFile, fileKey, this.byteOrder);
+                    if (overview.getWidth() < image.getWidth() && overview.getDataType() == image.getDataType()
+                            && overview.getSamplesPerPixel() == image.getSamplesPerPixel()) {
+                        imageList.add(overview);
                     }
-                    break;
-                default:
-                    break;
-            }
-        } else {
-            IFDEntry stripOffsetTag = findTag(Tag.StripOffsets);
-            if (stripOffsetTag != null) {
-                int stripNum = (int)stripOffsetTag.count;
-                long stripOffset;
-                IFDEntry stripSizeTag = findTag(Tag.StripByteCounts);
-                int stripSize;
-                IFDEntry rowsPerStripTag = findTag(Tag.RowsPerStrip);
-                int rowNum = rowsPerStripTag.value[0];
-                //System.out.println("stripOffset =" + stripOffset + " stripSize=" + stripSize);
-                int idx = 0;
-                switch (bitsPerSample) {
-                    case 8:
-                        for (int i = 0; i < stripNum; i++) {
-                            stripOffset = getStripOffset(stripOffsetTag, i);
-                            stripSize = getStripSize(stripSizeTag, i);
-                            buffer = testReadData(stripOffset, stripSize, cDecoder);
-                            int size = width * rowNum;
-                            if (i == stripNum - 1) {
-                                size = width * (height - rowNum * (stripNum - 1));
-                            }
-                            if (samplesPerPixel == 1) {
-                                for (int j = 0; j < size; j++) {
-                                    r.setInt(idx, DataConvert.byte2Int(buffer.get()));
-                                    idx += 1;
-                                }
-                            } else {
-                                for (int j = 0; j < size; j++) {
-                                    for (int k = 0; k < samplesPerPixel; k++) {
-                                        r.setInt(idx, DataConvert.byte2Int(buffer.get()));
-                                        idx += 1;
-                                    }
-                                }
-                            }
-                        }
-                        break;
-                    case 16:
-                        for (int i = 0; i < stripNum; i++) {
-                            stripOffset = getStripOffset(stripOffsetTag, i);
-                            stripSize = getStripSize(stripSizeTag, i);
-                            buffer = testReadData(stripOffset, stripSize, cDecoder);
-                            int size = width * rowNum;
-                            if (i == stripNum - 1) {
-                                size = width * (height - rowNum * (stripNum - 1));
-                            }
-                            if (samplesPerPixel == 1) {
-                                for (int j = 0; j < size; j++) {
-                                    if (dataType == DataType.FLOAT) {
-                                        r.setFloat(idx, buffer.getShort());
-                                    } else {
-                                        r.setInt(idx, buffer.getShort());
-                                    }
-                                    idx += 1;
-                                }
-                            } else {
-                                for (int j = 0; j < size; j++) {
-                                    for (int k = 0; k < samplesPerPixel; k++) {
-                                        if (dataType == DataType.FLOAT) {
-                                            r.setFloat(idx, buffer.getShort());
-                                        } else {
-                                            r.setInt(idx, buffer.getShort());
-                                        }
-                                        idx += 1;
-                                    }
-                                }
-                            }
-                        }
-                        break;
-                    case 32:
-                        for (int i = 0; i < stripNum; i++) {
-                            stripOffset = getStripOffset(stripOffsetTag, i);
-                            stripSize = getStripSize(stripSizeTag, i);
-                            buffer = testReadData(stripOffset, stripSize, cDecoder);
-                            int size = width * rowNum;
-                            if (i == stripNum - 1) {
-                                size = width * (height - rowNum * (stripNum - 1));
-                            }
-                            if (cDecoder instanceof LZWCompression) {
-                                undoFloatData(buffer, width);
-                            }
-                            if (samplesPerPixel == 1) {
-                                for (int j = 0; j < size; j++) {
-                                    r.setFloat(idx, buffer.getFloat());
-                                    idx += 1;
-                                }
-                            } else {
-                                for (int j = 0; j < size; j++) {
-                                    for (int k = 0; k < samplesPerPixel; k++) {
-                                        r.setFloat(idx, buffer.getFloat());
-                                        idx += 1;
-                                    }
-                                }
-                            }
-                        }
-                        break;
+                } catch (IOException e) {
+                    Logger.getLogger(GeoTiff.class.getName()).log(Level.WARNING, "Skip overview " + i, e);
                 }
             }
+            imageList.subList(1, imageList.size()).sort((a, b) -> Integer.compare(b.getWidth(), a.getWidth()));
+            this.images = imageList;
         }
+        return this.images;
+    }
+
+    /**
+     * Get overview number
+     *
+     * @return Overview number
+     * @throws IOException
+     */
+    public int getOverviewNumber() throws IOException {
+        return getImages().size() - 1;
+    }
 
+    /**
+     * Get an image
+     *
+     * @param level Image level, 0 for the full resolution image and 1 to the
+     * overview number for the overviews from fine to coarse
+     * @return The image
+     * @throws IOException
+     */
+    public TiledImage getImage(int level) throws IOException {
+        return getImages().get(level);
+    }
+
+    /**
+     * Read data array
+     *
+     * @return Data
+     * @throws IOException
+     */
+    public Array readArray() throws IOException {
+        TiledImage image = getImage(0);
+        Array r = image.read(indices(0, image.getHeight(), 1), indices(0, image.getWidth(), 1));
         r = ArrayMath.flip(r, 0);
         return r;
     }
 
     /**
-     * Test read data
+     * Read data array
      *
      * @param yRange Y range
      * @param xRange X range
@@ -1372,332 +1240,64 @@ public class GeoTiff {
      * @throws IOException
      */
     public Array readArray(Range yRange, Range xRange) throws IOException, InvalidRangeException {
-        IFDEntry widthIFD = this.findTag(Tag.ImageWidth);
-        IFDEntry heightIFD = this.findTag(Tag.ImageLength);
-        int width = widthIFD.value[0];
-        int height = heightIFD.value[0];
-        int nx = xRange.length();
-        int ny = yRange.length();
-        if (width == nx && height == ny) {
-            return readArray();
-        }
-
-        IFDEntry samplesPerPixelTag = findTag(Tag.SamplesPerPixel);
-        int samplesPerPixel = samplesPerPixelTag.value[0];    //Number of bands
-        IFDEntry bitsPerSampleTag = findTag(Tag.BitsPerSample);
-        int bitsPerSample = bitsPerSampleTag.value[0];
-        int[] shape;
-        if (samplesPerPixel == 1) {
-            shape = new int[]{ny, nx};
-        } else {
-            shape = new int[]{ny, nx, samplesPerPixel};
-        }
-        DataType dataType = DataType.INT;
-        IFDEntry sampleFormatTag = findTag(Tag.SampleFormat);
-        int sampleFormat = 0;
-        if (sampleFormatTag != null) {
-            sampleFormat = sampleFormatTag.value[0];
-        }
-        switch (bitsPerSample) {
-            case 32:
-                switch (sampleFormat) {
-                    case 3:
-                        dataType = DataType.FLOAT;
-                        break;
-                }
-                break;
-        }
-        Array r = Array.factory(dataType, shape);
-        IFDEntry compressionTag = findTag(Tag.Compression);
-        CompressionDecoder cDecoder = null;
-        if (compressionTag != null){
-            int compression = compressionTag.value[0];
-            if (compression > 1){
-                switch (compression) {
-                    case 5:
-                        cDecoder = new LZWCompression();
-                        break;
-                    case 8:
-                        cDecoder = new DeflateCompression();
-                        break;
-                }
-            }
-        }
+        return readArray(yRange, xRange, false);
+    }
 
-        IFDEntry tileOffsetTag = findTag(Tag.TileOffsets);
-        ByteBuffer buffer;
-        if (tileOffsetTag != null) {
-            Index index = r.getIndex();
-            long tileOffset;
-            IFDEntry tileSizeTag = findTag(Tag.TileByteCounts);
-            IFDEntry tileLengthTag = findTag(Tag.TileLength);
-            IFDEntry tileWidthTag = findTag(Tag.TileWidth);
-            int tileWidth = tileWidthTag.value[0];
-            int tileHeight = tileLengthTag.value[0];
-            int hTileNum = (width + tileWidth - 1) / tileWidth;
-            int vTileNum = (height + tileHeight - 1) / tileHeight;
-            int tileSize;
-            //System.out.println("tileOffset =" + tileOffset + " tileSize=" + tileSize);
-            int tileIdx, vIdx, hIdx;
-            switch (bitsPerSample) {
-                case 8:
-                    for (int i = 0; i < vTileNum; i++) {
-                        for (int j = 0; j < hTileNum; j++) {
-                            tileIdx = i * hTileNum + j;
-                            tileOffset = tileOffsetTag.valueL[tileIdx];
-                            tileSize = tileSizeTag.value[tileIdx];
-                            buffer = testReadData(tileOffset, tileSize, cDecoder);
-                            for (int h = 0; h < tileHeight; h++) {
-                                vIdx = i * tileHeight + h;
-                                if (vIdx == height) {
-                                    break;
-                                }
-                                if (!yRange.contains(vIdx)) {
-                                    ((Buffer)buffer).position(((Buffer)buffer).position() + tileWidth * samplesPerPixel);
-                                    continue;
-                                }
-                                vIdx = yRange.index(vIdx);
-                                index.set0(vIdx);
-                                for (int w = 0; w < tileWidth; w++) {
-                                    hIdx = j * tileWidth + w;
-                                    if (hIdx == width) {
-                                        buffer.get(new byte[tileWidth - w]);
-                                        break;
-                                    }
-                                    if (!xRange.contains(hIdx)) {
-                                        ((Buffer)buffer).position(((Buffer)buffer).position() + samplesPerPixel);
-                                        continue;
-                                    }
-                                    hIdx = xRange.index(hIdx);
-                                    index.set1(hIdx);
-                                    if (samplesPerPixel == 1) {
-                                        if (sampleFormat == 2)
-                                            r.setInt(index, buffer.get());
-                                        else
-                                            r.setInt(index, Byte.toUnsignedInt(buffer.get()));
-                                    } else {
-                                        for (int k = 0; k < samplesPerPixel; k++) {
-                                            index.set2(k);
-                                            if (sampleFormat == 2)
-                                                r.setInt(index, buffer.get());
-                                            else
-                                                r.setInt(index, Byte.toUnsignedInt(buffer.get()));
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    break;
-                case 16:
-                    for (int i = 0; i < vTileNum; i++) {
-                        for (int j = 0; j < hTileNum; j++) {
-                            tileIdx = i * hTileNum + j;
-                            tileOffset = tileOffsetTag.valueL[tileIdx];
-                            tileSize = tileSizeTag.value[tileIdx];
-                            buffer = testReadData(tileOffset, tileSize, cDecoder);
-                            for (int h = 0; h < tileHeight; h++) {
-                                vIdx = i * tileHeight + h;
-                                if (vIdx == height) {
-                                    break;
-                                }
-                                if (!yRange.contains(vIdx)) {
-                                    ((Buffer)buffer).position(((Buffer)buffer).position() + tileWidth * samplesPerPixel * 2);
-                                    continue;
-                                }
-                                vIdx = yRange.index(vIdx);
-                                index.set0(vIdx);
-                                for (int w = 0; w < tileWidth; w++) {
-                                    hIdx = j * tileWidth + w;
-                                    if (hIdx == width) {
-                                        break;
-                                    }
-                                    if (!xRange.contains(hIdx)) {
-                                        ((Buffer)buffer).position(((Buffer)buffer).position() + samplesPerPixel * 2);
-                                        continue;
-                                    }
-                                    hIdx = xRange.index(hIdx);
-                                    index.set1(hIdx);
-                                    if (samplesPerPixel == 1) {
-                                        r.setInt(index, buffer.getShort());
-                                    } else {
-                                        for (int k = 0; k < samplesPerPixel; k++) {
-                                            index.set2(k);
-                                            r.setInt(index, buffer.getShort());
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    break;
-                case 32:
-                    int size = tileHeight * tileWidth * 4;
-                    for (int i = 0; i < vTileNum; i++) {
-                        for (int j = 0; j < hTileNum; j++) {
-                            tileIdx = i * hTileNum + j;
-                            tileOffset = tileOffsetTag.valueL[tileIdx];
-                            tileSize = tileSizeTag.value[tileIdx];
-                            if (tileSize == 0)
-                                continue;
-
-                            buffer = testReadData(tileOffset, tileSize, cDecoder);
-                            if (buffer.limit() < size){
-                                ByteBuffer nbuffer = ByteBuffer.allocate(size);
-                                nbuffer.put(buffer.array());
-                                buffer = nbuffer;
-                                ((Buffer)buffer).position(0);
-                            }
-                            for (int h = 0; h < tileHeight; h++) {
-                                vIdx = i * tileHeight + h;
-                                if (vIdx == height) {
-                                    break;
-                                }
-                                if (!yRange.contains(vIdx)) {
-                                    ((Buffer)buffer).position(((Buffer)buffer).position() + tileWidth * samplesPerPixel * 4);
-                                    continue;
-                                }
-                                vIdx = yRange.index(vIdx);
-                                index.set0(vIdx);
-                                for (int w = 0; w < tileWidth; w++) {
-                                    hIdx = j * tileWidth + w;
-                                    if (hIdx == width) {
-                                        buffer.get(new byte[(tileWidth - w) * 4]);
-                                        break;
-                                    }
-                                    if (!xRange.contains(hIdx)) {
-                                        ((Buffer)buffer).position(((Buffer)buffer).position() + samplesPerPixel * 40);
-                                        continue;
-                                    }
-                                    hIdx = xRange.index(hIdx);
-                                    index.set1(hIdx);
-                                    if (samplesPerPixel == 1) {
-                                        if (dataType == DataType.FLOAT) {
-                                            r.setFloat(index, buffer.getFloat());
-                                        } else {
-                                            r.setInt(index, buffer.getInt());
-                                        }
-                                    } else {
-                                        for (int k = 0; k < samplesPerPixel; k++) {
-                                            index.set2(k);
-                                            if (dataType == DataType.FLOAT) {
-                                                r.setFloat(index, buffer.getFloat());
-                                            } else {
-                                                r.setInt(index, buffer.getInt());
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    break;
-                default:
+    /**
+     * Read data array. With overview, the pixels are read from the coarsest
+     * overview which is not coarser than the range strides, so a display read
+     * of a large image decodes about as many pixels as it shows.
+     *
+     * @param yRange Y range of the full resolution image
+     * @param xRange X range of the full resolution image
+     * @param useOverview Use overview or not
+     * @return Data
+     * @throws IOException
+     */
+    public Array readArray(Range yRange, Range xRange, boolean useOverview) throws IOException,
+            InvalidRangeException {
+        List<TiledImage> imageList = getImages();
+        TiledImage image = imageList.get(0);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (useOverview) {
+            for (int i = 1; i < imageList.size(); i++) {
+                TiledImage overview = imageList.get(i);
+                double xFactor = (double) width / overview.getWidth();
+                double yFactor = (double) height / overview.getHeight();
+                if (xFactor > xRange.stride() * 1.001 || yFactor > yRange.stride() * 1.001) {
                     break;
-            }
-        } else {
-            IFDEntry stripOffsetTag = findTag(Tag.StripOffsets);
-            if (stripOffsetTag != null) {
-                IndexIterator iter = r.getIndexIterator();
-                Index index = Index.factory(new int[]{height, width});
-                int stripNum = (int)stripOffsetTag.count;
-                int stripOffset;
-                IFDEntry stripSizeTag = findTag(Tag.StripByteCounts);
-                int stripSize = stripSizeTag.value[0];
-                IFDEntry rowsPerStripTag = findTag(Tag.RowsPerStrip);
-                int rowNum = rowsPerStripTag.value[0];
-                //System.out.println("stripOffset =" + stripOffset + " stripSize=" + stripSize);
-                int[] counter;
-                switch (bitsPerSample) {
-                    case 8:
-                        for (int i = 0; i < stripNum; i++) {
-                            stripOffset = stripOffsetTag.value[i];
-                            stripSize = stripSizeTag.value[i];
-                            buffer = testReadData(stripOffset, stripSize, cDecoder);
-                            for (int j = 0; j < width * rowNum; j++) {
-                                counter = index.getCurrentCounter();
-                                if (yRange.contains(counter[0]) && xRange.contains(counter[1])) {
-                                    for (int k = 0; k < samplesPerPixel; k++) {
-                                        iter.setIntNext(DataConvert.byte2Int(buffer.get()));
-                                    }
-                                } else {
-                                    ((Buffer)buffer).position(((Buffer)buffer).position() + samplesPerPixel);
-                                }
-                                index.incr();
-                            }
-                        }
-                        break;
-                    case 16:
-                        for (int i = 0; i < stripNum; i++) {
-                            stripOffset = stripOffsetTag.value[i];
-                            stripSize = stripSizeTag.value[i];
-                            buffer = testReadData(stripOffset, stripSize, cDecoder);
-                            for (int j = 0; j < width * rowNum; j++) {
-                                counter = index.getCurrentCounter();
-                                if (yRange.contains(counter[0]) && xRange.contains(counter[1])) {
-                                    for (int k = 0; k < samplesPerPixel; k++) {
-                                        if (dataType == DataType.FLOAT) {
-                                            iter.setFloatNext(buffer.getShort());
-                                        } else {
-                                            iter.setIntNext(buffer.getShort());
-                                        }
-                                    }
-                                } else {
-                                    ((Buffer)buffer).position(((Buffer)buffer).position() + samplesPerPixel * 2);
-                                }
-                                index.incr();
-                            }
-                        }
-                        break;
-                    case 32:
-                        for (int i = 0; i < stripNum; i++) {
-                            stripOffset = stripOffsetTag.value[i];
-                            stripSize = stripSizeTag.value[i];
-                            buffer = testReadData(stripOffset, stripSize, cDecoder);
-                            int size = width * rowNum;
-                            if (i == stripNum - 1) {
-                                size = width * (height - rowNum * (stripNum - 1));
-                            }
-                            if (cDecoder instanceof LZWCompression) {
-                                undoFloatData(buffer, width);
-                            }
-                            for (int j = 0; j < size; j++) {
-                                counter = index.getCurrentCounter();
-                                if (yRange.contains(counter[0]) && xRange.contains(counter[1])) {
-                                    for (int k = 0; k < samplesPerPixel; k++) {
-                                        iter.setFloatNext(buffer.getFloat());
-                                    }
-                                } else {
-                                    ((Buffer)buffer).position(((Buffer)buffer).position() + samplesPerPixel * 4);
-                                }
-                                index.incr();
-                            }
-                        }
-                        break;
                 }
+                image = overview;
             }
         }
-
+        int[] rows = indices(yRange.first(), yRange.length(), yRange.stride());
+        int[] cols = indices(xRange.first(), xRange.length(), xRange.stride());
+        if (image.getWidth() != width || image.getHeight() != height) {
+            toOverview(rows, height, image.getHeight());
+            toOverview(cols, width, image.getWidth());
+        }
+        Array r = image.read(rows, cols);
         r = ArrayMath.flip(r, 0);
         return r;
     }
 
+    private static int[] indices(int first, int n, int stride) {
+        int[] r = new int[n];
+        for (int i = 0; i < n; i++) {
+            r[i] = first + i * stride;
+        }
+        return r;
+    }
+
     /**
-     * Test read data
-     *
-     * @param offset Offset
-     * @param size Size
-     * @throws IOException
+     * Convert full resolution pixel indices to the overview pixels containing
+     * the pixel centers
      */
-    private ByteBuffer testReadData(int offset, int size) throws IOException {
-        this.channel.position(offset);
-        ByteBuffer buffer = ByteBuffer.allocate(size);
-        buffer.order(this.byteOrder);
-
-        this.channel.read(buffer);
-        ((Buffer)buffer).flip();
-
-        return buffer;
+    private static void toOverview(int[] idx, int n, int overviewN) {
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = Math.min(overviewN - 1, (int) ((idx[i] + 0.5) * overviewN / n));
+        }
     }
 
     /**
@@ -1705,10 +1305,9 @@ public class GeoTiff {
      *
      * @param offset Offset
      * @param size Size
-     * @param cDecoder Compression decoder
      * @throws IOException
      */
-    private ByteBuffer testReadData(long offset, int size, CompressionDecoder cDecoder) throws IOException {
+    private ByteBuffer testReadData(int offset, int size) throws IOException {
         this.channel.position(offset);
         ByteBuffer buffer = ByteBuffer.allocate(size);
         buffer.order(this.byteOrder);
@@ -1716,28 +1315,9 @@ public class GeoTiff {
         this.channel.read(buffer);
         ((Buffer)buffer).flip();
 
-        if (cDecoder != null){
-            buffer = ByteBuffer.wrap(cDecoder.decode(buffer.array(), byteOrder));
-            buffer.order(byteOrder);
-        }
-
         return buffer;
     }
 
-    private void undoFloatData(ByteBuffer buffer, int width) {
-        int n = buffer.limit();
-        int height = n / (width * 4);
-        for (int y = 0; y < height; y++) {
-            int v = buffer.getInt();
-            for (int x = 1; x < width; x++) {
-                v += buffer.getInt();
-                buffer.position(buffer.position() - 4);
-                buffer.putInt(v);
-            }
-        }
-        buffer.flip();
-    }
-
     /**
      * Read header
      *
@@ -1779,7 +1359,7 @@ public class GeoTiff {
             ((Buffer)buffer).flip();
             firstIFD = buffer.getLong();
         }  else {
-            firstIFD = buffer.getInt();
+            firstIFD = buffer.getInt() & 0xFFFFFFFFL;
         }
         if (this.debugRead) {
             System.out.println(" firstIFD == " + firstIFD);
@@ -1808,7 +1388,7 @@ public class GeoTiff {
             printBytes(System.out, "IFD", buffer, 2);
             buffer.rewind();
         }
-        long nEntries = this.bigTiff ? buffer.getLong() : buffer.getShort();
+        long nEntries = this.bigTiff ? buffer.getLong() : buffer.getShort() & 0xFFFF;
         if (this.debugRead) {
             System.out.println(" nentries = " + nEntries);
         }
@@ -1836,7 +1416,7 @@ public class GeoTiff {
         buffer.order(this.byteOrder);
         n = channel.read(buffer);
         ((Buffer)buffer).flip();
-        long nextIFD = this.bigTiff ? buffer.getLong() : buffer.getInt();
+        long nextIFD = this.bigTiff ? buffer.getLong() : buffer.getInt() & 0xFFFFFFFFL;
         if (this.debugRead) {
             System.out.println(" nextIFD == " + nextIFD);
         }
@@ -1876,7 +1456,7 @@ public class GeoTiff {
         if (type == null) {
             return null;
         }
-        long count = this.bigTiff ? buffer.getLong() : buffer.getInt();
+        long count = this.bigTiff ? buffer.getLong() : buffer.getInt() & 0xFFFFFFFFL;
 
         IFDEntry ifd = new IFDEntry(tag, type, count);
 
@@ -1884,7 +1464,7 @@ public class GeoTiff {
         if (ifd.count * ifd.type.size <= size) {
             readValues(buffer, ifd);
         } else {
-            long offset = this.bigTiff ? buffer.getLong() : buffer.getInt();
+            long offset = this.bigTiff ? buffer.getLong() : buffer.getInt() & 0xFFFFFFFFL;
             if (this.debugRead) {
                 System.out.println("position to " + offset);
             }
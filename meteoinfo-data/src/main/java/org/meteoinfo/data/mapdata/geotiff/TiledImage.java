@@ -0,0 +1,523 @@
+package org.meteoinfo.data.mapdata.geotiff;
+
+import org.meteoinfo.common.io.MappedFile;
+import org.meteoinfo.common.util.TinyLFUCache;
+import org.meteoinfo.data.mapdata.geotiff.compression.CompressionDecoder;
+import org.meteoinfo.data.mapdata.geotiff.compression.DeflateCompression;
+import org.meteoinfo.data.mapdata.geotiff.compression.LZWCompression;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Tiled reader of the image of a TIFF directory.
+ * <p>
+ * Strips are read as tiles of the image width. A window read only decodes
+ * the tiles its rows and columns fall in, the tiles are read from the memory
+ * mapped file and decoded in parallel, and the decoded tiles are kept in a
+ * weighted LRU cache shared by all images, so panning and zooming a display
+ * reuses them instead of decompressing them again.
+ *
+ * @author wyq
+ */
+public class TiledImage {
+
+    private static final TinyLFUCache<TileKey, byte[]> cache = new TinyLFUCache<>(256L << 20,
+            b -> 64 + b.length, 4);
+
+    private static final class TileKey {
+        private final String fileKey;
+        private final int image;
+        private final int tile;
+        private final int hash;
+
+        TileKey(String fileKey, int image, int tile) {
+            this.fileKey = fileKey;
+            this.image = image;
+            this.tile = tile;
+            this.hash = (fileKey.hashCode() * 31 + image) * 31 + tile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey k = (TileKey) o;
+            return hash == k.hash && tile == k.tile && image == k.image && fileKey.equals(k.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final MappedFile file;
+    private final String fileKey;
+    private final int imageIndex;
+    private final ByteOrder byteOrder;
+    private final int width;
+    private final int height;
+    private final int samplesPerPixel;
+    private final int bytesPerSample;
+    private final int sampleFormat;
+    private final int compression;
+    private final int predictor;
+    private final boolean planar;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int tilesAcross;
+    private final int tilesDown;
+    private final long[] tileOffsets;
+    private final long[] tileByteCounts;
+    private final DataType dataType;
+
+    /**
+     * Constructor
+     *
+     * @param ifd Image file directory
+     * @param imageIndex Image index in the file
+     * @param file Memory mapped TIFF file
+     * @param fileKey File key, the location and modified time of the file
+     * @param byteOrder Byte order of the file
+     * @throws IOException
+     */
+    TiledImage(IFD ifd, int imageIndex, MappedFile file, String fileKey, ByteOrder byteOrder)
+            throws IOException {
+        this.file = file;
+        this.fileKey = fileKey;
+        this.imageIndex = imageIndex;
+        this.byteOrder = byteOrder;
+        this.width = getInt(ifd, Tag.ImageWidth, 0);
+        this.height = getInt(ifd, Tag.ImageLength, 0);
+        this.samplesPerPixel = getInt(ifd, Tag.SamplesPerPixel, 1);
+        int bitsPerSample = getInt(ifd, Tag.BitsPerSample, 1);
+        this.sampleFormat = getInt(ifd, Tag.SampleFormat, 1);
+        this.compression = getInt(ifd, Tag.Compression, 1);
+        this.predictor = getInt(ifd, Tag.Predictor, 1);
+        this.planar = getInt(ifd, Tag.PlanarConfiguration, 1) == 2 && samplesPerPixel > 1;
+
+        switch (bitsPerSample) {
+            case 8:
+            case 16:
+                this.dataType = DataType.INT;
+                break;
+            case 32:
+                this.dataType = sampleFormat == 3 ? DataType.FLOAT : DataType.INT;
+                break;
+            case 64:
+                if (sampleFormat != 3) {
+                    throw new IOException("Unsupported 64 bits integer samples");
+                }
+                this.dataType = DataType.DOUBLE;
+                break;
+            default:
+                throw new IOException("Unsupported bits per sample: " + bitsPerSample);
+        }
+        this.bytesPerSample = bitsPerSample / 8;
+        switch (compression) {
+            case 1:
+            case 5:
+            case 8:
+            case 32946:
+                break;
+            default:
+                throw new IOException("Unsupported compression: " + compression);
+        }
+        if (predictor == 3 && sampleFormat != 3) {
+            throw new IOException("Floating point predictor of integer samples");
+        }
+
+        IFDEntry offsetTag = ifd.findTag(Tag.TileOffsets);
+        IFDEntry countTag;
+        if (offsetTag != null) {
+            countTag = ifd.findTag(Tag.TileByteCounts);
+            this.tileWidth = getInt(ifd, Tag.TileWidth, 0);
+            this.tileHeight = getInt(ifd, Tag.TileLength, 0);
+        } else {
+            offsetTag = ifd.findTag(Tag.StripOffsets);
+            countTag = ifd.findTag(Tag.StripByteCounts);
+            this.tileWidth = width;
+            int rowsPerStrip = getInt(ifd, Tag.RowsPerStrip, height);
+            this.tileHeight = rowsPerStrip <= 0 || rowsPerStrip > height ? height : rowsPerStrip;
+        }
+        if (offsetTag == null || countTag == null || width <= 0 || height <= 0 || tileWidth <= 0
+                || tileHeight <= 0) {
+            throw new IOException("Invalid image layout");
+        }
+        this.tilesAcross = (width + tileWidth - 1) / tileWidth;
+        this.tilesDown = (height + tileHeight - 1) / tileHeight;
+        int tileNum = tilesAcross * tilesDown * (planar ? samplesPerPixel : 1);
+        if (offsetTag.count < tileNum || countTag.count < tileNum) {
+            throw new IOException("Tile number mismatch");
+        }
+        this.tileOffsets = new long[tileNum];
+        this.tileByteCounts = new long[tileNum];
+        for (int i = 0; i < tileNum; i++) {
+            tileOffsets[i] = getLong(offsetTag, i);
+            tileByteCounts[i] = getLong(countTag, i);
+        }
+    }
+
+    private static int getInt(IFD ifd, Tag tag, int defaultValue) {
+        IFDEntry entry = ifd.findTag(tag);
+        if (entry == null) {
+            return defaultValue;
+        }
+        if (entry.value != null && entry.value.length > 0) {
+            return entry.value[0];
+        }
+        if (entry.valueL != null && entry.valueL.length > 0) {
+            return (int) entry.valueL[0];
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Get an unsigned offset or byte count value of a tag
+     */
+    static long getLong(IFDEntry entry, int i) {
+        if (entry.type == FieldType.LONG8) {
+            return entry.valueL[i];
+        }
+        long v = entry.valueL != null ? entry.valueL[i] : entry.value[i];
+        return v & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Get new subfile type of a directory
+     *
+     * @param ifd Image file directory
+     * @return New subfile type
+     */
+    static int getSubfileType(IFD ifd) {
+        return getInt(ifd, Tag.NewSubfileType, 0);
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get image width
+     *
+     * @return Image width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get image height
+     *
+     * @return Image height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get samples per pixel
+     *
+     * @return Samples per pixel
+     */
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+
+    /**
+     * Get data type of the read arrays
+     *
+     * @return Data type
+     */
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Get tile width
+     *
+     * @return Tile width
+     */
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    /**
+     * Get tile height
+     *
+     * @return Tile height
+     */
+    public int getTileHeight() {
+        return tileHeight;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Read the pixels of some rows and columns
+     *
+     * @param rows Row indices in ascending order, from the top of the image
+     * @param cols Column indices in ascending order
+     * @return Data array, with the shape of [rows, cols] or [rows, cols, samples]
+     * @throws IOException
+     */
+    public Array read(int[] rows, int[] cols) throws IOException {
+        final int ny = rows.length;
+        final int nx = cols.length;
+        final int spp = samplesPerPixel;
+        int[] shape = spp == 1 ? new int[]{ny, nx} : new int[]{ny, nx, spp};
+        final Object storage;
+        switch (dataType) {
+            case FLOAT:
+                storage = new float[ny * nx * spp];
+                break;
+            case DOUBLE:
+                storage = new double[ny * nx * spp];
+                break;
+            default:
+                storage = new int[ny * nx * spp];
+                break;
+        }
+        if (ny == 0 || nx == 0) {
+            return Array.factory(dataType, shape, storage);
+        }
+
+        //Group the rows and the columns by tile, the indices are ascending so the groups are runs
+        final int[][] rowGroups = group(rows, tileHeight);
+        final int[][] colGroups = group(cols, tileWidth);
+        final int planes = planar ? spp : 1;
+        final int colGroupNum = colGroups[0].length;
+        final int taskNum = rowGroups[0].length * colGroupNum * planes;
+        IntStream s = IntStream.range(0, taskNum);
+        if (ArrayParallel.isEnabled() && taskNum > 1) {
+            s = s.parallel();
+        }
+        try {
+            s.forEach(task -> {
+                int plane = task % planes;
+                int g = task / planes;
+                int rg = g / colGroupNum;
+                int cg = g % colGroupNum;
+                int ty = rowGroups[0][rg];
+                int tx = colGroups[0][cg];
+                int tile = (plane * tilesDown + ty) * tilesAcross + tx;
+                byte[] bytes;
+                try {
+                    bytes = getTile(tile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                copy(bytes, ty, tx, plane, rows, rowGroups[1][rg], rowGroups[2][rg], cols,
+                        colGroups[1][cg], colGroups[2][cg], storage, nx);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return Array.factory(dataType, shape, storage);
+    }
+
+    /**
+     * Group ascending pixel indices by tile
+     *
+     * @return Tile indices, start and end positions of the groups
+     */
+    private static int[][] group(int[] idx, int tileSize) {
+        int[] tiles = new int[idx.length];
+        int[] starts = new int[idx.length];
+        int[] ends = new int[idx.length];
+        int n = 0;
+        for (int i = 0; i < idx.length; i++) {
+            int t = idx[i] / tileSize;
+            if (n == 0 || tiles[n - 1] != t) {
+                tiles[n] = t;
+                starts[n] = i;
+                n++;
+            }
+            ends[n - 1] = i + 1;
+        }
+        return new int[][]{Arrays.copyOf(tiles, n), Arrays.copyOf(starts, n), Arrays.copyOf(ends, n)};
+    }
+
+    /**
+     * Copy the pixels of a decoded tile to the output storage
+     */
+    private void copy(byte[] bytes, int ty, int tx, int plane, int[] rows, int r0, int r1, int[] cols,
+                      int c0, int c1, Object storage, int nx) {
+        int spp = samplesPerPixel;
+        int tileSpp = planar ? 1 : spp;
+        int k0 = planar ? plane : 0;
+        int k1 = planar ? plane + 1 : spp;
+        int bps = bytesPerSample;
+        ByteBuffer bb = bytes == null ? null : ByteBuffer.wrap(bytes).order(byteOrder);
+        for (int i = r0; i < r1; i++) {
+            int ry = rows[i] - ty * tileHeight;
+            for (int j = c0; j < c1; j++) {
+                int rx = cols[j] - tx * tileWidth;
+                int pos = ((ry * tileWidth + rx) * tileSpp - k0) * bps;
+                int o = (i * nx + j) * spp;
+                for (int k = k0; k < k1; k++) {
+                    int p = pos + k * bps;
+                    switch (dataType) {
+                        case FLOAT:
+                            ((float[]) storage)[o + k] = bb == null ? 0 : bb.getFloat(p);
+                            break;
+                        case DOUBLE:
+                            ((double[]) storage)[o + k] = bb == null ? 0 : bb.getDouble(p);
+                            break;
+                        default:
+                            ((int[]) storage)[o + k] = bb == null ? 0 : getInt(bb, p);
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
+    private int getInt(ByteBuffer bb, int p) {
+        switch (bytesPerSample) {
+            case 1:
+                return sampleFormat == 2 ? bb.get(p) : bb.get(p) & 0xFF;
+            case 2:
+                return sampleFormat == 2 ? bb.getShort(p) : bb.getShort(p) & 0xFFFF;
+            default:
+                return bb.getInt(p);
+        }
+    }
+
+    /**
+     * Get a decoded tile from the cache, or read and decode it
+     *
+     * @param tile Tile index
+     * @return Decoded tile bytes, null for a sparse tile
+     * @throws IOException
+     */
+    private byte[] getTile(int tile) throws IOException {
+        if (tileByteCounts[tile] == 0) {
+            return null;
+        }
+        TileKey key = new TileKey(fileKey, imageIndex, tile);
+        byte[] bytes = cache.get(key);
+        if (bytes == null) {
+            bytes = decodeTile(tile);
+            cache.put(key, bytes);
+        }
+        return bytes;
+    }
+
+    private byte[] decodeTile(int tile) throws IOException {
+        long count = tileByteCounts[tile];
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("Tile too large: " + count);
+        }
+        ByteBuffer buffer = file.getBuffer(tileOffsets[tile], (int) count, byteOrder);
+        byte[] bytes = new byte[(int) count];
+        buffer.get(bytes);
+
+        CompressionDecoder decoder = null;
+        switch (compression) {
+            case 5:
+                decoder = new LZWCompression();
+                break;
+            case 8:
+            case 32946:
+                decoder = new DeflateCompression();
+                break;
+        }
+        if (decoder != null) {
+            bytes = decoder.decode(bytes, byteOrder);
+        }
+
+        //Short tiles at the image edges are padded
+        int tileSpp = planar ? 1 : samplesPerPixel;
+        int size = tileWidth * tileHeight * tileSpp * bytesPerSample;
+        if (bytes.length < size) {
+            bytes = Arrays.copyOf(bytes, size);
+        }
+
+        switch (predictor) {
+            case 2:
+                undoHorizontalPredictor(bytes, tileSpp);
+                break;
+            case 3:
+                undoFloatPredictor(bytes, tileSpp);
+                break;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Undo horizontal differencing of the samples of each row
+     */
+    private void undoHorizontalPredictor(byte[] bytes, int spp) {
+        int bps = bytesPerSample;
+        int rowBytes = tileWidth * spp * bps;
+        int step = spp * bps;
+        ByteBuffer bb = ByteBuffer.wrap(bytes).order(byteOrder);
+        for (int y = 0; y < tileHeight; y++) {
+            int start = y * rowBytes;
+            int end = start + rowBytes;
+            switch (bps) {
+                case 1:
+                    for (int p = start + step; p < end; p++) {
+                        bytes[p] += bytes[p - step];
+                    }
+                    break;
+                case 2:
+                    for (int p = start + step; p < end; p += 2) {
+                        bb.putShort(p, (short) (bb.getShort(p) + bb.getShort(p - step)));
+                    }
+                    break;
+                case 4:
+                    for (int p = start + step; p < end; p += 4) {
+                        bb.putInt(p, bb.getInt(p) + bb.getInt(p - step));
+                    }
+                    break;
+                default:
+                    for (int p = start + step; p < end; p += 8) {
+                        bb.putLong(p, bb.getLong(p) + bb.getLong(p - step));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Undo the floating point predictor - byte differencing of each row, whose
+     * bytes are ordered as planes from the most significant byte
+     */
+    private void undoFloatPredictor(byte[] bytes, int spp) {
+        int bps = bytesPerSample;
+        int wc = tileWidth * spp;
+        int rowBytes = wc * bps;
+        byte[] row = new byte[rowBytes];
+        boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+        for (int y = 0; y < tileHeight; y++) {
+            int start = y * rowBytes;
+            System.arraycopy(bytes, start, row, 0, rowBytes);
+            for (int p = spp; p < rowBytes; p++) {
+                row[p] += row[p - spp];
+            }
+            for (int j = 0; j < wc; j++) {
+                for (int b = 0; b < bps; b++) {
+                    bytes[start + j * bps + (bigEndian ? b : bps - 1 - b)] = row[b * wc + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all cached tiles
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+    // </editor-fold>
+}
@@ -248,12 +248,14 @@ public abstract class AbstractTileFactory extends TileFactory {
             try {
                 BufferedImage img = null;
                 URI uri = getURI(tile);
-                img = cache.get(uri);
+                String diskKey = getDiskKey(tile);
+                img = cache.get(uri, diskKey);
                 if (img == null) {
                     byte[] bimg = cacheInputStream(uri.toURL());
                     img = GraphicsUtilities.loadCompatibleImage(new ByteArrayInputStream(bimg));//ImageIO.read(new URL(tile.url));
-                    cache.put(uri, bimg, img);
-                    img = cache.get(uri);
+                    if (img != null) {
+                        cache.put(uri, diskKey, bimg, img);
+                    }
                 }
                 if (img == null) {
                     System.out.println("error loading: " + uri);
@@ -300,6 +302,20 @@ public abstract class AbstractTileFactory extends TileFactory {
         return new URI(tile.getURL());
     }
 
+    /**
+     * Gets the disk cache key of a tile, which is provider/language/zoom/x/y.
+     * The language is part of the tile URL of some providers, so tiles of
+     * different languages are cached apart
+     *
+     * @param tile Tile
+     * @return Disk cache key
+     */
+    protected String getDiskKey(Tile tile) {
+        TileFactoryInfo info = getInfo();
+        return info.getName() + "/" + info.getLanguage() + "/" + tile.getZoom() + "/" + tile.getX() + "/"
+                + tile.getY();
+    }
+
     private byte[] cacheInputStream(URL url) throws IOException {
         InputStream ins = url.openStream();
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
@@ -386,12 +402,14 @@ public abstract class AbstractTileFactory extends TileFactory {
                 try {
                     BufferedImage img = null;
                     URI uri = getURI(tile);
-                    img = cache.get(uri);
+                    String diskKey = getDiskKey(tile);
+                    img = cache.get(uri, diskKey);
                     if (img == null) {
                         byte[] bimg = cacheInputStream(uri.toURL());
                         img = GraphicsUtilities.loadCompatibleImage(new ByteArrayInputStream(bimg));//ImageIO.read(new URL(tile.url));
-                        cache.put(uri, bimg, img);
-                        img = cache.get(uri);
+                        if (img != null) {
+                            cache.put(uri, diskKey, bimg, img);
+                        }
                     }
                     if (img == null) {
                         System.out.println("error loading: " + uri);
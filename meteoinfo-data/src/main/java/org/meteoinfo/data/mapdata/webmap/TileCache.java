@@ -9,30 +9,86 @@
 
 package org.meteoinfo.data.mapdata.webmap;
 
+import org.meteoinfo.common.util.TinyLFUCache;
+
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
-* An implementation only class for now. For internal use only.
+* Tile cache with three tiers: decoded images and compressed image bytes in
+* memory, and optionally compressed image files on disk so tiles survive
+* restarts. The memory tiers are concurrent W-TinyLFU caches with
+* configurable byte budgets, so the tile loading threads do not contend on
+* one lock.
 *
 * @author joshua.marinacci@sun.com
 */
 public class TileCache {
-  private final Map<URI, BufferedImage> imgmap = new HashMap<>();
-  private final LinkedList<URI> imgmapAccessQueue = new LinkedList<>();
-  private int imagesize = 0;
-  private final Map<URI, byte[]> bytemap = new HashMap<>();
-  private final LinkedList<URI> bytemapAccessQueue = new LinkedList<>();
-  private int bytesize = 0;
+  private static final long DEFAULT_BUDGET = 1000 * 1000 * 50;
+
+  private final TinyLFUCache<URI, BufferedImage> imageCache;
+  private final TinyLFUCache<URI, byte[]> byteCache;
+  private volatile File diskDirectory;
+  private final LongAdder diskHitCount = new LongAdder();
+  private final LongAdder diskMissCount = new LongAdder();
+
+  /**
+   * Constructor with 50 MB budgets for images and compressed bytes
+   */
+  public TileCache() {
+      this(DEFAULT_BUDGET, DEFAULT_BUDGET);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param imageBudget Memory budget of decoded images in bytes
+   * @param byteBudget Memory budget of compressed image bytes in bytes
+   */
+  public TileCache(long imageBudget, long byteBudget) {
+      this.imageCache = new TinyLFUCache<>(imageBudget, img -> (long) img.getWidth() * img.getHeight() * 4, 4);
+      this.byteCache = new TinyLFUCache<>(byteBudget, b -> b.length, 4);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param imageBudget Memory budget of decoded images in bytes
+   * @param byteBudget Memory budget of compressed image bytes in bytes
+   * @param diskDirectory Disk cache directory
+   */
+  public TileCache(long imageBudget, long byteBudget, File diskDirectory) {
+      this(imageBudget, byteBudget);
+      this.diskDirectory = diskDirectory;
+  }
+
+  /**
+   * Get disk cache directory
+   *
+   * @return Disk cache directory, null if tiles are not cached on disk
+   */
+  public File getDiskDirectory() {
+      return diskDirectory;
+  }
 
-    
-  public TileCache() { }
+  /**
+   * Set disk cache directory
+   *
+   * @param value Disk cache directory, null to not cache tiles on disk
+   */
+  public void setDiskDirectory(File value) {
+      this.diskDirectory = value;
+  }
 
   /**
    * Put a tile image into the cache. This puts both a buffered image and array of bytes that make up the compressed image.
@@ -45,19 +101,25 @@ public class TileCache {
    *            image to store in the cache
    */
   public void put(URI uri, byte[] bimg, BufferedImage img) {
-      synchronized (bytemap) {
-          while (bytesize > 1000 * 1000 * 50) {
-              URI olduri = bytemapAccessQueue.removeFirst();
-              byte[] oldbimg = bytemap.remove(olduri);
-              bytesize -= oldbimg.length;
-              p("removed 1 img from byte cache");
-          }
+      put(uri, null, bimg, img);
+  }
 
-          bytemap.put(uri, bimg);
-          bytesize += bimg.length;
-          bytemapAccessQueue.addLast(uri);
+  /**
+   * Put a tile image into the cache, and into the disk cache if the disk key
+   * is not null.
+   *
+   * @param uri URI of image that is being stored in the cache
+   * @param diskKey Relative disk cache path of the tile, like provider/zoom/x/y
+   * @param bimg bytes of the compressed image
+   * @param img image to store in the cache
+   */
+  public void put(URI uri, String diskKey, byte[] bimg, BufferedImage img) {
+      byteCache.put(uri, bimg);
+      imageCache.put(uri, img);
+      File file = diskFile(diskKey);
+      if (file != null) {
+          writeFile(file, bimg);
       }
-      addToImageCache(uri, img);
   }
 
   /**
@@ -69,56 +131,147 @@ public class TileCache {
    * @throws IOException
    */
   public BufferedImage get(URI uri) throws IOException {
-      synchronized (imgmap) {
-          if (imgmap.containsKey(uri)) {
-              imgmapAccessQueue.remove(uri);
-              imgmapAccessQueue.addLast(uri);
-              return imgmap.get(uri);
-          }
+      return get(uri, null);
+  }
+
+  /**
+   * Returns a buffered image for the requested URI from the memory tiers, or
+   * from the disk cache if the disk key is not null.
+   *
+   * @param uri URI of the image previously put in the cache
+   * @param diskKey Relative disk cache path of the tile, like provider/zoom/x/y
+   * @return the image matching the requested URI, or null if not available
+   * @throws IOException
+   */
+  public BufferedImage get(URI uri, String diskKey) throws IOException {
+      BufferedImage img = imageCache.get(uri);
+      if (img != null) {
+          return img;
       }
-      synchronized (bytemap) {
-          if (bytemap.containsKey(uri)) {
-              p("retrieving from bytes");
-              bytemapAccessQueue.remove(uri);
-              bytemapAccessQueue.addLast(uri);
-              BufferedImage img = ImageIO.read(new ByteArrayInputStream(bytemap.get(uri)));
-              addToImageCache(uri, img);
-              return img;
+
+      byte[] bimg = byteCache.get(uri);
+      if (bimg == null) {
+          File file = diskFile(diskKey);
+          if (file == null) {
+              return null;
           }
+          if (!file.isFile()) {
+              diskMissCount.increment();
+              return null;
+          }
+          bimg = Files.readAllBytes(file.toPath());
+          img = decode(bimg);
+          if (img == null) {
+              //Corrupt or truncated file, the tile is downloaded and written again
+              diskMissCount.increment();
+              Files.deleteIfExists(file.toPath());
+              return null;
+          }
+          diskHitCount.increment();
+          byteCache.put(uri, bimg);
+      } else {
+          img = ImageIO.read(new ByteArrayInputStream(bimg));
+      }
+
+      if (img != null) {
+          imageCache.put(uri, img);
+      }
+      return img;
+  }
+
+  private static BufferedImage decode(byte[] bimg) {
+      try {
+          return ImageIO.read(new ByteArrayInputStream(bimg));
+      } catch (IOException | RuntimeException ex) {
+          return null;
       }
-      return null;
   }
 
   /**
-   * Request that the cache free up some memory. How this happens or how much memory is freed is up to the TileCache implementation. Subclasses can implement
-   * their own strategy. The default strategy is to clear out all buffered images but retain the compressed versions.
+   * Request that the cache free up some memory. Half of the decoded images
+   * are evicted, the compressed versions are retained.
    */
   public void needMoreMemory() {
-      imgmap.clear();
-      p("HACK! need more memory: freeing up memory");
-  }
-
-    
-    
-  private void addToImageCache(final URI uri, final BufferedImage img) {
-      synchronized (imgmap) {
-          while (imagesize > 1000 * 1000 * 50) {
-              URI olduri = imgmapAccessQueue.removeFirst();
-              BufferedImage oldimg = imgmap.remove(olduri);
-              imagesize -= oldimg.getWidth() * oldimg.getHeight() * 4;
-              p("removed 1 img from image cache");
-          }
+      imageCache.trim(0.5);
+  }
+
+  /**
+   * Remove all tiles from the memory tiers
+   */
+  public void clear() {
+      imageCache.clear();
+      byteCache.clear();
+  }
+
+  /**
+   * Get decoded image cache, for its size and hit, miss and eviction counts
+   *
+   * @return Image cache
+   */
+  public TinyLFUCache<URI, BufferedImage> getImageCache() {
+      return imageCache;
+  }
 
-          imgmap.put(uri, img);
-          imagesize += img.getWidth() * img.getHeight() * 4;
-          imgmapAccessQueue.addLast(uri);
+  /**
+   * Get compressed image bytes cache, for its size and hit, miss and
+   * eviction counts
+   *
+   * @return Compressed image bytes cache
+   */
+  public TinyLFUCache<URI, byte[]> getByteCache() {
+      return byteCache;
+  }
+
+  /**
+   * Get number of tiles read from the disk cache
+   *
+   * @return Disk hit count
+   */
+  public long getDiskHitCount() {
+      return diskHitCount.sum();
+  }
+
+  /**
+   * Get number of tiles not found in the disk cache
+   *
+   * @return Disk miss count
+   */
+  public long getDiskMissCount() {
+      return diskMissCount.sum();
+  }
+
+  private File diskFile(String diskKey) {
+      File dir = diskDirectory;
+      if (dir == null || diskKey == null) {
+          return null;
+      }
+      return new File(dir, diskKey.replaceAll("[^A-Za-z0-9_./-]", "_").replace("..", "_") + ".tile");
+  }
+
+  /**
+   * Write a tile file through a temporary file and an atomic move, so a
+   * reader never sees a partly written file and an existing file is replaced.
+   */
+  private void writeFile(File file, byte[] bimg) {
+      Path tmp = null;
+      try {
+          Path dir = file.getParentFile().toPath();
+          Files.createDirectories(dir);
+          tmp = Files.createTempFile(dir, file.getName(), ".tmp");
+          Files.write(tmp, bimg);
+          Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException ex) {
+          Logger.getLogger(TileCache.class.getName()).log(Level.WARNING, null, ex);
+          if (tmp != null) {
+              tmp.toFile().delete();
+          }
       }
-      p("added to cache: " + " uncompressed = " + imgmap.keySet().size() + " / " + imagesize / 1000 + "k" + " compressed = " + bytemap.keySet().size()
-              + " / " + bytesize / 1000 + "k");
   }
 
-  private void p(String string) {
-        //System.out.println(string);
+  @Override
+  public String toString() {
+      return "TileCache[images=" + imageCache + ", bytes=" + byteCache + ", diskHits=" + getDiskHitCount()
+              + ", diskMisses=" + getDiskMissCount() + "]";
   }
 
 }
@@ -0,0 +1,253 @@
+package org.meteoinfo.data.meteodata;
+
+import org.meteoinfo.data.meteodata.arl.ARLDataInfo;
+import org.meteoinfo.data.meteodata.grads.GrADSDataInfo;
+import org.meteoinfo.data.meteodata.matlab.MatLabDataInfo;
+import org.meteoinfo.data.meteodata.micaps.*;
+import org.meteoinfo.data.meteodata.netcdf.NetCDFDataInfo;
+import org.meteoinfo.data.meteodata.radar.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent binary index cache of opened data files.
+ * <p>
+ * An index entry is a file in the cache directory keyed by the absolute path
+ * of a data file, and holds the size and the modified time of the data file,
+ * the detected data info class and, for {@link IIndexedDataInfo} formats, the
+ * metadata read from the file. Reopening an unchanged file skips the format
+ * probing, and the header and record scanning of indexed formats. Entries of
+ * changed files are rewritten when the files are opened again.
+ * <p>
+ * The cache directory defaults to {@code .meteoinfo/index} in the user home
+ * directory. Only the data info formats detected by
+ * {@link MeteoDataInfo#getDataInfo(String)} are instantiated from an entry,
+ * entries naming other classes are ignored.
+ *
+ * @author wyq
+ */
+public class DataIndexCache {
+
+    private static final int MAGIC = 0x4D494458;
+    private static final int VERSION = 1;
+
+    private static volatile boolean enabled = false;
+    private static volatile File cacheDir = new File(System.getProperty("user.home"),
+            ".meteoinfo" + File.separator + "index");
+    private static final Map<String, Supplier<DataInfo>> formats = new HashMap<>();
+
+    static {
+        addFormat(ARLDataInfo.class, ARLDataInfo::new);
+        addFormat(GrADSDataInfo.class, GrADSDataInfo::new);
+        addFormat(MatLabDataInfo.class, MatLabDataInfo::new);
+        addFormat(NetCDFDataInfo.class, NetCDFDataInfo::new);
+        addFormat(MDFSDataInfo.class, MDFSDataInfo::new);
+        addFormat(MICAPS1DataInfo.class, MICAPS1DataInfo::new);
+        addFormat(MICAPS2DataInfo.class, MICAPS2DataInfo::new);
+        addFormat(MICAPS3DataInfo.class, MICAPS3DataInfo::new);
+        addFormat(MICAPS4DataInfo.class, MICAPS4DataInfo::new);
+        addFormat(MICAPS7DataInfo.class, MICAPS7DataInfo::new);
+        addFormat(MICAPS11DataInfo.class, MICAPS11DataInfo::new);
+        addFormat(MICAPS13DataInfo.class, MICAPS13DataInfo::new);
+        addFormat(MICAPS120DataInfo.class, MICAPS120DataInfo::new);
+        addFormat(MICAPS131DataInfo.class, MICAPS131DataInfo::new);
+        addFormat(StandardRadarDataInfo.class, StandardRadarDataInfo::new);
+        addFormat(PARadarDataInfo.class, PARadarDataInfo::new);
+        addFormat(SABRadarDataInfo.class, SABRadarDataInfo::new);
+        addFormat(CCRadarDataInfo.class, CCRadarDataInfo::new);
+        addFormat(SCRadarDataInfo.class, SCRadarDataInfo::new);
+    }
+
+    private static void addFormat(Class<? extends DataInfo> cls, Supplier<DataInfo> supplier) {
+        formats.put(cls.getName(), supplier);
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get whether the index cache is enabled
+     *
+     * @return Enabled or not
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set whether the index cache is enabled
+     *
+     * @param value Enabled or not
+     */
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    /**
+     * Get cache directory
+     *
+     * @return Cache directory
+     */
+    public static String getCacheDirectory() {
+        return cacheDir.getPath();
+    }
+
+    /**
+     * Set cache directory
+     *
+     * @param value Cache directory
+     */
+    public static void setCacheDirectory(String value) {
+        cacheDir = new File(value);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Get whether a data info class can be restored from an index entry
+     *
+     * @param className Data info class name
+     * @return Allowed or not
+     */
+    public static boolean isAllowed(String className) {
+        return formats.containsKey(className);
+    }
+
+    private static File getIndexFile(String path) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(path.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return new File(cacheDir, sb.append(".idx").toString());
+        } catch (NoSuchAlgorithmException e) {
+            return new File(cacheDir, Integer.toHexString(path.hashCode()) + ".idx");
+        }
+    }
+
+    /**
+     * Open a data file from its index entry
+     *
+     * @param fileName File name
+     * @param keepOpen Keep the file opened or not, for NetCDF data
+     * @return Data info with the metadata read, null if there is no valid
+     * index entry of the file
+     */
+    public static DataInfo open(String fileName, boolean keepOpen) {
+        File file = new File(fileName);
+        File indexFile = getIndexFile(file.getAbsolutePath());
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(file.getAbsolutePath())
+                    || in.readLong() != attrs.size()
+                    || in.readLong() != attrs.lastModifiedTime().toMillis()) {
+                return null;
+            }
+            Supplier<DataInfo> format = formats.get(in.readUTF());
+            if (format == null) {
+                return null;
+            }
+            DataInfo dataInfo = format.get();
+            if (in.readBoolean() && dataInfo instanceof IIndexedDataInfo) {
+                if (((IIndexedDataInfo) dataInfo).readIndex(fileName, in)) {
+                    return dataInfo;
+                }
+                dataInfo = format.get();
+            }
+            if (dataInfo.getClass() == NetCDFDataInfo.class) {
+                dataInfo.readDataInfo(fileName, keepOpen);
+            } else {
+                dataInfo.readDataInfo(fileName);
+            }
+            return dataInfo;
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(DataIndexCache.class.getName()).log(Level.WARNING, "Invalid index of " + fileName, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Save the index entry of an opened data file. The entry is written to a
+     * temporary file and moved in place, so concurrent readers never see a
+     * partial entry. Data info classes not allowed are not saved.
+     *
+     * @param fileName File name
+     * @param dataInfo Data info with the metadata read
+     */
+    public static void save(String fileName, DataInfo dataInfo) {
+        File file = new File(fileName);
+        if (!file.isFile() || !isAllowed(dataInfo.getClass().getName())) {
+            return;
+        }
+        File indexFile = getIndexFile(file.getAbsolutePath());
+        File tempFile = null;
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            tempFile = File.createTempFile("index", ".tmp", cacheDir);
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(file.getAbsolutePath());
+                out.writeLong(attrs.size());
+                out.writeLong(attrs.lastModifiedTime().toMillis());
+                out.writeUTF(dataInfo.getClass().getName());
+                boolean indexed = dataInfo instanceof IIndexedDataInfo;
+                out.writeBoolean(indexed);
+                if (indexed) {
+                    ((IIndexedDataInfo) dataInfo).writeIndex(out);
+                }
+            }
+            try {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(DataIndexCache.class.getName()).log(Level.WARNING, "Failed to save index of " +
+                    fileName, ex);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove the index entry of a data file
+     *
+     * @param fileName File name
+     */
+    public static void remove(String fileName) {
+        getIndexFile(new File(fileName).getAbsolutePath()).delete();
+    }
+
+    /**
+     * Remove all index entries
+     */
+    public static void clear() {
+        File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(".idx"));
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,32 @@
+package org.meteoinfo.data.meteodata;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Data info whose metadata can be saved to and restored from the binary
+ * index of {@link DataIndexCache}, so reopening a file skips scanning it.
+ *
+ * @author wyq
+ */
+public interface IIndexedDataInfo {
+
+    /**
+     * Write the metadata read by readDataInfo
+     *
+     * @param out Output stream
+     * @throws IOException
+     */
+    void writeIndex(DataOutputStream out) throws IOException;
+
+    /**
+     * Restore the metadata instead of calling readDataInfo
+     *
+     * @param fileName File name
+     * @param in Input stream
+     * @return Restored or not
+     * @throws IOException
+     */
+    boolean readIndex(String fileName, DataInputStream in) throws IOException;
+}
@@ -523,12 +523,21 @@ public class MeteoDataInfo {
     }
 
     /**
-     * Open data file
+     * Open data file, through the index entry of the file when the index
+     * cache is enabled
      *
      * @param fileName File name
      * @param keepOpen Keep the file opened or not
      */
     public void openData(String fileName, boolean keepOpen) {
+        if (DataIndexCache.isEnabled()) {
+            this.dataInfo = DataIndexCache.open(fileName, keepOpen);
+            if (this.dataInfo != null) {
+                this._infoText = dataInfo.generateInfoText();
+                return;
+            }
+        }
+
         this.dataInfo = getDataInfo(fileName);
         if (dataInfo != null) {
             if (dataInfo.getClass() == NetCDFDataInfo.class) {
@@ -537,6 +546,9 @@ public class MeteoDataInfo {
                 dataInfo.readDataInfo(fileName);
             }
             this._infoText = dataInfo.generateInfoText();
+            if (DataIndexCache.isEnabled()) {
+                DataIndexCache.save(fileName, dataInfo);
+            }
         }
     }
     
@@ -561,6 +573,10 @@ public class MeteoDataInfo {
             } catch (IOException ex) {
                 Logger.getLogger(MeteoDataInfo.class.getName()).log(Level.SEVERE, null, ex);
             }
+        } else if (this.dataInfo instanceof GrADSDataInfo) {
+            ((GrADSDataInfo) this.dataInfo).close();
+        } else if (this.dataInfo instanceof ARLDataInfo) {
+            ((ARLDataInfo) this.dataInfo).close();
         }
     }
 
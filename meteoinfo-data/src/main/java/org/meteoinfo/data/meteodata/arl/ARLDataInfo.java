@@ -16,6 +16,7 @@ package org.meteoinfo.data.meteodata.arl;
 import org.locationtech.proj4j.proj.Projection;
 import org.meteoinfo.common.DataConvert;
 import org.meteoinfo.common.MIMath;
+import org.meteoinfo.common.io.MappedFile;
 import org.meteoinfo.common.util.GlobalUtil;
 import org.meteoinfo.common.util.JDateUtil;
 import org.meteoinfo.data.GridArray;
@@ -25,33 +26,40 @@ import org.meteoinfo.data.dimarray.DimensionType;
 import org.meteoinfo.data.meteodata.*;
 import org.meteoinfo.ndarray.*;
 import org.meteoinfo.ndarray.math.ArrayMath;
+import org.meteoinfo.ndarray.math.ArrayParallel;
 import org.meteoinfo.ndarray.util.BigDecimalUtil;
 import org.meteoinfo.projection.KnownCoordinateSystems;
 import org.meteoinfo.projection.ProjectionInfo;
 import org.meteoinfo.projection.ProjectionNames;
 import org.meteoinfo.projection.Reproject;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.DecimalFormat;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 /**
  * Template
  *
  * @author Yaqiang Wang
  */
-public class ARLDataInfo extends DataInfo implements IGridDataInfo {
+public class ARLDataInfo extends DataInfo implements IGridDataInfo, IIndexedDataInfo {
 
     // <editor-fold desc="Variables">
     //private FileStream _fs = null;
@@ -120,6 +128,9 @@ public class ARLDataInfo extends DataInfo implements IGridDataInfo {
     //private DataOutputStream _bw = null;
     private RandomAccessFile _bw = null;
     private long indexRecPos = 0;
+    //Record offset of each level from the index records of a time
+    private int[] levelRecOffsets;
+    private MappedFile mappedFile;
     // </editor-fold>
     // <editor-fold desc="Constructor">
 
@@ -227,6 +238,7 @@ public class ARLDataInfo extends DataInfo implements IGridDataInfo {
      */
     @Override
     public void readDataInfo(String fileName) {
+        close();
         this.setFileName(fileName);
         try {
             RandomAccessFile br = new RandomAccessFile(fileName, "r");
@@ -329,84 +341,15 @@ public class ARLDataInfo extends DataInfo implements IGridDataInfo {
             }
             levelNum = aDH.NZ;
             recsPerTime = recNum + indexRecNum;
+            levelRecOffsets = new int[LevelVarList.size()];
+            for (i = 1; i < levelRecOffsets.length; i++) {
+                levelRecOffsets[i] = levelRecOffsets[i - 1] + LevelVarList.get(i - 1).size();
+            }
 
 //            if (!aDL.Variable.equals("INDX")) {
 //                //ErrorStr = "WARNING Old format meteo data grid!" + Environment.NewLine + aDL.Variable;
 //                return;
 //            }
-            //Decide projection            
-            dataHead = aDH;
-            if (aDH.SIZE == 0) {
-                isLatLon = true;
-                X = new double[aDH.NX];
-                Y = new double[aDH.NY];
-                double xmin = BigDecimalUtil.toDouble(aDH.SYNC_LON);
-                double xdelta = BigDecimalUtil.toDouble(aDH.REF_LON);
-                X[0] = xmin;
-                for (i = 1; i < aDH.NX; i++) {
-                    X[i] = BigDecimalUtil.add(X[i-1], xdelta);
-                }
-                if (X[aDH.NX - 1] + aDH.REF_LON - X[0] == 360) {
-                    isGlobal = true;
-                }
-                double ymin = BigDecimalUtil.toDouble(aDH.SYNC_LAT);
-                double ydelta = BigDecimalUtil.toDouble(aDH.REF_LAT);
-                Y[0] = ymin;
-                for (i = 1; i < aDH.NY; i++) {
-                    Y[i] = BigDecimalUtil.add(Y[i-1], ydelta);
-                }
-            } else {
-                //Identify projection
-                isLatLon = false;
-                String ProjStr;
-                ProjectionInfo theProj;
-                if (aDH.POLE_LAT == 90 || aDH.POLE_LAT == -90) {
-                    if (aDH.TANG_LAT == 90 || aDH.TANG_LAT == -90) {
-                        ProjStr = "+proj=stere"
-                                + "+lat_ts=" + String.valueOf(aDH.REF_LAT)
-                                + "+lat_0=" + String.valueOf(aDH.TANG_LAT)
-                                + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
-                    } else if (aDH.TANG_LAT == 0) {
-                        ProjStr = "+proj=merc"
-                                + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
-                    } else {
-                        ProjStr = "+proj=lcc"
-                                + "+lat_0=" + String.valueOf(aDH.REF_LAT)
-                                + "+lat_1=" + String.valueOf(aDH.TANG_LAT)
-                                + "+lat_2=" + String.valueOf(aDH.TANG_LAT)
-                                + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
-                    }
-                } else if (aDH.TANG_LAT == 0) {
-                    ProjStr = "+proj=tmerc"
-                            + "+lat_0=" + String.valueOf(aDH.POLE_LAT)
-                            + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
-                } else {
-                    ProjStr = "+proj=lcc"
-                            + "+lat_0=" + String.valueOf(aDH.REF_LAT)
-                            + "+lat_1=" + String.valueOf(aDH.TANG_LAT)
-                            + "+lat_2=" + String.valueOf(aDH.TANG_LAT)
-                            + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
-                }
-
-                theProj = ProjectionInfo.factory(ProjStr);
-                this.setProjectionInfo(theProj);
-
-                //Set X Y
-                X = new double[aDH.NX];
-                Y = new double[aDH.NY];
-                getProjectedXY(theProj, aDH.SIZE * 1000, aDH.SYNC_XP, aDH.SYNC_YP, aDH.SYNC_LON,
-                        aDH.SYNC_LAT, X, Y);
-            }
-
-            Dimension xDim = new Dimension(DimensionType.X);
-            xDim.setValues(X);
-            this.setXDimension(xDim);
-            this.addDimension(xDim);
-            Dimension yDim = new Dimension(DimensionType.Y);
-            yDim.setValues(Y);
-            this.setYDimension(yDim);
-            this.addDimension(yDim);
-
             //Reopen
             LocalDateTime aTime, oldTime;
             int timeNum = 0;
@@ -469,115 +412,302 @@ public class ARLDataInfo extends DataInfo implements IGridDataInfo {
                 times = newTimes;
             }*/
 
-            //Set dimensions
-            List<Double> values = new ArrayList<>();
-            for (LocalDateTime t : times) {
-                values.add(JDateUtil.toOADate(t));
+            initDataInfo(aDH, times);
+        } catch (IOException ex) {
+            Logger.getLogger(ARLDataInfo.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Set projection, dimensions and variables from the data head, the level
+     * variable list and the times
+     *
+     * @param aDH Data head
+     * @param times Times
+     */
+    private void initDataInfo(DataHead aDH, List<LocalDateTime> times) {
+        int i, j;
+        String vName;
+        List<String> vList = new ArrayList<>();
+        //Decide projection            
+        dataHead = aDH;
+        if (aDH.SIZE == 0) {
+            isLatLon = true;
+            X = new double[aDH.NX];
+            Y = new double[aDH.NY];
+            double xmin = BigDecimalUtil.toDouble(aDH.SYNC_LON);
+            double xdelta = BigDecimalUtil.toDouble(aDH.REF_LON);
+            X[0] = xmin;
+            for (i = 1; i < aDH.NX; i++) {
+                X[i] = BigDecimalUtil.add(X[i-1], xdelta);
             }
-            Dimension tDim = new Dimension(DimensionType.T);
-            tDim.setValues(values);
-            this.setTimeDimension(tDim);
-            this.addDimension(tDim);
-
-            Variable aVar;
-            vList.clear();
-            int varIdx;
-            List<Variable> variables = new ArrayList<>();
-            for (i = 0; i < LevelVarList.size(); i++) {
-                for (j = 0; j < LevelVarList.get(i).size(); j++) {
-                    vName = LevelVarList.get(i).get(j);
-                    if (!vList.contains(vName)) {
-                        vList.add(vName);
-                        aVar = new Variable();
-                        aVar.setName(vName);
-                        aVar.setDataType(DataType.FLOAT);
-                        aVar.addAttribute("long_name", vName);
-                        aVar.getLevels().add(levels.get(i));
-                        aVar.getLevelIdxs().add(i);
-                        aVar.getVarInLevelIdxs().add(j);
-                        variables.add(aVar);
-                    } else {
-                        varIdx = vList.indexOf(vName);
-                        aVar = variables.get(varIdx);
-                        aVar.getLevels().add(levels.get(i));
-                        aVar.getLevelIdxs().add(i);
-                        aVar.getVarInLevelIdxs().add(j);
-                        //variables.set(varIdx, aVar);
-                    }
+            if (X[aDH.NX - 1] + aDH.REF_LON - X[0] == 360) {
+                isGlobal = true;
+            }
+            double ymin = BigDecimalUtil.toDouble(aDH.SYNC_LAT);
+            double ydelta = BigDecimalUtil.toDouble(aDH.REF_LAT);
+            Y[0] = ymin;
+            for (i = 1; i < aDH.NY; i++) {
+                Y[i] = BigDecimalUtil.add(Y[i-1], ydelta);
+            }
+        } else {
+            //Identify projection
+            isLatLon = false;
+            String ProjStr;
+            ProjectionInfo theProj;
+            if (aDH.POLE_LAT == 90 || aDH.POLE_LAT == -90) {
+                if (aDH.TANG_LAT == 90 || aDH.TANG_LAT == -90) {
+                    ProjStr = "+proj=stere"
+                            + "+lat_ts=" + String.valueOf(aDH.REF_LAT)
+                            + "+lat_0=" + String.valueOf(aDH.TANG_LAT)
+                            + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
+                } else if (aDH.TANG_LAT == 0) {
+                    ProjStr = "+proj=merc"
+                            + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
+                } else {
+                    ProjStr = "+proj=lcc"
+                            + "+lat_0=" + String.valueOf(aDH.REF_LAT)
+                            + "+lat_1=" + String.valueOf(aDH.TANG_LAT)
+                            + "+lat_2=" + String.valueOf(aDH.TANG_LAT)
+                            + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
                 }
+            } else if (aDH.TANG_LAT == 0) {
+                ProjStr = "+proj=tmerc"
+                        + "+lat_0=" + String.valueOf(aDH.POLE_LAT)
+                        + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
+            } else {
+                ProjStr = "+proj=lcc"
+                        + "+lat_0=" + String.valueOf(aDH.REF_LAT)
+                        + "+lat_1=" + String.valueOf(aDH.TANG_LAT)
+                        + "+lat_2=" + String.valueOf(aDH.TANG_LAT)
+                        + "+lon_0=" + String.valueOf(aDH.REF_LON + aDH.ORIENT);
             }
 
-            List<Dimension> zdims = new ArrayList<>();
-            Dimension zDim;
-            int len;
-            for (Variable var : variables) {
-                var.setDimension(this.getTimeDimension());
-                len = var.getLevels().size();
-                if (len > 1){
-                    zDim = null;
-                    for (Dimension dim : zdims){
-                        if (dim.getLength() == len){
-                            zDim = dim;
-                            break;
-                        }
-                    }
-                    if (zDim == null){
-                        zDim = new Dimension(DimensionType.Z);
-                        zDim.setName("Z_" + String.valueOf(len));
-                        zDim.setValues(var.getLevels());
-                        zdims.add(zDim);
-                        this.addDimension(zDim);
+            theProj = ProjectionInfo.factory(ProjStr);
+            this.setProjectionInfo(theProj);
+
+            //Set X Y
+            X = new double[aDH.NX];
+            Y = new double[aDH.NY];
+            getProjectedXY(theProj, aDH.SIZE * 1000, aDH.SYNC_XP, aDH.SYNC_YP, aDH.SYNC_LON,
+                    aDH.SYNC_LAT, X, Y);
+        }
+
+        Dimension xDim = new Dimension(DimensionType.X);
+        xDim.setValues(X);
+        this.setXDimension(xDim);
+        this.addDimension(xDim);
+        Dimension yDim = new Dimension(DimensionType.Y);
+        yDim.setValues(Y);
+        this.setYDimension(yDim);
+        this.addDimension(yDim);
+
+        //Set dimensions
+        List<Double> values = new ArrayList<>();
+        for (LocalDateTime t : times) {
+            values.add(JDateUtil.toOADate(t));
+        }
+        Dimension tDim = new Dimension(DimensionType.T);
+        tDim.setValues(values);
+        this.setTimeDimension(tDim);
+        this.addDimension(tDim);
+
+        Variable aVar;
+        vList.clear();
+        int varIdx;
+        List<Variable> variables = new ArrayList<>();
+        for (i = 0; i < LevelVarList.size(); i++) {
+            for (j = 0; j < LevelVarList.get(i).size(); j++) {
+                vName = LevelVarList.get(i).get(j);
+                if (!vList.contains(vName)) {
+                    vList.add(vName);
+                    aVar = new Variable();
+                    aVar.setName(vName);
+                    aVar.setDataType(DataType.FLOAT);
+                    aVar.addAttribute("long_name", vName);
+                    aVar.getLevels().add(levels.get(i));
+                    aVar.getLevelIdxs().add(i);
+                    aVar.getVarInLevelIdxs().add(j);
+                    variables.add(aVar);
+                } else {
+                    varIdx = vList.indexOf(vName);
+                    aVar = variables.get(varIdx);
+                    aVar.getLevels().add(levels.get(i));
+                    aVar.getLevelIdxs().add(i);
+                    aVar.getVarInLevelIdxs().add(j);
+                    //variables.set(varIdx, aVar);
+                }
+            }
+        }
+
+        List<Dimension> zdims = new ArrayList<>();
+        Dimension zDim;
+        int len;
+        for (Variable var : variables) {
+            var.setDimension(this.getTimeDimension());
+            len = var.getLevels().size();
+            if (len > 1){
+                zDim = null;
+                for (Dimension dim : zdims){
+                    if (dim.getLength() == len){
+                        zDim = dim;
+                        break;
                     }
-                    var.setDimension(zDim);
                 }
-                var.setDimension(this.getYDimension());
-                var.setDimension(this.getXDimension());
+                if (zDim == null){
+                    zDim = new Dimension(DimensionType.Z);
+                    zDim.setName("Z_" + String.valueOf(len));
+                    zDim.setValues(var.getLevels());
+                    zdims.add(zDim);
+                    this.addDimension(zDim);
+                }
+                var.setDimension(zDim);
             }
-            this.setTimes(times);
-            this.setVariables(variables);
+            var.setDimension(this.getYDimension());
+            var.setDimension(this.getXDimension());
+        }
+        this.setTimes(times);
+        this.setVariables(variables);
+    }
+
+    /**
+     * Write the metadata read by readDataInfo
+     *
+     * @param out Output stream
+     * @throws IOException
+     */
+    @Override
+    public void writeIndex(DataOutputStream out) throws IOException {
+        out.writeLong(recLen);
+        out.writeLong(indexLen);
+        out.writeInt(recsPerTime);
+        DataHead aDH = dataHead;
+        out.writeUTF(aDH.MODEL);
+        out.writeInt(aDH.ICX);
+        out.writeShort(aDH.MN);
+        for (float v : new float[]{aDH.POLE_LAT, aDH.POLE_LON, aDH.REF_LAT, aDH.REF_LON, aDH.SIZE, aDH.ORIENT,
+                aDH.TANG_LAT, aDH.SYNC_XP, aDH.SYNC_YP, aDH.SYNC_LAT, aDH.SYNC_LON, aDH.DUMMY}) {
+            out.writeFloat(v);
+        }
+        out.writeInt(aDH.NX);
+        out.writeInt(aDH.NY);
+        out.writeInt(aDH.NZ);
+        out.writeShort(aDH.K_FLAG);
+        out.writeInt(aDH.LENH);
+        out.writeInt(levels.size());
+        for (int i = 0; i < levels.size(); i++) {
+            out.writeDouble(levels.get(i));
+            List<String> vars = LevelVarList.get(i);
+            out.writeInt(vars.size());
+            for (String vName : vars) {
+                out.writeUTF(vName);
+            }
+        }
+        List<LocalDateTime> times = this.getTimes();
+        out.writeInt(times.size());
+        for (LocalDateTime t : times) {
+            out.writeLong(t.toEpochSecond(ZoneOffset.UTC));
+        }
+    }
+
+    /**
+     * Restore the metadata instead of calling readDataInfo
+     *
+     * @param fileName File name
+     * @param in Input stream
+     * @return Restored or not
+     * @throws IOException
+     */
+    @Override
+    public boolean readIndex(String fileName, DataInputStream in) throws IOException {
+        close();
+        this.setFileName(fileName);
+        recLen = in.readLong();
+        indexLen = in.readLong();
+        recsPerTime = in.readInt();
+        DataHead aDH = new DataHead();
+        aDH.MODEL = in.readUTF();
+        aDH.ICX = in.readInt();
+        aDH.MN = in.readShort();
+        aDH.POLE_LAT = in.readFloat();
+        aDH.POLE_LON = in.readFloat();
+        aDH.REF_LAT = in.readFloat();
+        aDH.REF_LON = in.readFloat();
+        aDH.SIZE = in.readFloat();
+        aDH.ORIENT = in.readFloat();
+        aDH.TANG_LAT = in.readFloat();
+        aDH.SYNC_XP = in.readFloat();
+        aDH.SYNC_YP = in.readFloat();
+        aDH.SYNC_LAT = in.readFloat();
+        aDH.SYNC_LON = in.readFloat();
+        aDH.DUMMY = in.readFloat();
+        aDH.NX = in.readInt();
+        aDH.NY = in.readInt();
+        aDH.NZ = in.readInt();
+        aDH.K_FLAG = in.readShort();
+        aDH.LENH = in.readInt();
+        int nz = in.readInt();
+        for (int i = 0; i < nz; i++) {
+            levels.add(in.readDouble());
+            int n = in.readInt();
+            List<String> vars = new ArrayList<>(n);
+            for (int j = 0; j < n; j++) {
+                vars.add(in.readUTF());
+            }
+            LevelVarList.add(vars);
+        }
+        levelNum = aDH.NZ;
+        levelRecOffsets = new int[LevelVarList.size()];
+        for (int i = 1; i < levelRecOffsets.length; i++) {
+            levelRecOffsets[i] = levelRecOffsets[i - 1] + LevelVarList.get(i - 1).size();
+        }
+        int tNum = in.readInt();
+        List<LocalDateTime> times = new ArrayList<>(tNum);
+        for (int i = 0; i < tNum; i++) {
+            times.add(LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC));
+        }
+        initDataInfo(aDH, times);
+        return true;
+    }
+
+    private static DataLabel readDataLabel(RandomAccessFile br) {
+        try {
+            byte[] bytes = new byte[50];
+            br.read(bytes);
+            return parseDataLabel(bytes);
         } catch (IOException ex) {
             Logger.getLogger(ARLDataInfo.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
         }
     }
 
-    private static DataLabel readDataLabel(RandomAccessFile br) {
+    /**
+     * Parse the 50 bytes standard label of a record
+     *
+     * @param bytes Label bytes
+     * @return Data label, null if the label is not valid
+     */
+    private static DataLabel parseDataLabel(byte[] bytes) {
         try {
             DataLabel aDL = new DataLabel();
-            byte[] bytes = new byte[2];
-            br.read(bytes);
-            aDL.setYear(Short.parseShort(new String(bytes).trim()));
-            br.read(bytes);
-            aDL.setMonth(Short.parseShort(new String(bytes).trim()));
-            br.read(bytes);
-            aDL.setDay(Short.parseShort(new String(bytes).trim()));
-            br.read(bytes);
-            aDL.setHour(Short.parseShort(new String(bytes).trim()));
-            br.read(bytes);
-            aDL.setForecast(Short.parseShort(new String(bytes).trim()));
-            br.read(bytes);
-            aDL.setLevel(Short.parseShort(new String(bytes).trim()));
-            br.read(bytes);
-            String gridStr = new String(bytes).trim();
+            aDL.setYear(Short.parseShort(new String(bytes, 0, 2).trim()));
+            aDL.setMonth(Short.parseShort(new String(bytes, 2, 2).trim()));
+            aDL.setDay(Short.parseShort(new String(bytes, 4, 2).trim()));
+            aDL.setHour(Short.parseShort(new String(bytes, 6, 2).trim()));
+            aDL.setForecast(Short.parseShort(new String(bytes, 8, 2).trim()));
+            aDL.setLevel(Short.parseShort(new String(bytes, 10, 2).trim()));
+            String gridStr = new String(bytes, 12, 2).trim();
             if (MIMath.isNumeric(gridStr)) {
                 aDL.setGrid(Short.parseShort(gridStr));
             } else {
                 aDL.XGPT = true;
                 aDL.IGC = gridStr;
             }
-            bytes = new byte[4];
-            br.read(bytes);
-            aDL.setVarName(new String(bytes).trim());
-            br.read(bytes);
-            aDL.setExponent(Integer.parseInt(new String(bytes).trim()));
-            bytes = new byte[14];
-            br.read(bytes);
-            aDL.setPrecision(Double.parseDouble(new String(bytes).trim()));
-            br.read(bytes);
-            aDL.setValue(Double.parseDouble(new String(bytes).trim()));
+            aDL.setVarName(new String(bytes, 14, 4).trim());
+            aDL.setExponent(Integer.parseInt(new String(bytes, 18, 4).trim()));
+            aDL.setPrecision(Double.parseDouble(new String(bytes, 22, 14).trim()));
+            aDL.setValue(Double.parseDouble(new String(bytes, 36, 14).trim()));
             return aDL;
-        } catch (IOException ex) {
-            Logger.getLogger(ARLDataInfo.class.getName()).log(Level.SEVERE, null, ex);
-            return null;
         } catch (NumberFormatException e) {
             return null;
         }
@@ -792,65 +922,124 @@ public class ARLDataInfo extends DataInfo implements IGridDataInfo {
             Range yRange = section.getRange(rangeIdx++);
             Range xRange = section.getRange(rangeIdx);
 
-            IndexIterator ii = dataArray.getIndexIterator();
-
-            for (int timeIdx = timeRange.first(); timeIdx <= timeRange.last();
-                    timeIdx += timeRange.stride()) {
-                int levelIdx = levRange.first();
-
-                for (; levelIdx <= levRange.last();
-                        levelIdx += levRange.stride()) {
-                    readXY(varName, timeIdx, levelIdx, yRange, xRange, ii);
-                }
+            //Decode the time/level slices into their parts of the output storage
+            final float[] data = (float[]) dataArray.getStorage();
+            final int sliceSize = yRange.length() * xRange.length();
+            final int levNum = levRange.length();
+            final int sliceNum = timeRange.length() * levNum;
+            final MappedFile file = getMappedFile();
+            IntStream slices = IntStream.range(0, sliceNum);
+            if (ArrayParallel.isEnabled() && sliceNum > 1) {
+                slices = slices.parallel();
+            }
+            //A failed slice fails the whole read instead of leaving zeros
+            try {
+                slices.forEach(k -> {
+                    int timeIdx = timeRange.first() + (k / levNum) * timeRange.stride();
+                    int levelIdx = levRange.first() + (k % levNum) * levRange.stride();
+                    try {
+                        decodeXY(file, getRecordPosition(var, timeIdx, levelIdx), yRange, xRange, data,
+                                k * sliceSize);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
             }
 
             return dataArray;
-        } catch (InvalidRangeException ex) {
+        } catch (InvalidRangeException | IOException ex) {
             Logger.getLogger(ARLDataInfo.class.getName()).log(Level.SEVERE, null, ex);
             return null;
         }
     }
 
-    private void readXY(String varName, int timeIdx, int levelIdx, Range yRange, Range xRange, IndexIterator ii) {
-        try {
-            int varIdx = this.getVariableNames().indexOf(varName);
-            int xNum, yNum;
-            xNum = dataHead.NX;
-            yNum = dataHead.NY;
-            RandomAccessFile br = new RandomAccessFile(this.getFileName(), "r");
-            byte[] dataBytes;
-            DataLabel aDL;
-            //Update level and variable index
-            Variable aVar = this.getVariables().get(varIdx);
-            if (aVar.getLevelNum() > 1) {
-                levelIdx += 1;
+    private synchronized MappedFile getMappedFile() throws IOException {
+        if (mappedFile == null) {
+            mappedFile = new MappedFile(this.getFileName(), (int) recLen);
+        }
+        return mappedFile;
+    }
+
+    /**
+     * Close the memory mapped data file
+     */
+    public synchronized void close() {
+        if (mappedFile != null) {
+            try {
+                mappedFile.close();
+            } catch (IOException ex) {
+                Logger.getLogger(ARLDataInfo.class.getName()).log(Level.WARNING, null, ex);
             }
-            varIdx = LevelVarList.get(levelIdx).indexOf(aVar.getName());
-            br.seek(timeIdx * recsPerTime * recLen);
-            br.seek(br.getFilePointer() + indexLen);
-            for (int i = 0; i < levelIdx; i++) {
-                br.seek(br.getFilePointer() + LevelVarList.get(i).size() * recLen);
+            mappedFile = null;
+        }
+    }
+
+    /**
+     * Get position of the record of a variable in the data file
+     *
+     * @param var The variable
+     * @param timeIdx Time index
+     * @param levelIdx Level index of the variable
+     * @return Record position
+     */
+    private long getRecordPosition(Variable var, int timeIdx, int levelIdx) {
+        //Update level and variable index
+        if (var.getLevelNum() > 1) {
+            levelIdx += 1;
+        }
+        int varIdx = LevelVarList.get(levelIdx).indexOf(var.getName());
+        return (timeIdx * (long) recsPerTime + levelRecOffsets[levelIdx] + varIdx) * recLen + indexLen;
+    }
+
+    /**
+     * Decode the differential packed data of a record for the rows and
+     * columns of the ranges. The first value of a row is the first value of
+     * the previous row plus its difference and other values are the previous
+     * value of the row plus the difference, so only the first column of the
+     * rows before the last row and the columns of a row up to the last column
+     * are decoded.
+     *
+     * @param file Mapped data file
+     * @param pos Record position
+     * @param yRange Y range
+     * @param xRange X range
+     * @param data Output data
+     * @param offset Output offset
+     * @throws IOException
+     */
+    private void decodeXY(MappedFile file, long pos, Range yRange, Range xRange, float[] data, int offset)
+            throws IOException {
+        int xNum = dataHead.NX;
+        ByteBuffer buffer = file.getBuffer(pos, (int) recLen, ByteOrder.BIG_ENDIAN);
+        byte[] label = new byte[50];
+        buffer.get(label);
+        DataLabel aDL = parseDataLabel(label);
+        if (aDL == null) {
+            throw new IOException("Invalid record label at position " + pos + " of file " + this.getFileName());
+        }
+        float scale = (float) Math.pow(2.0, (7 - aDL.getExponent()));
+        float init = (float) aDL.getValue();
+        int xFirst = xRange.first();
+        int xLast = xRange.last();
+        int xStride = xRange.stride();
+        float[] row = new float[xLast + 1];
+        int y = 0;
+        for (int yy = yRange.first(); yy <= yRange.last(); yy += yRange.stride()) {
+            for (; y <= yy; y++) {
+                init = ((buffer.get(50 + y * xNum) & 0xff) - 127) / scale + init;
             }
-            br.seek(br.getFilePointer() + varIdx * recLen);
-            //Read label
-            aDL = ARLDataInfo.readDataLabel(br);
-            //Read Data
-            dataBytes = new byte[(int)recLen - 50];
-            br.read(dataBytes);
-            br.close();
-            float[] data = unpackARLData(dataBytes, xNum, yNum, aDL);
-            for (int y = yRange.first(); y <= yRange.last();
-                    y += yRange.stride()) {
-                for (int x = xRange.first(); x <= xRange.last();
-                        x += xRange.stride()) {
-                    int index = y * xNum + x;
-                    ii.setFloatNext(data[index]);
-                }
+            int idx = 50 + yy * xNum;
+            float v = init;
+            row[0] = v;
+            for (int x = 1; x <= xLast; x++) {
+                v = ((buffer.get(idx + x) & 0xff) - 127) / scale + v;
+                row[x] = v;
+            }
+            for (int x = xFirst; x <= xLast; x += xStride) {
+                data[offset++] = row[x];
             }
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(ARLDataInfo.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(ARLDataInfo.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
@@ -24,6 +24,8 @@ import org.meteoinfo.data.dimarray.DimensionType;
 import org.meteoinfo.data.meteodata.IGridDataInfo;
 import org.meteoinfo.data.meteodata.Variable;
 import org.meteoinfo.common.io.EndianDataOutputStream;
+import org.meteoinfo.common.io.MappedFile;
+import org.meteoinfo.common.io.MappedFilePool;
 import org.meteoinfo.ndarray.math.ArrayMath;
 import org.meteoinfo.ndarray.util.BigDecimalUtil;
 import org.meteoinfo.projection.KnownCoordinateSystems;
@@ -40,6 +42,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.time.Duration;
 import java.time.LocalDateTime;
@@ -168,6 +171,9 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
     public int YNum;
     private DataOutputStream _bw = null;
     private ByteOrder _byteOrder = ByteOrder.LITTLE_ENDIAN;
+    private long[] varOffsets;
+    private boolean mappedIO = true;
+    private MappedFilePool filePool;
     // </editor-fold>
     // <editor-fold desc="Constructor">
 
@@ -269,6 +275,25 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
             _byteOrder = ByteOrder.LITTLE_ENDIAN;
         }
     }
+
+    /**
+     * Get whether data files are read through memory mapping
+     *
+     * @return Boolean
+     */
+    public boolean isMappedIO() {
+        return this.mappedIO;
+    }
+
+    /**
+     * Set whether data files are read through memory mapping. If false, each
+     * XY slice is read with a new RandomAccessFile.
+     *
+     * @param value Boolean
+     */
+    public void setMappedIO(boolean value) {
+        this.mappedIO = value;
+    }
     // </editor-fold>
     // <editor-fold desc="Methods">
     // <editor-fold desc="Read and write data">
@@ -299,6 +324,7 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
      */
     @Override
     public void readDataInfo(String aFile) {
+        close();
         String eStr = "";
         try {
             readDataInfo(aFile, eStr);
@@ -980,15 +1006,17 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
             RecordLen += 8;
         }
 
-        //Calculate data length of each time
+        //Calculate data length of each time and the record offset of each variable
         RecLenPerTime = 0;
+        varOffsets = new long[VARDEF.getVNum()];
         int lNum;
         for (i = 0; i < VARDEF.getVNum(); i++) {
+            varOffsets[i] = RecLenPerTime;
             lNum = VARDEF.getVars().get(i).getLevelNum();
             if (lNum == 0) {
                 lNum = 1;
             }
-            RecLenPerTime += lNum * RecordLen;
+            RecLenPerTime += (long) lNum * RecordLen;
         }
 
         return true;
@@ -1392,6 +1420,7 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
             Range xRange = section.getRange(rangeIdx);
 
             IndexIterator ii = dataArray.getIndexIterator();
+            int varIdx = this.getVariableNames().indexOf(varName);
 
             for (int eIdx = eRange.first(); eIdx <= eRange.last(); eIdx += eRange.stride()) {
                 for (int timeIdx = timeRange.first(); timeIdx <= timeRange.last();
@@ -1400,7 +1429,11 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
 
                     for (; levelIdx <= levRange.last();
                             levelIdx += levRange.stride()) {
-                        readXY(varName, eIdx, timeIdx, levelIdx, yRange, xRange, ii);
+                        if (mappedIO) {
+                            readXYMapped(varIdx, eIdx, timeIdx, levelIdx, yRange, xRange, ii);
+                        } else {
+                            readXY(varName, eIdx, timeIdx, levelIdx, yRange, xRange, ii);
+                        }
                     }
                 }
             }
@@ -1436,7 +1469,6 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
             }
             RandomAccessFile br = new RandomAccessFile(filePath, "r");
             int i, lNum;
-            byte[] aBytes;
 
             br.seek(FILEHEADER);
             br.seek(br.getFilePointer() + tIdx * RecLenPerTime);
@@ -1456,13 +1488,7 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
             //Read X/Y data
             byte[] byteData = new byte[xNum * yNum * 4];
             br.read(byteData);
-            int start = 0;
-            for (i = 0; i < yNum * xNum; i++) {
-                aBytes = new byte[4];
-                System.arraycopy(byteData, start, aBytes, 0, 4);
-                start += 4;
-                data[i] = DataConvert.bytes2Float(aBytes, _byteOrder);
-            }
+            ByteBuffer.wrap(byteData).order(_byteOrder).asFloatBuffer().get(data);
 
             br.close();
             for (int y = yRange.first(); y <= yRange.last();
@@ -1497,7 +1523,6 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
             }
             RandomAccessFile br = new RandomAccessFile(filePath, "r");
             int i, lNum;
-            byte[] aBytes;
 
             br.seek(FILEHEADER);
             br.seek(br.getFilePointer() + eIdx * this.getTimeNum() * RecLenPerTime);
@@ -1518,13 +1543,7 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
             //Read X/Y data
             byte[] byteData = new byte[xNum * yNum * 4];
             br.read(byteData);
-            int start = 0;
-            for (i = 0; i < yNum * xNum; i++) {
-                aBytes = new byte[4];
-                System.arraycopy(byteData, start, aBytes, 0, 4);
-                start += 4;
-                data[i] = DataConvert.bytes2Float(aBytes, _byteOrder);
-            }
+            ByteBuffer.wrap(byteData).order(_byteOrder).asFloatBuffer().get(data);
 
             br.close();
             for (int y = yRange.first(); y <= yRange.last();
@@ -1542,6 +1561,79 @@ public class GrADSDataInfo extends DataInfo implements IGridDataInfo, IStationDa
         }
     }
 
+    /**
+     * Get the file position of an XY record
+     *
+     * @param varIdx Variable index
+     * @param eIdx Ensemble index
+     * @param tIdx Time index in the data file
+     * @param levelIdx Level index
+     * @return File position of the record data
+     */
+    private long getRecordPosition(int varIdx, int eIdx, int tIdx, int levelIdx) {
+        long pos = FILEHEADER + ((long) eIdx * this.getTimeNum() + tIdx) * RecLenPerTime
+                + varOffsets[varIdx] + (long) levelIdx * RecordLen;
+        if (OPTIONS.sequential) {
+            pos += 4;
+        }
+        return pos;
+    }
+
+    private synchronized MappedFilePool getFilePool() {
+        if (filePool == null) {
+            filePool = new MappedFilePool(64, RecordLen);
+        }
+        return filePool;
+    }
+
+    /**
+     * Read XY data from the memory mapped data file. Only the rows and the
+     * columns span of the ranges are decoded.
+     */
+    private void readXYMapped(int varIdx, int eIdx, int timeIdx, int levelIdx, Range yRange, Range xRange,
+                              IndexIterator ii) {
+        try {
+            String filePath = DSET;
+            int tIdx = timeIdx;
+            if (OPTIONS.template) {
+                Object[] result = getFilePath_Template(timeIdx);
+                filePath = (String) result[0];
+                tIdx = (int) result[1];
+            }
+            MappedFilePool pool = getFilePool();
+            MappedFile file = pool.acquire(filePath);
+            try {
+                long pos = getRecordPosition(varIdx, eIdx, tIdx, levelIdx);
+
+                int xFirst = xRange.first();
+                int xStride = xRange.stride();
+                int nx = xRange.last() - xFirst + 1;
+                float[] row = new float[nx];
+                for (int y = yRange.first(); y <= yRange.last();
+                        y += yRange.stride()) {
+                    file.readFloats(pos + ((long) y * XNum + xFirst) * 4, row, 0, nx, _byteOrder);
+                    for (int x = 0; x < nx; x += xStride) {
+                        ii.setFloatNext(row[x]);
+                    }
+                }
+            } finally {
+                pool.release(file);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(GrADSDataInfo.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Close the memory mapped data files
+     */
+    public synchronized void close() {
+        if (filePool != null) {
+            filePool.close();
+            filePool = null;
+        }
+    }
+
     /**
      * Get grid data
      *
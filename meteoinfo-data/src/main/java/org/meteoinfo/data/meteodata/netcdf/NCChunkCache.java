@@ -0,0 +1,243 @@
+package org.meteoinfo.data.meteodata.netcdf;
+
+import org.meteoinfo.common.util.TinyLFUCache;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.constants.CDM;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cache of decoded chunks of chunked (NetCDF-4/HDF5) variables.
+ * <p>
+ * A subset read is split into the chunks it touches, each chunk is read and
+ * decompressed once as a whole and kept in a weighted LRU cache, and the
+ * subset is copied out of the cached chunks. Overlapping subset reads, like
+ * sliding time windows or point time series of neighbour points, reuse the
+ * decoded chunks instead of decompressing them again.
+ *
+ * @author wyq
+ */
+public class NCChunkCache {
+
+    private static final int MAX_CHUNK_NUM = 4096;
+    private static final long MAX_WEIGHT = 256L << 20;
+    /**
+     * Largest ratio of the touched chunk volume to the requested volume
+     */
+    static final int MAX_READ_RATIO = 8;
+    /**
+     * Largest chunk in bytes, a fraction of the cache weight
+     */
+    static final long MAX_CHUNK_BYTES = MAX_WEIGHT / 16;
+    private static final TinyLFUCache<ChunkKey, Array> cache = new TinyLFUCache<>(MAX_WEIGHT,
+            a -> 64 + a.getSize() * a.getDataType().getSize(), 4);
+
+    private static final class ChunkKey {
+        private final String fileKey;
+        private final String varName;
+        private final int[] chunkIndex;
+        private final int hash;
+
+        ChunkKey(String fileKey, String varName, int[] chunkIndex) {
+            this.fileKey = fileKey;
+            this.varName = varName;
+            this.chunkIndex = chunkIndex;
+            int r = fileKey.hashCode();
+            r = 31 * r + varName.hashCode();
+            r = 31 * r + Arrays.hashCode(chunkIndex);
+            this.hash = r;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ChunkKey)) {
+                return false;
+            }
+            ChunkKey k = (ChunkKey) o;
+            return hash == k.hash && Arrays.equals(chunkIndex, k.chunkIndex) && varName.equals(k.varName)
+                    && fileKey.equals(k.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Get chunk shape of a variable from the _ChunkSizes attribute
+     *
+     * @param var The variable
+     * @return Chunk shape, null if the variable is not chunked
+     */
+    public static int[] getChunkShape(ucar.nc2.Variable var) {
+        if (var.getRank() == 0 || !var.getDataType().isNumeric()) {
+            return null;
+        }
+        List<ucar.nc2.Attribute> attributes = var.getAttributes();
+        for (ucar.nc2.Attribute att : attributes) {
+            if (att.getShortName().equals(CDM.CHUNK_SIZES)) {
+                if (att.getLength() != var.getRank()) {
+                    return null;
+                }
+                int[] chunkShape = new int[att.getLength()];
+                for (int i = 0; i < chunkShape.length; i++) {
+                    chunkShape[i] = att.getNumericValue(i).intValue();
+                    if (chunkShape[i] <= 0) {
+                        return null;
+                    }
+                }
+                return chunkShape;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a section is worth reading through the chunk cache. The
+     * section is read directly when it is invalid, touches too many chunks,
+     * the touched chunks are much larger than the section itself, or a single
+     * chunk would take too much of the cache.
+     *
+     * @param chunkShape Chunk shape
+     * @param varShape Variable shape
+     * @param origin Section origin
+     * @param size Section size
+     * @param elementSize Element size in bytes
+     * @return Whether to read through the chunk cache
+     */
+    static boolean accept(int[] chunkShape, int[] varShape, int[] origin, int[] size, int elementSize) {
+        int rank = chunkShape.length;
+        long chunkNum = 1;
+        long chunkVolume = 1;
+        long chunkBytes = elementSize;
+        long volume = 1;
+        for (int d = 0; d < rank; d++) {
+            if (size[d] <= 0 || origin[d] < 0 || origin[d] + size[d] > varShape[d]) {
+                return false;
+            }
+            int c0 = origin[d] / chunkShape[d];
+            int c1 = (origin[d] + size[d] - 1) / chunkShape[d];
+            chunkNum *= c1 - c0 + 1;
+            chunkVolume *= Math.min((long) (c1 + 1) * chunkShape[d], varShape[d]) - (long) c0 * chunkShape[d];
+            chunkBytes *= Math.min(chunkShape[d], varShape[d]);
+            volume *= size[d];
+        }
+
+        return chunkNum <= MAX_CHUNK_NUM && chunkBytes <= MAX_CHUNK_BYTES
+                && chunkVolume <= volume * MAX_READ_RATIO;
+    }
+
+    /**
+     * Read a section of a chunked variable through the chunk cache
+     *
+     * @param fileKey File key, the location and modified time of the file
+     * @param var The variable
+     * @param chunkShape Chunk shape of the variable
+     * @param origin Section origin
+     * @param size Section size
+     * @return Section data, null if the section should be read directly, see
+     * {@link #accept(int[], int[], int[], int[], int)}
+     * @throws IOException
+     * @throws ucar.ma2.InvalidRangeException
+     */
+    public static Array read(String fileKey, ucar.nc2.Variable var, int[] chunkShape, int[] origin, int[] size)
+            throws IOException, ucar.ma2.InvalidRangeException {
+        int[] varShape = var.getShape();
+        if (!accept(chunkShape, varShape, origin, size, var.getElementSize())) {
+            return null;
+        }
+
+        int rank = chunkShape.length;
+        int[] c0 = new int[rank];
+        int[] cNum = new int[rank];
+        long chunkNum = 1;
+        for (int d = 0; d < rank; d++) {
+            c0[d] = origin[d] / chunkShape[d];
+            cNum[d] = (origin[d] + size[d] - 1) / chunkShape[d] - c0[d] + 1;
+            chunkNum *= cNum[d];
+        }
+
+        String varName = var.getFullName();
+        Array r = null;
+        int[] counter = new int[rank];
+        for (long c = 0; c < chunkNum; c++) {
+            int[] chunkIndex = new int[rank];
+            int[] chunkOrigin = new int[rank];
+            int[] chunkSize = new int[rank];
+            for (int d = 0; d < rank; d++) {
+                chunkIndex[d] = c0[d] + counter[d];
+                chunkOrigin[d] = chunkIndex[d] * chunkShape[d];
+                chunkSize[d] = Math.min(chunkShape[d], varShape[d] - chunkOrigin[d]);
+            }
+            ChunkKey key = new ChunkKey(fileKey, varName, chunkIndex);
+            Array chunk = cache.get(key);
+            if (chunk == null) {
+                chunk = NCUtil.convertArray(var.read(new ucar.ma2.Section(chunkOrigin, chunkSize))).copyIfView();
+                cache.put(key, chunk);
+            }
+            if (r == null) {
+                r = Array.factory(chunk.getDataType(), size);
+            }
+            copy(chunk, chunkOrigin, chunkSize, r, origin, size);
+
+            //Next chunk, last dimension fastest
+            for (int d = rank - 1; d >= 0; d--) {
+                if (++counter[d] < cNum[d]) {
+                    break;
+                }
+                counter[d] = 0;
+            }
+        }
+
+        return r;
+    }
+
+    /**
+     * Copy the intersection of a chunk and a section by runs along the last
+     * dimension
+     */
+    static void copy(Array chunk, int[] chunkOrigin, int[] chunkSize, Array r, int[] origin, int[] size) {
+        int rank = size.length;
+        int[] lo = new int[rank];
+        int[] num = new int[rank];
+        for (int d = 0; d < rank; d++) {
+            lo[d] = Math.max(origin[d], chunkOrigin[d]);
+            num[d] = Math.min(origin[d] + size[d], chunkOrigin[d] + chunkSize[d]) - lo[d];
+        }
+        Object src = chunk.getStorage();
+        Object dst = r.getStorage();
+        int runLength = num[rank - 1];
+        int[] counter = new int[rank];
+        while (true) {
+            int srcOffset = 0;
+            int dstOffset = 0;
+            for (int d = 0; d < rank; d++) {
+                int p = lo[d] + counter[d];
+                srcOffset = srcOffset * chunkSize[d] + p - chunkOrigin[d];
+                dstOffset = dstOffset * size[d] + p - origin[d];
+            }
+            System.arraycopy(src, srcOffset, dst, dstOffset, runLength);
+
+            int d = rank - 2;
+            for (; d >= 0; d--) {
+                if (++counter[d] < num[d]) {
+                    break;
+                }
+                counter[d] = 0;
+            }
+            if (d < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Remove all cached chunks
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+}
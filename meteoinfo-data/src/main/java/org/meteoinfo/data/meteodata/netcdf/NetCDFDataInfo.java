@@ -21,6 +21,7 @@ import org.meteoinfo.data.StationData;
 import org.meteoinfo.data.dimarray.DimArray;
 import org.meteoinfo.data.meteodata.DataInfo;
 import org.meteoinfo.ndarray.math.ArrayMath;
+import org.meteoinfo.ndarray.math.ArrayParallel;
 import org.meteoinfo.ndarray.math.ArrayUtil;
 import org.meteoinfo.data.dimarray.Dimension;
 import org.meteoinfo.data.dimarray.DimensionType;
@@ -36,7 +37,9 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
@@ -130,6 +133,15 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
      * 是否为PROFILE数据类型的标志
      */
     private boolean isPROFILE = false;
+    /**
+     * Variables found by name in the opened file
+     */
+    private final Map<String, ucar.nc2.Variable> readVariables = new HashMap<>();
+    private NetcdfFile readVariablesFile = null;
+    /**
+     * Pack and chunk info of the read variables
+     */
+    private final Map<String, ReadInfo> readInfos = new HashMap<>();
     // </editor-fold>
     // <editor-fold desc="Constructor">
 
@@ -287,6 +299,8 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
             this.ncfile.close();
             this.ncfile = null;
         }
+        this.readVariables.clear();
+        this.readVariablesFile = null;
     }
 
     @Override
@@ -328,6 +342,8 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
 
             //Read variables
             ncVariables = ncfile.getVariables();
+            readVariables.clear();
+            readInfos.clear();
             //ncVariables = ncDataset.getVariables();
 
             //Read dimensions
@@ -2071,6 +2087,163 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
         return new double[]{add_offset, scale_factor, missingValue};
     }
 
+    /**
+     * Pack info and chunk shape of a variable
+     */
+    private static class ReadInfo {
+        final double addOffset;
+        final double scaleFactor;
+        final double missingValue;
+        final int[] chunkShape;
+
+        ReadInfo(double[] packData, int[] chunkShape) {
+            this.addOffset = packData[0];
+            this.scaleFactor = packData[1];
+            this.missingValue = packData[2];
+            this.chunkShape = chunkShape;
+        }
+
+        boolean isPacked() {
+            return scaleFactor != 1 || addOffset != 0;
+        }
+    }
+
+    /**
+     * Find a variable of the opened file by name, the variables are cached
+     * until the file is closed
+     *
+     * @param varName Variable name
+     * @return The variable, null if not exist
+     */
+    private ucar.nc2.Variable findReadVariable(String varName) {
+        if (this.readVariablesFile != this.ncfile) {
+            this.readVariables.clear();
+            this.readVariablesFile = this.ncfile;
+        }
+        ucar.nc2.Variable var = this.readVariables.get(varName);
+        if (var == null) {
+            var = ncfile.findVariable(varName);
+            if (var == null) {
+                for (ucar.nc2.Variable v : ncfile.getVariables()) {
+                    if (v.getShortName().equals(varName)) {
+                        var = v;
+                        break;
+                    }
+                }
+            }
+            if (var != null) {
+                this.readVariables.put(varName, var);
+            }
+        }
+
+        return var;
+    }
+
+    private ReadInfo getReadInfo(ucar.nc2.Variable var) {
+        ReadInfo info = this.readInfos.get(var.getFullName());
+        if (info == null) {
+            info = new ReadInfo(this.getPackData(var), NCChunkCache.getChunkShape(var));
+            this.readInfos.put(var.getFullName(), info);
+        }
+
+        return info;
+    }
+
+    /**
+     * Read a section of a variable, chunked variables are read through the
+     * chunk cache
+     */
+    private Array readSection(ucar.nc2.Variable var, ReadInfo info, int[] origin, int[] size, int[] stride)
+            throws IOException, ucar.ma2.InvalidRangeException {
+        boolean unitStride = true;
+        if (stride != null) {
+            for (int s : stride) {
+                if (s != 1) {
+                    unitStride = false;
+                    break;
+                }
+            }
+        }
+        if (unitStride && info.chunkShape != null) {
+            String fileKey = ncfile.getLocation() + "@" + new java.io.File(this.fileName).lastModified();
+            Array data = NCChunkCache.read(fileKey, var, info.chunkShape, origin, size);
+            if (data != null) {
+                return data;
+            }
+        }
+        ucar.ma2.Section section = stride == null ? new ucar.ma2.Section(origin, size) :
+                new ucar.ma2.Section(origin, size, stride);
+        return NCUtil.convertArray(var.read(section));
+    }
+
+    /**
+     * Unpack data - scale, offset and missing value - in one pass
+     *
+     * @param data Packed data
+     * @param info Read info
+     * @param unpackedMissing Compare the missing value with unpacked values
+     *                        (subset reads) instead of packed values
+     * @return Unpacked data, double data type for packed data
+     */
+    private static Array unpack(Array data, ReadInfo info, boolean unpackedMissing) {
+        if (!info.isPacked()) {
+            if (!Double.isNaN(info.missingValue)) {
+                ArrayMath.missingToNaN(data, info.missingValue);
+            }
+            return data;
+        }
+
+        final Array a = data.copyIfView();
+        final double scale = info.scaleFactor;
+        final double offset = info.addOffset;
+        final double missing = info.missingValue;
+        final boolean hasMissing = !Double.isNaN(missing);
+        final int n = (int) a.getSize();
+        final double[] r = new double[n];
+        final Object storage = a.getStorage();
+        ArrayParallel.ChunkTask task;
+        if (storage instanceof short[] && !a.getDataType().isUnsigned()) {
+            final short[] src = (short[]) storage;
+            task = (start, end) -> {
+                for (int i = start; i < end; i++) {
+                    r[i] = unpack(src[i], scale, offset, hasMissing, missing, unpackedMissing);
+                }
+            };
+        } else if (storage instanceof float[]) {
+            final float[] src = (float[]) storage;
+            task = (start, end) -> {
+                for (int i = start; i < end; i++) {
+                    r[i] = unpack(src[i], scale, offset, hasMissing, missing, unpackedMissing);
+                }
+            };
+        } else {
+            task = (start, end) -> {
+                for (int i = start; i < end; i++) {
+                    r[i] = unpack(a.getDouble(i), scale, offset, hasMissing, missing, unpackedMissing);
+                }
+            };
+        }
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), n)) {
+            ArrayParallel.forEachChunk(n, task);
+        } else {
+            task.run(0, n);
+        }
+
+        return Array.factory(org.meteoinfo.ndarray.DataType.DOUBLE, a.getShape(), r);
+    }
+
+    private static double unpack(double v, double scale, double offset, boolean hasMissing, double missing,
+                                 boolean unpackedMissing) {
+        if (hasMissing && !unpackedMissing && v == missing) {
+            return Double.NaN;
+        }
+        v = v * scale + offset;
+        if (hasMissing && unpackedMissing && v == missing) {
+            return Double.NaN;
+        }
+        return v;
+    }
+
     /**
      * Get grid data
      *
@@ -3127,17 +3300,7 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
             if (ncfile == null) {
                 ncfile = NetcdfDataset.openFile(this.fileName, null);
             }
-            ucar.nc2.Variable var = ncfile.findVariable(varName);
-            if (var == null) {
-                List<ucar.nc2.Variable> vars = ncfile.getVariables();
-                for (ucar.nc2.Variable v : vars) {
-                    if (v.getShortName().equals(varName)) {
-                        var = v;
-                        break;
-                    }
-                }
-            }
-
+            ucar.nc2.Variable var = this.findReadVariable(varName);
             if (var == null) {
                 System.out.println("Variable not exist: " + varName);
                 return null;
@@ -3146,18 +3309,9 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
             Array data = NCUtil.convertArray(var.read());
 
             if (unpack) {
-                //Get pack info
-                double add_offset, scale_factor, missingValue;
-                double[] packData = this.getPackData(var);
-                add_offset = packData[0];
-                scale_factor = packData[1];
-                missingValue = packData[2];
-                if (add_offset != 0 || scale_factor != 1) {
-                    data = ArrayUtil.convertToDataType(data, org.meteoinfo.ndarray.DataType.DOUBLE);
-                    if (!Double.isNaN(missingValue)) {
-                        ArrayMath.replaceValue(data, missingValue, Double.NaN);
-                    }
-                    data = ArrayMath.add(ArrayMath.mul(data, scale_factor), add_offset);
+                ReadInfo info = this.getReadInfo(var);
+                if (info.isPacked()) {
+                    data = unpack(data, info, false);
                 }
             }
 
@@ -3208,17 +3362,7 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
                 //ncfile = NetcdfFiles.open(this.fileName);
                 //ncfile = NetcdfFile.open(this.fileName);
             }
-            ucar.nc2.Variable var = ncfile.findVariable(varName);
-            if (var == null) {
-                List<ucar.nc2.Variable> vars = ncfile.getVariables();
-                for (ucar.nc2.Variable v : vars) {
-                    if (v.getShortName().equals(varName)) {
-                        var = v;
-                        break;
-                    }
-                }
-            }
-
+            ucar.nc2.Variable var = this.findReadVariable(varName);
             if (var == null) {
                 System.out.println("Variable not exist: " + varName);
                 return null;
@@ -3232,6 +3376,7 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
                 }
             }
 
+            ReadInfo info = this.getReadInfo(var);
             Array data;
             if (negStride) {
                 int[] pStride = new int[stride.length];
@@ -3242,33 +3387,18 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
                         flips.add(i);
                     }
                 }
-                ucar.ma2.Section section = new ucar.ma2.Section(origin, size, pStride);
-                Array r = NCUtil.convertArray(var.read(section));
+                Array r = this.readSection(var, info, origin, size, pStride);
                 for (int i : flips) {
                     r = r.flip(i);
                 }
                 data = Array.factory(r.getDataType(), r.getShape());
                 MAMath.copy(data, r);
             } else {
-                ucar.ma2.Section section = new ucar.ma2.Section(origin, size, stride);
-                data = NCUtil.convertArray(var.read(section));
+                data = this.readSection(var, info, origin, size, stride);
             }
 
             if (unpack) {
-                //Get pack info
-                double[] packData = this.getPackData(var);
-                double addOffset = packData[0];
-                double scaleFactor = packData[1];
-                double fillValue = packData[2];
-                if (scaleFactor != 1) {
-                    data = ArrayMath.mul(data, scaleFactor);
-                }
-                if (addOffset != 0) {
-                    data = ArrayMath.add(data, addOffset);
-                }
-                if (!Double.isNaN(fillValue)) {
-                    ArrayMath.missingToNaN(data, fillValue);
-                }
+                data = unpack(data, info, true);
             }
 
             return data;
@@ -3313,26 +3443,13 @@ public class NetCDFDataInfo extends DataInfo implements IGridDataInfo, IStationD
             if (ncfile == null) {
                 ncfile = NetcdfDataset.openFile(this.fileName, null);
             }
-            ucar.nc2.Variable var = ncfile.findVariable(varName);
+            ucar.nc2.Variable var = this.findReadVariable(varName);
 
-            ucar.ma2.Section section = new ucar.ma2.Section(origin, size);
-            Array data = NCUtil.convertArray(var.read(section));
+            ReadInfo info = this.getReadInfo(var);
+            Array data = this.readSection(var, info, origin, size, null);
 
             if (unpack) {
-                //Get pack info
-                double[] packData = this.getPackData(var);
-                double addOffset = packData[0];
-                double scaleFactor = packData[1];
-                double fillValue = packData[2];
-                if (scaleFactor != 1) {
-                    data = ArrayMath.mul(data, scaleFactor);
-                }
-                if (addOffset != 0) {
-                    data = ArrayMath.add(data, addOffset);
-                }
-                if (!Double.isNaN(fillValue)) {
-                    ArrayMath.missingToNaN(data, fillValue);
-                }
+                data = unpack(data, info, true);
             }
 
             return data;
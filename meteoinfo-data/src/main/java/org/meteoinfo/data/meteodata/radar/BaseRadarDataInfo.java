@@ -6,6 +6,7 @@ import org.meteoinfo.data.meteodata.DataInfo;
 import org.meteoinfo.data.meteodata.Variable;
 import org.meteoinfo.ndarray.*;
 import org.meteoinfo.ndarray.math.ArrayMath;
+import org.meteoinfo.ndarray.math.ArrayParallel;
 import org.meteoinfo.ndarray.math.ArrayUtil;
 
 import java.io.IOException;
@@ -40,6 +41,14 @@ public abstract class BaseRadarDataInfo extends DataInfo {
         return this.recordMap;
     }
 
+    /**
+     * Get antenna height
+     * @return Antenna height in meters
+     */
+    public float getAntennaHeight() {
+        return this.antennaHeight;
+    }
+
     /**
      * Is a radial record is in velocity group or not
      * @param record The radial record
@@ -132,14 +141,14 @@ public abstract class BaseRadarDataInfo extends DataInfo {
         Index elevIndex = elevData.getIndex();
         Index aziIndex = aziData.getIndex();
         for (int i = 0; i < nScan; i++) {
-            List<Float> elevList = radialRecord.elevation.get(i);
-            List<Float> aziList = radialRecord.azimuth.get(i);
+            FloatList elevList = radialRecord.elevation.get(i);
+            FloatList aziList = radialRecord.azimuth.get(i);
             nRData.setInt(i, aziList.size());
             nGData.setInt(i, (int) radialRecord.distance.get(i).getSize());
             for (int j = 0; j < nRadial; j++) {
                 if (j < elevList.size()) {
-                    elevData.setFloat(elevIndex.set(i, j), elevList.get(j));
-                    aziData.setFloat(aziIndex.set(i, j), aziList.get(j));
+                    elevData.setFloat(elevIndex.set(i, j), elevList.getFloat(j));
+                    aziData.setFloat(aziIndex.set(i, j), aziList.getFloat(j));
                 } else {
                     elevData.setFloat(elevIndex.set(i, j), Float.NaN);
                     aziData.setFloat(aziIndex.set(i, j), Float.NaN);
@@ -213,14 +222,14 @@ public abstract class BaseRadarDataInfo extends DataInfo {
         Index elevIndex = elevData.getIndex();
         Index aziIndex = aziData.getIndex();
         for (int i = 0; i < nScan; i++) {
-            List<Float> elevList = refRadialRecord.elevation.get(i);
-            List<Float> aziList = refRadialRecord.azimuth.get(i);
+            FloatList elevList = refRadialRecord.elevation.get(i);
+            FloatList aziList = refRadialRecord.azimuth.get(i);
             nRData.setInt(i, aziList.size());
             nGData.setInt(i, (int) refRadialRecord.distance.get(i).getSize());
             for (int j = 0; j < nRadial; j++) {
                 if (j < elevList.size()) {
-                    elevData.setFloat(elevIndex.set(i, j), elevList.get(j));
-                    aziData.setFloat(aziIndex.set(i, j), aziList.get(j));
+                    elevData.setFloat(elevIndex.set(i, j), elevList.getFloat(j));
+                    aziData.setFloat(aziIndex.set(i, j), aziList.getFloat(j));
                 } else {
                     elevData.setFloat(elevIndex.set(i, j), Float.NaN);
                     aziData.setFloat(aziIndex.set(i, j), Float.NaN);
@@ -294,14 +303,14 @@ public abstract class BaseRadarDataInfo extends DataInfo {
         Index elevIndex = elevData.getIndex();
         Index aziIndex = aziData.getIndex();
         for (int i = 0; i < nScan; i++) {
-            List<Float> elevList = velRadialRecord.elevation.get(i);
-            List<Float> aziList = velRadialRecord.azimuth.get(i);
+            FloatList elevList = velRadialRecord.elevation.get(i);
+            FloatList aziList = velRadialRecord.azimuth.get(i);
             nRData.setInt(i, aziList.size());
             nGData.setInt(i, (int) velRadialRecord.distance.get(i).getSize());
             for (int j = 0; j < nRadial; j++) {
                 if (j < elevList.size()) {
-                    elevData.setFloat(elevIndex.set(i, j), elevList.get(j));
-                    aziData.setFloat(aziIndex.set(i, j), aziList.get(j));
+                    elevData.setFloat(elevIndex.set(i, j), elevList.getFloat(j));
+                    aziData.setFloat(aziIndex.set(i, j), aziList.getFloat(j));
                 } else {
                     elevData.setFloat(elevIndex.set(i, j), Float.NaN);
                     aziData.setFloat(aziIndex.set(i, j), Float.NaN);
@@ -439,6 +448,19 @@ public abstract class BaseRadarDataInfo extends DataInfo {
         return this.attributes;
     }
 
+    /**
+     * Evaluate grid points in parallel row chunks
+     * @param n Number of grid points
+     * @param task Chunk task
+     */
+    private static void forEachPoint(int n, ArrayParallel.ChunkTask task) {
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), n)) {
+            ArrayParallel.forEachChunk(n, task);
+        } else {
+            task.run(0, n);
+        }
+    }
+
     /**
      * Read grid ppi data
      * @param varName Variable name
@@ -453,20 +475,18 @@ public abstract class BaseRadarDataInfo extends DataInfo {
         if (h == null) {
             h = antennaHeight;
         }
-        Array[] rr = Transform.cartesianToAntennaElevation(xa, ya, record.fixedElevation.get(scanIdx), h);
-        Array azimuth = rr[0];
-        Array ranges = rr[1];
-        Array data = Array.factory(DataType.FLOAT, xa.getShape());
-        IndexIterator iterA = azimuth.getIndexIterator();
-        IndexIterator iterR = ranges.getIndexIterator();
-        IndexIterator iterData = data.getIndexIterator();
-        float v;
-        while (iterData.hasNext()) {
-            v = record.interpolateValue(scanIdx, iterA.getFloatNext(), iterR.getFloatNext());
-            iterData.setFloatNext(v);
-        }
+        RadarGridLookup lookup = RadarGridLookup.ofElevations(xa, ya,
+                new float[]{record.fixedElevation.getFloat(scanIdx)}, h);
+        float[] azimuth = lookup.getAzimuth();
+        float[] ranges = lookup.getRange(0);
+        float[] data = new float[lookup.getSize()];
+        forEachPoint(data.length, (start, end) -> {
+            for (int k = start; k < end; k++) {
+                data[k] = record.interpolateValue(scanIdx, azimuth[k], ranges[k]);
+            }
+        });
 
-        return data;
+        return Array.factory(DataType.FLOAT, lookup.getShape(), data);
     }
 
     /**
@@ -479,45 +499,38 @@ public abstract class BaseRadarDataInfo extends DataInfo {
      */
     public Array getCRData(String varName, Array xa, Array ya, Float h) {
         RadialRecord record = this.recordMap.get(varName);
-        int nScan = record.getScanNumber();
         if (h == null) {
             h = antennaHeight;
         }
 
-        int[] shape = xa.getShape();
-        int ny = shape[0];
-        int nx = shape[1];
-        Array data = Array.factory(DataType.FLOAT, shape);
-        Index2D index2D = (Index2D) data.getIndex();
-        float v;
-        for (int s = 0; s < nScan; s++) {
-            Array[] rr = Transform.cartesianToAntennaElevation(xa, ya, record.fixedElevation.get(s), h);
-            Array azimuth = rr[0];
-            Array ranges = rr[1];
-            IndexIterator iterA = azimuth.getIndexIterator();
-            IndexIterator iterR = ranges.getIndexIterator();
-            if (s == 0) {
-                for (int i = 0; i < ny; i++) {
-                    for (int j = 0; j < nx; j++) {
-                        v = record.interpolateValue(s, iterA.getFloatNext(), iterR.getFloatNext());
-                        data.setFloat(index2D.set(i, j), v);
-                    }
-                }
-            } else {
-                float v1;
-                for (int i = 0; i < ny; i++) {
-                    for (int j = 0; j < nx; j++) {
-                        v = record.interpolateValue(s, iterA.getFloatNext(), iterR.getFloatNext());
-                        index2D.set(i, j);
-                        v1 = data.getFloat(index2D);
-                        if (Float.isNaN(v1) || (v > v1))
-                            data.setFloat(index2D, v);
+        RadarGridLookup lookup = RadarGridLookup.ofElevations(xa, ya, record.fixedElevation.toFloatArray(), h);
+        return getCRData(varName, lookup);
+    }
+
+    /**
+     * Read CR data by a grid lookup
+     * @param varName Variable name
+     * @param lookup Grid lookup on the scan elevations of the variable
+     * @return CR data
+     */
+    public Array getCRData(String varName, RadarGridLookup lookup) {
+        RadialRecord record = this.recordMap.get(varName);
+        int nScan = record.getScanNumber();
+        float[] azimuth = lookup.getAzimuth();
+        float[] data = new float[lookup.getSize()];
+        forEachPoint(data.length, (start, end) -> {
+            for (int s = 0; s < nScan; s++) {
+                float[] ranges = lookup.getRange(s);
+                for (int k = start; k < end; k++) {
+                    float v = record.interpolateValue(s, azimuth[k], ranges[k]);
+                    if (s == 0 || Float.isNaN(data[k]) || v > data[k]) {
+                        data[k] = v;
                     }
                 }
             }
-        }
+        });
 
-        return data;
+        return Array.factory(DataType.FLOAT, lookup.getShape(), data);
     }
 
     /**
@@ -530,28 +543,33 @@ public abstract class BaseRadarDataInfo extends DataInfo {
      * @return Grid ppi data
      */
     public Array getCAPPIData(String varName, Array xa, Array ya, float z, Float h) {
-        RadialRecord record = this.recordMap.get(varName);
         if (h == null) {
             h = antennaHeight;
         }
-        Array[] rr = Transform.cartesianToAntenna(xa, ya, z, h);
-        Array azimuth = rr[0];
-        Array ranges = rr[1];
-        Array elevation = rr[2];
-        Array data = Array.factory(DataType.FLOAT, xa.getShape());
-        IndexIterator iterA = azimuth.getIndexIterator();
-        IndexIterator iterR = ranges.getIndexIterator();
-        IndexIterator iterE = elevation.getIndexIterator();
-        IndexIterator iterData = data.getIndexIterator();
-        float v;
+        RadarGridLookup lookup = RadarGridLookup.ofHeights(xa, ya, new float[]{z}, h);
+        return getCAPPIData(varName, lookup);
+    }
+
+    /**
+     * Read CAPPI data by a grid lookup
+     * @param varName Variable name
+     * @param lookup Grid lookup, the first level is the CAPPI height
+     * @return CAPPI data
+     */
+    public Array getCAPPIData(String varName, RadarGridLookup lookup) {
+        RadialRecord record = this.recordMap.get(varName);
+        float[] azimuth = lookup.getAzimuth();
+        float[] ranges = lookup.getRange(0);
+        float[] elevation = lookup.getElevation(0);
         float halfBeamWidth = beamWidthVert / 2;
-        while (iterData.hasNext()) {
-            v = record.interpolateValue(iterE.getFloatNext(), iterA.getFloatNext(),
-                    iterR.getFloatNext(), halfBeamWidth);
-            iterData.setFloatNext(v);
-        }
+        float[] data = new float[lookup.getSize()];
+        forEachPoint(data.length, (start, end) -> {
+            for (int k = start; k < end; k++) {
+                data[k] = record.interpolateValue(elevation[k], azimuth[k], ranges[k], halfBeamWidth);
+            }
+        });
 
-        return data;
+        return Array.factory(DataType.FLOAT, lookup.getShape(), data);
     }
 
     /**
@@ -559,7 +577,7 @@ public abstract class BaseRadarDataInfo extends DataInfo {
      * @param varName Variable name
      * @param xa X coordinates array
      * @param ya Y coordinates array
-     * @param z Z coordinates array
+     * @param za Z coordinates array
      * @param h Radar height
      * @return Grid ppi data
      */
@@ -570,30 +588,28 @@ public abstract class BaseRadarDataInfo extends DataInfo {
         }
 
         int nz = (int) za.getSize();
+        float[] zs = new float[nz];
+        IndexIterator iterZ = za.getIndexIterator();
+        for (int i = 0; i < nz; i++) {
+            zs[i] = iterZ.getFloatNext();
+        }
+        RadarGridLookup lookup = RadarGridLookup.ofHeights(xa, ya, zs, h);
         int[] shape2D = xa.getShape();
         int[] shape3D = new int[]{nz, shape2D[0], shape2D[1]};
-        Array data = Array.factory(DataType.FLOAT, shape3D);
-        IndexIterator iterData = data.getIndexIterator();
-        IndexIterator iterZ = za.getIndexIterator();
+        float[] azimuth = lookup.getAzimuth();
         float halfBeamWidth = beamWidthVert / 2;
-        while(iterZ.hasNext()) {
-            float z = iterZ.getFloatNext();
-            Array[] rr = Transform.cartesianToAntenna(xa, ya, z, h);
-            Array azimuth = rr[0];
-            Array ranges = rr[1];
-            Array elevation = rr[2];
-            IndexIterator iterA = azimuth.getIndexIterator();
-            IndexIterator iterR = ranges.getIndexIterator();
-            IndexIterator iterE = elevation.getIndexIterator();
-            float v;
-            while (iterA.hasNext()) {
-                v = record.interpolateValue(iterE.getFloatNext(), iterA.getFloatNext(),
-                        iterR.getFloatNext(), halfBeamWidth);
-                iterData.setFloatNext(v);
+        int n = lookup.getSize();
+        float[] data = new float[nz * n];
+        forEachPoint(data.length, (start, end) -> {
+            for (int p = start; p < end; p++) {
+                int l = p / n;
+                int k = p % n;
+                data[p] = record.interpolateValue(lookup.getElevation(l)[k], azimuth[k],
+                        lookup.getRange(l)[k], halfBeamWidth);
             }
-        }
+        });
 
-        return data;
+        return Array.factory(DataType.FLOAT, shape3D, data);
     }
 
     /**
@@ -625,7 +641,7 @@ public abstract class BaseRadarDataInfo extends DataInfo {
         Index meshZIndex = meshZ.getIndex();
         float x, y, z1, z2, dis, azi, v, ele;
         for (int i = 0; i < nScan; i++) {
-            ele = record.fixedElevation.get(i);
+            ele = record.fixedElevation.getFloat(i);
             for (int j = 0; j < nPoints; j++) {
                 x = xa.getFloat(j);
                 y = ya.getFloat(j);
@@ -90,8 +90,8 @@ public class CCRadarDataInfo extends BaseRadarDataInfo implements IRadarDataInfo
                         RadialRecord record = this.recordMap.get(product);
                         if (j == 0) {
                             record.fixedElevation.add(cutConfig.getAngle());
-                            record.elevation.add(new ArrayList<>());
-                            record.azimuth.add(new ArrayList<>());
+                            record.elevation.add(new FloatList());
+                            record.azimuth.add(new FloatList());
                             record.azimuthMinIndex.add(0);
                             record.disResolution.add((float) cutConfig.usBindWidth);
                             record.distance.add(ArrayUtil.arrayRange1(300,
@@ -0,0 +1,92 @@
+package org.meteoinfo.data.meteodata.radar;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable float list backed by a primitive array. It is also a
+ * {@code List<Float>}, but the primitive methods avoid boxing.
+ *
+ * @author wyq
+ */
+public class FloatList extends AbstractList<Float> implements RandomAccess {
+
+    private float[] values;
+    private int size;
+
+    /**
+     * Constructor
+     */
+    public FloatList() {
+        this(16);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity Initial capacity
+     */
+    public FloatList(int capacity) {
+        this.values = new float[Math.max(1, capacity)];
+    }
+
+    /**
+     * Add a value
+     *
+     * @param v The value
+     * @return True
+     */
+    public boolean add(float v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = v;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean add(Float v) {
+        return add(v.floatValue());
+    }
+
+    /**
+     * Get a value
+     *
+     * @param index The index
+     * @return The value
+     */
+    public float getFloat(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    @Override
+    public Float get(int index) {
+        return getFloat(index);
+    }
+
+    @Override
+    public Float set(int index, Float v) {
+        float old = getFloat(index);
+        values[index] = v;
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a copy of the values
+     *
+     * @return Values array
+     */
+    public float[] toFloatArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -196,8 +196,8 @@ public class PARadarDataInfo extends BaseRadarDataInfo implements IRadarDataInfo
                     }
                     if (radialHeader.radialNumber == 1) {
                         record.fixedElevation.add(cutConfigs.get(scanIdx).elevation);
-                        record.elevation.add(new ArrayList<>());
-                        record.azimuth.add(new ArrayList<>());
+                        record.elevation.add(new FloatList());
+                        record.azimuth.add(new FloatList());
                         record.azimuthMinIndex.add(0);
                         if (isVelocityGroup(record)) {
                             record.disResolution.add(cutConfigs.get(scanIdx).dopplerResolution);
@@ -0,0 +1,270 @@
+package org.meteoinfo.data.meteodata.radar;
+
+import org.meteoinfo.common.util.TinyLFUCache;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.util.Arrays;
+
+/**
+ * Antenna coordinates of cartesian grid points of a radar site.
+ * <p>
+ * The azimuth of each grid point and its range (and elevation) at each level
+ * - fixed scan elevations or heights - are computed once by {@link Transform}
+ * and kept in primitive arrays. Lookups are cached by the grid, the antenna
+ * height and the levels, so the same target grid of a site and scan strategy
+ * is not transformed again for each volume scan.
+ *
+ * @author wyq
+ */
+public class RadarGridLookup {
+
+    //The weight also counts the x/y coordinate copies held by the key
+    private static final TinyLFUCache<Key, RadarGridLookup> cache = new TinyLFUCache<>(256L << 20,
+            l -> l.getWeight() + l.getSize() * 8L, 4);
+
+    private final int[] shape;
+    private final float[] levels;
+    private final boolean heightLevels;
+    private final float[] azimuth;
+    private final float[][] range;
+    private final float[][] elevation;
+
+    private static final class Key {
+        private final boolean heightLevels;
+        private final float h;
+        private final float[] levels;
+        private final float[] x;
+        private final float[] y;
+        private final int[] shape;
+        private final int hash;
+
+        Key(boolean heightLevels, float h, float[] levels, float[] x, float[] y, int[] shape) {
+            this.heightLevels = heightLevels;
+            this.h = h;
+            this.levels = levels;
+            this.x = x;
+            this.y = y;
+            this.shape = shape;
+            int r = Boolean.hashCode(heightLevels);
+            r = 31 * r + Float.hashCode(h);
+            r = 31 * r + Arrays.hashCode(levels);
+            r = 31 * r + Arrays.hashCode(x);
+            r = 31 * r + Arrays.hashCode(y);
+            this.hash = r;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && heightLevels == k.heightLevels && Float.compare(h, k.h) == 0
+                    && Arrays.equals(levels, k.levels) && Arrays.equals(shape, k.shape)
+                    && Arrays.equals(x, k.x) && Arrays.equals(y, k.y);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private RadarGridLookup(float[] x, float[] y, int[] shape, float[] levels, boolean heightLevels, float h) {
+        final int n = x.length;
+        final int nLevel = levels.length;
+        this.shape = shape;
+        this.levels = levels;
+        this.heightLevels = heightLevels;
+        this.azimuth = new float[n];
+        this.range = new float[nLevel][n];
+        this.elevation = heightLevels ? new float[nLevel][n] : null;
+        ArrayParallel.ChunkTask task = (start, end) -> {
+            for (int p = start; p < end; p++) {
+                int l = p / n;
+                int k = p % n;
+                if (l == 0) {
+                    azimuth[k] = (float) Transform.xyToAzimuth(x[k], y[k]);
+                }
+                if (heightLevels) {
+                    double[] rr = Transform.cartesianToAntenna(x[k], y[k], levels[l], h);
+                    range[l][k] = (float) rr[1];
+                    elevation[l][k] = (float) rr[2];
+                } else {
+                    double[] rr = Transform.cartesianToAntennaElevation(x[k], y[k], levels[l], h);
+                    range[l][k] = (float) rr[1];
+                }
+            }
+        };
+        //Level 0 holds the azimuths, so it is done before the other levels
+        run(n, task);
+        if (nLevel > 1) {
+            ArrayParallel.ChunkTask others = (start, end) -> task.run(start + n, end + n);
+            run(n * (nLevel - 1), others);
+        }
+    }
+
+    private static void run(int n, ArrayParallel.ChunkTask task) {
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), n)) {
+            ArrayParallel.forEachChunk(n, task);
+        } else {
+            task.run(0, n);
+        }
+    }
+
+    private static float[] toFloats(Array a) {
+        Array c = a.copyIfView();
+        float[] r = new float[(int) c.getSize()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = c.getFloat(i);
+        }
+        return r;
+    }
+
+    private static RadarGridLookup get(Array xa, Array ya, float[] levels, boolean heightLevels, float h) {
+        if (xa.getSize() != ya.getSize()) {
+            throw new IllegalArgumentException("X and Y coordinate arrays must have the same size");
+        }
+        int[] shape = xa.getShape();
+        Key key = new Key(heightLevels, h, levels.clone(), toFloats(xa), toFloats(ya), shape);
+        RadarGridLookup lookup = cache.get(key);
+        if (lookup == null) {
+            lookup = new RadarGridLookup(key.x, key.y, shape, key.levels, heightLevels, h);
+            cache.put(key, lookup);
+        }
+        return lookup;
+    }
+
+    /**
+     * Get the lookup of grid points on fixed scan elevations, like
+     * {@link Transform#cartesianToAntennaElevation(Array, Array, float, float)}
+     *
+     * @param xa X coordinates array in meters
+     * @param ya Y coordinates array in meters
+     * @param elevations Scan elevations
+     * @param h Antenna height in meters
+     * @return Grid lookup
+     */
+    public static RadarGridLookup ofElevations(Array xa, Array ya, float[] elevations, float h) {
+        return get(xa, ya, elevations, false, h);
+    }
+
+    /**
+     * Get the lookup of grid points on heights, like
+     * {@link Transform#cartesianToAntenna(Array, Array, float, float)}
+     *
+     * @param xa X coordinates array in meters
+     * @param ya Y coordinates array in meters
+     * @param heights Heights in meters
+     * @param h Antenna height in meters
+     * @return Grid lookup
+     */
+    public static RadarGridLookup ofHeights(Array xa, Array ya, float[] heights, float h) {
+        return get(xa, ya, heights, true, h);
+    }
+
+    /**
+     * Create a lookup without the lookup cache, for grids whose lookups are
+     * kept by the caller
+     *
+     * @param x X coordinates in meters
+     * @param y Y coordinates in meters
+     * @param shape Grid shape
+     * @param levels Scan elevations or heights in meters
+     * @param heightLevels The levels are heights or scan elevations
+     * @param h Antenna height in meters
+     * @return Grid lookup
+     */
+    public static RadarGridLookup create(float[] x, float[] y, int[] shape, float[] levels, boolean heightLevels,
+                                         float h) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("X and Y coordinate arrays must have the same size");
+        }
+        return new RadarGridLookup(x, y, shape.clone(), levels.clone(), heightLevels, h);
+    }
+
+    /**
+     * Remove all cached lookups
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get grid shape
+     *
+     * @return Grid shape
+     */
+    public int[] getShape() {
+        return shape.clone();
+    }
+
+    /**
+     * Get number of grid points
+     *
+     * @return Number of grid points
+     */
+    public int getSize() {
+        return azimuth.length;
+    }
+
+    /**
+     * Get levels, scan elevations or heights
+     *
+     * @return Levels
+     */
+    public float[] getLevels() {
+        return levels.clone();
+    }
+
+    /**
+     * Get whether the levels are heights or scan elevations
+     *
+     * @return Height levels or not
+     */
+    public boolean isHeightLevels() {
+        return heightLevels;
+    }
+
+    /**
+     * Get azimuths of the grid points in degrees
+     *
+     * @return Azimuths
+     */
+    public float[] getAzimuth() {
+        return azimuth;
+    }
+
+    /**
+     * Get ranges of the grid points on a level in meters
+     *
+     * @param level Level index
+     * @return Ranges
+     */
+    public float[] getRange(int level) {
+        return range[level];
+    }
+
+    /**
+     * Get elevations of the grid points on a height level in degrees
+     *
+     * @param level Level index
+     * @return Elevations, null for scan elevation levels
+     */
+    public float[] getElevation(int level) {
+        return elevation == null ? null : elevation[level];
+    }
+
+    /**
+     * Get memory weight in bytes
+     *
+     * @return Weight
+     */
+    public long getWeight() {
+        long n = azimuth.length;
+        return 64 + n * 4 * (1 + range.length + (elevation == null ? 0 : elevation.length));
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,484 @@
+package org.meteoinfo.data.meteodata.radar;
+
+import org.meteoinfo.common.util.TinyLFUCache;
+import org.meteoinfo.data.meteodata.Attribute;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+import org.meteoinfo.projection.ProjectionInfo;
+import org.meteoinfo.projection.Reproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Mosaic of radar volume scans of many sites on a longitude/latitude grid.
+ * <p>
+ * Each site is only gridded in its coverage window - the grid cells within
+ * the maximum range of the site - and the window values are merged into one
+ * output grid by the merge rule. Sites are processed in parallel, so the
+ * memory used is the output grid (and a distance or weight grid for the
+ * nearest and distance weighted rules) plus the windows being gridded.
+ * <p>
+ * The window of a site, the distances of its cells to the site and the grid
+ * lookup of the cells are kept in a weighted cache of the mosaic, keyed by
+ * the site location, range, antenna height and levels. So the projection of
+ * the window and the lookup are computed once for repeated mosaics of the
+ * same sites and scan strategies, also when the sites are replaced by new
+ * volume scans through {@link #clearSites()} and addSite. Windows do not go through
+ * the shared {@link RadarGridLookup} cache.
+ *
+ * @author wyq
+ */
+public class RadarMosaic {
+
+    /**
+     * Merge rule of overlapping sites
+     */
+    public enum MergeRule {
+        MAX,
+        NEAREST,
+        DISTANCE_WEIGHTED
+    }
+
+    private static final double METERS_PER_DEGREE = Math.PI * 6371000 / 180;
+    private static final int LOCK_NUM = 64;
+    private static final long CACHE_WEIGHT = 256L << 20;
+
+    private final double[] lon;
+    private final double[] lat;
+    private final List<Site> sites = new ArrayList<>();
+    private MergeRule mergeRule = MergeRule.MAX;
+    private final TinyLFUCache<WindowKey, Window> windows = new TinyLFUCache<>(CACHE_WEIGHT, Window::getWeight, 4);
+
+    private static class Site {
+        final BaseRadarDataInfo dataInfo;
+        final double lon;
+        final double lat;
+        final Float height;
+
+        Site(BaseRadarDataInfo dataInfo, double lon, double lat, Float height) {
+            this.dataInfo = dataInfo;
+            this.lon = lon;
+            this.lat = lat;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Coverage window of a site location for a maximum range, antenna height
+     * and levels. The window does not depend on the data of the site, so new
+     * scans of a site added after {@link #clearSites()} reuse it.
+     */
+    private static final class WindowKey {
+        private final double lon;
+        private final double lat;
+        private final double maxRange;
+        private final boolean heightLevels;
+        private final float h;
+        private final float[] levels;
+        private final int hash;
+
+        WindowKey(double lon, double lat, double maxRange, boolean heightLevels, float h, float[] levels) {
+            this.lon = lon;
+            this.lat = lat;
+            this.maxRange = maxRange;
+            this.heightLevels = heightLevels;
+            this.h = h;
+            this.levels = levels;
+            int r = Double.hashCode(lon);
+            r = 31 * r + Double.hashCode(lat);
+            r = 31 * r + Double.hashCode(maxRange);
+            r = 31 * r + Boolean.hashCode(heightLevels);
+            r = 31 * r + Float.hashCode(h);
+            r = 31 * r + Arrays.hashCode(levels);
+            this.hash = r;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof WindowKey)) {
+                return false;
+            }
+            WindowKey k = (WindowKey) o;
+            return hash == k.hash && Double.compare(lon, k.lon) == 0 && Double.compare(lat, k.lat) == 0
+                    && Double.compare(maxRange, k.maxRange) == 0 && heightLevels == k.heightLevels
+                    && Float.compare(h, k.h) == 0 && Arrays.equals(levels, k.levels);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Window {
+        final int c0;
+        final int r0;
+        final int rows;
+        final int cols;
+        //Distances of the window cells to the site in meters
+        final float[] distance;
+        final RadarGridLookup lookup;
+
+        Window(int c0, int r0, int rows, int cols, float[] distance, RadarGridLookup lookup) {
+            this.c0 = c0;
+            this.r0 = r0;
+            this.rows = rows;
+            this.cols = cols;
+            this.distance = distance;
+            this.lookup = lookup;
+        }
+
+        long getWeight() {
+            return 64 + distance.length * 4L + lookup.getWeight();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lon Longitudes of the output grid, ascending
+     * @param lat Latitudes of the output grid, ascending
+     */
+    public RadarMosaic(double[] lon, double[] lat) {
+        if (!isAscending(lon) || !isAscending(lat)) {
+            throw new IllegalArgumentException("Longitudes and latitudes must be ascending");
+        }
+        this.lon = lon.clone();
+        this.lat = lat.clone();
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lon Longitudes of the output grid, ascending
+     * @param lat Latitudes of the output grid, ascending
+     */
+    public RadarMosaic(Array lon, Array lat) {
+        this(toDoubles(lon), toDoubles(lat));
+    }
+
+    private static double[] toDoubles(Array a) {
+        Array c = a.copyIfView();
+        double[] r = new double[(int) c.getSize()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = c.getDouble(i);
+        }
+        return r;
+    }
+
+    private static boolean isAscending(double[] a) {
+        for (int i = 1; i < a.length; i++) {
+            if (!(a[i] > a[i - 1])) {
+                return false;
+            }
+        }
+        return a.length > 0;
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get merge rule
+     *
+     * @return Merge rule
+     */
+    public MergeRule getMergeRule() {
+        return mergeRule;
+    }
+
+    /**
+     * Set merge rule
+     *
+     * @param value Merge rule
+     */
+    public void setMergeRule(MergeRule value) {
+        this.mergeRule = value;
+    }
+
+    /**
+     * Set merge rule
+     *
+     * @param value Merge rule name
+     */
+    public void setMergeRule(String value) {
+        this.mergeRule = MergeRule.valueOf(value.toUpperCase());
+    }
+
+    /**
+     * Get number of sites
+     *
+     * @return Number of sites
+     */
+    public int getSiteNumber() {
+        return sites.size();
+    }
+
+    /**
+     * Get output grid shape
+     *
+     * @return Shape - latitude and longitude number
+     */
+    public int[] getShape() {
+        return new int[]{lat.length, lon.length};
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Add a site, the location is read from the StationLongitude,
+     * StationLatitude attributes of the data
+     *
+     * @param dataInfo Radar data info
+     */
+    public void addSite(BaseRadarDataInfo dataInfo) {
+        Attribute lonAtt = dataInfo.findGlobalAttribute("StationLongitude");
+        Attribute latAtt = dataInfo.findGlobalAttribute("StationLatitude");
+        if (lonAtt == null || latAtt == null) {
+            throw new IllegalArgumentException("No station location in the radar data: " + dataInfo.getFileName());
+        }
+        addSite(dataInfo, lonAtt.getNumericValue().doubleValue(), latAtt.getNumericValue().doubleValue(), null);
+    }
+
+    /**
+     * Add a site
+     *
+     * @param dataInfo Radar data info
+     * @param lon Site longitude
+     * @param lat Site latitude
+     * @param height Antenna height in meters, null to use the height of the data
+     */
+    public void addSite(BaseRadarDataInfo dataInfo, double lon, double lat, Float height) {
+        sites.add(new Site(dataInfo, lon, lat, height));
+    }
+
+    /**
+     * Remove all sites. The cached site windows are kept for the next scans
+     * of the same sites, use {@link #clearCache()} to remove them.
+     */
+    public void clearSites() {
+        sites.clear();
+    }
+
+    /**
+     * Remove the cached site windows
+     */
+    public void clearCache() {
+        windows.clear();
+    }
+
+    /**
+     * Get number of cached site windows
+     *
+     * @return Number of cached site windows
+     */
+    public int getCachedWindowNumber() {
+        return windows.size();
+    }
+
+    /**
+     * Mosaic composite reflectivity (maximum of all scans)
+     *
+     * @param varName Variable name
+     * @return Mosaic data, NaN out of all coverages
+     */
+    public Array mosaicCR(String varName) {
+        return mosaic(varName, Float.NaN);
+    }
+
+    /**
+     * Mosaic CAPPI data
+     *
+     * @param varName Variable name
+     * @param z Height in meters
+     * @return Mosaic data, NaN out of all coverages
+     */
+    public Array mosaicCAPPI(String varName, float z) {
+        return mosaic(varName, z);
+    }
+
+    private Array mosaic(String varName, float z) {
+        final int nx = lon.length;
+        final int ny = lat.length;
+        final MergeRule rule = mergeRule;
+        final float[] data = new float[nx * ny];
+        final float[] aux;
+        switch (rule) {
+            case NEAREST:
+                Arrays.fill(data, Float.NaN);
+                aux = new float[data.length];
+                Arrays.fill(aux, Float.POSITIVE_INFINITY);
+                break;
+            case DISTANCE_WEIGHTED:
+                aux = new float[data.length];
+                break;
+            default:
+                Arrays.fill(data, Float.NaN);
+                aux = null;
+                break;
+        }
+        final Object[] locks = new Object[LOCK_NUM];
+        for (int i = 0; i < LOCK_NUM; i++) {
+            locks[i] = new Object();
+        }
+
+        IntStream siteStream = IntStream.range(0, sites.size());
+        if (ArrayParallel.isEnabled() && sites.size() > 1) {
+            siteStream = siteStream.parallel();
+        }
+        siteStream.forEach(s -> mergeSite(sites.get(s), varName, z, rule, data, aux, locks));
+
+        if (rule == MergeRule.DISTANCE_WEIGHTED) {
+            for (int k = 0; k < data.length; k++) {
+                data[k] = aux[k] > 0 ? data[k] / aux[k] : Float.NaN;
+            }
+        }
+
+        return Array.factory(DataType.FLOAT, new int[]{ny, nx}, data);
+    }
+
+    /**
+     * Grid a site in its coverage window and merge into the output grid
+     */
+    private void mergeSite(Site site, String varName, float z, MergeRule rule, float[] data, float[] aux,
+                           Object[] locks) {
+        RadialRecord record = site.dataInfo.getRecordMap().get(varName);
+        if (record == null) {
+            return;
+        }
+        double maxRange = getMaxRange(record);
+        if (maxRange <= 0) {
+            return;
+        }
+
+        boolean heightLevels = !Float.isNaN(z);
+        float h = site.height == null ? site.dataInfo.getAntennaHeight() : site.height;
+        float[] levels = heightLevels ? new float[]{z} : record.fixedElevation.toFloatArray();
+        WindowKey key = new WindowKey(site.lon, site.lat, maxRange, heightLevels, h, levels);
+        Window window = windows.get(key);
+        if (window == null) {
+            window = createWindow(site, maxRange, heightLevels, h, levels);
+            if (window == null) {
+                return;
+            }
+            windows.put(key, window);
+        }
+        int c0 = window.c0, r0 = window.r0, rows = window.rows, cols = window.cols;
+        float[] dist = window.distance;
+        Array va = heightLevels ? site.dataInfo.getCAPPIData(varName, window.lookup) :
+                site.dataInfo.getCRData(varName, window.lookup);
+        float[] values = (float[]) va.getStorage();
+
+        for (int i = 0; i < rows; i++) {
+            int row = r0 + i;
+            synchronized (locks[row % LOCK_NUM]) {
+                for (int j = 0; j < cols; j++) {
+                    int k = i * cols + j;
+                    float v = values[k];
+                    if (Float.isNaN(v)) {
+                        continue;
+                    }
+                    float d = dist[k];
+                    if (!(d <= maxRange)) {
+                        continue;
+                    }
+                    int o = row * lon.length + c0 + j;
+                    switch (rule) {
+                        case NEAREST:
+                            if (d < aux[o]) {
+                                aux[o] = d;
+                                data[o] = v;
+                            }
+                            break;
+                        case DISTANCE_WEIGHTED:
+                            float w = 1.f / Math.max(d * d, 1.f);
+                            data[o] += v * w;
+                            aux[o] += w;
+                            break;
+                        default:
+                            if (Float.isNaN(data[o]) || v > data[o]) {
+                                data[o] = v;
+                            }
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the coverage window of a site: the grid cells within the maximum
+     * range, their distances to the site and their grid lookup
+     */
+    private Window createWindow(Site site, double maxRange, boolean heightLevels, float h, float[] levels) {
+        double dLat = maxRange / METERS_PER_DEGREE;
+        double dLon = dLat / Math.max(Math.cos(Math.toRadians(Math.min(89, Math.abs(site.lat) + dLat))), 0.01);
+        int c0 = lowerIndex(lon, site.lon - dLon);
+        int c1 = upperIndex(lon, site.lon + dLon);
+        int r0 = lowerIndex(lat, site.lat - dLat);
+        int r1 = upperIndex(lat, site.lat + dLat);
+        if (c0 > c1 || r0 > r1) {
+            return null;
+        }
+        int cols = c1 - c0 + 1;
+        int rows = r1 - r0 + 1;
+
+        //Window coordinates in meters relative to the site
+        double[] xs = new double[rows * cols];
+        double[] ys = new double[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                xs[i * cols + j] = lon[c0 + j];
+                ys[i * cols + j] = lat[r0 + i];
+            }
+        }
+        ProjectionInfo aeqd = ProjectionInfo.factory(String.format("+proj=aeqd +lat_0=%s +lon_0=%s +ellps=WGS84",
+                site.lat, site.lon));
+        Reproject.reprojectPoints(xs, ys, ProjectionInfo.LONG_LAT, aeqd);
+        float[] fx = new float[xs.length];
+        float[] fy = new float[ys.length];
+        float[] dist = new float[xs.length];
+        for (int k = 0; k < xs.length; k++) {
+            fx[k] = (float) xs[k];
+            fy[k] = (float) ys[k];
+            dist[k] = (float) Math.hypot(xs[k], ys[k]);
+        }
+        RadarGridLookup lookup = RadarGridLookup.create(fx, fy, new int[]{rows, cols}, levels, heightLevels, h);
+        return new Window(c0, r0, rows, cols, dist, lookup);
+    }
+
+    /**
+     * Get maximum range of a record in meters
+     */
+    private static double getMaxRange(RadialRecord record) {
+        double r = 0;
+        for (int i = 0; i < record.distance.size(); i++) {
+            Array dis = record.distance.get(i);
+            int n = (int) dis.getSize();
+            if (n > 0) {
+                float res = i < record.disResolution.size() ? record.disResolution.get(i) : 0;
+                r = Math.max(r, dis.getDouble(n - 1) + res);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Get index of the first value not less than v
+     */
+    private static int lowerIndex(double[] a, double v) {
+        int idx = Arrays.binarySearch(a, v);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    /**
+     * Get index of the last value not greater than v
+     */
+    private static int upperIndex(double[] a, double v) {
+        int idx = Arrays.binarySearch(a, v);
+        return idx >= 0 ? idx : -idx - 2;
+    }
+    // </editor-fold>
+}
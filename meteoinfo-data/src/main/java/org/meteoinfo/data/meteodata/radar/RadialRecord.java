@@ -8,11 +8,11 @@ import org.meteoinfo.data.meteodata.Variable;
 import org.meteoinfo.ndarray.Array;
 import org.meteoinfo.ndarray.DataType;
 import org.meteoinfo.ndarray.Index;
-import org.meteoinfo.ndarray.math.ArrayUtil;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class RadialRecord {
@@ -23,13 +23,86 @@ public class RadialRecord {
     private int fillValue;
     public float scale = 1;
     public float offset = 0;
-    public List<Float> fixedElevation = new ArrayList<>();
-    public List<List<Float>> elevation = new ArrayList<>();
-    public List<List<Float>> azimuth = new ArrayList<>();
+    public FloatList fixedElevation = new FloatList();
+    public List<FloatList> elevation = new ArrayList<>();
+    public List<FloatList> azimuth = new ArrayList<>();
     public List<Integer> azimuthMinIndex = new ArrayList<>();
     public List<Array> distance = new ArrayList<>();
     public List<Float> disResolution = new ArrayList<>();
     private final List<List<Array>> data = new ArrayList<>();
+    private volatile AzimuthSearch[] azimuthSearches = new AzimuthSearch[0];
+
+    /**
+     * Azimuth search of a scan. The azimuth order of the scan starts after the
+     * minimum azimuth index, the first azimuth not less than a value is found
+     * by binary search over the running maxima of the azimuths in this order.
+     */
+    private static final class AzimuthSearch {
+        private final float[] values;
+        private final int sIdx;
+        private final int eIdx;
+        private final float[] maxima;
+        private final int[] positions;
+
+        AzimuthSearch(float[] values, int sIdx) {
+            int n = values.length;
+            this.values = values;
+            this.sIdx = sIdx;
+            this.eIdx = sIdx - 1 < 0 ? n - 1 : sIdx - 1;
+            float[] ms = new float[n];
+            int[] ps = new int[n];
+            int m = 0;
+            //Same order as the linear search: after the start index, then from 0 to the end index
+            int count = sIdx == 0 ? n : n - 1;
+            for (int k = 0; k < count; k++) {
+                int i = k < n - 1 - sIdx ? sIdx + 1 + k : k - (n - 1 - sIdx);
+                float v = values[i];
+                if (!Float.isNaN(v) && (m == 0 || v > ms[m - 1])) {
+                    ms[m] = v;
+                    ps[m++] = i;
+                }
+            }
+            this.maxima = Arrays.copyOf(ms, m);
+            this.positions = Arrays.copyOf(ps, m);
+        }
+
+        /**
+         * Get the two azimuth indices around a value like the linear search,
+         * equal indices for an exact match, false for a NaN value
+         */
+        boolean find(float a, int[] r) {
+            int n = values.length;
+            if (Float.isNaN(a)) {
+                return false;
+            }
+            if (a < values[sIdx] || a > values[eIdx]) {
+                r[0] = eIdx;
+                r[1] = sIdx;
+                return true;
+            }
+            int lo = 0, hi = maxima.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (maxima[mid] < a) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo == maxima.length) {
+                return false;
+            }
+            int i = positions[lo];
+            if (a == values[i]) {
+                r[0] = i;
+                r[1] = i;
+            } else {
+                r[0] = i == 0 ? n - 1 : i - 1;
+                r[1] = i;
+            }
+            return true;
+        }
+    }
 
     /**
      * Constructor
@@ -87,11 +160,11 @@ public class RadialRecord {
      */
     public void addAzimuth(float a) {
         int n = getScanNumber();
-        List<Float> azi = this.azimuth.get(n - 1);
+        FloatList azi = this.azimuth.get(n - 1);
         azi.add(a);
         if (this.azimuthMinIndex.get(n - 1) == 0) {
             if (azi.size() > 1) {
-                if (a < azi.get(azi.size() - 2)) {
+                if (a < azi.getFloat(azi.size() - 2)) {
                     this.azimuthMinIndex.set(n - 1, azi.size() - 1);
                 }
             }
@@ -104,11 +177,11 @@ public class RadialRecord {
      * @param a Azimuth value
      */
     public void addAzimuth(int scanIdx, float a) {
-        List<Float> azi = this.azimuth.get(scanIdx);
+        FloatList azi = this.azimuth.get(scanIdx);
         azi.add(a);
         if (this.azimuthMinIndex.get(scanIdx) == 0) {
             if (azi.size() > 1) {
-                if (a < azi.get(azi.size() - 2)) {
+                if (a < azi.getFloat(azi.size() - 2)) {
                     this.azimuthMinIndex.set(scanIdx, azi.size() - 1);
                 }
             }
@@ -290,9 +363,9 @@ public class RadialRecord {
      * @return XYZ data array
      */
     public Array getXYZ(int scanIdx) {
-        List<Float> azi = this.azimuth.get(scanIdx);
+        FloatList azi = this.azimuth.get(scanIdx);
         Array dis = this.distance.get(scanIdx);
-        List<Float> ele = this.elevation.get(scanIdx);
+        FloatList ele = this.elevation.get(scanIdx);
         int nz = 3;
         int ny = azi.size();
         int nx = (int) dis.getSize();
@@ -301,8 +374,8 @@ public class RadialRecord {
         float a, e, x, y, z;
         double[] xyz;
         for (int i = 0; i < ny; i++) {
-            a = (float) Math.toRadians(azi.get(i));
-            e = (float) Math.toRadians(ele.get(i));
+            a = (float) Math.toRadians(azi.getFloat(i));
+            e = (float) Math.toRadians(ele.getFloat(i));
             for (int j = 0; j < nx; j++) {
                 xyz = Transform.antennaToCartesian(dis.getFloat(j), a, e);
                 index.set(0, i, j);
@@ -348,7 +421,8 @@ public class RadialRecord {
             Dimension radialDim = new Dimension(DimensionType.Y);
             radialDim.setShortName("azimuth_" + this.product + suffix);
             radialDim.setUnit("degree");
-            radialDim.setDimValue(ArrayUtil.array_list(this.azimuth.get(i), DataType.FLOAT));
+            float[] azi = this.azimuth.get(i).toFloatArray();
+            radialDim.setDimValue(Array.factory(DataType.FLOAT, new int[]{azi.length}, azi));
             dataInfo.addDimension(radialDim);
             Dimension disDim = new Dimension(DimensionType.X);
             disDim.setShortName("distance_" + this.product + suffix);
@@ -358,7 +432,8 @@ public class RadialRecord {
             Dimension eleDim = new Dimension(DimensionType.OTHER);
             eleDim.setShortName("elevation_" + this.product + suffix);
             eleDim.setUnit("degree");
-            eleDim.setDimValue(ArrayUtil.array_list(this.elevation.get(i), DataType.FLOAT));
+            float[] ele = this.elevation.get(i).toFloatArray();
+            eleDim.setDimValue(Array.factory(DataType.FLOAT, new int[]{ele.length}, ele));
             dataInfo.addDimension(eleDim);
 
             Variable variable = new Variable();
@@ -404,6 +479,32 @@ public class RadialRecord {
         return sortedAzimuth;
     }
 
+    /**
+     * Get azimuth search of a scan, rebuilt when the scan has new radials
+     * @param ei Scan index
+     * @return Azimuth search
+     */
+    private AzimuthSearch getAzimuthSearch(int ei) {
+        AzimuthSearch[] searches = this.azimuthSearches;
+        FloatList azs = this.azimuth.get(ei);
+        int sIdx = this.azimuthMinIndex.get(ei);
+        AzimuthSearch search = ei < searches.length ? searches[ei] : null;
+        if (search == null || search.values.length != azs.size() || search.sIdx != sIdx) {
+            search = new AzimuthSearch(azs.toFloatArray(), sIdx);
+            synchronized (this) {
+                searches = this.azimuthSearches;
+                if (ei >= searches.length) {
+                    searches = Arrays.copyOf(searches, getScanNumber());
+                } else {
+                    searches = searches.clone();
+                }
+                searches[ei] = search;
+                this.azimuthSearches = searches;
+            }
+        }
+        return search;
+    }
+
     /**
      * Get azimuth value index
      * @param ei Scan index
@@ -411,45 +512,17 @@ public class RadialRecord {
      * @return Azimuth value index
      */
     public int getAzimuthIndex(int ei, float a) {
-        List<Float> azs = this.azimuth.get(ei);
-        int n = azs.size();
-        int sIdx = this.azimuthMinIndex.get(ei);
-        int eIdx = sIdx - 1;
-        if (eIdx < 0) {
-            eIdx = n - 1;
+        AzimuthSearch search = getAzimuthSearch(ei);
+        int[] ii = new int[2];
+        if (!search.find(a, ii)) {
+            return -1;
         }
-
-        int i1 = -1, i2 = -1;
-        if (a < azs.get(sIdx) || a > azs.get(eIdx)) {
-            i1 = eIdx;
-            i2 = sIdx;
-        } else {
-            for (int i = sIdx + 1; i < n; i++) {
-                if (a == azs.get(i)) {
-                    return i;
-                } else if (a < azs.get(i)) {
-                    i1 = i - 1;
-                    i2 = i;
-                    break;
-                }
-            }
-            if (i1 < 0) {
-                for (int i = 0; i <= eIdx; i++) {
-                    if (a == azs.get(i)) {
-                        return i;
-                    } else if (a < azs.get(i)) {
-                        i1 = i - 1;
-                        i2 = i;
-                        if (i1 < 0) {
-                            i1 = n - 1;
-                        }
-                        break;
-                    }
-                }
-            }
+        int i1 = ii[0], i2 = ii[1];
+        if (i1 == i2) {
+            return i1;
         }
 
-        if (azs.get(i2) - a < a - azs.get(i1)) {
+        if (search.values[i2] - a < a - search.values[i1]) {
             return i2;
         } else {
             return i1;
@@ -460,48 +533,17 @@ public class RadialRecord {
      * Get azimuth value indices
      * @param ei Scan index
      * @param a Azimuth value
-     * @return Azimuth value indices - 2 elements
+     * @return Azimuth value indices - 2 elements, equal for an exact match,
+     * -1 for an invalid azimuth
      */
     public int[] getAzimuthIndices(int ei, float a) {
-        List<Float> azs = this.azimuth.get(ei);
-        int n = azs.size();
-        int sIdx = this.azimuthMinIndex.get(ei);
-        int eIdx = sIdx - 1;
-        if (eIdx < 0) {
-            eIdx = n - 1;
-        }
-
-        int i1 = -1, i2 = -1;
-        if (a < azs.get(sIdx) || a > azs.get(eIdx)) {
-            i1 = eIdx;
-            i2 = sIdx;
-        } else {
-            for (int i = sIdx + 1; i < n; i++) {
-                if (a == azs.get(i)) {
-                    return new int[]{i, i};
-                } else if (a < azs.get(i)) {
-                    i1 = i - 1;
-                    i2 = i;
-                    break;
-                }
-            }
-            if (i1 < 0) {
-                for (int i = 0; i <= eIdx; i++) {
-                    if (a == azs.get(i)) {
-                        return new int[]{i, i};
-                    } else if (a < azs.get(i)) {
-                        i1 = i - 1;
-                        i2 = i;
-                        if (i1 < 0) {
-                            i1 = n - 1;
-                        }
-                        break;
-                    }
-                }
-            }
+        int[] ii = new int[2];
+        if (!getAzimuthSearch(ei).find(a, ii)) {
+            ii[0] = -1;
+            ii[1] = -1;
         }
 
-        return new int[]{i1, i2};
+        return ii;
     }
 
     /**
@@ -511,16 +553,16 @@ public class RadialRecord {
      * @return Scan indices - 2 elements
      */
     public int[] getScanIndices(float e) {
-        if (e < fixedElevation.get(0) || e > fixedElevation.get(fixedElevation.size() - 1)) {
+        if (e < fixedElevation.getFloat(0) || e > fixedElevation.getFloat(fixedElevation.size() - 1)) {
             return new int[]{-1, -1};
-        } else if (e == fixedElevation.get(0)) {
+        } else if (e == fixedElevation.getFloat(0)) {
             return new int[]{0, 0};
-        } else if (e == fixedElevation.get(fixedElevation.size() - 1)) {
+        } else if (e == fixedElevation.getFloat(fixedElevation.size() - 1)) {
             return new int[]{fixedElevation.size() - 1, fixedElevation.size() - 1};
         }
 
         for (int i = 1; i < fixedElevation.size(); i++) {
-            if (e <= fixedElevation.get(i)) {
+            if (e <= fixedElevation.getFloat(i)) {
                 return new int[]{i - 1, i};
             }
         }
@@ -536,17 +578,17 @@ public class RadialRecord {
      * @return Scan indices - 2 elements
      */
     public int[] getScanIndices(float e, float halfBeamWidth) {
-        if (e < fixedElevation.get(0) - halfBeamWidth || e > fixedElevation.get(fixedElevation.size() - 1) +
+        if (e < fixedElevation.getFloat(0) - halfBeamWidth || e > fixedElevation.getFloat(fixedElevation.size() - 1) +
                 halfBeamWidth) {
             return new int[]{-1, -1};
-        } else if (e <= fixedElevation.get(0)) {
+        } else if (e <= fixedElevation.getFloat(0)) {
             return new int[]{0, 0};
-        } else if (e >= fixedElevation.get(fixedElevation.size() - 1)) {
+        } else if (e >= fixedElevation.getFloat(fixedElevation.size() - 1)) {
             return new int[]{fixedElevation.size() - 1, fixedElevation.size() - 1};
         }
 
         for (int i = 1; i < fixedElevation.size(); i++) {
-            if (e <= fixedElevation.get(i)) {
+            if (e <= fixedElevation.getFloat(i)) {
                 return new int[]{i - 1, i};
             }
         }
@@ -565,6 +607,9 @@ public class RadialRecord {
     public float getValue(int ei, float a, float r) {
         List<Array> sData = this.data.get(ei);
         int aziIdx = getAzimuthIndex(ei, a);
+        if (aziIdx < 0) {
+            return Float.NaN;
+        }
         float disRes = this.disResolution.get(ei);
         int disIdx = (int) (r / disRes);
         Array rData = sData.get(aziIdx);
@@ -641,8 +686,11 @@ public class RadialRecord {
      * @return Data value
      */
     public float interpolateValue(int ei, float a, float r) {
-        List<Array> sData = this.data.get(ei);
-        int[] aziIndices = getAzimuthIndices(ei, a);
+        AzimuthSearch search = getAzimuthSearch(ei);
+        int[] aziIndices = new int[2];
+        if (!search.find(a, aziIndices)) {
+            return Float.NaN;
+        }
         int ai1 = aziIndices[0];
         int ai2 = aziIndices[1];
         float v = interpolateValue(ei, ai1, r);
@@ -652,8 +700,8 @@ public class RadialRecord {
                 v = v2;
             } else {
                 if (!Float.isNaN(v2)) {
-                    List<Float> azi = this.azimuth.get(ei);
-                    v = v + (v2 - v) * (a - azi.get(ai1)) / (azi.get(ai2) - azi.get(ai1));
+                    float[] azi = search.values;
+                    v = v + (v2 - v) * (a - azi[ai1]) / (azi[ai2] - azi[ai1]);
                 }
             }
         }
@@ -687,8 +735,8 @@ public class RadialRecord {
                 v = v2;
             } else {
                 if (!Float.isNaN(v2)) {
-                    v = v + (v2 - v) * (e - fixedElevation.get(ei1)) / (fixedElevation.get(ei2) -
-                            fixedElevation.get(ei1));
+                    v = v + (v2 - v) * (e - fixedElevation.getFloat(ei1)) / (fixedElevation.getFloat(ei2) -
+                            fixedElevation.getFloat(ei1));
                 }
             }
         }
@@ -720,8 +768,8 @@ public class RadialRecord {
                 v = v2;
             } else {
                 if (!Float.isNaN(v2)) {
-                    v = v + (v2 - v) * (e - fixedElevation.get(ei1)) / (fixedElevation.get(ei2) -
-                            fixedElevation.get(ei1));
+                    v = v + (v2 - v) * (e - fixedElevation.getFloat(ei1)) / (fixedElevation.getFloat(ei2) -
+                            fixedElevation.getFloat(ei1));
                 }
             }
         }
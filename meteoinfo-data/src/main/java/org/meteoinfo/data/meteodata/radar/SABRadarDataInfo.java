@@ -101,8 +101,8 @@ public class SABRadarDataInfo extends BaseRadarDataInfo implements IRadarDataInf
                     }
                     if (radialHeader.radialNumber == 1) {
                         record.fixedElevation.add(radialHeader.getElevation());
-                        record.elevation.add(new ArrayList<>());
-                        record.azimuth.add(new ArrayList<>());
+                        record.elevation.add(new FloatList());
+                        record.azimuth.add(new FloatList());
                         record.azimuthMinIndex.add(0);
                         if (isVelocityGroup(record)) {
                             record.disResolution.add((float) radialHeader.gateSizeOfDoppler);
@@ -72,8 +72,8 @@ public class SCRadarDataInfo extends BaseRadarDataInfo implements IRadarDataInfo
                         RadialRecord record = this.recordMap.get(product);
                         if (iRadial == 0) {
                             record.fixedElevation.add(layerParam.getSweepAngle());
-                            record.elevation.add(new ArrayList<>());
-                            record.azimuth.add(new ArrayList<>());
+                            record.elevation.add(new FloatList());
+                            record.azimuth.add(new FloatList());
                             record.azimuthMinIndex.add(0);
                             record.disResolution.add(layerParam.binWidth / 10.f);
                             record.distance.add(ArrayUtil.arrayRange1(0,
@@ -178,8 +178,8 @@ public class StandardRadarDataInfo extends BaseRadarDataInfo implements IRadarDa
                     }
                     if (radialHeader.radialNumber == 1) {
                         record.fixedElevation.add(cutConfigs.get(radialHeader.elevationNumber - 1).elevation);
-                        record.elevation.add(new ArrayList<>());
-                        record.azimuth.add(new ArrayList<>());
+                        record.elevation.add(new FloatList());
+                        record.azimuth.add(new FloatList());
                         record.azimuthMinIndex.add(0);
                         if (isVelocityGroup(record)) {
                             record.disResolution.add((float) cutConfigs.get(radialHeader.elevationNumber - 1).dopplerResolution);
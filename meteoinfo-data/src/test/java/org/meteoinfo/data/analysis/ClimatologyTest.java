@@ -0,0 +1,209 @@
+package org.meteoinfo.data.analysis;
+
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.common.util.JDateUtil;
+import org.meteoinfo.data.dimarray.Dimension;
+import org.meteoinfo.data.dimarray.DimensionType;
+import org.meteoinfo.data.meteodata.DataInfo;
+import org.meteoinfo.data.meteodata.Variable;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.InvalidRangeException;
+
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClimatologyTest {
+
+    /**
+     * Monthly fields of 100 years on a 2 x 2 grid. In month m and year k the
+     * grid values are k + 0.5 + m, 2k + 1 + m, NaN and 7.
+     */
+    private static Climatology monthly() {
+        Climatology clim = new Climatology("v", Climatology.Period.MONTH);
+        clim.setHistogram(0, 220, 220);
+        for (int k = 0; k < 100; k++) {
+            for (int m = 0; m < 12; m++) {
+                double[] v = {k + 0.5 + m, 2 * k + 1 + m, Double.NaN, 7};
+                clim.add(LocalDateTime.of(1900 + k, m + 1, 15, 0, 0),
+                        Array.factory(DataType.DOUBLE, new int[]{2, 2}, v));
+            }
+        }
+        return clim;
+    }
+
+    @Test
+    public void testMeanVariance() {
+        Climatology clim = monthly();
+        assertEquals(1200, clim.getStepNumber());
+        for (int m = 0; m < 12; m++) {
+            Array count = clim.getField(Climatology.Statistic.COUNT, m);
+            assertArrayEquals(new int[]{100, 100, 0, 100}, (int[]) count.getStorage());
+
+            double[] mean = (double[]) clim.getField(Climatology.Statistic.MEAN, m).getStorage();
+            assertEquals(50 + m, mean[0], 1e-9);
+            assertEquals(100 + m, mean[1], 1e-9);
+            assertTrue(Double.isNaN(mean[2]));
+            assertEquals(7, mean[3], 1e-12);
+
+            //Variance of 0.5, 1.5, ... 99.5 is 100 * 101 / 12 with ddof 1
+            double[] var = (double[]) clim.getField(Climatology.Statistic.VARIANCE, m).getStorage();
+            assertEquals(100 * 101 / 12.0, var[0], 1e-9);
+            assertEquals(4 * 100 * 101 / 12.0, var[1], 1e-9);
+            assertTrue(Double.isNaN(var[2]));
+            assertEquals(0, var[3], 1e-12);
+            var = (double[]) clim.getField(Climatology.Statistic.VARIANCE, m, 0).getStorage();
+            assertEquals((100 * 100 - 1) / 12.0, var[0], 1e-9);
+
+            double[] min = (double[]) clim.getField(Climatology.Statistic.MIN, m).getStorage();
+            double[] max = (double[]) clim.getField(Climatology.Statistic.MAX, m).getStorage();
+            assertEquals(0.5 + m, min[0], 1e-6);
+            assertEquals(99.5 + m, max[0], 1e-6);
+            assertEquals(1 + m, min[1], 1e-6);
+            assertEquals(199 + m, max[1], 1e-6);
+        }
+
+        //Anomaly to the monthly mean
+        Array anomaly = clim.getAnomaly(LocalDateTime.of(2020, 3, 1, 0, 0),
+                Array.factory(DataType.DOUBLE, new int[]{2, 2}, new double[]{60, 60, 60, 60}));
+        assertArrayEquals(new double[]{8, -42, Double.NaN, 53}, (double[]) anomaly.getStorage(), 1e-9);
+    }
+
+    @Test
+    public void testPercentile() {
+        Climatology clim = monthly();
+        double[] qs = {10, 25, 50, 75, 90};
+        for (int m = 0; m < 12; m++) {
+            for (double q : qs) {
+                double[] p = (double[]) clim.getPercentile(q, m).getStorage();
+                //One value per unit bin, so the percentile is exact to a bin width
+                assertEquals(q + m, p[0], 1e-9, "q " + q + ", month " + m);
+                assertEquals(2 * q + m, p[1], 1.0, "q " + q + ", month " + m);
+                assertTrue(Double.isNaN(p[2]));
+                assertEquals(7, p[3], 1e-9);
+            }
+            double[] p = (double[]) clim.getPercentile(0, m).getStorage();
+            assertEquals(0.5 + m, p[0], 1e-6);
+            p = (double[]) clim.getPercentile(100, m).getStorage();
+            assertEquals(99.5 + m, p[0], 1e-6);
+        }
+        assertArrayEquals(new int[]{12, 2, 2}, clim.getPercentile(50).getShape());
+    }
+
+    @Test
+    public void testOversizedHistogram() {
+        Climatology clim = new Climatology("v", Climatology.Period.DAY_OF_YEAR);
+        clim.setHistogram(0, 1, 1 << 20);
+        Array field = Array.factory(DataType.FLOAT, new int[]{64, 64});
+        assertEquals(366L * 64 * 64 * (36 + 4L * (1 << 20)), clim.getMemorySize(64 * 64));
+        assertThrows(IllegalArgumentException.class, () -> clim.add(LocalDateTime.of(2000, 1, 1, 0, 0), field));
+        assertThrows(IllegalStateException.class, () -> clim.getField(Climatology.Statistic.MEAN, 0));
+
+        Climatology small = new Climatology("v", Climatology.Period.DAY_OF_YEAR);
+        small.setHistogram(0, 1, 10);
+        small.add(LocalDateTime.of(2000, 1, 1, 0, 0), field);
+        assertEquals(1, small.getStepNumber());
+    }
+
+    /**
+     * In-memory data info of a variable with (time, y, x) dimensions
+     */
+    private static class ArrayDataInfo extends DataInfo {
+        private final Array data;
+
+        ArrayDataInfo(String varName, LocalDateTime[] times, Array data) {
+            this.data = data;
+            int[] shape = data.getShape();
+            double[] t = new double[times.length];
+            for (int i = 0; i < t.length; i++) {
+                t[i] = JDateUtil.toOADate(times[i]);
+            }
+            Variable var = new Variable(0, varName, varName, "");
+            var.addDimension(new Dimension("time", Array.factory(DataType.DOUBLE, new int[]{t.length}, t),
+                    DimensionType.T));
+            var.addDimension(new Dimension("y", shape[1], DimensionType.Y));
+            var.addDimension(new Dimension("x", shape[2], DimensionType.X));
+            addVariable(var);
+        }
+
+        @Override
+        public boolean isValidFile(RandomAccessFile raf) {
+            return false;
+        }
+
+        @Override
+        public void readDataInfo(String fileName) {
+        }
+
+        @Override
+        public Array read(String varName) {
+            return data.copy();
+        }
+
+        @Override
+        public Array read(String varName, int[] origin, int[] size, int[] stride) {
+            try {
+                return data.section(origin, size, stride).copy();
+            } catch (InvalidRangeException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    @Test
+    public void testDataInfo() throws Exception {
+        //Two years of monthly 1 x 2 fields. The first cell differs below the
+        //float precision, the second is missing in even months.
+        int nt = 24;
+        LocalDateTime[] times = new LocalDateTime[nt];
+        double[] v = new double[nt * 2];
+        for (int t = 0; t < nt; t++) {
+            times[t] = LocalDateTime.of(2000 + t / 12, t % 12 + 1, 1, 0, 0);
+            v[t * 2] = 1 + 1e-9 * (t + 1);
+            v[t * 2 + 1] = t % 2 == 0 ? -9999 : t;
+        }
+        ArrayDataInfo dataInfo = new ArrayDataInfo("v", times,
+                Array.factory(DataType.DOUBLE, new int[]{nt, 1, 2}, v));
+
+        Climatology clim = new Climatology("v", Climatology.Period.MONTH);
+        clim.add(dataInfo);
+        assertEquals(nt, clim.getStepNumber());
+        assertArrayEquals(new int[]{1, 2}, clim.getGridShape());
+        for (int m = 0; m < 12; m++) {
+            int[] count = (int[]) clim.getField(Climatology.Statistic.COUNT, m).getStorage();
+            assertArrayEquals(new int[]{2, m % 2 == 0 ? 0 : 2}, count);
+            double[] min = (double[]) clim.getField(Climatology.Statistic.MIN, m).getStorage();
+            double[] max = (double[]) clim.getField(Climatology.Statistic.MAX, m).getStorage();
+            assertEquals(v[m * 2], min[0], 0);
+            assertEquals(v[(m + 12) * 2], max[0], 0);
+            double[] mean = (double[]) clim.getField(Climatology.Statistic.MEAN, m).getStorage();
+            if (m % 2 == 0) {
+                assertTrue(Double.isNaN(mean[1]));
+            } else {
+                assertEquals(m + 6, mean[1], 1e-12);
+            }
+        }
+
+        List<LocalDateTime> anomalyTimes = new ArrayList<>();
+        List<Double> anomalies = new ArrayList<>();
+        clim.forEachAnomaly(Collections.singletonList(dataInfo), (time, field) -> {
+            assertArrayEquals(new int[]{1, 2}, field.getShape());
+            anomalyTimes.add(time);
+            anomalies.add(field.getDouble(1));
+        });
+        assertEquals(nt, anomalyTimes.size());
+        for (int t = 0; t < nt; t++) {
+            assertEquals(times[t], anomalyTimes.get(t));
+            if (t % 2 == 0) {
+                assertTrue(Double.isNaN(anomalies.get(t)));
+            } else {
+                assertEquals(t < 12 ? -6 : 6, anomalies.get(t), 1e-12);
+            }
+        }
+    }
+}
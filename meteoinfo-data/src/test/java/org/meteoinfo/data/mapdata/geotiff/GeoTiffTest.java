@@ -0,0 +1,647 @@
+package org.meteoinfo.data.mapdata.geotiff;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.meteoinfo.common.Extent;
+import org.meteoinfo.data.GridArray;
+import org.meteoinfo.data.mapdata.geotiff.compression.DeflateCompression;
+import org.meteoinfo.data.mapdata.geotiff.compression.LZWCompression;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.Range;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeoTiffTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Image of a TIFF directory to write
+     */
+    private static class Image {
+        int width;
+        int height;
+        int spp = 1;
+        int bits = 8;
+        int sampleFormat = 1;
+        int compression = 1;
+        int predictor = 1;
+        boolean planar = false;
+        //Tile size, strips of tileHeight rows if tileWidth is 0
+        int tileWidth = 0;
+        int tileHeight;
+        int subfileType = 0;
+        //Samples, pixel interleaved, rows from the top of the image
+        double[] values;
+        Set<Integer> sparseTiles = new HashSet<>();
+        double[] tiepoint;
+        double[] pixelScale;
+
+        Image(int width, int height, int bits, int sampleFormat) {
+            this.width = width;
+            this.height = height;
+            this.tileHeight = height;
+            this.bits = bits;
+            this.sampleFormat = sampleFormat;
+        }
+
+        double get(int row, int col, int sample) {
+            return values[(row * width + col) * spp + sample];
+        }
+    }
+
+    // <editor-fold desc="Writer">
+    private static void putSample(ByteBuffer bb, Image image, double v) {
+        switch (image.bits) {
+            case 8:
+                bb.put((byte) (long) v);
+                break;
+            case 16:
+                bb.putShort((short) (long) v);
+                break;
+            case 32:
+                if (image.sampleFormat == 3) {
+                    bb.putFloat((float) v);
+                } else {
+                    bb.putInt((int) (long) v);
+                }
+                break;
+            default:
+                bb.putDouble(v);
+                break;
+        }
+    }
+
+    /**
+     * Encode the tiles of an image - sample layout, predictor and compression
+     */
+    private static List<byte[]> encodeTiles(Image image, ByteOrder order) {
+        int tw = image.tileWidth > 0 ? image.tileWidth : image.width;
+        int th = image.tileHeight;
+        int across = (image.width + tw - 1) / tw;
+        int down = (image.height + th - 1) / th;
+        int planes = image.planar ? image.spp : 1;
+        int tileSpp = image.planar ? 1 : image.spp;
+        int bps = image.bits / 8;
+        List<byte[]> tiles = new ArrayList<>();
+        for (int plane = 0; plane < planes; plane++) {
+            for (int ty = 0; ty < down; ty++) {
+                for (int tx = 0; tx < across; tx++) {
+                    int rows = image.tileWidth > 0 ? th : Math.min(th, image.height - ty * th);
+                    ByteBuffer bb = ByteBuffer.allocate(tw * rows * tileSpp * bps).order(order);
+                    for (int y = 0; y < rows; y++) {
+                        for (int x = 0; x < tw; x++) {
+                            for (int k = 0; k < tileSpp; k++) {
+                                int r = ty * th + y;
+                                int c = tx * tw + x;
+                                double v = r < image.height && c < image.width ?
+                                        image.get(r, c, image.planar ? plane : k) : 0;
+                                putSample(bb, image, v);
+                            }
+                        }
+                    }
+                    byte[] bytes = bb.array();
+                    if (image.predictor == 2) {
+                        horizontalPredictor(bytes, tw, rows, tileSpp, bps, order);
+                    } else if (image.predictor == 3) {
+                        floatPredictor(bytes, tw, rows, tileSpp, bps, order);
+                    }
+                    switch (image.compression) {
+                        case 5:
+                            bytes = lzw(bytes);
+                            break;
+                        case 8:
+                            bytes = new DeflateCompression().encode(bytes, order);
+                            break;
+                    }
+                    tiles.add(bytes);
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private static void horizontalPredictor(byte[] bytes, int tw, int rows, int spp, int bps, ByteOrder order) {
+        ByteBuffer bb = ByteBuffer.wrap(bytes).order(order);
+        int n = tw * spp;
+        for (int y = 0; y < rows; y++) {
+            for (int i = n - 1; i >= spp; i--) {
+                int p = (y * n + i) * bps;
+                int q = p - spp * bps;
+                switch (bps) {
+                    case 1:
+                        bytes[p] -= bytes[q];
+                        break;
+                    case 2:
+                        bb.putShort(p, (short) (bb.getShort(p) - bb.getShort(q)));
+                        break;
+                    default:
+                        bb.putInt(p, bb.getInt(p) - bb.getInt(q));
+                        break;
+                }
+            }
+        }
+    }
+
+    private static void floatPredictor(byte[] bytes, int tw, int rows, int spp, int bps, ByteOrder order) {
+        int wc = tw * spp;
+        int rowBytes = wc * bps;
+        byte[] row = new byte[rowBytes];
+        boolean bigEndian = order == ByteOrder.BIG_ENDIAN;
+        for (int y = 0; y < rows; y++) {
+            int start = y * rowBytes;
+            for (int j = 0; j < wc; j++) {
+                for (int b = 0; b < bps; b++) {
+                    row[b * wc + j] = bytes[start + j * bps + (bigEndian ? b : bps - 1 - b)];
+                }
+            }
+            for (int p = rowBytes - 1; p >= spp; p--) {
+                row[p] -= row[p - spp];
+            }
+            System.arraycopy(row, 0, bytes, start, rowBytes);
+        }
+    }
+
+    /**
+     * TIFF LZW encoder which, like some writers, never emits a clear code, so
+     * the code table fills up and the codes stay 12 bits wide
+     */
+    private static byte[] lzw(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long[] acc = {0, 0};
+        Map<String, Integer> table = new HashMap<>();
+        int[] width = {9};
+        emit(out, acc, 256, width[0]);
+        int next = 258;
+        String w = "";
+        for (byte b : data) {
+            String wc = w + (char) (b & 0xFF);
+            if (wc.length() == 1 || table.containsKey(wc)) {
+                w = wc;
+                continue;
+            }
+            emit(out, acc, code(table, w), width[0]);
+            if (next < 4096) {
+                table.put(wc, next);
+                next = grow(next, width);
+            }
+            w = wc.substring(wc.length() - 1);
+        }
+        emit(out, acc, code(table, w), width[0]);
+        if (next < 4096) {
+            grow(next, width);
+        }
+        emit(out, acc, 257, width[0]);
+        if (acc[1] > 0) {
+            out.write((int) (acc[0] << (8 - acc[1])));
+        }
+        return out.toByteArray();
+    }
+
+    private static int code(Map<String, Integer> table, String s) {
+        return s.length() == 1 ? s.charAt(0) : table.get(s);
+    }
+
+    private static int grow(int added, int[] width) {
+        if (width[0] < 12 && added >= (1 << width[0]) - 1) {
+            width[0]++;
+        }
+        return added + 1;
+    }
+
+    private static void emit(ByteArrayOutputStream out, long[] acc, int code, int width) {
+        acc[0] = (acc[0] << width) | code;
+        acc[1] += width;
+        while (acc[1] >= 8) {
+            out.write((int) (acc[0] >>> (acc[1] - 8)));
+            acc[1] -= 8;
+            acc[0] &= (1L << acc[1]) - 1;
+        }
+    }
+
+    private static final class Entry {
+        final int tag;
+        final int type;
+        final long[] values;
+        final double[] doubles;
+
+        Entry(int tag, long... values) {
+            this.tag = tag;
+            this.type = 4;
+            this.values = values;
+            this.doubles = null;
+        }
+
+        Entry(int tag, double[] doubles) {
+            this.tag = tag;
+            this.type = 12;
+            this.values = null;
+            this.doubles = doubles;
+        }
+
+        int count() {
+            return values != null ? values.length : doubles.length;
+        }
+
+        int size() {
+            return count() * (type == 12 ? 8 : 4);
+        }
+    }
+
+    /**
+     * Write a classic TIFF file of some images, the first one is the full
+     * resolution image
+     */
+    private File write(String name, ByteOrder order, Image... images) throws Exception {
+        ByteBuffer bb = ByteBuffer.allocate(1 << 22).order(order);
+        bb.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        bb.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        bb.putShort((short) 42);
+        int firstIfdPos = bb.position();
+        bb.putInt(0);
+        int prevNextPos = firstIfdPos;
+        for (Image image : images) {
+            List<byte[]> tiles = encodeTiles(image, order);
+            long[] offsets = new long[tiles.size()];
+            long[] counts = new long[tiles.size()];
+            for (int i = 0; i < tiles.size(); i++) {
+                if (image.sparseTiles.contains(i)) {
+                    continue;
+                }
+                offsets[i] = bb.position();
+                counts[i] = tiles.get(i).length;
+                bb.put(tiles.get(i));
+            }
+            if (bb.position() % 2 == 1) {
+                bb.put((byte) 0);
+            }
+
+            List<Entry> entries = new ArrayList<>();
+            if (image.subfileType != 0) {
+                entries.add(new Entry(254, image.subfileType));
+            }
+            entries.add(new Entry(256, image.width));
+            entries.add(new Entry(257, image.height));
+            long[] bits = new long[image.spp];
+            Arrays.fill(bits, image.bits);
+            entries.add(new Entry(258, bits));
+            entries.add(new Entry(259, image.compression));
+            entries.add(new Entry(262, 1));
+            if (image.tileWidth == 0) {
+                entries.add(new Entry(273, offsets));
+            }
+            entries.add(new Entry(277, image.spp));
+            if (image.tileWidth == 0) {
+                entries.add(new Entry(278, image.tileHeight));
+                entries.add(new Entry(279, counts));
+            }
+            entries.add(new Entry(284, image.planar ? 2 : 1));
+            if (image.predictor != 1) {
+                entries.add(new Entry(317, image.predictor));
+            }
+            if (image.tileWidth > 0) {
+                entries.add(new Entry(322, image.tileWidth));
+                entries.add(new Entry(323, image.tileHeight));
+                entries.add(new Entry(324, offsets));
+                entries.add(new Entry(325, counts));
+            }
+            long[] formats = new long[image.spp];
+            Arrays.fill(formats, image.sampleFormat);
+            entries.add(new Entry(339, formats));
+            if (image.pixelScale != null) {
+                entries.add(new Entry(33550, image.pixelScale));
+                entries.add(new Entry(33922, image.tiepoint));
+            }
+
+            int ifdPos = bb.position();
+            bb.putInt(prevNextPos, ifdPos);
+            int overflow = ifdPos + 2 + entries.size() * 12 + 4;
+            bb.putShort((short) entries.size());
+            for (Entry e : entries) {
+                bb.putShort((short) e.tag);
+                bb.putShort((short) e.type);
+                bb.putInt(e.count());
+                int pos = bb.position();
+                int valuePos = pos;
+                if (e.size() > 4) {
+                    bb.putInt(overflow);
+                    valuePos = overflow;
+                    overflow += e.size();
+                }
+                for (int i = 0; i < e.count(); i++) {
+                    if (e.doubles != null) {
+                        bb.putDouble(valuePos + i * 8, e.doubles[i]);
+                    } else {
+                        bb.putInt(valuePos + i * 4, (int) e.values[i]);
+                    }
+                }
+                bb.position(pos + 4);
+            }
+            prevNextPos = bb.position();
+            bb.putInt(0);
+            bb.position(overflow);
+        }
+
+        File file = dir.resolve(name).toFile();
+        Files.write(file.toPath(), Arrays.copyOf(bb.array(), bb.position()));
+        return file;
+    }
+    // </editor-fold>
+
+    private static double[] randomValues(int n, Random random, double min, double max, boolean integer) {
+        double[] r = new double[n];
+        for (int i = 0; i < n; i++) {
+            double v = min + random.nextDouble() * (max - min);
+            r[i] = integer ? Math.floor(v) : v;
+        }
+        return r;
+    }
+
+    /**
+     * Smooth values, which predictors and LZW compress well
+     */
+    private static double[] smoothValues(Image image, double scale, boolean integer) {
+        double[] r = new double[image.width * image.height * image.spp];
+        for (int row = 0; row < image.height; row++) {
+            for (int col = 0; col < image.width; col++) {
+                for (int k = 0; k < image.spp; k++) {
+                    double v = scale * (Math.sin(row * 0.1) + Math.cos(col * 0.07) + 2 + k);
+                    r[(row * image.width + col) * image.spp + k] = integer ? Math.floor(v) : v;
+                }
+            }
+        }
+        return r;
+    }
+
+    private static GeoTiff open(File file) throws Exception {
+        GeoTiff geoTiff = new GeoTiff(file.getPath());
+        geoTiff.read();
+        return geoTiff;
+    }
+
+    /**
+     * Check a read array against the image samples, the rows of the array are
+     * bottom up
+     */
+    private static void check(Image image, Array a, int[] rows, int[] cols, double tolerance) {
+        int ny = rows.length;
+        int nx = cols.length;
+        int[] shape = image.spp == 1 ? new int[]{ny, nx} : new int[]{ny, nx, image.spp};
+        assertArrayEquals(shape, a.getShape());
+        for (int i = 0; i < ny; i++) {
+            for (int j = 0; j < nx; j++) {
+                for (int k = 0; k < image.spp; k++) {
+                    double expected = image.get(rows[i], cols[j], k);
+                    double actual = a.getDouble(((ny - 1 - i) * nx + j) * image.spp + k);
+                    assertEquals(expected, actual, tolerance, "pixel " + rows[i] + ", " + cols[j] + ", " + k);
+                }
+            }
+        }
+    }
+
+    private static int[] all(int n) {
+        return indices(0, n, 1);
+    }
+
+    private static int[] indices(int first, int n, int stride) {
+        int[] r = new int[n];
+        for (int i = 0; i < n; i++) {
+            r[i] = first + i * stride;
+        }
+        return r;
+    }
+
+    private void checkRoundTrip(String name, Image image, double tolerance) throws Exception {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            File file = write(name + "_" + order + ".tif", order, image);
+            GeoTiff geoTiff = open(file);
+            try {
+                check(image, geoTiff.readArray(), all(image.height), all(image.width), tolerance);
+                //Window across tile boundaries
+                int y0 = image.height / 3, x0 = image.width / 4;
+                int ny = image.height / 2, nx = image.width / 2;
+                Array a = geoTiff.readArray(new Range(y0, y0 + ny - 1, 1), new Range(x0, x0 + nx - 1, 1));
+                check(image, a, indices(y0, ny, 1), indices(x0, nx, 1), tolerance);
+            } finally {
+                geoTiff.close();
+            }
+        }
+    }
+
+    @Test
+    public void testUnsignedSamples() throws Exception {
+        Random random = new Random(25);
+        Image image = new Image(23, 17, 16, 1);
+        image.tileHeight = 5;
+        image.values = randomValues(23 * 17, random, 0, 65536, true);
+        image.values[0] = 65535;
+        image.values[1] = 32768;
+        checkRoundTrip("uint16", image, 0);
+
+        image = new Image(23, 17, 16, 2);
+        image.tileHeight = 5;
+        image.values = randomValues(23 * 17, random, -32768, 32768, true);
+        checkRoundTrip("int16", image, 0);
+
+        image = new Image(23, 17, 8, 1);
+        image.values = randomValues(23 * 17, random, 0, 256, true);
+        image.values[0] = 255;
+        checkRoundTrip("uint8", image, 0);
+
+        image = new Image(23, 17, 8, 2);
+        image.values = randomValues(23 * 17, random, -128, 128, true);
+        checkRoundTrip("int8", image, 0);
+    }
+
+    @Test
+    public void testHorizontalPredictor() throws Exception {
+        for (int bits : new int[]{8, 16, 32}) {
+            for (int compression : new int[]{5, 8}) {
+                Image image = new Image(50, 37, bits, 2);
+                image.tileHeight = 8;
+                image.compression = compression;
+                image.predictor = 2;
+                image.values = smoothValues(image, bits == 8 ? 20 : 1000, true);
+                image.values[5] = -image.values[5];
+                checkRoundTrip("hpred" + bits + "_" + compression, image, 0);
+            }
+        }
+
+        //Pixel interleaved samples are differenced per sample
+        Image image = new Image(30, 20, 16, 1);
+        image.spp = 3;
+        image.tileHeight = 7;
+        image.compression = 8;
+        image.predictor = 2;
+        image.values = smoothValues(image, 5000, true);
+        checkRoundTrip("hpred_rgb", image, 0);
+    }
+
+    @Test
+    public void testFloatPredictor() throws Exception {
+        for (int bits : new int[]{32, 64}) {
+            for (int compression : new int[]{5, 8}) {
+                //Tiles overhang the image edges
+                Image image = new Image(40, 30, bits, 3);
+                image.tileWidth = 16;
+                image.tileHeight = 16;
+                image.compression = compression;
+                image.predictor = 3;
+                image.values = smoothValues(image, 123.456, false);
+                image.values[7] = Double.NaN;
+                checkRoundTrip("fpred" + bits + "_" + compression, image, bits == 32 ? 1e-4 : 0);
+            }
+        }
+    }
+
+    @Test
+    public void testLZWFullTable() throws Exception {
+        //Random bytes fill the 4096 entry code table long before the end
+        Random random = new Random(12);
+        Image image = new Image(256, 64, 8, 1);
+        image.compression = 5;
+        image.values = randomValues(256 * 64, random, 0, 256, true);
+        checkRoundTrip("lzw_full", image, 0);
+
+        //Decoder alone
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) random.nextInt(16);
+        }
+        byte[] decoded = new LZWCompression().decode(lzw(data), ByteOrder.BIG_ENDIAN);
+        assertArrayEquals(data, decoded);
+    }
+
+    @Test
+    public void testPlanarAndSparse() throws Exception {
+        Image image = new Image(33, 21, 16, 1);
+        image.spp = 3;
+        image.planar = true;
+        image.tileWidth = 16;
+        image.tileHeight = 16;
+        image.compression = 8;
+        image.values = smoothValues(image, 3000, true);
+        checkRoundTrip("planar", image, 0);
+
+        //The second tile of the second plane, six tiles per plane, is not written
+        image.sparseTiles.add(6 + 1);
+        for (int row = 0; row < 16; row++) {
+            for (int col = 16; col < 32; col++) {
+                image.values[(row * image.width + col) * 3 + 1] = 0;
+            }
+        }
+        checkRoundTrip("sparse", image, 0);
+    }
+
+    @Test
+    public void testUnsignedOffsets() {
+        IFDEntry entry = new IFDEntry(Tag.StripOffsets, FieldType.LONG).setValue(new int[]{8, 0x80000010, -1});
+        assertEquals(8, TiledImage.getLong(entry, 0));
+        assertEquals(0x80000010L, TiledImage.getLong(entry, 1));
+        assertEquals(0xFFFFFFFFL, TiledImage.getLong(entry, 2));
+    }
+
+    @Test
+    public void testOverview() throws Exception {
+        Image image = new Image(64, 48, 16, 1);
+        image.tileWidth = 16;
+        image.tileHeight = 16;
+        image.values = smoothValues(image, 1000, true);
+        image.pixelScale = new double[]{0.5, 0.5, 0};
+        image.tiepoint = new double[]{0, 0, 0, 100, 40, 0};
+        //Half resolution overview with distinct values
+        Image overview = new Image(32, 24, 16, 1);
+        overview.subfileType = 1;
+        overview.tileWidth = 16;
+        overview.tileHeight = 16;
+        overview.values = new double[32 * 24];
+        for (int i = 0; i < overview.values.length; i++) {
+            overview.values[i] = 50000 + i;
+        }
+        File file = write("overview.tif", ByteOrder.LITTLE_ENDIAN, image, overview);
+        GeoTiff geoTiff = open(file);
+        try {
+            assertEquals(1, geoTiff.getOverviewNumber());
+            Range y = new Range(0, 46, 2);
+            Range x = new Range(0, 62, 2);
+            //Strides of 2 read the overview pixels
+            check(overview, geoTiff.readArray(y, x, true), all(24), all(32), 0);
+            check(image, geoTiff.readArray(y, x, false), indices(0, 24, 2), indices(0, 32, 2), 0);
+            //A stride of 1 keeps the full resolution
+            check(image, geoTiff.readArray(new Range(0, 47, 1), new Range(0, 63, 1), true), all(48), all(64), 0);
+
+            //Display grid of at most 32 pixels
+            GridArray grid = geoTiff.getGridArray(32);
+            Array a = grid.getData();
+            check(overview, a, all(24), all(32), 0);
+            assertEquals(32, grid.xArray.length);
+            assertEquals(24, grid.yArray.length);
+            assertEquals(100, grid.xArray[0], 1e-12);
+            assertEquals(101, grid.xArray[1], 1e-12);
+            assertEquals(40, grid.yArray[23], 1e-12);
+            assertEquals(40 - 23, grid.yArray[0], 1e-12);
+            assertArrayEquals(new int[]{48, 64}, geoTiff.getGridArray().getData().getShape());
+        } finally {
+            geoTiff.close();
+        }
+    }
+
+    @Test
+    public void testDisplayWindow() throws Exception {
+        Image image = new Image(64, 48, 16, 1);
+        image.tileWidth = 16;
+        image.tileHeight = 16;
+        image.values = smoothValues(image, 1000, true);
+        image.pixelScale = new double[]{0.5, 0.5, 0};
+        image.tiepoint = new double[]{0, 0, 0, 100, 40, 0};
+        Image overview = new Image(32, 24, 16, 1);
+        overview.subfileType = 1;
+        overview.tileWidth = 16;
+        overview.tileHeight = 16;
+        overview.values = new double[32 * 24];
+        for (int i = 0; i < overview.values.length; i++) {
+            overview.values[i] = 50000 + i;
+        }
+        File file = write("window.tif", ByteOrder.BIG_ENDIAN, image, overview);
+        GeoTiff geoTiff = open(file);
+        try {
+            assertEquals(1, geoTiff.getStride(0.3));
+            assertEquals(1, geoTiff.getStride(0.5));
+            assertEquals(2, geoTiff.getStride(1.2));
+
+            //Pixel i is centered at x 100 + 0.5 * i and row j at y 40 - 0.5 * j
+            GridArray grid = geoTiff.getGridArray(new Extent(105, 110, 30, 35), 0.5);
+            check(image, grid.getData(), indices(10, 11, 1), indices(10, 11, 1), 0);
+            assertEquals(105, grid.xArray[0], 1e-12);
+            assertEquals(110, grid.xArray[10], 1e-12);
+            assertEquals(30, grid.yArray[0], 1e-12);
+            assertEquals(35, grid.yArray[10], 1e-12);
+
+            //Coarser cells read the overview, the window start is aligned to the stride
+            grid = geoTiff.getGridArray(new Extent(105.6, 110, 30, 35), 1.2);
+            check(overview, grid.getData(), indices(5, 6, 1), indices(5, 6, 1), 0);
+            assertEquals(105, grid.xArray[0], 1e-12);
+            assertEquals(106, grid.xArray[1], 1e-12);
+            assertEquals(30, grid.yArray[0], 1e-12);
+            assertEquals(35, grid.yArray[5], 1e-12);
+
+            //The window is clipped to the image
+            grid = geoTiff.getGridArray(new Extent(90, 101, 38, 50), 0.5);
+            check(image, grid.getData(), indices(0, 5, 1), indices(0, 3, 1), 0);
+            assertEquals(100, grid.xArray[0], 1e-12);
+            assertEquals(40, grid.yArray[4], 1e-12);
+            assertNull(geoTiff.getGridArray(new Extent(200, 210, 30, 35), 0.5));
+        } finally {
+            geoTiff.close();
+        }
+    }
+}
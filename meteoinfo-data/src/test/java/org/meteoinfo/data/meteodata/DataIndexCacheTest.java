@@ -0,0 +1,69 @@
+package org.meteoinfo.data.meteodata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.meteoinfo.data.meteodata.arl.ARLDataInfo;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataIndexCacheTest {
+
+    /**
+     * Write an index entry by hand in the layout of DataIndexCache.save
+     */
+    private static void writeEntry(File cacheDir, File file, String className) throws Exception {
+        String path = file.getAbsolutePath();
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(path.getBytes(StandardCharsets.UTF_8))) {
+            sb.append(String.format("%02x", b));
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        cacheDir.mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(cacheDir,
+                sb.append(".idx").toString())))) {
+            out.writeInt(0x4D494458);
+            out.writeInt(1);
+            out.writeUTF(path);
+            out.writeLong(attrs.size());
+            out.writeLong(attrs.lastModifiedTime().toMillis());
+            out.writeUTF(className);
+            out.writeBoolean(false);
+        }
+    }
+
+    @Test
+    public void testDefaultDirectory() {
+        String home = new File(System.getProperty("user.home")).getAbsolutePath();
+        assertTrue(new File(DataIndexCache.getCacheDirectory()).getAbsolutePath().startsWith(home));
+    }
+
+    @Test
+    public void testAllowedFormats(@TempDir Path dir) throws Exception {
+        assertTrue(DataIndexCache.isAllowed(ARLDataInfo.class.getName()));
+        assertFalse(DataIndexCache.isAllowed(Object.class.getName()));
+        assertFalse(DataIndexCache.isAllowed(DataInfo.class.getName()));
+
+        String oldDir = DataIndexCache.getCacheDirectory();
+        try {
+            File cacheDir = dir.resolve("cache").toFile();
+            DataIndexCache.setCacheDirectory(cacheDir.getPath());
+            File file = dir.resolve("data.bin").toFile();
+            Files.write(file.toPath(), new byte[]{1, 2, 3});
+
+            //Entries naming classes out of the allow-list are not instantiated
+            writeEntry(cacheDir, file, "javax.swing.JFrame");
+            assertNull(DataIndexCache.open(file.getPath(), false));
+            writeEntry(cacheDir, file, DataInfo.class.getName());
+            assertNull(DataIndexCache.open(file.getPath(), false));
+        } finally {
+            DataIndexCache.setCacheDirectory(oldDir);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.meteoinfo.data.meteodata.arl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.meteoinfo.data.meteodata.Variable;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.projection.KnownCoordinateSystems;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ARLDataInfoTest {
+
+    private static final LocalDateTime[] TIMES = {LocalDateTime.of(2020, 7, 1, 0, 0),
+            LocalDateTime.of(2020, 7, 1, 6, 0), LocalDateTime.of(2020, 7, 1, 12, 0)};
+
+    /**
+     * Write a 20 x 15 lon/lat ARL file with a surface level of two variables
+     * and two upper levels of one variable
+     */
+    private static String writeFile(Path dir) throws IOException {
+        String fileName = dir.resolve("test.arl").toString();
+        ARLDataInfo w = new ARLDataInfo();
+        List<Number> x = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            x.add(100.0 + i);
+        }
+        List<Number> y = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            y.add(20.0 + i);
+        }
+        w.setX(x);
+        w.setY(y);
+        w.levels.add(0.0);
+        w.LevelVarList.add(Arrays.asList("PRSS", "T02M"));
+        w.levels.add(1000.0);
+        w.LevelVarList.add(Arrays.asList("TEMP"));
+        w.levels.add(850.0);
+        w.LevelVarList.add(Arrays.asList("TEMP"));
+
+        w.createDataFile(fileName);
+        for (int t = 0; t < TIMES.length; t++) {
+            DataHead dh = w.getDataHead(KnownCoordinateSystems.geographic.world.WGS1984, "TEST", 2, 0, (short) 0);
+            w.writeIndexRecord(TIMES[t], dh, null);
+            for (int l = 0; l < w.levels.size(); l++) {
+                for (int v = 0; v < w.LevelVarList.get(l).size(); v++) {
+                    w.writeGridData(TIMES[t], l, w.LevelVarList.get(l).get(v), 0, 99, field(t, l, v));
+                }
+            }
+        }
+        w.closeDataFile();
+        return fileName;
+    }
+
+    private static Array field(int t, int l, int v) {
+        Array a = Array.factory(DataType.FLOAT, new int[]{15, 20});
+        for (int i = 0; i < 15; i++) {
+            for (int j = 0; j < 20; j++) {
+                a.setFloat(i * 20 + j, 100 * t + 10 * l + v + i * 0.5f + j * 0.25f);
+            }
+        }
+        return a;
+    }
+
+    @Test
+    public void testIndexRoundTrip(@TempDir Path dir) throws IOException {
+        String fileName = writeFile(dir);
+        ARLDataInfo scanned = new ARLDataInfo();
+        scanned.readDataInfo(fileName);
+        assertEquals(Arrays.asList(TIMES), scanned.getTimes());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            scanned.writeIndex(out);
+        }
+        ARLDataInfo restored = new ARLDataInfo();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertTrue(restored.readIndex(fileName, in));
+            assertEquals(-1, in.read());
+        }
+
+        assertEquals(scanned.getTimes(), restored.getTimes());
+        assertEquals(scanned.levels, restored.levels);
+        assertEquals(scanned.LevelVarList, restored.LevelVarList);
+        assertEquals(scanned.getVariableNames(), restored.getVariableNames());
+        assertArrayEquals(scanned.X, restored.X);
+        assertArrayEquals(scanned.Y, restored.Y);
+        for (Variable var : scanned.getVariables()) {
+            Array a = scanned.read(var.getName());
+            Array b = restored.read(var.getName());
+            assertArrayEquals(a.getShape(), b.getShape(), var.getName());
+            assertArrayEquals((float[]) a.getStorage(), (float[]) b.getStorage(), var.getName());
+        }
+
+        //The decoded data match the written fields within the packing precision
+        Array temp = restored.read("TEMP");
+        assertArrayEquals(new int[]{3, 2, 15, 20}, temp.getShape());
+        for (int t = 0; t < TIMES.length; t++) {
+            for (int l = 0; l < 2; l++) {
+                Array f = field(t, l + 1, 0);
+                for (int i = 0; i < 300; i++) {
+                    assertEquals(f.getFloat(i), temp.getFloat((t * 2 + l) * 300 + i), 0.05);
+                }
+            }
+        }
+        scanned.close();
+        restored.close();
+    }
+}
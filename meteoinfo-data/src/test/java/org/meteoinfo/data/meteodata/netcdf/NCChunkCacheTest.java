@@ -0,0 +1,112 @@
+package org.meteoinfo.data.meteodata.netcdf;
+
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.IndexIterator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NCChunkCacheTest {
+
+    private static int[] ones(int rank) {
+        int[] r = new int[rank];
+        Arrays.fill(r, 1);
+        return r;
+    }
+
+    private static Array section(Array a, int[] origin, int[] size) throws Exception {
+        return a.sectionNoReduce(origin, size, ones(origin.length)).copy();
+    }
+
+    /**
+     * Assemble a section from whole chunks the way NCChunkCache.read does
+     */
+    private static Array readByChunks(Array full, int[] chunkShape, int[] origin, int[] size) throws Exception {
+        int rank = chunkShape.length;
+        int[] varShape = full.getShape();
+        int[] c0 = new int[rank];
+        int[] cNum = new int[rank];
+        int chunkNum = 1;
+        for (int d = 0; d < rank; d++) {
+            c0[d] = origin[d] / chunkShape[d];
+            cNum[d] = (origin[d] + size[d] - 1) / chunkShape[d] - c0[d] + 1;
+            chunkNum *= cNum[d];
+        }
+        Array r = Array.factory(full.getDataType(), size);
+        int[] counter = new int[rank];
+        for (int c = 0; c < chunkNum; c++) {
+            int[] chunkOrigin = new int[rank];
+            int[] chunkSize = new int[rank];
+            for (int d = 0; d < rank; d++) {
+                chunkOrigin[d] = (c0[d] + counter[d]) * chunkShape[d];
+                chunkSize[d] = Math.min(chunkShape[d], varShape[d] - chunkOrigin[d]);
+            }
+            NCChunkCache.copy(section(full, chunkOrigin, chunkSize), chunkOrigin, chunkSize, r, origin, size);
+            for (int d = rank - 1; d >= 0; d--) {
+                if (++counter[d] < cNum[d]) {
+                    break;
+                }
+                counter[d] = 0;
+            }
+        }
+        return r;
+    }
+
+    @Test
+    public void testCopyMatchesSection() throws Exception {
+        Random random = new Random(19);
+        for (int t = 0; t < 300; t++) {
+            int rank = 1 + random.nextInt(4);
+            int[] varShape = new int[rank];
+            int[] chunkShape = new int[rank];
+            int[] origin = new int[rank];
+            int[] size = new int[rank];
+            for (int d = 0; d < rank; d++) {
+                varShape[d] = 1 + random.nextInt(12);
+                chunkShape[d] = 1 + random.nextInt(varShape[d] + 2);
+                origin[d] = random.nextInt(varShape[d]);
+                size[d] = 1 + random.nextInt(varShape[d] - origin[d]);
+            }
+            Array full = Array.factory(DataType.FLOAT, varShape);
+            IndexIterator it = full.getIndexIterator();
+            int i = 0;
+            while (it.hasNext()) {
+                it.setFloatNext(i++);
+            }
+
+            Array expected = section(full, origin, size);
+            Array actual = readByChunks(full, chunkShape, origin, size);
+            assertArrayEquals(expected.getShape(), actual.getShape());
+            assertArrayEquals((float[]) expected.getStorage(), (float[]) actual.getStorage(),
+                    Arrays.toString(varShape) + " " + Arrays.toString(chunkShape) + " "
+                            + Arrays.toString(origin) + " " + Arrays.toString(size));
+        }
+    }
+
+    @Test
+    public void testAccept() {
+        int[] varShape = {100, 180, 360};
+        int[] chunkShape = {1, 180, 360};
+        //Whole time slices
+        assertTrue(NCChunkCache.accept(chunkShape, varShape, new int[]{0, 0, 0}, new int[]{10, 180, 360}, 4));
+        //Point time series touch the whole field of every time
+        assertFalse(NCChunkCache.accept(chunkShape, varShape, new int[]{0, 90, 180}, new int[]{100, 1, 1}, 4));
+        //Invalid sections
+        assertFalse(NCChunkCache.accept(chunkShape, varShape, new int[]{0, 0, 0}, new int[]{101, 180, 360}, 4));
+        assertFalse(NCChunkCache.accept(chunkShape, varShape, new int[]{-1, 0, 0}, new int[]{1, 180, 360}, 4));
+
+        //Chunks larger than a fraction of the cache
+        int[] bigShape = {1, 4000, 4000};
+        assertTrue(4000L * 4000 * 8 > NCChunkCache.MAX_CHUNK_BYTES);
+        assertFalse(NCChunkCache.accept(bigShape, bigShape, new int[]{0, 0, 0}, bigShape, 8));
+        assertTrue(NCChunkCache.accept(new int[]{1, 400, 400}, bigShape, new int[]{0, 0, 0}, bigShape, 8));
+
+        //Too many chunks
+        assertFalse(NCChunkCache.accept(new int[]{1, 1, 1}, varShape, new int[]{0, 0, 0},
+                new int[]{1, 180, 360}, 4));
+    }
+}
@@ -0,0 +1,197 @@
+package org.meteoinfo.data.meteodata.radar;
+
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.projection.ProjectionInfo;
+import org.meteoinfo.projection.Reproject;
+
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RadarMosaicTest {
+
+    private static final int GATE_NUM = 100;
+    private static final float GATE_LENGTH = 1000;
+
+    /**
+     * Radar data of one scan whose values are an offset plus the range in km
+     */
+    private static class TestRadarDataInfo extends BaseRadarDataInfo {
+
+        TestRadarDataInfo(float offset) {
+            RadialRecord record = new RadialRecord("dBZ");
+            record.fixedElevation.add(0.5f);
+            record.elevation.add(new FloatList());
+            record.azimuth.add(new FloatList());
+            record.azimuthMinIndex.add(0);
+            float[] dis = new float[GATE_NUM];
+            for (int i = 0; i < GATE_NUM; i++) {
+                dis[i] = i * GATE_LENGTH;
+            }
+            record.distance.add(Array.factory(DataType.FLOAT, new int[]{GATE_NUM}, dis));
+            record.disResolution.add(GATE_LENGTH);
+            record.newScanData();
+            for (int a = 0; a < 360; a++) {
+                float[] values = new float[GATE_NUM];
+                for (int i = 0; i < GATE_NUM; i++) {
+                    values[i] = offset + dis[i] / 1000;
+                }
+                record.elevation.get(0).add(0.5f);
+                record.addAzimuth(a + 0.5f);
+                record.addDataArray(Array.factory(DataType.FLOAT, new int[]{GATE_NUM}, values));
+            }
+            recordMap.put("dBZ", record);
+        }
+
+        @Override
+        void readDataInfo(InputStream is) {
+        }
+
+        @Override
+        public boolean isValidFile(RandomAccessFile raf) {
+            return false;
+        }
+    }
+
+    private static double[] range(double start, double end, double delta) {
+        int n = (int) Math.round((end - start) / delta) + 1;
+        double[] r = new double[n];
+        for (int i = 0; i < n; i++) {
+            r[i] = start + i * delta;
+        }
+        return r;
+    }
+
+    /**
+     * Distances of the grid cells to a site in meters
+     */
+    private static double[] distances(double[] lon, double[] lat, double siteLon, double siteLat) {
+        double[] xs = new double[lon.length * lat.length];
+        double[] ys = new double[xs.length];
+        for (int i = 0; i < lat.length; i++) {
+            for (int j = 0; j < lon.length; j++) {
+                xs[i * lon.length + j] = lon[j];
+                ys[i * lon.length + j] = lat[i];
+            }
+        }
+        ProjectionInfo aeqd = ProjectionInfo.factory(String.format("+proj=aeqd +lat_0=%s +lon_0=%s +ellps=WGS84",
+                siteLat, siteLon));
+        Reproject.reprojectPoints(xs, ys, ProjectionInfo.LONG_LAT, aeqd);
+        double[] r = new double[xs.length];
+        for (int k = 0; k < r.length; k++) {
+            r[k] = (float) Math.hypot(xs[k], ys[k]);
+        }
+        return r;
+    }
+
+    /**
+     * Mosaic of sites at 30N, one degree apart from a longitude
+     */
+    private static Array mosaic(double[] lon, double[] lat, RadarMosaic.MergeRule rule, double siteLon,
+                                BaseRadarDataInfo... sites) {
+        RadarMosaic mosaic = new RadarMosaic(lon, lat);
+        mosaic.setMergeRule(rule);
+        for (BaseRadarDataInfo site : sites) {
+            mosaic.addSite(site, siteLon, 30, 0f);
+            siteLon += 1;
+        }
+        Array r = mosaic.mosaicCR("dBZ");
+        //Cached windows give the same result
+        Array r2 = mosaic.mosaicCR("dBZ");
+        for (int k = 0; k < r.getSize(); k++) {
+            assertEquals(r.getFloat(k), r2.getFloat(k));
+        }
+        return r;
+    }
+
+    @Test
+    public void testMergeRules() {
+        double[] lon = range(108.6, 112.4, 0.05);
+        double[] lat = range(28.9, 31.1, 0.05);
+        //Values of site A are 1000 + range, of site B 2000 + range in km
+        BaseRadarDataInfo siteA = new TestRadarDataInfo(1000);
+        BaseRadarDataInfo siteB = new TestRadarDataInfo(2000);
+        Array a = mosaic(lon, lat, RadarMosaic.MergeRule.MAX, 110, siteA);
+        Array b = mosaic(lon, lat, RadarMosaic.MergeRule.MAX, 111, siteB);
+
+        Array max = mosaic(lon, lat, RadarMosaic.MergeRule.MAX, 110, siteA, siteB);
+        Array nearest = mosaic(lon, lat, RadarMosaic.MergeRule.NEAREST, 110, siteA, siteB);
+        Array weighted = mosaic(lon, lat, RadarMosaic.MergeRule.DISTANCE_WEIGHTED, 110, siteA, siteB);
+        double[] distA = distances(lon, lat, 110, 30);
+        double[] distB = distances(lon, lat, 111, 30);
+
+        int overlap = 0, onlyA = 0, onlyB = 0;
+        for (int k = 0; k < a.getSize(); k++) {
+            float va = a.getFloat(k);
+            float vb = b.getFloat(k);
+            if (Float.isNaN(va) && Float.isNaN(vb)) {
+                assertTrue(Float.isNaN(max.getFloat(k)));
+                assertTrue(Float.isNaN(nearest.getFloat(k)));
+                assertTrue(Float.isNaN(weighted.getFloat(k)));
+            } else if (Float.isNaN(vb)) {
+                onlyA++;
+                assertEquals(va, max.getFloat(k));
+                assertEquals(va, nearest.getFloat(k));
+                assertEquals(va, weighted.getFloat(k), 1e-3);
+            } else if (Float.isNaN(va)) {
+                onlyB++;
+                assertEquals(vb, max.getFloat(k));
+                assertEquals(vb, nearest.getFloat(k));
+                assertEquals(vb, weighted.getFloat(k), 1e-3);
+            } else {
+                overlap++;
+                assertEquals(vb, max.getFloat(k));
+                double da = distA[k];
+                double db = distB[k];
+                if (da != db) {
+                    assertEquals(da < db ? va : vb, nearest.getFloat(k));
+                }
+                double wa = 1 / Math.max(da * da, 1);
+                double wb = 1 / Math.max(db * db, 1);
+                assertEquals((va * wa + vb * wb) / (wa + wb), weighted.getFloat(k), 1e-2);
+            }
+        }
+        assertTrue(overlap > 100);
+        assertTrue(onlyA > 100);
+        assertTrue(onlyB > 100);
+    }
+
+    @Test
+    public void testNewScans() {
+        double[] lon = range(108.6, 112.4, 0.05);
+        double[] lat = range(28.9, 31.1, 0.05);
+        RadarMosaic mosaic = new RadarMosaic(lon, lat);
+        mosaic.addSite(new TestRadarDataInfo(1000), 110, 30, 0f);
+        mosaic.addSite(new TestRadarDataInfo(2000), 111, 30, 0f);
+        Array first = mosaic.mosaicCR("dBZ");
+        assertEquals(2, mosaic.getCachedWindowNumber());
+
+        //Next volume scans of the same sites reuse the cached windows
+        mosaic.clearSites();
+        mosaic.addSite(new TestRadarDataInfo(3000), 110, 30, 0f);
+        mosaic.addSite(new TestRadarDataInfo(4000), 111, 30, 0f);
+        Array next = mosaic.mosaicCR("dBZ");
+        assertEquals(2, mosaic.getCachedWindowNumber());
+        int n = 0;
+        for (int k = 0; k < first.getSize(); k++) {
+            if (!Float.isNaN(first.getFloat(k))) {
+                assertEquals(first.getFloat(k) + 2000, next.getFloat(k), 1e-3);
+                n++;
+            } else {
+                assertTrue(Float.isNaN(next.getFloat(k)));
+            }
+        }
+        assertTrue(n > 100);
+
+        //A moved site gets its own window
+        mosaic.clearSites();
+        mosaic.addSite(new TestRadarDataInfo(1000), 110.5, 30, 0f);
+        mosaic.mosaicCR("dBZ");
+        assertEquals(3, mosaic.getCachedWindowNumber());
+        mosaic.clearCache();
+        assertEquals(0, mosaic.getCachedWindowNumber());
+    }
+}
@@ -0,0 +1,120 @@
+package org.meteoinfo.data.meteodata.radar;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RadialRecordTest {
+
+    /**
+     * Azimuth indices by the linear scan used before the binary search
+     */
+    private static int[] linearIndices(List<Float> azs, int sIdx, float a) {
+        int n = azs.size();
+        int eIdx = sIdx - 1;
+        if (eIdx < 0) {
+            eIdx = n - 1;
+        }
+
+        int i1 = -1, i2 = -1;
+        if (a < azs.get(sIdx) || a > azs.get(eIdx)) {
+            i1 = eIdx;
+            i2 = sIdx;
+        } else {
+            for (int i = sIdx + 1; i < n; i++) {
+                if (a == azs.get(i)) {
+                    return new int[]{i, i};
+                } else if (a < azs.get(i)) {
+                    i1 = i - 1;
+                    i2 = i;
+                    break;
+                }
+            }
+            if (i1 < 0) {
+                for (int i = 0; i <= eIdx; i++) {
+                    if (a == azs.get(i)) {
+                        return new int[]{i, i};
+                    } else if (a < azs.get(i)) {
+                        i1 = i - 1;
+                        i2 = i;
+                        if (i1 < 0) {
+                            i1 = n - 1;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        return new int[]{i1, i2};
+    }
+
+    private static int linearIndex(List<Float> azs, int sIdx, float a) {
+        int[] ii = linearIndices(azs, sIdx, a);
+        if (ii[0] < 0 || ii[0] == ii[1]) {
+            return ii[0];
+        }
+        return azs.get(ii[1]) - a < a - azs.get(ii[0]) ? ii[1] : ii[0];
+    }
+
+    /**
+     * A scan starting at an azimuth, wrapped past 360 degrees, with jitter,
+     * repeated and NaN azimuths
+     */
+    private static RadialRecord createRecord(float start, int n, Random random) {
+        RadialRecord record = new RadialRecord("Z");
+        record.elevation.add(new FloatList());
+        record.azimuth.add(new FloatList());
+        record.azimuthMinIndex.add(0);
+        for (int i = 0; i < n; i++) {
+            float a = (start + i * 360f / n + (random.nextFloat() - 0.5f) * 0.3f) % 360;
+            if (a < 0) {
+                a += 360;
+            }
+            if (i == n / 3) {
+                a = Float.NaN;
+            } else if (i == n / 2) {
+                a = record.azimuth.get(0).getFloat(i - 1);
+            }
+            record.elevation.get(0).add(0.5f);
+            record.addAzimuth(a);
+        }
+        return record;
+    }
+
+    @Test
+    public void testAzimuthIndices() {
+        Random random = new Random(3);
+        for (float start : new float[]{0.2f, 135.7f, 300.1f}) {
+            RadialRecord record = createRecord(start, 361, random);
+            FloatList azs = record.azimuth.get(0);
+            int sIdx = record.azimuthMinIndex.get(0);
+            if (start > 1) {
+                assertTrue(sIdx > 0);
+            }
+
+            float[] queries = new float[azs.size() * 3 + 6];
+            int m = 0;
+            for (int i = 0; i < azs.size(); i++) {
+                //Exact hits, values in between and near the azimuths
+                queries[m++] = azs.getFloat(i);
+                queries[m++] = azs.getFloat(i) + 0.37f;
+                queries[m++] = random.nextFloat() * 360;
+            }
+            queries[m++] = Float.NaN;
+            queries[m++] = -1;
+            queries[m++] = 0;
+            queries[m++] = 359.99f;
+            queries[m++] = 360;
+            queries[m++] = 400;
+
+            for (float a : queries) {
+                assertArrayEquals(linearIndices(azs, sIdx, a), record.getAzimuthIndices(0, a), "azimuth " + a);
+                assertEquals(linearIndex(azs, sIdx, a), record.getAzimuthIndex(0, a), "azimuth " + a);
+            }
+        }
+    }
+}
@@ -18,19 +18,18 @@ import com.l2fprod.common.beans.ExtendedPropertyDescriptor;
 import org.meteoinfo.common.Extent;
 import org.meteoinfo.common.GenericFileFilter;
 import org.meteoinfo.common.MIMath;
-import org.meteoinfo.common.colors.ColorMap;
 import org.meteoinfo.common.util.GlobalUtil;
 import org.meteoinfo.data.GridArray;
-import org.meteoinfo.geometry.colors.Normalize;
+import org.meteoinfo.data.mapdata.geotiff.GeoTiff;
+import org.meteoinfo.geometry.colors.ColorLookup;
+import org.meteoinfo.geometry.colors.RasterRenderer;
 import org.meteoinfo.geometry.legend.LegendScheme;
-import org.meteoinfo.geometry.legend.LegendType;
 import org.meteoinfo.geometry.shape.ShapeTypes;
 import java.awt.Color;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -40,7 +39,6 @@ import javax.swing.JOptionPane;
 import org.meteoinfo.geo.mapdata.MapDataManage;
 import org.meteoinfo.ndarray.Array;
 import org.meteoinfo.projection.ProjectionInfo;
-import org.meteoinfo.ndarray.Index;
 
 /**
  *  栅格图层
@@ -56,6 +54,13 @@ public class RasterLayer extends ImageLayer {
     private List<Color> _colors;
     private double missingValue = Double.NaN;
     private Color missingColor = Color.white;
+    private LegendScheme imageLegend = null;
+    private List<Color> imageColors = null;
+    private GeoTiff geoTiff = null;
+    private GridArray displayData = null;
+    private BufferedImage displayImage = null;
+    private Extent displayExtent = null;
+    private int displayStride = 0;
     //private InterpolationMode _interpMode = InterpolationMode.NearestNeighbor;
     // </editor-fold>
     // <editor-fold desc="Constructor">
@@ -103,9 +108,60 @@ public class RasterLayer extends ImageLayer {
      */
     public void setGridData(GridArray gdata) {
         _gridData = gdata;
+        clearDisplayData();
         updateGridData();
     }
 
+    /**
+     * Get the GeoTIFF file the grid data is read from
+     *
+     * @return GeoTIFF file, null if the grid data is not read from a file
+     */
+    public GeoTiff getGeoTiff() {
+        return geoTiff;
+    }
+
+    /**
+     * Set the GeoTIFF file the grid data is read from. The layer keeps the
+     * file open to read the image of the map extent and scale from it, see
+     * {@link #updateDisplayData(Extent, double)}, until {@link #close()}.
+     *
+     * @param value GeoTIFF file
+     */
+    public void setGeoTiff(GeoTiff value) {
+        geoTiff = value;
+        clearDisplayData();
+    }
+
+    /**
+     * Get the image to display, which is the image of the map window read
+     * from the GeoTIFF file if there is one, otherwise the layer image
+     *
+     * @return Display image
+     */
+    public BufferedImage getDisplayImage() {
+        return displayImage == null ? this.getImage() : displayImage;
+    }
+
+    /**
+     * Get the extent of the display image
+     *
+     * @return Display image extent
+     */
+    public Extent getDisplayExtent() {
+        if (displayImage == null) {
+            return this.getExtent();
+        }
+        double xDelt = displayData.getXDelt();
+        double yDelt = displayData.getYDelt();
+        Extent aExtent = new Extent();
+        aExtent.minX = displayData.xArray[0] - xDelt / 2;
+        aExtent.maxX = displayData.xArray[displayData.getXNum() - 1] + xDelt / 2;
+        aExtent.minY = displayData.yArray[0] - yDelt / 2;
+        aExtent.maxY = displayData.yArray[displayData.getYNum() - 1] + yDelt / 2;
+        return aExtent;
+    }
+
     /**
      * Get if is projected
      *
@@ -185,148 +241,118 @@ public class RasterLayer extends ImageLayer {
      * @param als The legend scheme
      */
     public void updateImage(LegendScheme als) {
-        BufferedImage image;
-        if (_gridData.getData().getRank() <= 2) {
-            image = getImageFromGridData(_gridData, als);
-        } else {
-            image = getRGBImage(_gridData);
+        if (_gridData.getData().getRank() > 2) {
             super.setLegendScheme(null);
         }
-        this.setImage(image);
+        imageLegend = als;
+        imageColors = null;
+        this.setImage(createImage(_gridData));
+        updateDisplayImage();
     }
 
     /**
      * Update image by legend scheme
      */
     public void updateImage() {
-        BufferedImage image = getImageFromGridData(_gridData, this.getLegendScheme());
+        imageLegend = this.getLegendScheme();
+        imageColors = null;
+        BufferedImage image = getImageFromGridData(_gridData, imageLegend);
         this.setImage(image);
+        updateDisplayImage();
     }
 
-    private BufferedImage getRGBImage(GridArray gdata) {
-        int width, height, r, g, b;
-        width = gdata.getXNum();
-        height = gdata.getYNum();
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Index index = gdata.getData().getIndex();
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                r = gdata.getData().getInt(index);
-                index.incr();
-                g = gdata.getData().getInt(index);
-                index.incr();
-                b = gdata.getData().getInt(index);
-                index.incr();
-                image.setRGB(j, height - i - 1, new Color(r, g, b).getRGB());
-            }
+    /**
+     * Update the display data for a map view. When the grid data is read from
+     * a GeoTIFF file and is not projected, the pixels of the map extent are
+     * read again at the map scale, from the overviews of the file if there
+     * are, unless the current display data already covers the extent at that
+     * scale. A margin of half the extent is read around it, so panning does
+     * not read the file each time. The layer image is displayed when the grid
+     * data is as fine as the map scale.
+     *
+     * @param extent Map extent
+     * @param cellSize Map size of a screen pixel
+     * @return Whether the display image is of the map window
+     */
+    public boolean updateDisplayData(Extent extent, double cellSize) {
+        if (geoTiff == null || _isProjected || !MIMath.isExtentCross(extent, this.getExtent())) {
+            clearDisplayData();
+            return false;
+        }
+        int stride = geoTiff.getStride(cellSize);
+        if (stride <= geoTiff.getStride(Math.min(_gridData.getXDelt(), _gridData.getYDelt()))) {
+            clearDisplayData();
+            return false;
         }
+        Extent view = MIMath.getSmallerExtent(extent, this.getExtent());
+        if (displayImage != null && stride == displayStride && displayExtent.include(view)) {
+            return true;
+        }
+        Extent readExtent = MIMath.getSmallerExtent(view.extend(0.5), this.getExtent());
+        GridArray gdata = geoTiff.getGridArray(readExtent, cellSize);
+        if (gdata == null || gdata.getXNum() < 2 || gdata.getYNum() < 2) {
+            clearDisplayData();
+            return false;
+        }
+        displayData = gdata;
+        displayExtent = readExtent;
+        displayStride = stride;
+        updateDisplayImage();
+        return true;
+    }
+
+    private void clearDisplayData() {
+        displayData = null;
+        displayImage = null;
+        displayExtent = null;
+        displayStride = 0;
+    }
 
-        return image;
+    //The display image is rendered the same way as the layer image
+    private void updateDisplayImage() {
+        if (displayData != null) {
+            displayImage = createImage(displayData);
+        }
+    }
+
+    private BufferedImage createImage(GridArray gdata) {
+        if (gdata.getData().getRank() > 2) {
+            return getRGBImage(gdata);
+        } else if (imageColors != null) {
+            return getImageFromGridData(gdata, imageColors);
+        } else {
+            return getImageFromGridData(gdata, imageLegend);
+        }
+    }
+
+    //The current image may be painted on the event dispatch thread, so new images are
+    //always rendered into a new buffer which replaces it by setImage. RGB channels of
+    //raster layers are in [0, 255] whatever the data type
+    private BufferedImage getRGBImage(GridArray gdata) {
+        return RasterRenderer.renderRGB(gdata.getData(), false, true, null);
     }
 
     private BufferedImage getImageFromGridData(GridArray gdata, LegendScheme ls) {
-        int width, height, breakNum;
-        width = gdata.getXNum();
-        height = gdata.getYNum();
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ColorLookup lookup;
         if (ls.getColorMap() == null) {
-            breakNum = ls.getBreakNum();
-            double[] breakValue = new double[breakNum];
-            Color[] breakColor = new Color[breakNum];
-            Color undefColor = this.missingColor;
-            Color defaultColor = ls.getLegendBreaks().get(breakNum - 1).getColor();
-            Color color;
-            for (int i = 0; i < breakNum; i++) {
-                breakValue[i] = Double.parseDouble(ls.getLegendBreaks().get(i).getEndValue().toString());
-                color = ls.getLegendBreaks().get(i).getColor();
-                breakColor[i] = color;
-                if (ls.getLegendBreaks().get(i).isNoData()) {
-                    undefColor = color;
-                } else {
-                    defaultColor = color;
-                }
-            }
-            double value;
-
-            Array data = gdata.getData().copyIfView();
-            double[] values = ls.getValues();
-            int n = values.length;
-            int idx;
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    value = data.getDouble(i * width + j);
-                    if (Double.isNaN(value) || MIMath.doubleEquals(value, gdata.missingValue)) {
-                        color = undefColor;
-                    } else {
-                        idx = Arrays.binarySearch(values, value);
-                        if (ls.getLegendType() == LegendType.UNIQUE_VALUE) {
-                            if (idx < 0 || idx >= n)
-                                color = undefColor;
-                            else
-                                color = ls.getLegendBreak(idx).getColor();
-                        } else {
-                            if (idx < 0) {
-                                if (idx == -1)
-                                    idx = 0;
-                                else if (idx == -n - 1)
-                                    idx = n - 1;
-                                else
-                                    idx = -idx - 2;
-                            } else if (idx == n - 1)
-                                idx = n - 2;
-
-                            color = ls.getLegendBreak(idx).getColor();
-                        }
-                    }
-                    aImage.setRGB(j, height - i - 1, color.getRGB());
-                }
-            }
+            lookup = ColorLookup.ofValues(ls, this.missingColor);
         } else {
-            ColorMap colorMap = ls.getColorMap();
-            int n = colorMap.getColorCount();
-            Normalize normalize = ls.getNormalize();
-            double v;
-            Color fillColor = colorMap.getFillColor();
-            Color color;
-            int idx;
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    v = gdata.getDoubleValue(i, j);
-                    if (Double.isNaN(v) || MIMath.doubleEquals(v, gdata.missingValue)) {
-                        color = fillColor;
-                    } else {
-                        idx = (int) (normalize.apply(v).floatValue() * n);
-                        if (idx < 0)
-                            idx = 0;
-                        else if (idx >= n)
-                            idx = n - 1;
-                        color = colorMap.getColor(idx);
-                    }
-                    aImage.setRGB(j, height - i - 1, color.getRGB());
-                }
-            }
+            lookup = ColorLookup.ofColorMap(ls.getColorMap(), ls.getNormalize());
         }
+        lookup.setMissingValue(gdata.missingValue);
 
-        return aImage;
+        return RasterRenderer.render(gdata.getData(), gdata.getXNum(), gdata.getYNum(), lookup, true, null);
     }
 
+    /**
+     * Get image of indexed colors, the integer part of a value is the color
+     * index. NaN and out of range values get the missing color.
+     */
     private BufferedImage getImageFromGridData(GridArray gdata, List<Color> colors) {
-        int width, height;
-        width = gdata.getXNum();
-        height = gdata.getYNum();
-        BufferedImage aImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        int oneValue;
-        Color oneColor;
-        int n = colors.size();
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                oneValue = gdata.getValue(i, j).intValue();
-                oneColor = colors.get(oneValue);
-                aImage.setRGB(j, height - i - 1, oneColor.getRGB());
-            }
-        }
+        ColorLookup lookup = ColorLookup.ofColors(colors);
+        lookup.setUndefColor(this.missingColor);
 
-        return aImage;
+        return RasterRenderer.render(gdata.getData(), gdata.getXNum(), gdata.getYNum(), lookup, true, null);
     }
 
     /**
@@ -337,8 +363,10 @@ public class RasterLayer extends ImageLayer {
     @Override
     public void setPalette(String aFile) {
         List<Color> colors = this.getColorsFromPaletteFile(aFile);
+        imageColors = colors;
         BufferedImage image = this.getImageFromGridData(_gridData, colors);
         this.setImage(image);
+        updateDisplayImage();
 
         LegendScheme ls = new LegendScheme(ShapeTypes.IMAGE);
         ls.importFromPaletteFile_Unique(aFile);
@@ -350,8 +378,10 @@ public class RasterLayer extends ImageLayer {
      */
     public void setPaletteByLegend() {
         _colors = this.getLegendScheme().getColors();
+        imageColors = _colors;
         BufferedImage image = this.getImageFromGridData(_gridData, _colors);
         this.setImage(image);
+        updateDisplayImage();
     }
 
     /**
@@ -400,6 +430,23 @@ public class RasterLayer extends ImageLayer {
      */
     public void getOriginData() {
         _gridData = (GridArray) _originGridData.clone();
+        clearDisplayData();
+    }
+
+    /**
+     * Close the GeoTIFF file the grid data is read from. The layer image is
+     * displayed after that.
+     */
+    public void close() {
+        clearDisplayData();
+        if (geoTiff != null) {
+            try {
+                geoTiff.close();
+            } catch (IOException ex) {
+                Logger.getLogger(RasterLayer.class.getName()).log(Level.WARNING, null, ex);
+            }
+            geoTiff = null;
+        }
     }
 
     /**
@@ -16,8 +16,10 @@ package org.meteoinfo.geo.layer;
 import org.meteoinfo.common.*;
 import org.meteoinfo.chart.graphic.GeoGraphicCollection;
 import org.meteoinfo.geo.mapdata.ShapeFileManage;
+import org.meteoinfo.geo.mapdata.ShapeFileReader;
 import org.meteoinfo.geometry.legend.*;
 import org.meteoinfo.geometry.geoprocess.GeoComputation;
+import org.meteoinfo.geometry.geoprocess.STRTree;
 import org.meteoinfo.common.colors.ColorUtil;
 import org.meteoinfo.geometry.shape.*;
 import org.meteoinfo.projection.ProjectionInfo;
@@ -75,6 +77,7 @@ public class VectorLayer extends MapLayer {
     //private final boolean _isEditing;
     private boolean _avoidCollision;
     private List<Shape> shapes;
+    private STRTree shapeIndex;
     private AttributeTable _attributeTable;
     private LabelSet _labelSet;
     private List<Graphic> _labelPoints;
@@ -91,6 +94,7 @@ public class VectorLayer extends MapLayer {
     private boolean _projected = false;
     private boolean editing = false;
     private Shape editingShape;
+    private ShapeFileReader shapeFileReader;
     private final UndoManager undoManager = new UndoManager();
     // </editor-fold>
 
@@ -170,6 +174,7 @@ public class VectorLayer extends MapLayer {
      */
     public void setShapes(List<? extends Shape> shapes) {
         this.shapes = (List<Shape>) shapes;
+        this.shapeIndex = null;
     }
 
     /**
@@ -408,6 +413,7 @@ public class VectorLayer extends MapLayer {
      */
     public void setEditing(boolean value) {
         editing = value;
+        this.shapeIndex = null;
     }
 
     /**
@@ -432,8 +438,41 @@ public class VectorLayer extends MapLayer {
         editingShape.setEditing(true);
     }
 
+    /**
+     * Get the shape file reader of lazily loaded shapes
+     *
+     * @return Shape file reader, null if the shapes are loaded
+     */
+    public ShapeFileReader getShapeFileReader() {
+        return shapeFileReader;
+    }
+
+    /**
+     * Set the shape file reader of lazily loaded shapes. The layer owns the
+     * reader and closes it in {@link #close()}.
+     *
+     * @param value Shape file reader
+     */
+    public void setShapeFileReader(ShapeFileReader value) {
+        shapeFileReader = value;
+    }
+
     // </editor-fold>
     // <editor-fold desc="Methods">
+    /**
+     * Close the shape file mapped by lazily loaded shapes. The file is
+     * mapped again if the shapes are read later.
+     */
+    public void close() {
+        if (shapeFileReader != null) {
+            try {
+                shapeFileReader.close();
+            } catch (IOException ex) {
+                Logger.getLogger(VectorLayer.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
     // <editor-fold desc="Chart">
     /**
      * Update charts properties
@@ -635,6 +674,48 @@ public class VectorLayer extends MapLayer {
     public void addShape(Shape aShape) {
         shapes.add(aShape);
         updateLayerExtent(aShape);
+        this.shapeIndex = null;
+    }
+
+    /**
+     * Get the spatial index of the shapes. It is built on the first use after
+     * the shapes changed.
+     *
+     * @return Spatial index
+     */
+    public STRTree getShapeIndex() {
+        STRTree index = this.shapeIndex;
+        if (index == null || index.size() != shapes.size()) {
+            index = new STRTree(shapes);
+            this.shapeIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Remove the spatial index, it should be called after shapes are moved
+     * or reshaped outside of the layer methods
+     */
+    public void invalidateShapeIndex() {
+        this.shapeIndex = null;
+    }
+
+    /**
+     * Get indices of the shapes whose extents intersect an extent. All shapes
+     * are returned in editing mode, as the edited shapes move.
+     *
+     * @param extent The extent
+     * @return Shape indices in ascending order
+     */
+    public int[] queryShapes(Extent extent) {
+        if (this.editing) {
+            int[] r = new int[shapes.size()];
+            for (int i = 0; i < r.length; i++) {
+                r[i] = i;
+            }
+            return r;
+        }
+        return getShapeIndex().query(extent);
     }
 
     /**
@@ -715,7 +796,16 @@ public class VectorLayer extends MapLayer {
      * @return Selected shapes
      */
     public List<Integer> selectShapes(Extent aExtent, boolean isSingleSel) {
-        return this.selectShapes(aExtent, shapes, isSingleSel);
+        int[] idxs = this.queryShapes(aExtent);
+        List<Shape> candidates = new ArrayList<>(idxs.length);
+        for (int i : idxs) {
+            candidates.add(shapes.get(i));
+        }
+        List<Integer> selectedShapes = this.selectShapes(aExtent, candidates, isSingleSel);
+        for (int i = 0; i < selectedShapes.size(); i++) {
+            selectedShapes.set(i, idxs[selectedShapes.get(i)]);
+        }
+        return selectedShapes;
     }
 
     /**
@@ -742,7 +832,7 @@ public class VectorLayer extends MapLayer {
                 for (i = 0; i < shapes.size(); i++) {
                     PointShape aPS = (PointShape) shapes.get(i);
                     if (MIMath.pointInExtent(aPS.getPoint(), aExtent)) {
-                        selectedShapes.add(shapes.indexOf(aPS));
+                        selectedShapes.add(i);
                         if (isSingleSel) {
                             break;
                         }
@@ -762,13 +852,13 @@ public class VectorLayer extends MapLayer {
                             if (dislist.size() > 0) {
                                 for (j = 0; j < dislist.size(); j++) {
                                     if ((Double) sel < dislist.get(j)) {
-                                        selectedShapes.add(j, shapes.indexOf(aPLS));
+                                        selectedShapes.add(j, i);
                                         dislist.add(j, (Double) sel);
                                         break;
                                     }
                                 }
                             } else {
-                                selectedShapes.add(shapes.indexOf(aPLS));
+                                selectedShapes.add(i);
                                 dislist.add((Double) sel);
                             }
                             if (isSingleSel) {
@@ -785,15 +875,15 @@ public class VectorLayer extends MapLayer {
                     PolygonShape aPGS = (PolygonShape) shapes.get(i);
                     if (isSingleSel) {
                         if (GeoComputation.pointInPolygon(aPGS, sp)) {
-                            selectedShapes.add(shapes.indexOf(aPGS));
+                            selectedShapes.add(i);
                             break;
                         }
                     } else if (GeoComputation.pointInPolygon(aPGS, sp)) {
-                        selectedShapes.add(shapes.indexOf(aPGS));
+                        selectedShapes.add(i);
                     } else if (MIMath.isExtentCross(aExtent, aPGS.getExtent())) {
                         for (j = 0; j < aPGS.getPolygons().get(0).getOutLine().size(); j++) {
                             if (MIMath.pointInExtent(aPGS.getPolygons().get(0).getOutLine().get(j), aExtent)) {
-                                selectedShapes.add(shapes.indexOf(aPGS));
+                                selectedShapes.add(i);
                                 break;
                             }
                         }
@@ -813,7 +903,7 @@ public class VectorLayer extends MapLayer {
      */
     public List<Integer> selectShapes(PolygonShape polygonShape) {
         List<Integer> selIdxs = new ArrayList<>();
-        for (int i = 0; i < shapes.size(); i++) {
+        for (int i : this.queryShapes(polygonShape.getExtent())) {
             boolean isIn = false;
             List<PointD> points = (List<PointD>) shapes.get(i).getPoints();
             for (PointD aPoint : points) {
@@ -911,7 +1001,8 @@ public class VectorLayer extends MapLayer {
     public Shape selectShape(PointD p) {
         Coordinate c = new Coordinate(p.X, p.Y);
         Geometry point = new GeometryFactory().createPoint(c);
-        for (Shape shape : shapes) {
+        for (int i : this.queryShapes(new Extent(p.X, p.X, p.Y, p.Y))) {
+            Shape shape = shapes.get(i);
             if (point.within(shape.toGeometry())) {
                 return shape;
             }
@@ -926,7 +1017,8 @@ public class VectorLayer extends MapLayer {
      * @return PolygonShape and polygon hole index
      */
     public Object[] selectPolygonHole(PointD p) {
-        for (Shape shape : shapes) {
+        for (int s : this.queryShapes(new Extent(p.X, p.X, p.Y, p.Y))) {
+            Shape shape = shapes.get(s);
             int i = 0;
             for (Polygon poly : ((PolygonShape) shape).getPolygons()) {
                 if (poly.hasHole()) {
@@ -1339,6 +1431,7 @@ public class VectorLayer extends MapLayer {
         shapes.add(position, aShape);
         insertRecord(position);
         updateLayerExtent(aShape);
+        this.shapeIndex = null;
 
         return true;
     }
@@ -1362,6 +1455,7 @@ public class VectorLayer extends MapLayer {
         shapes.add(position, aShape);
         insertRecord(position, record);
         updateLayerExtent(aShape);
+        this.shapeIndex = null;
 
         return true;
     }
@@ -1403,6 +1497,7 @@ public class VectorLayer extends MapLayer {
         if (idx >= 0) {
             this.shapes.remove(shape);
             this._attributeTable.getTable().removeRow(idx);
+            this.shapeIndex = null;
         }
     }
 
@@ -1414,6 +1509,7 @@ public class VectorLayer extends MapLayer {
         if (idx >= 0 && idx < this.getShapeNum() - 1) {
             this.shapes.remove(idx);
             this._attributeTable.getTable().removeRow(idx);
+            this.shapeIndex = null;
         }
     }
 
@@ -2847,6 +2943,7 @@ public class VectorLayer extends MapLayer {
                 }
                 shape.updateExtent();
             }
+            this.shapeIndex = null;
         }
 
         if (this.legendScheme.isGeometry()) {
@@ -2879,6 +2976,7 @@ public class VectorLayer extends MapLayer {
      * Update extent
      */
     public void updateExtent() {
+        this.shapeIndex = null;
         for (int i = 0; i < shapes.size(); i++) {
             if (i == 0) {
                 this.setExtent((Extent) shapes.get(i).getExtent().clone());
@@ -0,0 +1,70 @@
+package org.meteoinfo.geo.mapdata;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.RandomAccess;
+import java.util.function.Supplier;
+
+/**
+ * List placeholder which delegates to a list loaded on the first access, so
+ * lazily decoded shapes can keep their point and part lists unloaded while
+ * code accessing the shape fields directly still sees the loaded data.
+ *
+ * @param <E> Element type
+ * @author wyq
+ */
+class LazyList<E> extends AbstractList<E> implements RandomAccess {
+
+    private final Supplier<List<E>> target;
+
+    /**
+     * Constructor
+     *
+     * @param target Supplier loading the target list if needed
+     */
+    LazyList(Supplier<List<E>> target) {
+        this.target = target;
+    }
+
+    @Override
+    public E get(int index) {
+        return target.get().get(index);
+    }
+
+    @Override
+    public int size() {
+        return target.get().size();
+    }
+
+    @Override
+    public E set(int index, E element) {
+        return target.get().set(index, element);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        target.get().add(index, element);
+    }
+
+    @Override
+    public E remove(int index) {
+        return target.get().remove(index);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return target.get().iterator();
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int index) {
+        return target.get().listIterator(index);
+    }
+
+    @Override
+    public List<E> subList(int fromIndex, int toIndex) {
+        return target.get().subList(fromIndex, toIndex);
+    }
+}
@@ -0,0 +1,145 @@
+package org.meteoinfo.geo.mapdata;
+
+import org.meteoinfo.common.PointD;
+import org.meteoinfo.common.PointF;
+import org.meteoinfo.geometry.shape.Polygon;
+import org.meteoinfo.geometry.shape.PolygonShape;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Polygon shape of a memory mapped shape file record. The extent and parts
+ * are read from the record header. The map view draws the shape from the
+ * packed coordinates of the record on each paint; the points and polygons are
+ * decoded and kept when they are first accessed otherwise, e.g. when the
+ * shape is queried, edited or drawn by other renderers.
+ *
+ * @author wyq
+ */
+public class LazyPolygonShape extends PolygonShape {
+
+    private volatile ShapeFileReader reader;
+    private final int record;
+    private final int pointNum;
+
+    /**
+     * Constructor
+     *
+     * @param reader Shape file reader
+     * @param record Record index
+     * @throws IOException
+     */
+    public LazyPolygonShape(ShapeFileReader reader, int record) throws IOException {
+        super();
+        this.reader = reader;
+        this.record = record;
+        this.setExtent(reader.getRecordExtent(record));
+        this.parts = reader.getParts(record);
+        this._numParts = parts.length;
+        this.pointNum = reader.getPointNum(record);
+        this.points = new LazyList<>(() -> {
+            load();
+            return (List<PointD>) points;
+        });
+        this._polygons = new LazyList<>(() -> {
+            load();
+            return (List<Polygon>) _polygons;
+        });
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get whether the points have been decoded
+     *
+     * @return Loaded or not
+     */
+    public boolean isLoaded() {
+        return reader == null;
+    }
+
+    /**
+     * Get record index in the shape file
+     *
+     * @return Record index
+     */
+    public int getRecord() {
+        return record;
+    }
+
+    /**
+     * Get packed coordinates, read from the mapped file if the points have
+     * not been decoded
+     *
+     * @return Packed coordinates array (x0, y0, x1, y1, ...)
+     * @throws IOException
+     */
+    public double[] getCoordinates() throws IOException {
+        ShapeFileReader r = reader;
+        if (r != null) {
+            return r.getCoordinates(record);
+        }
+        synchronized (this) {
+            double[] xy = new double[points.size() * 2];
+            int i = 0;
+            for (PointD p : points) {
+                xy[i++] = p.X;
+                xy[i++] = p.Y;
+            }
+            return xy;
+        }
+    }
+
+    @Override
+    public int getPointNum() {
+        return reader == null ? points.size() : pointNum;
+    }
+
+    @Override
+    public synchronized void setPoints(List<? extends PointD> points) {
+        super.setPoints(points);
+        reader = null;
+    }
+
+    @Override
+    public void setPoints_keep(List<? extends PointD> points) {
+        load();
+        super.setPoints_keep(points);
+    }
+
+    @Override
+    public void setPoints_keep(PointF[] points) {
+        load();
+        super.setPoints_keep(points);
+    }
+
+    @Override
+    public synchronized void setPolygons(List<? extends Polygon> polygons) {
+        super.setPolygons(polygons);
+        reader = null;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Decode the points and polygons if they are not loaded
+     */
+    public void load() {
+        if (reader != null) {
+            synchronized (this) {
+                ShapeFileReader r = reader;
+                if (r != null) {
+                    try {
+                        points = r.getPoints(record);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    updatePolygons();
+                    reader = null;
+                }
+            }
+        }
+    }
+    // </editor-fold>
+}
@@ -231,6 +231,22 @@ public class MapDataManage {
         return aLayer;
     }
 
+    /**
+     * Read shape file as map
+     *
+     * @param aFile File name
+     * @param encoding Encoding
+     * @param lazy Decode polyline and polygon coordinates on demand or not
+     * @return Vector layer
+     * @throws IOException
+     * @throws FileNotFoundException
+     */
+    public static VectorLayer readMapFile_ShapeFile(String aFile, String encoding, boolean lazy) throws IOException, FileNotFoundException, Exception {
+        VectorLayer aLayer = ShapeFileManage.loadShapeFile(aFile, encoding, lazy);
+
+        return aLayer;
+    }
+
     /**
      * Read GrADS map file
      *
@@ -376,15 +392,32 @@ public class MapDataManage {
      * @return Raster layer
      */
     public static RasterLayer readGeoTiffFile(String fileName) {
+        return readGeoTiffFile(fileName, 0);
+    }
+
+    /**
+     * Create a raster layer from geotiff file for display. Large images are
+     * read with a stride, from the overviews of the file if there are, so the
+     * layer grid is not larger than the maximum size. The file is kept open
+     * in the layer, which reads the image of the map extent and scale from it
+     * when it is drawn zoomed out, see {@link RasterLayer#updateDisplayData}.
+     *
+     * @param fileName File path
+     * @param maxSize Maximum grid size of x and y, full resolution if not
+     * positive
+     * @return Raster layer
+     */
+    public static RasterLayer readGeoTiffFile(String fileName, int maxSize) {
         try {
             GeoTiff geoTiff = new GeoTiff(fileName);
             geoTiff.read();
-            GridArray gData = geoTiff.getGridArray();
+            GridArray gData = geoTiff.getGridArray(maxSize);
 //            LegendScheme aLS = LegendManage.createLegendSchemeFromGridData(gData, LegendType.GraduatedColor,
 //                    ShapeTypes.Image);
             RasterLayer aLayer = DrawMeteoData.createRasterLayer(gData, new File(fileName).getName());
             aLayer.setProjInfo(gData.projInfo);
             aLayer.setFileName(fileName);
+            aLayer.setGeoTiff(geoTiff);
 
             return aLayer;
         } catch (IOException ex) {
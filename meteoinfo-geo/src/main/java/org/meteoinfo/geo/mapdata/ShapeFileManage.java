@@ -56,6 +56,19 @@ public class ShapeFileManage {
      * @throws FileNotFoundException
      */
     public static VectorLayer loadShapeFile(String shpfilepath) throws IOException, FileNotFoundException, Exception {
+        return loadShapeFile(shpfilepath, false);
+    }
+
+    /**
+     * Load shape file
+     *
+     * @param shpfilepath Shape file path
+     * @param lazy Decode polyline and polygon coordinates on demand or not
+     * @return Vector layer
+     * @throws IOException
+     * @throws FileNotFoundException
+     */
+    public static VectorLayer loadShapeFile(String shpfilepath, boolean lazy) throws IOException, FileNotFoundException, Exception {
         String cpgfilepath = shpfilepath.replaceFirst(shpfilepath.substring(shpfilepath.lastIndexOf(".")), ".cpg");
         File cpgFile = new File(cpgfilepath);
         String encoding = ENCODING;
@@ -65,7 +78,7 @@ public class ShapeFileManage {
             sr.close();
             encoding = ec;
         }
-        return loadShapeFile(shpfilepath, encoding);
+        return loadShapeFile(shpfilepath, encoding, lazy);
     }
     
     /**
@@ -78,6 +91,23 @@ public class ShapeFileManage {
      * @throws FileNotFoundException
      */
     public static VectorLayer loadShapeFile(String shpfilepath, String encoding) throws IOException, FileNotFoundException, Exception {
+        return loadShapeFile(shpfilepath, encoding, false);
+    }
+
+    /**
+     * Load shape file. In lazy mode the polyline and polygon shape files are
+     * memory mapped and the shape coordinates are decoded from the .shx
+     * offsets when a shape is first drawn or queried, other shape types are
+     * loaded eagerly.
+     *
+     * @param shpfilepath Shape file path
+     * @param encoding Encoding
+     * @param lazy Decode polyline and polygon coordinates on demand or not
+     * @return Vector layer
+     * @throws IOException
+     * @throws FileNotFoundException
+     */
+    public static VectorLayer loadShapeFile(String shpfilepath, String encoding, boolean lazy) throws IOException, FileNotFoundException, Exception {
         //Set file names
         String shxfilepath = shpfilepath.replace(shpfilepath.substring(shpfilepath.lastIndexOf(".")), ".shx");
         String dbffilepath = shpfilepath.replace(shpfilepath.substring(shpfilepath.lastIndexOf(".")), ".dbf");
@@ -132,32 +162,36 @@ public class ShapeFileManage {
         //buffer.position(buffer.position() + 32);
 
         //Get Shape Data             
-        switch (aST) {
-            case POINT://single point
-                aLayer = readPointShapes(br, shapeNum);
-                break;
-            case POINT_Z:
-                aLayer = readPointZShapes(br, shapeNum);
-                break;
-            case POLYLINE:    //Polyline layer
-                aLayer = readPolylineShapes(br, shapeNum);
-                break;
-            case POLYLINE_Z:
-                aLayer = readPolylineZShapes(br, shapeNum);
-                break;
-            case POLYGON:    //Polygon layer
-                aLayer = readPolygonShapes(br, shapeNum);
-                break;
-            case POLYGON_M:
-                aLayer = readPolygonMShapes(br, shapeNum);
-                break;
-            case POLYGON_Z:
-                aLayer = readPolygonZShapes(br, shapeNum);
-                break;
-            default:
-                System.out.println("The shape type is not supported: " + aST.toString());
-                return null;
-        }        
+        if (lazy && (aST == ShapeTypes.POLYLINE || aST == ShapeTypes.POLYGON)) {
+            aLayer = readLazyShapes(new ShapeFileReader(shpfilepath, shxFile.exists() ? shxfilepath : null), aST);
+        } else {
+            switch (aST) {
+                case POINT://single point
+                    aLayer = readPointShapes(br, shapeNum);
+                    break;
+                case POINT_Z:
+                    aLayer = readPointZShapes(br, shapeNum);
+                    break;
+                case POLYLINE:    //Polyline layer
+                    aLayer = readPolylineShapes(br, shapeNum);
+                    break;
+                case POLYLINE_Z:
+                    aLayer = readPolylineZShapes(br, shapeNum);
+                    break;
+                case POLYGON:    //Polygon layer
+                    aLayer = readPolygonShapes(br, shapeNum);
+                    break;
+                case POLYGON_M:
+                    aLayer = readPolygonMShapes(br, shapeNum);
+                    break;
+                case POLYGON_Z:
+                    aLayer = readPolygonZShapes(br, shapeNum);
+                    break;
+                default:
+                    System.out.println("The shape type is not supported: " + aST.toString());
+                    return null;
+            }
+        }
         br.close();
 
         if (aLayer != null) {
@@ -644,6 +678,36 @@ public class ShapeFileManage {
         return aLayer;
     }
 
+    private static VectorLayer readLazyShapes(ShapeFileReader reader, ShapeTypes shapeType) throws IOException {
+        VectorLayer aLayer = new VectorLayer(shapeType);
+        try {
+            for (int i = 0; i < reader.getShapeNum(); i++) {
+                //Skip null shapes and records too short for a polyline or polygon
+                if (reader.getContentLength(i) < 80 || reader.isNullShape(i)) {
+                    continue;
+                }
+                if (shapeType == ShapeTypes.POLYGON) {
+                    aLayer.addShape(new LazyPolygonShape(reader, i));
+                } else {
+                    aLayer.addShape(new LazyPolylineShape(reader, i));
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+        aLayer.setShapeFileReader(reader);
+
+        //Create legend scheme
+        if (shapeType == ShapeTypes.POLYGON) {
+            aLayer.setLegendScheme(LegendManage.createSingleSymbolLegendScheme(ShapeTypes.POLYGON, new Color(255, 251, 195), 1.0F));
+        } else {
+            aLayer.setLegendScheme(LegendManage.createSingleSymbolLegendScheme(ShapeTypes.POLYLINE, Color.darkGray, 1.0F));
+        }
+
+        return aLayer;
+    }
+
     private static void loadShxFile(File shxFile) throws FileNotFoundException, IOException {
         DataInputStream bridx = new DataInputStream(new BufferedInputStream(new FileInputStream(shxFile)));
         long BytesSum = shxFile.length();  //Get file byte length   
@@ -822,6 +886,15 @@ public class ShapeFileManage {
      }
 
     private static void writeShpFile(String shpfilepath, VectorLayer aLayer) throws FileNotFoundException, IOException {
+        //Decode lazy shapes before the file they are mapped from may be overwritten
+        for (Shape aShape : aLayer.getShapes()) {
+            if (aShape instanceof LazyPolygonShape) {
+                ((LazyPolygonShape) aShape).load();
+            } else if (aShape instanceof LazyPolylineShape) {
+                ((LazyPolylineShape) aShape).load();
+            }
+        }
+
         File shpFile = new File(shpfilepath);
         EndianDataOutputStream bw = new EndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(shpFile)));
 
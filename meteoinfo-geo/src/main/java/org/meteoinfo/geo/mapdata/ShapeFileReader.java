@@ -0,0 +1,341 @@
+package org.meteoinfo.geo.mapdata;
+
+import org.meteoinfo.common.Extent;
+import org.meteoinfo.common.PointD;
+import org.meteoinfo.common.io.MappedFile;
+import org.meteoinfo.geometry.shape.ShapeTypes;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Memory mapped shape file reader.
+ * <p>
+ * The .shp file is mapped with NIO and the record offsets are taken from the
+ * .shx file (or scanned from the record headers if there is no .shx file), so
+ * any record can be decoded on demand without reading the records before it.
+ * Record bounding boxes, part and point numbers are read straight from the
+ * record headers, coordinates are decoded in bulk into packed x/y arrays.
+ * The reader is thread safe. A closed reader maps the file again when it is
+ * read, so shapes holding the reader stay readable after their layer closed
+ * it.
+ *
+ * @author wyq
+ */
+public class ShapeFileReader implements Closeable {
+
+    private static final int HEADER_LENGTH = 100;
+
+    private final String fileName;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private MappedFile shpFile;
+    private final ShapeTypes shapeType;
+    private final Extent extent;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    /**
+     * Constructor
+     *
+     * @param shpFileName Shape file name
+     * @throws IOException
+     */
+    public ShapeFileReader(String shpFileName) throws IOException {
+        this(shpFileName, findShxFile(shpFileName));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param shpFileName Shape file name
+     * @param shxFileName Shape index file name, null to scan the record headers
+     * @throws IOException
+     */
+    public ShapeFileReader(String shpFileName, String shxFileName) throws IOException {
+        this.fileName = shpFileName;
+        this.shpFile = new MappedFile(shpFileName);
+        try {
+            ByteBuffer header = shpFile.getBuffer(0, HEADER_LENGTH, ByteOrder.LITTLE_ENDIAN);
+            this.shapeType = ShapeTypes.valueOf(header.getInt(32));
+            this.extent = new Extent(header.getDouble(36), header.getDouble(52), header.getDouble(44),
+                    header.getDouble(60));
+
+            if (shxFileName != null && new File(shxFileName).isFile()) {
+                try (MappedFile shxFile = new MappedFile(shxFileName)) {
+                    int n = (int) ((shxFile.size() - HEADER_LENGTH) / 8);
+                    ByteBuffer buffer = shxFile.getBuffer(HEADER_LENGTH, n * 8, ByteOrder.BIG_ENDIAN);
+                    this.offsets = new long[n];
+                    this.lengths = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        //Offsets and content lengths are in 16-bit words, the record header is 8 bytes
+                        offsets[i] = (buffer.getInt() & 0xFFFFFFFFL) * 2 + 8;
+                        lengths[i] = buffer.getInt() * 2;
+                    }
+                }
+            } else {
+                List<long[]> records = new ArrayList<>();
+                long position = HEADER_LENGTH;
+                while (position + 8 <= shpFile.size()) {
+                    int length = shpFile.getBuffer(position, 8, ByteOrder.BIG_ENDIAN).getInt(4) * 2;
+                    records.add(new long[]{position + 8, length});
+                    position += 8 + length;
+                }
+                this.offsets = new long[records.size()];
+                this.lengths = new int[records.size()];
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = records.get(i)[0];
+                    lengths[i] = (int) records.get(i)[1];
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            shpFile.close();
+            throw ex;
+        }
+    }
+
+    private static String findShxFile(String shpFileName) {
+        String base = shpFileName.substring(0, shpFileName.lastIndexOf("."));
+        for (String ext : new String[]{".shx", ".SHX"}) {
+            if (new File(base + ext).isFile()) {
+                return base + ext;
+            }
+        }
+        return null;
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get shape file name
+     *
+     * @return Shape file name
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Get shape type
+     *
+     * @return Shape type
+     */
+    public ShapeTypes getShapeType() {
+        return shapeType;
+    }
+
+    /**
+     * Get extent of all shapes from the file header
+     *
+     * @return Extent
+     */
+    public Extent getExtent() {
+        return (Extent) extent.clone();
+    }
+
+    /**
+     * Get number of records
+     *
+     * @return Number of records
+     */
+    public int getShapeNum() {
+        return offsets.length;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    private ByteBuffer content(int i, int position, int length) throws IOException {
+        lock.readLock().lock();
+        try {
+            MappedFile file;
+            synchronized (this) {
+                if (shpFile == null) {
+                    shpFile = new MappedFile(fileName);
+                }
+                file = shpFile;
+            }
+            return file.getBuffer(offsets[i] + position, length, ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isPointType() {
+        switch (shapeType) {
+            case POINT:
+            case POINT_M:
+            case POINT_Z:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get content length of a record
+     *
+     * @param i Record index
+     * @return Content length in bytes
+     */
+    public int getContentLength(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * Check whether a record is a null shape without geometry
+     *
+     * @param i Record index
+     * @return Null shape or not
+     * @throws IOException
+     */
+    public boolean isNullShape(int i) throws IOException {
+        return lengths[i] < 4 || content(i, 0, 4).getInt() == 0;
+    }
+
+    /**
+     * Get bounding box of a record from its header, without decoding the
+     * coordinates
+     *
+     * @param i Record index
+     * @return Extent
+     * @throws IOException
+     */
+    public Extent getRecordExtent(int i) throws IOException {
+        if (isPointType()) {
+            ByteBuffer buffer = content(i, 4, 16);
+            double x = buffer.getDouble();
+            double y = buffer.getDouble();
+            return new Extent(x, x, y, y);
+        }
+        ByteBuffer buffer = content(i, 4, 32);
+        double minX = buffer.getDouble();
+        double minY = buffer.getDouble();
+        double maxX = buffer.getDouble();
+        double maxY = buffer.getDouble();
+        return new Extent(minX, maxX, minY, maxY);
+    }
+
+    /**
+     * Get part number of a polyline or polygon record
+     *
+     * @param i Record index
+     * @return Part number
+     * @throws IOException
+     */
+    public int getPartNum(int i) throws IOException {
+        return isPointType() ? 1 : content(i, 36, 4).getInt();
+    }
+
+    /**
+     * Get point number of a record
+     *
+     * @param i Record index
+     * @return Point number
+     * @throws IOException
+     */
+    public int getPointNum(int i) throws IOException {
+        return isPointType() ? 1 : content(i, 40, 4).getInt();
+    }
+
+    /**
+     * Get part start point indices of a polyline or polygon record
+     *
+     * @param i Record index
+     * @return Part start indices
+     * @throws IOException
+     */
+    public int[] getParts(int i) throws IOException {
+        if (isPointType()) {
+            return new int[]{0};
+        }
+        int partNum = getPartNum(i);
+        int[] parts = new int[partNum];
+        content(i, 44, partNum * 4).asIntBuffer().get(parts);
+        return parts;
+    }
+
+    /**
+     * Get coordinates of a record
+     *
+     * @param i Record index
+     * @return Packed coordinates array (x0, y0, x1, y1, ...)
+     * @throws IOException
+     */
+    public double[] getCoordinates(int i) throws IOException {
+        if (isPointType()) {
+            double[] xy = new double[2];
+            content(i, 4, 16).asDoubleBuffer().get(xy);
+            return xy;
+        }
+        ByteBuffer buffer = content(i, 36, 8);
+        int partNum = buffer.getInt();
+        int pointNum = buffer.getInt();
+        double[] xy = new double[pointNum * 2];
+        content(i, 44 + partNum * 4, pointNum * 16).asDoubleBuffer().get(xy);
+        return xy;
+    }
+
+    /**
+     * Get points of a record
+     *
+     * @param i Record index
+     * @return Point list
+     * @throws IOException
+     */
+    public List<PointD> getPoints(int i) throws IOException {
+        double[] xy = getCoordinates(i);
+        List<PointD> points = new ArrayList<>(xy.length / 2);
+        for (int j = 0; j < xy.length; j += 2) {
+            points.add(new PointD(xy[j], xy[j + 1]));
+        }
+        return points;
+    }
+
+    /**
+     * Get indices of the records whose bounding box intersects an extent.
+     * Only the record headers are read.
+     *
+     * @param queryExtent Query extent
+     * @return Record indices
+     * @throws IOException
+     */
+    public int[] query(Extent queryExtent) throws IOException {
+        int[] idx = new int[offsets.length];
+        int n = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            if (!isNullShape(i) && getRecordExtent(i).intersects(queryExtent)) {
+                idx[n++] = i;
+            }
+        }
+        int[] r = new int[n];
+        System.arraycopy(idx, 0, r, 0, n);
+        return r;
+    }
+
+    /**
+     * Close the mapped shape file. It waits for the reads in progress, and
+     * the file is mapped again if the reader is used later.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (shpFile != null) {
+                    shpFile.close();
+                    shpFile = null;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    // </editor-fold>
+}
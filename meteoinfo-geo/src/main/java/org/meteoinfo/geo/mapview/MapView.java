@@ -23,6 +23,8 @@ import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.ImageWriteException;
 import org.meteoinfo.common.*;
 import org.meteoinfo.common.util.GlobalUtil;
+import org.meteoinfo.geo.mapdata.LazyPolygonShape;
+import org.meteoinfo.geo.mapdata.LazyPolylineShape;
 import org.meteoinfo.geo.mapdata.MapDataManage;
 import org.meteoinfo.render.java2d.Draw;
 import org.meteoinfo.geo.util.GeoProjectionUtil;
@@ -3746,7 +3748,12 @@ public class MapView extends JPanel implements IWebMapPanel {
      * @param aIdx Layer index
      */
     public void removeLayer(int aIdx) {
-        layers.remove(aIdx);
+        MapLayer aLayer = layers.remove(aIdx);
+        if (aLayer instanceof VectorLayer) {
+            ((VectorLayer) aLayer).close();
+        } else if (aLayer instanceof RasterLayer) {
+            ((RasterLayer) aLayer).close();
+        }
         _extent = getLayersWholeExtent();
     }
 
@@ -4677,11 +4684,19 @@ public class MapView extends JPanel implements IWebMapPanel {
     private void drawRasterLayer(Graphics2D g, RasterLayer aRLayer, double LonShift) {
         Extent lExtent = MIMath.shiftExtentLon(aRLayer.getExtent(), LonShift);
         if (MIMath.isExtentCross(lExtent, _drawExtent)) {
+            //Layers of GeoTIFF files draw the image of the map extent and scale read from the
+            //file, the passes shifted across the dateline draw the image of the whole layer
+            BufferedImage aImage = aRLayer.getImage();
+            Extent iExtent = aRLayer.getExtent();
+            if (LonShift == 0 && aRLayer.updateDisplayData(_drawExtent, Math.min(1 / _scaleX, 1 / _scaleY))) {
+                aImage = aRLayer.getDisplayImage();
+                iExtent = aRLayer.getDisplayExtent();
+            }
             double XUL, YUL, XBR, YBR;
-            XUL = aRLayer.getExtent().minX;
-            YUL = aRLayer.getExtent().maxY;
-            XBR = aRLayer.getExtent().maxX;
-            YBR = aRLayer.getExtent().minY;
+            XUL = iExtent.minX;
+            YUL = iExtent.maxY;
+            XBR = iExtent.maxX;
+            YBR = iExtent.minY;
 
             double[] sXY = projToScreen(XUL, YUL, LonShift);
             double sX = sXY[0];
@@ -4695,7 +4710,6 @@ public class MapView extends JPanel implements IWebMapPanel {
             }
             //g.InterpolationMode = InterpolationMode.NearestNeighbor;
             //g.InterpolationMode = aRLayer.InterpMode;
-            BufferedImage aImage = aRLayer.getImage();
             g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, aRLayer.getInterpolation());
             g.drawImage(aImage, (int) sX, (int) sY, (int) (sX + aWidth), (int) (sY + aHeigh),
                     0, 0, aImage.getWidth(), aImage.getHeight(), null);
@@ -5175,7 +5189,9 @@ public class MapView extends JPanel implements IWebMapPanel {
         LegendScheme aLS = aLayer.getLegendScheme();
         List<Extent> extentList = new ArrayList<>();
         Extent maxExtent = new Extent();
-        for (PointShape aPS : (List<PointShape>) aLayer.getShapes()) {
+        List<PointShape> shapes = (List<PointShape>) aLayer.getShapes();
+        for (int s : aLayer.queryShapes(MIMath.shiftExtentLon(_drawExtent, -LonShift))) {
+            PointShape aPS = shapes.get(s);
             if (!aPS.isVisible()) {
                 continue;
             }
@@ -5266,7 +5282,9 @@ public class MapView extends JPanel implements IWebMapPanel {
         List<Extent> extentList = new ArrayList<>();
         Extent maxExtent = new Extent();
         Extent aExtent;
-        for (StationModelShape aPS : (List<StationModelShape>) aLayer.getShapes()) {
+        List<StationModelShape> shapes = (List<StationModelShape>) aLayer.getShapes();
+        for (int s : aLayer.queryShapes(MIMath.shiftExtentLon(_drawExtent, -LonShift))) {
+            StationModelShape aPS = shapes.get(s);
             if (aPS.getPoint().X + LonShift < _drawExtent.minX || aPS.getPoint().X + LonShift > _drawExtent.maxX
                     || aPS.getPoint().Y < _drawExtent.minY || aPS.getPoint().Y > _drawExtent.maxY) {
                 continue;
@@ -5345,7 +5363,8 @@ public class MapView extends JPanel implements IWebMapPanel {
     private void drawPolygonLayer(VectorLayer aLayer, Graphics2D g, double LonShift) {
         LegendScheme aLS = aLayer.getLegendScheme();
 
-        for (int s = 0; s < aLayer.getShapeNum(); s++) {
+        int[] idxs = aLayer.queryShapes(MIMath.shiftExtentLon(_drawExtent, -LonShift));
+        for (int s : idxs) {
             PolygonShape aPGS = (PolygonShape) aLayer.getShapes().get(s);
             if (!aPGS.isVisible()) {
                 continue;
@@ -5362,7 +5381,8 @@ public class MapView extends JPanel implements IWebMapPanel {
             }
         }
 
-        for (PolygonShape aPGS : (List<PolygonShape>) aLayer.getShapes()) {
+        for (int s : idxs) {
+            PolygonShape aPGS = (PolygonShape) aLayer.getShapes().get(s);
             //Draw selected vertices
             if (aPGS.isEditing()) {
                 List<PointF> pointList = new ArrayList<>();
@@ -5401,9 +5421,10 @@ public class MapView extends JPanel implements IWebMapPanel {
 
     private void drawPolylineLayer(VectorLayer aLayer, Graphics2D g, double lonShift) {
         LegendScheme ls = aLayer.getLegendScheme();
+        int[] idxs = aLayer.queryShapes(MIMath.shiftExtentLon(_drawExtent, -lonShift));
 
         if (ls.isGeometry()) {
-            for (int s = 0; s < aLayer.getShapeNum(); s++) {
+            for (int s : idxs) {
                 PolylineShape pls = (PolylineShape) aLayer.getShapes().get(s);
                 if (!pls.isVisible()) {
                     continue;
@@ -5425,7 +5446,7 @@ public class MapView extends JPanel implements IWebMapPanel {
                     break;
             }
 
-            for (int s = 0; s < aLayer.getShapeNum(); s++) {
+            for (int s : idxs) {
                 PolylineShape pls = (PolylineShape) aLayer.getShapes().get(s);
                 if (!pls.isVisible()) {
                     continue;
@@ -5493,6 +5514,17 @@ public class MapView extends JPanel implements IWebMapPanel {
         g.setColor(aColor);
         g.setStroke(pen);
 
+        if (aPLS instanceof LazyPolylineShape && !((LazyPolylineShape) aPLS).isLoaded() && !isStreamline
+                && !isSelected && !aPLB.isDrawSymbol() && !aPLS.isEditing()) {
+            if (aPLB.isDrawPolyline()) {
+                GeneralPath lazyPath = lazyShapePath((LazyPolylineShape) aPLS, LonShift, false);
+                if (lazyPath != null) {
+                    g.draw(lazyPath);
+                }
+            }
+            return;
+        }
+
         List<PointF> drawPs = new ArrayList<>();
         if (aPLB.isDrawPolyline()) {
             for (Polyline aline : aPLS.getPolylines()) {
@@ -5702,6 +5734,14 @@ public class MapView extends JPanel implements IWebMapPanel {
             return;
         }
 
+        if (aPGS instanceof LazyPolygonShape && !((LazyPolygonShape) aPGS).isLoaded() && !isSelected) {
+            GeneralPath lazyPath = lazyShapePath(aPGS, LonShift, true);
+            if (lazyPath != null) {
+                fillPolygonPath(g, lazyPath, aPGB, aPGS.isSelected());
+            }
+            return;
+        }
+
         List<PointF> pointList = new ArrayList<>();
         for (Polygon aPolygon : aPGS.getPolygons()) {
             pointList.addAll(drawPolygon(g, aPolygon, aPGB, LonShift, aPGS.isSelected()));
@@ -5752,7 +5792,12 @@ public class MapView extends JPanel implements IWebMapPanel {
             }
         }
         path.closePath();
+        fillPolygonPath(g, path, aPGB, isSelected);
 
+        return rPoints;
+    }
+
+    private void fillPolygonPath(Graphics2D g, GeneralPath path, PolygonBreak aPGB, boolean isSelected) {
         if (aPGB.isDrawFill()) {
             //int alpha = (int)((1 - (double)transparencyPerc / 100.0) * 255);
             //Color aColor = Color.FromArgb(alpha, aPGB.Color);
@@ -5782,8 +5827,52 @@ public class MapView extends JPanel implements IWebMapPanel {
             g.setColor(aPGB.getOutlineColor());
             g.draw(path);
         }
+    }
 
-        return rPoints;
+    /**
+     * Get the screen path of a lazily loaded shape file polyline or polygon
+     * from its packed coordinates, so drawing does not decode and keep point
+     * objects
+     *
+     * @param aShape LazyPolylineShape or LazyPolygonShape
+     * @param LonShift Longitude shift
+     * @param isPolygon Close the parts as polygon rings or not
+     * @return Screen path, null if the coordinates can not be read
+     */
+    private GeneralPath lazyShapePath(Shape aShape, double LonShift, boolean isPolygon) {
+        double[] xy;
+        int[] parts;
+        try {
+            if (isPolygon) {
+                xy = ((LazyPolygonShape) aShape).getCoordinates();
+                parts = ((LazyPolygonShape) aShape).getParts();
+            } else {
+                xy = ((LazyPolylineShape) aShape).getCoordinates();
+                parts = ((LazyPolylineShape) aShape).parts;
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(MapView.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+
+        int n = xy.length / 2;
+        GeneralPath path = new GeneralPath(GeneralPath.WIND_EVEN_ODD, n);
+        double[] sXY;
+        for (int p = 0; p < parts.length; p++) {
+            int end = p + 1 < parts.length ? parts[p + 1] : n;
+            for (int i = parts[p]; i < end; i++) {
+                sXY = projToScreen(xy[i * 2], xy[i * 2 + 1], LonShift);
+                if (i == parts[p]) {
+                    path.moveTo(sXY[0], sXY[1]);
+                } else {
+                    path.lineTo(sXY[0], sXY[1]);
+                }
+            }
+            if (isPolygon && end > parts[p]) {
+                path.closePath();
+            }
+        }
+        return path;
     }
 
     private void drawWebMapLayer(WebMapLayer layer, Graphics2D g, double width, double height) {
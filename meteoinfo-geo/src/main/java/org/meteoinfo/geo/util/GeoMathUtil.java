@@ -7,6 +7,8 @@ import org.meteoinfo.data.GridDataSetting;
 import org.meteoinfo.data.StationData;
 import org.meteoinfo.geo.layer.VectorLayer;
 import org.meteoinfo.geo.analysis.GeoComputation;
+import org.meteoinfo.geometry.geoprocess.PolygonMask;
+import org.meteoinfo.geometry.geoprocess.ZonalStatistics;
 import org.meteoinfo.geometry.shape.PolygonShape;
 import org.meteoinfo.geometry.shape.ShapeTypes;
 import org.meteoinfo.geo.analysis.InterpolationSetting;
@@ -68,9 +70,11 @@ public class GeoMathUtil {
         GridData cGrid = new GridData(gridData);
         double[] xArray = gridData.getXArray();
         double[] yArray = gridData.getYArray();
+        PolygonMask mask = PolygonMask.isMonotonic(xArray) && PolygonMask.isMonotonic(yArray)
+                ? PolygonMask.of(xArray, yArray, polygons) : null;
         for (int i = 0; i < yNum; i++) {
             for (int j = 0; j < xNum; j++) {
-                if (GeoComputation.pointInPolygons(polygons, new PointD(xArray[j], yArray[i]))) {
+                if (mask != null ? mask.get(i, j) : GeoComputation.pointInPolygons(polygons, new PointD(xArray[j], yArray[i]))) {
                     cGrid.setValue(i, j, gridData.getDoubleValue(i, j));
                 } else {
                     cGrid.setValue(i, j, gridData.getDoubleMissingValue());
@@ -122,6 +126,21 @@ public class GeoMathUtil {
         return cGrid;
     }
 
+    /**
+     * Create zonal statistics of a grid over the polygons of a layer
+     *
+     * @param zoneLayer Polygon layer, each shape is a zone
+     * @param x Grid x coordinates
+     * @param y Grid y coordinates
+     * @return Zonal statistics
+     */
+    public static ZonalStatistics zonalStatistics(VectorLayer zoneLayer, double[] x, double[] y) {
+        if (!zoneLayer.getShapeType().isPolygon()) {
+            throw new IllegalArgumentException("Zone layer must be a polygon layer");
+        }
+        return new ZonalStatistics(x, y, (List<PolygonShape>) zoneLayer.getShapes());
+    }
+
     /**
      * 遮罩站点数据
      *
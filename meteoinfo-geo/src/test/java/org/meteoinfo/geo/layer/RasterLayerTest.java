@@ -0,0 +1,139 @@
+package org.meteoinfo.geo.layer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.meteoinfo.common.Extent;
+import org.meteoinfo.geo.legend.LegendManage;
+import org.meteoinfo.geo.mapdata.MapDataManage;
+import org.meteoinfo.geometry.legend.LegendScheme;
+import org.meteoinfo.geometry.legend.LegendType;
+import org.meteoinfo.geometry.shape.ShapeTypes;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RasterLayerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 200;
+    private static final double OVERVIEW_VALUE = -1;
+
+    private static float value(int row, int col) {
+        return row * 1000 + col;
+    }
+
+    /**
+     * Write a little endian TIFF file of 32-bit float samples in one strip,
+     * with an overview of half the size whose samples are all OVERVIEW_VALUE.
+     * Pixel i is centered at x 100 + 0.5 * i and row j at y 40 - 0.5 * j.
+     */
+    private String writeGeoTiff() throws Exception {
+        ByteBuffer bb = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        bb.put((byte) 'I').put((byte) 'I').putShort((short) 42);
+        int prevNextPos = bb.position();
+        bb.putInt(0);
+        for (int level = 0; level < 2; level++) {
+            int width = WIDTH >> level;
+            int height = HEIGHT >> level;
+            int offset = bb.position();
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    bb.putFloat(level == 0 ? value(row, col) : (float) OVERVIEW_VALUE);
+                }
+            }
+
+            int ifdPos = bb.position();
+            bb.putInt(prevNextPos, ifdPos);
+            int[][] entries = {
+                    {254, level}, {256, width}, {257, height}, {258, 32}, {259, 1}, {262, 1},
+                    {273, offset}, {277, 1}, {278, height}, {279, width * height * 4}, {339, 3}};
+            int n = entries.length + (level == 0 ? 2 : 0);
+            int overflow = ifdPos + 2 + n * 12 + 4;
+            bb.putShort((short) n);
+            for (int[] e : entries) {
+                bb.putShort((short) e[0]).putShort((short) 4).putInt(1).putInt(e[1]);
+            }
+            if (level == 0) {
+                double[][] doubles = {{0.5, 0.5, 0}, {0, 0, 0, 100, 40, 0}};
+                int[] tags = {33550, 33922};
+                for (int i = 0; i < 2; i++) {
+                    bb.putShort((short) tags[i]).putShort((short) 12).putInt(doubles[i].length).putInt(overflow);
+                    for (int k = 0; k < doubles[i].length; k++) {
+                        bb.putDouble(overflow + k * 8, doubles[i][k]);
+                    }
+                    overflow += doubles[i].length * 8;
+                }
+            }
+            prevNextPos = bb.position();
+            bb.putInt(0);
+            bb.position(overflow);
+        }
+
+        Path file = tempDir.resolve("layer.tif");
+        Files.write(file, Arrays.copyOf(bb.array(), bb.position()));
+        return file.toString();
+    }
+
+    @Test
+    public void testGeoTiffDisplayData() throws Exception {
+        RasterLayer layer = MapDataManage.readGeoTiffFile(writeGeoTiff());
+        try {
+            assertNotNull(layer.getGeoTiff());
+            assertEquals(WIDTH, layer.getGridData().getXNum());
+            assertEquals(HEIGHT, layer.getGridData().getYNum());
+            double cellValue = layer.getCellValue(10, 20);
+            assertNotEquals(OVERVIEW_VALUE, cellValue);
+            Extent extent = layer.getExtent();
+
+            //Zoomed out, the overview of the whole layer is displayed
+            assertTrue(layer.updateDisplayData(extent, 1.0));
+            BufferedImage image = layer.getDisplayImage();
+            assertNotSame(layer.getImage(), image);
+            assertEquals(WIDTH / 2, image.getWidth());
+            assertEquals(HEIGHT / 2, image.getHeight());
+            //Overview cells are centered on the sampled pixels
+            assertEquals(extent.minX, layer.getDisplayExtent().minX, 0.5);
+            assertEquals(extent.maxY, layer.getDisplayExtent().maxY, 0.5);
+            assertTrue(layer.updateDisplayData(extent, 1.0));
+            assertSame(image, layer.getDisplayImage());
+
+            //The layer grid data is not changed by the zoom level
+            assertEquals(WIDTH, layer.getGridData().getXNum());
+            assertEquals(cellValue, layer.getCellValue(10, 20));
+            assertEquals(WIDTH, layer.getImage().getWidth());
+
+            //A new legend renders the display image again
+            LegendScheme ls = LegendManage.createLegendSchemeFromGridData(layer.getGridData(),
+                    LegendType.GRADUATED_COLOR, ShapeTypes.POLYGON);
+            layer.setLegendScheme(ls.convertTo(ShapeTypes.IMAGE));
+            assertNotSame(image, layer.getDisplayImage());
+            assertEquals(WIDTH / 2, layer.getDisplayImage().getWidth());
+
+            //The layer image is fine enough at full resolution
+            assertFalse(layer.updateDisplayData(extent, 0.5));
+            assertSame(layer.getImage(), layer.getDisplayImage());
+            assertEquals(extent.minX, layer.getDisplayExtent().minX, 1e-9);
+
+            //A map window is read with a margin of half its size
+            assertTrue(layer.updateDisplayData(new Extent(150, 160, 0, 10), 1.0));
+            Extent window = layer.getDisplayExtent();
+            assertTrue(window.minX < 150 && window.minX >= 144);
+            assertTrue(window.maxX > 160 && window.maxX <= 166);
+            assertTrue(layer.getDisplayImage().getWidth() < WIDTH / 2);
+        } finally {
+            layer.close();
+        }
+        assertNull(layer.getGeoTiff());
+        assertFalse(layer.updateDisplayData(layer.getExtent(), 1.0));
+        assertSame(layer.getImage(), layer.getDisplayImage());
+    }
+}
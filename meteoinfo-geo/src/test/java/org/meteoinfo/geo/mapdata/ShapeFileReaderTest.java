@@ -0,0 +1,193 @@
+package org.meteoinfo.geo.mapdata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.meteoinfo.common.Extent;
+import org.meteoinfo.common.PointD;
+import org.meteoinfo.geo.layer.VectorLayer;
+import org.meteoinfo.geometry.shape.Polygon;
+import org.meteoinfo.geometry.shape.PolygonShape;
+import org.meteoinfo.geometry.shape.Polyline;
+import org.meteoinfo.geometry.shape.PolylineShape;
+import org.meteoinfo.geometry.shape.Shape;
+import org.meteoinfo.geometry.shape.ShapeTypes;
+import org.meteoinfo.ndarray.DataType;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShapeFileReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final Random random = new Random(5);
+
+    /**
+     * Rectangle ring with jittered points along the edges, clockwise for
+     * outer rings and counter-clockwise for holes
+     */
+    private List<PointD> ring(double x0, double y0, double w, double h, boolean clockwise) {
+        double[][] corners = {{x0, y0}, {x0, y0 + h}, {x0 + w, y0 + h}, {x0 + w, y0}};
+        List<PointD> points = new ArrayList<>();
+        for (int c = 0; c < 4; c++) {
+            double[] a = corners[c];
+            double[] b = corners[(c + 1) % 4];
+            for (int i = 0; i < 5; i++) {
+                double t = i / 5.0;
+                points.add(new PointD(a[0] + (b[0] - a[0]) * t + random.nextDouble() * 0.01,
+                        a[1] + (b[1] - a[1]) * t + random.nextDouble() * 0.01));
+            }
+        }
+        points.add(new PointD(points.get(0).X, points.get(0).Y));
+        if (!clockwise) {
+            Collections.reverse(points);
+        }
+        return points;
+    }
+
+    private Polygon polygon(double x0, double y0, double size, boolean hole) {
+        Polygon polygon = new Polygon();
+        polygon.setOutLine(ring(x0, y0, size, size, true));
+        if (hole) {
+            polygon.addHole(ring(x0 + size / 4, y0 + size / 4, size / 2, size / 2, false));
+        }
+        return polygon;
+    }
+
+    private String writeLayer(ShapeTypes shapeType, List<Shape> shapes) throws Exception {
+        VectorLayer layer = new VectorLayer(shapeType);
+        layer.editAddField("ID", DataType.INT);
+        for (int i = 0; i < shapes.size(); i++) {
+            layer.editAddShape(shapes.get(i));
+            layer.editCellValue("ID", i, i);
+        }
+        String fileName = tempDir.resolve(shapeType.name().toLowerCase() + ".shp").toString();
+        assertTrue(ShapeFileManage.saveShapeFile(fileName, layer));
+        return fileName;
+    }
+
+    private static void assertExtent(Extent expected, Extent actual) {
+        assertEquals(expected.minX, actual.minX);
+        assertEquals(expected.maxX, actual.maxX);
+        assertEquals(expected.minY, actual.minY);
+        assertEquals(expected.maxY, actual.maxY);
+    }
+
+    private static void assertPoints(List<? extends PointD> expected, List<? extends PointD> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).X, actual.get(i).X);
+            assertEquals(expected.get(i).Y, actual.get(i).Y);
+        }
+    }
+
+    private static void assertCoordinates(List<? extends PointD> expected, double[] xy) {
+        assertEquals(expected.size() * 2, xy.length);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).X, xy[i * 2]);
+            assertEquals(expected.get(i).Y, xy[i * 2 + 1]);
+        }
+    }
+
+    @Test
+    public void testLazyPolygons() throws Exception {
+        List<Shape> shapes = new ArrayList<>();
+        PolygonShape single = new PolygonShape();
+        single.setPolygons(Arrays.asList(polygon(0, 0, 10, true)));
+        shapes.add(single);
+        PolygonShape multi = new PolygonShape();
+        multi.setPolygons(Arrays.asList(polygon(20, 0, 8, false), polygon(40, 5, 12, true)));
+        shapes.add(multi);
+        PolygonShape plain = new PolygonShape();
+        plain.setPolygons(Arrays.asList(polygon(-30, -20, 5, false)));
+        shapes.add(plain);
+        String fileName = writeLayer(ShapeTypes.POLYGON, shapes);
+
+        VectorLayer eager = ShapeFileManage.loadShapeFile(fileName, false);
+        VectorLayer lazy = ShapeFileManage.loadShapeFile(fileName, true);
+        try {
+            assertNotNull(lazy.getShapeFileReader());
+            assertEquals(eager.getShapeNum(), lazy.getShapeNum());
+            assertExtent(eager.getExtent(), lazy.getExtent());
+            for (int i = 0; i < eager.getShapeNum(); i++) {
+                PolygonShape e = (PolygonShape) eager.getShapes().get(i);
+                LazyPolygonShape l = (LazyPolygonShape) lazy.getShapes().get(i);
+
+                //Header fields and packed coordinates do not decode the points
+                assertFalse(l.isLoaded());
+                assertExtent(e.getExtent(), l.getExtent());
+                assertArrayEquals(e.getParts(), l.getParts());
+                assertEquals(e.getPointNum(), l.getPointNum());
+                assertCoordinates(e.getPoints(), l.getCoordinates());
+                assertFalse(l.isLoaded());
+
+                assertEquals(e.getPolygons().size(), l.getPolygons().size());
+                assertTrue(l.isLoaded());
+                for (int j = 0; j < e.getPolygons().size(); j++) {
+                    Polygon ep = e.getPolygons().get(j);
+                    Polygon lp = l.getPolygons().get(j);
+                    assertPoints(ep.getOutLine(), lp.getOutLine());
+                    assertEquals(ep.getHoleLineNumber(), lp.getHoleLineNumber());
+                    for (int h = 0; h < ep.getHoleLineNumber(); h++) {
+                        assertPoints(ep.getHoleLine(h), lp.getHoleLine(h));
+                    }
+                }
+                assertPoints(e.getPoints(), l.getPoints());
+                assertCoordinates(e.getPoints(), l.getCoordinates());
+            }
+        } finally {
+            eager.close();
+            lazy.close();
+        }
+    }
+
+    @Test
+    public void testLazyPolylines() throws Exception {
+        List<Shape> shapes = new ArrayList<>();
+        for (int s = 0; s < 4; s++) {
+            List<Polyline> lines = new ArrayList<>();
+            for (int p = 0; p <= s % 3; p++) {
+                Polyline line = new Polyline();
+                line.setPointList(ring(s * 10 + p, p * 3, 2, 1, true).subList(0, 7 + p));
+                lines.add(line);
+            }
+            PolylineShape shape = new PolylineShape();
+            shape.setPolylines(lines);
+            shapes.add(shape);
+        }
+        String fileName = writeLayer(ShapeTypes.POLYLINE, shapes);
+
+        VectorLayer eager = ShapeFileManage.loadShapeFile(fileName, false);
+        VectorLayer lazy = ShapeFileManage.loadShapeFile(fileName, true);
+        try {
+            assertEquals(eager.getShapeNum(), lazy.getShapeNum());
+            for (int i = 0; i < eager.getShapeNum(); i++) {
+                PolylineShape e = (PolylineShape) eager.getShapes().get(i);
+                LazyPolylineShape l = (LazyPolylineShape) lazy.getShapes().get(i);
+                assertExtent(e.getExtent(), l.getExtent());
+                assertArrayEquals(e.parts, l.parts);
+                assertEquals(e.getPointNum(), l.getPointNum());
+                assertCoordinates(e.getPoints(), l.getCoordinates());
+                assertFalse(l.isLoaded());
+
+                //A closed reader maps the file again
+                lazy.close();
+                assertEquals(e.getPolylines().size(), l.getPolylines().size());
+                for (int j = 0; j < e.getPolylines().size(); j++) {
+                    assertPoints(e.getPolylines().get(j).getPointList(), l.getPolylines().get(j).getPointList());
+                }
+                assertTrue(l.isLoaded());
+            }
+        } finally {
+            eager.close();
+            lazy.close();
+        }
+    }
+}
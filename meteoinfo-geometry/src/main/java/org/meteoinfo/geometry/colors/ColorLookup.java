@@ -0,0 +1,337 @@
+package org.meteoinfo.geometry.colors;
+
+import org.meteoinfo.common.MIMath;
+import org.meteoinfo.common.colors.ColorMap;
+import org.meteoinfo.geometry.legend.ColorBreak;
+import org.meteoinfo.geometry.legend.LegendScheme;
+import org.meteoinfo.geometry.legend.LegendType;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleToIntFunction;
+
+/**
+ * Precomputed value to ARGB color lookup used to render raster images.
+ * <p>
+ * Break values and colors are extracted once into primitive arrays, so a
+ * lookup is a binary search without parsing break values or allocating
+ * colors. NaN and missing values map to the undefined color. A lookup is
+ * thread safe once created.
+ *
+ * @author wyq
+ */
+public abstract class ColorLookup implements DoubleToIntFunction {
+
+    protected int undefColor = Color.white.getRGB();
+    protected double missingValue = Double.NaN;
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get undefined color
+     *
+     * @return ARGB color of NaN and missing values
+     */
+    public int getUndefColor() {
+        return undefColor;
+    }
+
+    /**
+     * Set undefined color
+     *
+     * @param value Color of NaN and missing values
+     */
+    public void setUndefColor(Color value) {
+        this.undefColor = value.getRGB();
+    }
+
+    /**
+     * Get missing value
+     *
+     * @return Missing value, NaN if only NaN values are undefined
+     */
+    public double getMissingValue() {
+        return missingValue;
+    }
+
+    /**
+     * Set missing value, values equal to it (see {@link MIMath#doubleEquals})
+     * map to the undefined color
+     *
+     * @param value Missing value
+     */
+    public void setMissingValue(double value) {
+        this.missingValue = value;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Get ARGB color of a value which is not NaN or missing
+     *
+     * @param v The value
+     * @return ARGB color
+     */
+    protected abstract int lookup(double v);
+
+    /**
+     * Check whether a value is NaN or missing
+     *
+     * @param v The value
+     * @return Undefined or not
+     */
+    public boolean isUndef(double v) {
+        return Double.isNaN(v) || MIMath.doubleEquals(v, missingValue);
+    }
+
+    /**
+     * Get ARGB color of a value
+     *
+     * @param v The value
+     * @return ARGB color
+     */
+    @Override
+    public int applyAsInt(double v) {
+        return isUndef(v) ? undefColor : lookup(v);
+    }
+
+    /**
+     * Create color lookup of legend break end values. Graduated legends take
+     * the first break whose end value is greater than the value, other
+     * legends the first break whose end value equals the value, the last
+     * break is the default.
+     *
+     * @param ls The legend scheme
+     * @param validOnly Exclude the no data breaks or not
+     * @return Color lookup
+     */
+    public static ColorLookup ofBreaks(LegendScheme ls, boolean validOnly) {
+        List<ColorBreak> cbs = ls.getLegendBreaks();
+        double[] values = new double[cbs.size()];
+        int[] colors = new int[cbs.size()];
+        Color undef = Color.white;
+        int n = 0;
+        for (ColorBreak cb : cbs) {
+            if (cb.isNoData()) {
+                undef = cb.getColor();
+                if (validOnly) {
+                    continue;
+                }
+            }
+            values[n] = Double.parseDouble(cb.getEndValue().toString());
+            colors[n++] = cb.getColor().getRGB();
+        }
+        ColorLookup r = new BreakLookup(Arrays.copyOf(values, n), Arrays.copyOf(colors, n),
+                ls.getLegendType() == LegendType.GRADUATED_COLOR);
+        r.setUndefColor(undef);
+        return r;
+    }
+
+    /**
+     * Create color lookup of the legend scheme values like the raster layer
+     * palette: unique value legends take the break of an equal value, other
+     * legends the break of the interval containing the value, clamped to the
+     * first and last breaks.
+     *
+     * @param ls The legend scheme
+     * @param undefColor Undefined color if the legend has no no data break
+     * @return Color lookup
+     */
+    public static ColorLookup ofValues(LegendScheme ls, Color undefColor) {
+        double[] values = ls.getValues();
+        int[] colors = new int[ls.getBreakNum()];
+        Color undef = undefColor;
+        for (int i = 0; i < colors.length; i++) {
+            ColorBreak cb = ls.getLegendBreak(i);
+            colors[i] = cb.getColor().getRGB();
+            if (cb.isNoData()) {
+                undef = cb.getColor();
+            }
+        }
+        ColorLookup r = new ValueLookup(values, colors, ls.getLegendType() == LegendType.UNIQUE_VALUE);
+        r.setUndefColor(undef);
+        return r;
+    }
+
+    /**
+     * Create color lookup of a color map and a normalize
+     *
+     * @param colorMap The color map
+     * @param normalize The normalize
+     * @return Color lookup
+     */
+    public static ColorLookup ofColorMap(ColorMap colorMap, Normalize normalize) {
+        Color[] cs = colorMap.getColors();
+        int[] colors = new int[colorMap.getColorCount()];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = cs[i].getRGB();
+        }
+        ColorLookup r = new ColorMapLookup(colors, normalize);
+        r.setUndefColor(colorMap.getFillColor());
+        return r;
+    }
+
+    /**
+     * Create color lookup of indexed colors, the integer part of a value is
+     * the color index. NaN, missing and out of range values get the undefined
+     * color.
+     *
+     * @param colors The colors
+     * @return Color lookup
+     */
+    public static ColorLookup ofColors(List<Color> colors) {
+        int[] cs = new int[colors.size()];
+        for (int i = 0; i < cs.length; i++) {
+            cs[i] = colors.get(i).getRGB();
+        }
+        return new IndexLookup(cs);
+    }
+    // </editor-fold>
+
+    private static class BreakLookup extends ColorLookup {
+
+        //Graduated: strictly increasing running maxima of the end values, the
+        //first end value greater than a value is always one of them
+        //Others: sorted end values, the first break of equal values is kept
+        private final double[] values;
+        private final int[] colors;
+        private final boolean graduated;
+        private final int defaultColor;
+
+        BreakLookup(double[] endValues, int[] breakColors, boolean graduated) {
+            this.graduated = graduated;
+            int n = Math.max(0, endValues.length - 1);
+            this.defaultColor = endValues.length > 0 ? breakColors[endValues.length - 1] : undefColor;
+            double[] vs = new double[n];
+            int[] cs = new int[n];
+            int m = 0;
+            if (graduated) {
+                for (int k = 0; k < n; k++) {
+                    if (m == 0 ? !Double.isNaN(endValues[k]) : endValues[k] > vs[m - 1]) {
+                        vs[m] = endValues[k];
+                        cs[m++] = breakColors[k];
+                    }
+                }
+            } else {
+                Integer[] order = new Integer[n];
+                for (int k = 0; k < n; k++) {
+                    order[k] = k;
+                }
+                Arrays.sort(order, (a, b) -> {
+                    int c = Double.compare(endValues[a] + 0.0, endValues[b] + 0.0);
+                    return c != 0 ? c : Integer.compare(a, b);
+                });
+                for (int k : order) {
+                    double v = endValues[k] + 0.0;
+                    if (!Double.isNaN(v) && (m == 0 || vs[m - 1] != v)) {
+                        vs[m] = v;
+                        cs[m++] = breakColors[k];
+                    }
+                }
+            }
+            this.values = Arrays.copyOf(vs, m);
+            this.colors = Arrays.copyOf(cs, m);
+        }
+
+        @Override
+        protected int lookup(double v) {
+            if (graduated) {
+                //First value greater than v
+                int lo = 0, hi = values.length;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (v < values[mid]) {
+                        hi = mid;
+                    } else {
+                        lo = mid + 1;
+                    }
+                }
+                return lo < values.length ? colors[lo] : defaultColor;
+            } else {
+                int i = Arrays.binarySearch(values, v + 0.0);
+                return i >= 0 ? colors[i] : defaultColor;
+            }
+        }
+    }
+
+    private static class ValueLookup extends ColorLookup {
+
+        private final double[] values;
+        private final int[] colors;
+        private final boolean unique;
+
+        ValueLookup(double[] values, int[] colors, boolean unique) {
+            this.values = values;
+            this.colors = colors;
+            this.unique = unique;
+        }
+
+        @Override
+        protected int lookup(double v) {
+            int n = values.length;
+            int idx = Arrays.binarySearch(values, v);
+            if (unique) {
+                return idx < 0 || idx >= n ? undefColor : colors[idx];
+            }
+            //The values are the break bounds, one more than the breaks
+            if (idx < 0) {
+                if (idx == -1) {
+                    idx = 0;
+                } else if (idx == -n - 1) {
+                    idx = n - 2;
+                } else {
+                    idx = -idx - 2;
+                }
+            } else if (idx == n - 1) {
+                idx = n - 2;
+            }
+            return colors[idx];
+        }
+    }
+
+    private static class ColorMapLookup extends ColorLookup {
+
+        private final int[] colors;
+        private final Normalize normalize;
+        private final boolean linear;
+
+        ColorMapLookup(int[] colors, Normalize normalize) {
+            this.colors = colors;
+            this.normalize = normalize;
+            this.linear = normalize.getClass() == Normalize.class;
+        }
+
+        @Override
+        protected int lookup(double v) {
+            int n = colors.length;
+            float nv;
+            if (linear) {
+                nv = (float) ((v - normalize.getMinValue()) / (normalize.getMaxValue() - normalize.getMinValue()));
+            } else {
+                nv = normalize.apply(v).floatValue();
+            }
+            int idx = (int) (nv * n);
+            if (idx < 0) {
+                idx = 0;
+            } else if (idx >= n) {
+                idx = n - 1;
+            }
+            return colors[idx];
+        }
+    }
+
+    private static class IndexLookup extends ColorLookup {
+
+        private final int[] colors;
+
+        IndexLookup(int[] colors) {
+            this.colors = colors;
+        }
+
+        @Override
+        protected int lookup(double v) {
+            int idx = (int) v;
+            return idx >= 0 && idx < colors.length ? colors[idx] : undefColor;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.meteoinfo.geometry.colors;
+
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk raster to image rendering.
+ * <p>
+ * The source array storage is read row by row, the values are mapped to ARGB
+ * colors by a {@link ColorLookup} (or packed from RGB(A) channels) and written
+ * straight into the {@link DataBufferInt} of a TYPE_INT_ARGB image, in
+ * parallel row bands for large rasters. An image of the same size can be
+ * passed in to be reused, e.g. for animation frames. It is written in place,
+ * so it must not be an image which may be painted meanwhile on another
+ * thread; pass null to render into a new image.
+ *
+ * @author wyq
+ */
+public class RasterRenderer {
+
+    private interface RowTask {
+        void run(int row, double[] buffer);
+    }
+
+    // <editor-fold desc="Image">
+    /**
+     * Get an image to render into, the given image is reused if it is a
+     * TYPE_INT_ARGB image of the same size which is not a sub image
+     *
+     * @param image The image to reuse, may be null
+     * @param width Image width
+     * @param height Image height
+     * @return The reused or a new image
+     */
+    public static BufferedImage getImage(BufferedImage image, int width, int height) {
+        if (image != null && image.getType() == BufferedImage.TYPE_INT_ARGB && image.getWidth() == width
+                && image.getHeight() == height && image.getRaster().getParent() == null) {
+            return image;
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Get the ARGB pixel array of a TYPE_INT_ARGB image
+     *
+     * @param image The image
+     * @return Pixel array, row by row from the top
+     */
+    public static int[] getPixels(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    private static void forEachRow(int width, int height, int bufferSize, RowTask task) {
+        int bandRows = Math.max(1, ArrayParallel.getChunkSize() / Math.max(1, width));
+        int nBands = (height + bandRows - 1) / bandRows;
+        if (nBands > 1 && ArrayParallel.accept(ArrayParallel.isEnabled(), (long) width * height)) {
+            IntStream.range(0, nBands).parallel().forEach(b -> {
+                double[] buffer = new double[bufferSize];
+                int end = Math.min(height, (b + 1) * bandRows);
+                for (int i = b * bandRows; i < end; i++) {
+                    task.run(i, buffer);
+                }
+            });
+        } else {
+            double[] buffer = new double[bufferSize];
+            for (int i = 0; i < height; i++) {
+                task.run(i, buffer);
+            }
+        }
+    }
+
+    /**
+     * Read values of a contiguous array into a buffer
+     */
+    private static void read(Array data, int offset, double[] buffer, int start, int n) {
+        Object storage = data.getStorage();
+        if (storage instanceof double[]) {
+            System.arraycopy(storage, offset, buffer, start, n);
+        } else if (storage instanceof float[]) {
+            float[] fs = (float[]) storage;
+            for (int k = 0; k < n; k++) {
+                buffer[start + k] = fs[offset + k];
+            }
+        } else {
+            for (int k = 0; k < n; k++) {
+                buffer[start + k] = data.getDouble(offset + k);
+            }
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Render">
+    /**
+     * Render a 2D data array [height, width] by a color lookup
+     *
+     * @param data Data array
+     * @param lookup Color lookup
+     * @param flipY Put the first data row at the image bottom or not
+     * @param image Image to reuse, may be null
+     * @return Rendered image
+     */
+    public static BufferedImage render(Array data, ColorLookup lookup, boolean flipY, BufferedImage image) {
+        int[] shape = data.getShape();
+        return render(data, shape[shape.length - 1], shape[0], lookup, flipY, image);
+    }
+
+    /**
+     * Render a data array of width * height values by a color lookup
+     *
+     * @param data Data array
+     * @param width Image width
+     * @param height Image height
+     * @param lookup Color lookup
+     * @param flipY Put the first data row at the image bottom or not
+     * @param image Image to reuse, may be null
+     * @return Rendered image
+     */
+    public static BufferedImage render(Array data, int width, int height, ColorLookup lookup, boolean flipY,
+                                       BufferedImage image) {
+        final Array a = data.copyIfView();
+        final BufferedImage r = getImage(image, width, height);
+        final int[] pixels = getPixels(r);
+        forEachRow(width, height, width, (i, buffer) -> {
+            read(a, i * width, buffer, 0, width);
+            int p = (flipY ? height - i - 1 : i) * width;
+            for (int j = 0; j < width; j++) {
+                pixels[p + j] = lookup.applyAsInt(buffer[j]);
+            }
+        });
+        return r;
+    }
+
+    private static boolean isFloat(Array data) {
+        return data.getDataType() == DataType.FLOAT || data.getDataType() == DataType.DOUBLE;
+    }
+
+    private static int channel(double v, boolean unit) {
+        int c = unit ? (int) ((float) v * 255 + 0.5) : (int) v;
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+
+    /**
+     * Pack interleaved RGB(A) values of a row into ARGB pixels, channels are
+     * in [0, 1] if unit is true else in [0, 255], out of range channels are
+     * clamped
+     */
+    private static void pack(double[] buffer, int nc, boolean unit, int[] pixels, int offset, int width) {
+        int undef = Color.white.getRGB();
+        for (int j = 0, k = 0; j < width; j++, k += nc) {
+            double r = buffer[k], g = buffer[k + 1], b = buffer[k + 2];
+            double a = nc == 4 ? buffer[k + 3] : (unit ? 1 : 255);
+            if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b) || Double.isNaN(a)) {
+                pixels[offset + j] = undef;
+            } else {
+                pixels[offset + j] = (channel(a, unit) << 24) | (channel(r, unit) << 16)
+                        | (channel(g, unit) << 8) | channel(b, unit);
+            }
+        }
+    }
+
+    /**
+     * Render a RGB(A) data array [height, width, 3 or 4]. Float data are in
+     * [0, 1], other data in [0, 255], pixels with a NaN channel are white.
+     *
+     * @param data RGB(A) data array
+     * @param flipY Put the first data row at the image bottom or not
+     * @param image Image to reuse, may be null
+     * @return Rendered image
+     */
+    public static BufferedImage renderRGB(Array data, boolean flipY, BufferedImage image) {
+        return renderRGB(data, isFloat(data), flipY, image);
+    }
+
+    /**
+     * Render a RGB(A) data array [height, width, 3 or 4], pixels with a NaN
+     * channel are white.
+     *
+     * @param data RGB(A) data array
+     * @param unit Channel values are in [0, 1] or not. If not they are in
+     * [0, 255] and truncated to integers, whatever the data type
+     * @param flipY Put the first data row at the image bottom or not
+     * @param image Image to reuse, may be null
+     * @return Rendered image
+     */
+    public static BufferedImage renderRGB(Array data, boolean unit, boolean flipY, BufferedImage image) {
+        final Array a = data.copyIfView();
+        final int height = a.getShape()[0];
+        final int width = a.getShape()[1];
+        final int nc = a.getShape()[2];
+        final BufferedImage r = getImage(image, width, height);
+        final int[] pixels = getPixels(r);
+        forEachRow(width, height, width * nc, (i, buffer) -> {
+            read(a, i * width * nc, buffer, 0, width * nc);
+            pack(buffer, nc, unit, pixels, (flipY ? height - i - 1 : i) * width, width);
+        });
+        return r;
+    }
+
+    /**
+     * Render separated R, G, B (and A) data arrays [height, width]. Float
+     * data are in [0, 1], other data in [0, 255], pixels with a NaN channel
+     * are white.
+     *
+     * @param data R, G, B (and A) data arrays
+     * @param flipY Put the first data row at the image bottom or not
+     * @param image Image to reuse, may be null
+     * @return Rendered image
+     */
+    public static BufferedImage renderRGB(List<Array> data, boolean flipY, BufferedImage image) {
+        final int nc = data.size() >= 4 ? 4 : 3;
+        final Array[] cs = new Array[nc];
+        for (int c = 0; c < nc; c++) {
+            cs[c] = data.get(c).copyIfView();
+        }
+        final int height = cs[0].getShape()[0];
+        final int width = cs[0].getShape()[1];
+        final boolean isFloat = isFloat(cs[0]);
+        final BufferedImage r = getImage(image, width, height);
+        final int[] pixels = getPixels(r);
+        forEachRow(width, height, width * (nc + 1), (i, buffer) -> {
+            //The last width values of the buffer hold a channel row
+            int row = width * nc;
+            for (int c = 0; c < nc; c++) {
+                read(cs[c], i * width, buffer, row, width);
+                for (int j = 0; j < width; j++) {
+                    buffer[j * nc + c] = buffer[row + j];
+                }
+            }
+            pack(buffer, nc, isFloat, pixels, (flipY ? height - i - 1 : i) * width, width);
+        });
+        return r;
+    }
+    // </editor-fold>
+}
@@ -6,6 +6,7 @@
 package org.meteoinfo.geometry.geoprocess;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
@@ -486,6 +487,66 @@ public class GeometryUtil {
         return maskout(a, x, y, polygons, missingValue);
     }
 
+    /**
+     * Get the polygon mask of a grid if the coordinates are grid axes (1D) or
+     * a mesh grid (2D) of the last two dimensions of an array
+     *
+     * @param a Array a
+     * @param x X Array
+     * @param y Y Array
+     * @param polygons The polygons
+     * @return Polygon mask, null if the coordinates are not a monotonic grid
+     */
+    private static PolygonMask gridMask(Array a, Array x, Array y, List<PolygonShape> polygons) {
+        int[] shape = a.getShape();
+        if (shape.length < 2) {
+            return null;
+        }
+        int yNum = shape[shape.length - 2];
+        int xNum = shape[shape.length - 1];
+        double[] xs = new double[xNum];
+        double[] ys = new double[yNum];
+        if (x.getRank() == 1 && y.getRank() == 1) {
+            if (x.getSize() != xNum || y.getSize() != yNum) {
+                return null;
+            }
+            for (int j = 0; j < xNum; j++) {
+                xs[j] = x.getDouble(j);
+            }
+            for (int i = 0; i < yNum; i++) {
+                ys[i] = y.getDouble(i);
+            }
+        } else if (x.getRank() == 2 && y.getRank() == 2) {
+            if (x.getShape()[0] != yNum || x.getShape()[1] != xNum || !Arrays.equals(x.getShape(), y.getShape())) {
+                return null;
+            }
+            Array xa = x.copyIfView();
+            Array ya = y.copyIfView();
+            for (int j = 0; j < xNum; j++) {
+                xs[j] = xa.getDouble(j);
+            }
+            for (int i = 0; i < yNum; i++) {
+                ys[i] = ya.getDouble(i * xNum);
+            }
+            //Check it is a mesh grid
+            for (int i = 0; i < yNum; i++) {
+                for (int j = 0; j < xNum; j++) {
+                    int k = i * xNum + j;
+                    if (xa.getDouble(k) != xs[j] || ya.getDouble(k) != ys[i]) {
+                        return null;
+                    }
+                }
+            }
+        } else {
+            return null;
+        }
+        if (!PolygonMask.isMonotonic(xs) || !PolygonMask.isMonotonic(ys)) {
+            return null;
+        }
+
+        return PolygonMask.of(xs, ys, polygons);
+    }
+
     /**
      * Maskout function
      *
@@ -496,6 +557,11 @@ public class GeometryUtil {
      * @return Result array with cell values of missing outside polygons
      */
     public static Array maskout(Array a, Array x, Array y, List<PolygonShape> polygons) {
+        PolygonMask mask = gridMask(a, x, y, polygons);
+        if (mask != null) {
+            return mask.maskout(a, Double.NaN);
+        }
+
         Array r = Array.factory(a.getDataType(), a.getShape());
         IndexIterator aIter = a.getIndexIterator();
         IndexIterator xIter = x.getIndexIterator();
@@ -524,6 +590,11 @@ public class GeometryUtil {
      * @return Result array with cell values of missing inside polygons
      */
     public static Array maskin(Array a, Array x, Array y, List<PolygonShape> polygons) {
+        PolygonMask mask = gridMask(a, x, y, polygons);
+        if (mask != null) {
+            return mask.maskin(a, Double.NaN);
+        }
+
         Array r = Array.factory(a.getDataType(), a.getShape());
         IndexIterator aIter = a.getIndexIterator();
         IndexIterator xIter = x.getIndexIterator();
@@ -555,15 +626,18 @@ public class GeometryUtil {
         List<Object> rdata = new ArrayList<>();
         List<Double> rxdata = new ArrayList<>();
         List<Double> rydata = new ArrayList<>();
+        PolygonMask mask = Arrays.equals(a.getShape(), x.getShape()) ? gridMask(a, x, y, polygons) : null;
         IndexIterator aIter = a.getIndexIterator();
         IndexIterator xIter = x.getIndexIterator();
         IndexIterator yIter = y.getIndexIterator();
         double va, vx, vy;
+        long k = 0;
         while(aIter.hasNext()) {
             va = aIter.getDoubleNext();
             vx = xIter.getDoubleNext();
             vy = yIter.getDoubleNext();
-            if (GeoComputation.pointInPolygons(polygons, new PointD(vx, vy))) {
+            boolean isIn = mask != null ? mask.get(k++) : GeoComputation.pointInPolygons(polygons, new PointD(vx, vy));
+            if (isIn) {
                 rdata.add(va);
                 rxdata.add(vx);
                 rydata.add(vy);
@@ -598,15 +672,18 @@ public class GeometryUtil {
         List<Object> rdata = new ArrayList<>();
         List<Double> rxdata = new ArrayList<>();
         List<Double> rydata = new ArrayList<>();
+        PolygonMask mask = Arrays.equals(a.getShape(), x.getShape()) ? gridMask(a, x, y, polygons) : null;
         IndexIterator aIter = a.getIndexIterator();
         IndexIterator xIter = x.getIndexIterator();
         IndexIterator yIter = y.getIndexIterator();
         double va, vx, vy;
+        long k = 0;
         while(aIter.hasNext()) {
             va = aIter.getDoubleNext();
             vx = xIter.getDoubleNext();
             vy = yIter.getDoubleNext();
-            if (!GeoComputation.pointInPolygons(polygons, new PointD(vx, vy))) {
+            boolean isIn = mask != null ? mask.get(k++) : GeoComputation.pointInPolygons(polygons, new PointD(vx, vy));
+            if (!isIn) {
                 rdata.add(va);
                 rxdata.add(vx);
                 rydata.add(vy);
@@ -669,6 +746,19 @@ public class GeometryUtil {
                 i++;
             }
         } else if (a.getRank() == 2) {
+            double[] xs = new double[xNum];
+            double[] ys = new double[yNum];
+            for (int j = 0; j < xNum; j++) {
+                xs[j] = x.get(j).doubleValue();
+            }
+            for (int i = 0; i < yNum; i++) {
+                ys[i] = y.get(i).doubleValue();
+            }
+            if (a.getShape()[0] == yNum && a.getShape()[1] == xNum
+                    && PolygonMask.isMonotonic(xs) && PolygonMask.isMonotonic(ys)) {
+                return PolygonMask.of(xs, ys, polygons).maskout(a, missingValue);
+            }
+
             int idx;
             for (int i = 0; i < yNum; i++) {
                 for (int j = 0; j < xNum; j++) {
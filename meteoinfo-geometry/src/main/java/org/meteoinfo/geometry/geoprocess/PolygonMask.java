@@ -0,0 +1,508 @@
+package org.meteoinfo.geometry.geoprocess;
+
+import org.meteoinfo.common.Extent;
+import org.meteoinfo.common.PointD;
+import org.meteoinfo.common.util.TinyLFUCache;
+import org.meteoinfo.geometry.shape.Polygon;
+import org.meteoinfo.geometry.shape.PolygonShape;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Bit mask of the grid points inside polygons.
+ * <p>
+ * The polygon rings are scan-converted column by column over the grid: the
+ * crossings of each edge with the grid columns are located by binary search,
+ * and the points below an odd number of crossings are inside the ring, using
+ * the same crossing test as {@link GeoComputation#pointInPolygon(List, PointD)}.
+ * A point is inside a polygon shape if it is inside the outline and not
+ * inside a hole of any of its parts. Only the grid window of the extent of
+ * each polygon is scanned, and the polygons are rasterized in parallel. Masks
+ * of the same grid and polygons are cached; the cache holds the polygons
+ * weakly, so it does not keep large polygon layers alive.
+ *
+ * @author wyq
+ */
+public class PolygonMask {
+
+    //The weight counts the mask bits and the grid coordinates copied into the key
+    private static final TinyLFUCache<Key, PolygonMask> cache = new TinyLFUCache<>(64L << 20,
+            m -> m.bits.length * 8L + (m.xNum + m.yNum) * 8L + 64, 4);
+
+    private final int xNum;
+    private final int yNum;
+    //Row major bits of the grid points, y index first
+    private final long[] bits;
+
+    /**
+     * Cache key of a grid and polygons. The polygons are weakly referenced
+     * and fingerprinted by identity, point number and extent, a key whose
+     * polygons were collected no longer matches and is evicted over time.
+     */
+    private static final class Key {
+        private final double[] x;
+        private final double[] y;
+        private final WeakReference<?>[] polygons;
+        private final double[] prints;
+        private final int hash;
+
+        Key(double[] x, double[] y, List<? extends PolygonShape> polygons) {
+            this.x = x;
+            this.y = y;
+            int n = polygons.size();
+            this.polygons = new WeakReference<?>[n];
+            this.prints = new double[n * 5];
+            int h = 31 * Arrays.hashCode(x) + Arrays.hashCode(y);
+            for (int i = 0; i < n; i++) {
+                PolygonShape p = polygons.get(i);
+                Extent ext = p.getExtent();
+                this.polygons[i] = new WeakReference<>(p);
+                prints[i * 5] = p.getPointNum();
+                prints[i * 5 + 1] = ext.minX;
+                prints[i * 5 + 2] = ext.maxX;
+                prints[i * 5 + 3] = ext.minY;
+                prints[i * 5 + 4] = ext.maxY;
+                h = 31 * h + System.identityHashCode(p);
+            }
+            this.hash = 31 * h + Arrays.hashCode(prints);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            if (hash != k.hash || polygons.length != k.polygons.length || !Arrays.equals(prints, k.prints)) {
+                return false;
+            }
+            for (int i = 0; i < polygons.length; i++) {
+                Object p = polygons[i].get();
+                if (p == null || p != k.polygons[i].get()) {
+                    return false;
+                }
+            }
+            return Arrays.equals(x, k.x) && Arrays.equals(y, k.y);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param x Grid x coordinates, strictly ascending or descending
+     * @param y Grid y coordinates, strictly ascending or descending
+     * @param polygons The polygons
+     */
+    public PolygonMask(double[] x, double[] y, List<? extends PolygonShape> polygons) {
+        if (!isMonotonic(x) || !isMonotonic(y)) {
+            throw new IllegalArgumentException("Grid coordinates must be strictly monotonic");
+        }
+        this.xNum = x.length;
+        this.yNum = y.length;
+        this.bits = new long[(int) (((long) xNum * yNum + 63) >>> 6)];
+        if (xNum == 0 || yNum == 0 || polygons.isEmpty()) {
+            return;
+        }
+
+        //Scan in ascending coordinates, flipped indices are mapped back when merging
+        boolean flipX = xNum > 1 && x[0] > x[xNum - 1];
+        boolean flipY = yNum > 1 && y[0] > y[yNum - 1];
+        double[] xs = flipX ? reverse(x) : x;
+        double[] ys = flipY ? reverse(y) : y;
+        if (polygons.size() > 1 && ArrayParallel.isEnabled()) {
+            IntStream.range(0, polygons.size()).parallel().forEach(i ->
+                    rasterize(polygons.get(i), xs, ys, flipX, flipY));
+        } else {
+            for (PolygonShape polygon : polygons) {
+                rasterize(polygon, xs, ys, flipX, flipY);
+            }
+        }
+    }
+
+    /**
+     * Get the mask of grid points inside polygons, masks of the same grid and
+     * polygons are cached. The polygons are compared by identity, point
+     * number and extent, so the cached mask is not updated if a polygon is
+     * changed in place keeping them.
+     *
+     * @param x Grid x coordinates, strictly ascending or descending
+     * @param y Grid y coordinates, strictly ascending or descending
+     * @param polygons The polygons
+     * @return Polygon mask
+     */
+    public static PolygonMask of(double[] x, double[] y, List<? extends PolygonShape> polygons) {
+        Key key = new Key(x.clone(), y.clone(), polygons);
+        PolygonMask mask = cache.get(key);
+        if (mask == null) {
+            mask = new PolygonMask(x, y, polygons);
+            cache.put(key, mask);
+        }
+        return mask;
+    }
+
+    /**
+     * Remove all cached masks
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Check whether coordinates are strictly ascending or descending
+     *
+     * @param a The coordinates
+     * @return Monotonic or not
+     */
+    public static boolean isMonotonic(double[] a) {
+        if (a.length < 2) {
+            return a.length == 0 || !Double.isNaN(a[0]);
+        }
+        boolean ascending = a[1] > a[0];
+        for (int i = 1; i < a.length; i++) {
+            if (ascending ? !(a[i] > a[i - 1]) : !(a[i] < a[i - 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static double[] reverse(double[] a) {
+        double[] r = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            r[i] = a[a.length - 1 - i];
+        }
+        return r;
+    }
+
+    /**
+     * First index of ascending values greater than v
+     */
+    private static int upperBound(double[] a, double v) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] > v) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * First index of ascending values not less than v
+     */
+    private static int lowerBound(double[] a, double v) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void rasterize(PolygonShape polygon, double[] xs, double[] ys, boolean flipX, boolean flipY) {
+        int[] window = new int[4];
+        boolean[] inside = rasterize(polygon, xs, ys, window);
+        if (inside == null) {
+            return;
+        }
+        int c0 = window[0], r0 = window[1], cols = window[2], rows = window[3];
+        synchronized (bits) {
+            for (int i = 0; i < rows; i++) {
+                int gi = flipY ? yNum - 1 - (r0 + i) : r0 + i;
+                for (int j = 0; j < cols; j++) {
+                    if (inside[i * cols + j]) {
+                        int gj = flipX ? xNum - 1 - (c0 + j) : c0 + j;
+                        long k = (long) gi * xNum + gj;
+                        bits[(int) (k >>> 6)] |= 1L << k;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rasterize a polygon over the grid window of its extent
+     *
+     * @param polygon The polygon
+     * @param xs Grid x coordinates, strictly ascending
+     * @param ys Grid y coordinates, strictly ascending
+     * @param window Output of the first x index, first y index, x number and
+     *               y number of the window
+     * @return Row major inside flags of the window points, null if the window
+     * is empty
+     */
+    static boolean[] rasterize(PolygonShape polygon, double[] xs, double[] ys, int[] window) {
+        Extent ext = polygon.getExtent();
+        int c0 = lowerBound(xs, ext.minX);
+        int c1 = upperBound(xs, ext.maxX);
+        int r0 = lowerBound(ys, ext.minY);
+        int r1 = upperBound(ys, ext.maxY);
+        int cols = c1 - c0;
+        int rows = r1 - r0;
+        if (cols <= 0 || rows <= 0) {
+            return null;
+        }
+        window[0] = c0;
+        window[1] = r0;
+        window[2] = cols;
+        window[3] = rows;
+
+        boolean[] inside = new boolean[rows * cols];
+        switch (polygon.getShapeType()) {
+            case CIRCLE:
+            case ELLIPSE:
+            case ARC:
+                PointD p = new PointD();
+                for (int i = 0; i < rows; i++) {
+                    p.Y = ys[r0 + i];
+                    for (int j = 0; j < cols; j++) {
+                        p.X = xs[c0 + j];
+                        inside[i * cols + j] = GeoComputation.pointInPolygon(polygon, p);
+                    }
+                }
+                break;
+            default:
+                byte[] toggles = new byte[cols * (rows + 1)];
+                boolean[] ring = new boolean[rows * cols];
+                for (Polygon part : polygon.getPolygons()) {
+                    scan(part.getOutLine(), xs, ys, c0, r0, cols, rows, toggles, ring);
+                    if (part.hasHole()) {
+                        boolean[] hole = new boolean[rows * cols];
+                        for (List<? extends PointD> line : part.getHoleLines()) {
+                            scan(line, xs, ys, c0, r0, cols, rows, toggles, hole);
+                            for (int k = 0; k < ring.length; k++) {
+                                if (hole[k]) {
+                                    ring[k] = false;
+                                }
+                            }
+                        }
+                    }
+                    for (int k = 0; k < ring.length; k++) {
+                        if (ring[k]) {
+                            inside[k] = true;
+                        }
+                    }
+                }
+                break;
+        }
+        return inside;
+    }
+
+    /**
+     * Scan-convert a ring into the grid window, the inside flags of the window
+     * points are written to result
+     */
+    private static void scan(List<? extends PointD> line, double[] xs, double[] ys, int c0, int r0, int cols,
+                             int rows, byte[] toggles, boolean[] result) {
+        Arrays.fill(toggles, (byte) 0);
+        int n = line.size();
+        if (n >= 3) {
+            int stride = rows + 1;
+            PointD old = line.get(n - 1);
+            for (int e = 0; e < n; e++) {
+                PointD cur = line.get(e);
+                double x1, y1, x2, y2;
+                if (cur.X > old.X) {
+                    x1 = old.X;
+                    y1 = old.Y;
+                    x2 = cur.X;
+                    y2 = cur.Y;
+                } else {
+                    x1 = cur.X;
+                    y1 = cur.Y;
+                    x2 = old.X;
+                    y2 = old.Y;
+                }
+                old = cur;
+                //Columns with x1 < x <= x2 cross the edge
+                int js = Math.max(c0, upperBound(xs, x1));
+                int je = Math.min(c0 + cols, upperBound(xs, x2));
+                double dx = x2 - x1;
+                double dy = y2 - y1;
+                for (int j = js; j < je; j++) {
+                    double px = xs[j];
+                    double t = dy * (px - x1);
+                    //Rows below the edge: first row in the window not below it
+                    int lo = r0, hi = r0 + rows;
+                    while (lo < hi) {
+                        int mid = (lo + hi) >>> 1;
+                        if ((ys[mid] - y1) * dx < t) {
+                            lo = mid + 1;
+                        } else {
+                            hi = mid;
+                        }
+                    }
+                    if (lo > r0) {
+                        toggles[(j - c0) * stride + lo - r0] ^= 1;
+                    }
+                }
+            }
+            //A point is inside if an odd number of edges is above it
+            for (int j = 0; j < cols; j++) {
+                int o = j * stride;
+                boolean in = false;
+                for (int i = rows - 1; i >= 0; i--) {
+                    if (toggles[o + i + 1] != 0) {
+                        in = !in;
+                    }
+                    result[i * cols + j] = in;
+                }
+            }
+        } else {
+            Arrays.fill(result, false);
+        }
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get grid x number
+     *
+     * @return Grid x number
+     */
+    public int getXNum() {
+        return xNum;
+    }
+
+    /**
+     * Get grid y number
+     *
+     * @return Grid y number
+     */
+    public int getYNum() {
+        return yNum;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Get whether a grid point is inside the polygons
+     *
+     * @param i Y index
+     * @param j X index
+     * @return Inside or not
+     */
+    public boolean get(int i, int j) {
+        return get((long) i * xNum + j);
+    }
+
+    /**
+     * Get whether a grid point is inside the polygons
+     *
+     * @param k Row major index of the grid point
+     * @return Inside or not
+     */
+    public boolean get(long k) {
+        return (bits[(int) (k >>> 6)] & (1L << k)) != 0;
+    }
+
+    /**
+     * Get the number of grid points inside the polygons
+     *
+     * @return Number of grid points inside the polygons
+     */
+    public long cardinality() {
+        long n = 0;
+        for (long b : bits) {
+            n += Long.bitCount(b);
+        }
+        return n;
+    }
+
+    /**
+     * Get the mask words, bit k of the grid point with row major index k is
+     * set if the point is inside the polygons
+     *
+     * @return Mask words
+     */
+    public long[] toLongArray() {
+        return bits.clone();
+    }
+
+    /**
+     * Set values of the points outside the polygons as missing value
+     *
+     * @param a Array, the last two dimensions are the grid
+     * @param missingValue Missing value
+     * @return Result array
+     */
+    public Array maskout(Array a, Number missingValue) {
+        return apply(a, true, missingValue);
+    }
+
+    /**
+     * Set values of the points inside the polygons as missing value
+     *
+     * @param a Array, the last two dimensions are the grid
+     * @param missingValue Missing value
+     * @return Result array
+     */
+    public Array maskin(Array a, Number missingValue) {
+        return apply(a, false, missingValue);
+    }
+
+    /**
+     * Apply the mask to each grid slice of an array in a single pass
+     *
+     * @param a Array, the last two dimensions are the grid
+     * @param inside Keep the values of points inside (true) or outside the polygons
+     * @param missingValue Missing value
+     * @return Result array
+     */
+    public Array apply(Array a, boolean inside, Number missingValue) {
+        int[] shape = a.getShape();
+        long sliceSize = (long) xNum * yNum;
+        if (sliceSize == 0 || a.getSize() % sliceSize != 0 || shape.length == 0
+                || shape[shape.length - 1] != xNum || (shape.length > 1 && shape[shape.length - 2] != yNum)) {
+            throw new IllegalArgumentException("Array shape " + Arrays.toString(shape)
+                    + " does not match the mask grid");
+        }
+        final Array data = a.copyIfView();
+        final Array r = Array.factory(a.getDataType(), shape);
+        final int n = (int) data.getSize();
+        final Object src = data.getStorage();
+        final Object dst = r.getStorage();
+        final double mv = missingValue.doubleValue();
+        ArrayParallel.ChunkTask task = (start, end) -> {
+            if (src instanceof double[]) {
+                double[] s = (double[]) src, d = (double[]) dst;
+                for (int k = start; k < end; k++) {
+                    d[k] = get(k % sliceSize) == inside ? s[k] : mv;
+                }
+            } else if (src instanceof float[]) {
+                float[] s = (float[]) src, d = (float[]) dst;
+                float fmv = (float) mv;
+                for (int k = start; k < end; k++) {
+                    d[k] = get(k % sliceSize) == inside ? s[k] : fmv;
+                }
+            } else {
+                for (int k = start; k < end; k++) {
+                    r.setObject(k, get(k % sliceSize) == inside ? data.getObject(k) : missingValue);
+                }
+            }
+        };
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), n)) {
+            ArrayParallel.forEachChunk(n, task);
+        } else {
+            task.run(0, n);
+        }
+        return r;
+    }
+    // </editor-fold>
+}
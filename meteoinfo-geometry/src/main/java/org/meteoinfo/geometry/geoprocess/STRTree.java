@@ -0,0 +1,284 @@
+package org.meteoinfo.geometry.geoprocess;
+
+import org.meteoinfo.common.Extent;
+import org.meteoinfo.common.PointD;
+import org.meteoinfo.geometry.shape.PointShape;
+import org.meteoinfo.geometry.shape.Shape;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Static R-tree over shape extents packed by Sort-Tile-Recursive.
+ * <p>
+ * The extents of the shapes are sorted into vertical slices by center x and
+ * each slice by center y, then packed into leaf nodes of the node capacity,
+ * and the nodes are packed level by level up to the root. The tree is built
+ * once for a shape list and queried by extent, the query returns shape
+ * indices in ascending order so the shapes keep their drawing order.
+ * Shapes with NaN or null extents match any query.
+ *
+ * @author wyq
+ */
+public class STRTree {
+
+    private static final int DEFAULT_NODE_CAPACITY = 16;
+
+    private final int nodeCapacity;
+    private final int size;
+    //Shape indices of the leaf entries in tree order
+    private final int[] items;
+    //Boxes of each level - minX, minY, maxX, maxY interleaved, level 0 are the entries
+    private final double[][] boxes;
+
+    /**
+     * Constructor
+     *
+     * @param shapes Shape list
+     */
+    public STRTree(List<? extends Shape> shapes) {
+        this(shapes, DEFAULT_NODE_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param shapes Shape list
+     * @param nodeCapacity Maximum number of children of a node
+     */
+    public STRTree(List<? extends Shape> shapes, int nodeCapacity) {
+        this.nodeCapacity = Math.max(2, nodeCapacity);
+        this.size = shapes.size();
+        final int n = size;
+        double[] box = new double[n * 4];
+        double[] cx = new double[n];
+        double[] cy = new double[n];
+        for (int i = 0; i < n; i++) {
+            Shape shape = shapes.get(i);
+            int o = i * 4;
+            if (shape instanceof PointShape && ((PointShape) shape).getPoint() != null) {
+                PointD p = ((PointShape) shape).getPoint();
+                box[o] = box[o + 2] = p.X;
+                box[o + 1] = box[o + 3] = p.Y;
+            } else {
+                Extent e = shape.getExtent();
+                if (e == null) {
+                    box[o] = box[o + 1] = Double.NaN;
+                } else {
+                    box[o] = e.minX;
+                    box[o + 1] = e.minY;
+                    box[o + 2] = e.maxX;
+                    box[o + 3] = e.maxY;
+                }
+            }
+            if (Double.isNaN(box[o]) || Double.isNaN(box[o + 1]) || Double.isNaN(box[o + 2])
+                    || Double.isNaN(box[o + 3])) {
+                box[o] = box[o + 1] = Double.NEGATIVE_INFINITY;
+                box[o + 2] = box[o + 3] = Double.POSITIVE_INFINITY;
+                cx[i] = cy[i] = 0;
+            } else {
+                cx[i] = (box[o] + box[o + 2]) / 2;
+                cy[i] = (box[o + 1] + box[o + 3]) / 2;
+            }
+        }
+
+        //Sort-Tile-Recursive order of the entries
+        items = new int[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = i;
+        }
+        int leafNum = (n + this.nodeCapacity - 1) / this.nodeCapacity;
+        int sliceNum = (int) Math.ceil(Math.sqrt(leafNum));
+        int sliceSize = sliceNum * this.nodeCapacity;
+        sort(items, 0, n, cx);
+        for (int start = 0; start < n; start += sliceSize) {
+            sort(items, start, Math.min(n, start + sliceSize), cy);
+        }
+
+        //Pack levels
+        int levelNum = 1;
+        for (int c = n; c > 1; c = (c + this.nodeCapacity - 1) / this.nodeCapacity) {
+            levelNum++;
+        }
+        boxes = new double[levelNum][];
+        double[] level = new double[n * 4];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(box, items[i] * 4, level, i * 4, 4);
+        }
+        boxes[0] = level;
+        for (int l = 1; l < levelNum; l++) {
+            double[] lower = boxes[l - 1];
+            int lowerNum = lower.length / 4;
+            int num = (lowerNum + this.nodeCapacity - 1) / this.nodeCapacity;
+            double[] upper = new double[num * 4];
+            for (int k = 0; k < num; k++) {
+                int c0 = k * this.nodeCapacity;
+                int c1 = Math.min(lowerNum, c0 + this.nodeCapacity);
+                double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+                for (int c = c0; c < c1; c++) {
+                    minX = Math.min(minX, lower[c * 4]);
+                    minY = Math.min(minY, lower[c * 4 + 1]);
+                    maxX = Math.max(maxX, lower[c * 4 + 2]);
+                    maxY = Math.max(maxY, lower[c * 4 + 3]);
+                }
+                upper[k * 4] = minX;
+                upper[k * 4 + 1] = minY;
+                upper[k * 4 + 2] = maxX;
+                upper[k * 4 + 3] = maxY;
+            }
+            boxes[l] = upper;
+        }
+    }
+
+    /**
+     * Sort a range of indices by keys - quick sort with insertion sort for
+     * short ranges
+     */
+    private static void sort(int[] idx, int from, int to, double[] key) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            double a = key[idx[from]], b = key[idx[mid]], c = key[idx[to - 1]];
+            double pivot = a < b ? (b < c ? b : Math.max(a, c)) : (a < c ? a : Math.max(b, c));
+            //Three way partition: [from, lt) < pivot, [lt, i) == pivot, (gt, to) > pivot
+            int lt = from, i = from, gt = to - 1;
+            while (i <= gt) {
+                double v = key[idx[i]];
+                if (v < pivot) {
+                    swap(idx, lt++, i++);
+                } else if (v > pivot) {
+                    swap(idx, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            //Recurse into the smaller part
+            if (lt - from < to - gt - 1) {
+                sort(idx, from, lt, key);
+                from = gt + 1;
+            } else {
+                sort(idx, gt + 1, to, key);
+                to = lt;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            int v = idx[i];
+            double k = key[v];
+            int j = i - 1;
+            while (j >= from && key[idx[j]] > k) {
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            idx[j + 1] = v;
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get number of shapes
+     *
+     * @return Number of shapes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get node capacity
+     *
+     * @return Node capacity
+     */
+    public int getNodeCapacity() {
+        return nodeCapacity;
+    }
+
+    /**
+     * Get extent of all shapes
+     *
+     * @return Extent, null if there is no shape
+     */
+    public Extent getExtent() {
+        if (size == 0) {
+            return null;
+        }
+        double[] root = boxes[boxes.length - 1];
+        return new Extent(root[0], root[2], root[1], root[3]);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Query the shapes whose extents intersect an extent
+     *
+     * @param extent The extent
+     * @return Shape indices in ascending order
+     */
+    public int[] query(Extent extent) {
+        return query(extent.minX, extent.minY, extent.maxX, extent.maxY);
+    }
+
+    /**
+     * Query the shapes whose extents intersect a box
+     *
+     * @param minX Minimum x
+     * @param minY Minimum y
+     * @param maxX Maximum x
+     * @param maxY Maximum y
+     * @return Shape indices in ascending order
+     */
+    public int[] query(double minX, double minY, double maxX, double maxY) {
+        if (size == 0) {
+            return new int[0];
+        }
+        int top = boxes.length - 1;
+        double[] root = boxes[top];
+        if (minX <= root[0] && minY <= root[1] && maxX >= root[2] && maxY >= root[3]) {
+            int[] r = new int[size];
+            for (int i = 0; i < size; i++) {
+                r[i] = i;
+            }
+            return r;
+        }
+
+        int[] r = new int[64];
+        int count = 0;
+        //Stack of (level, node) pairs
+        int[] stack = new int[2 * (top + 1) * nodeCapacity + 2];
+        int sp = 0;
+        stack[sp++] = top;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            int level = stack[--sp];
+            double[] b = boxes[level];
+            int o = node * 4;
+            if (b[o + 2] < minX || b[o + 3] < minY || maxX < b[o] || maxY < b[o + 1]) {
+                continue;
+            }
+            if (level == 0) {
+                if (count == r.length) {
+                    r = Arrays.copyOf(r, count * 2);
+                }
+                r[count++] = items[node];
+            } else {
+                int lowerNum = boxes[level - 1].length / 4;
+                int c0 = node * nodeCapacity;
+                int c1 = Math.min(lowerNum, c0 + nodeCapacity);
+                for (int c = c1 - 1; c >= c0; c--) {
+                    stack[sp++] = level - 1;
+                    stack[sp++] = c;
+                }
+            }
+        }
+        r = Arrays.copyOf(r, count);
+        Arrays.sort(r);
+        return r;
+    }
+    // </editor-fold>
+}
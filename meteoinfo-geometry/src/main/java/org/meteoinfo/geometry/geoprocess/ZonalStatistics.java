@@ -0,0 +1,422 @@
+package org.meteoinfo.geometry.geoprocess;
+
+import org.meteoinfo.common.MIMath;
+import org.meteoinfo.geometry.shape.PolygonShape;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Zonal statistics of gridded data over polygon zones.
+ * <p>
+ * The zone of each grid point is rasterized once (a point inside several
+ * polygons belongs to the first one), and the grid points are grouped by
+ * zone, so the statistics of all zones are computed in one pass over each
+ * grid slice. Slices (e.g. time steps) are computed in parallel. Values can be
+ * weighted, e.g. by the cell areas, for the sums and means.
+ *
+ * @author wyq
+ */
+public class ZonalStatistics {
+
+    private final double[] x;
+    private final double[] y;
+    private final int zoneNum;
+    //Zone index of each grid point, -1 outside all zones
+    private final int[] zones;
+    //Grid point indices grouped by zone, zone z is [zoneStart[z], zoneStart[z + 1])
+    private final int[] zoneStart;
+    private final int[] cells;
+    private double[] weights;
+    private double missingValue = Double.NaN;
+
+    /**
+     * Constructor
+     *
+     * @param x Grid x coordinates, strictly ascending or descending
+     * @param y Grid y coordinates, strictly ascending or descending
+     * @param polygons Zone polygons
+     */
+    public ZonalStatistics(double[] x, double[] y, List<? extends PolygonShape> polygons) {
+        if (!PolygonMask.isMonotonic(x) || !PolygonMask.isMonotonic(y)) {
+            throw new IllegalArgumentException("Grid coordinates must be strictly monotonic");
+        }
+        this.x = x.clone();
+        this.y = y.clone();
+        this.zoneNum = polygons.size();
+        final int xNum = x.length;
+        final int yNum = y.length;
+        this.zones = new int[xNum * yNum];
+        Arrays.fill(zones, -1);
+
+        final boolean flipX = xNum > 1 && x[0] > x[xNum - 1];
+        final boolean flipY = yNum > 1 && y[0] > y[yNum - 1];
+        final double[] xs = flipX ? PolygonMask.reverse(x) : x;
+        final double[] ys = flipY ? PolygonMask.reverse(y) : y;
+        IntStream ids = IntStream.range(0, zoneNum);
+        if (zoneNum > 1 && ArrayParallel.isEnabled()) {
+            ids = ids.parallel();
+        }
+        ids.forEach(z -> {
+            int[] window = new int[4];
+            boolean[] inside = PolygonMask.rasterize(polygons.get(z), xs, ys, window);
+            if (inside == null) {
+                return;
+            }
+            int c0 = window[0], r0 = window[1], cols = window[2], rows = window[3];
+            synchronized (zones) {
+                for (int i = 0; i < rows; i++) {
+                    int gi = flipY ? yNum - 1 - (r0 + i) : r0 + i;
+                    for (int j = 0; j < cols; j++) {
+                        if (inside[i * cols + j]) {
+                            int k = gi * xNum + (flipX ? xNum - 1 - (c0 + j) : c0 + j);
+                            if (zones[k] < 0 || zones[k] > z) {
+                                zones[k] = z;
+                            }
+                        }
+                    }
+                }
+            }
+        });
+
+        //Group grid points by zone
+        zoneStart = new int[zoneNum + 1];
+        for (int zone : zones) {
+            if (zone >= 0) {
+                zoneStart[zone + 1]++;
+            }
+        }
+        for (int z = 0; z < zoneNum; z++) {
+            zoneStart[z + 1] += zoneStart[z];
+        }
+        cells = new int[zoneStart[zoneNum]];
+        int[] pos = Arrays.copyOf(zoneStart, zoneNum);
+        for (int k = 0; k < zones.length; k++) {
+            if (zones[k] >= 0) {
+                cells[pos[zones[k]]++] = k;
+            }
+        }
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get grid x number
+     *
+     * @return Grid x number
+     */
+    public int getXNum() {
+        return x.length;
+    }
+
+    /**
+     * Get grid y number
+     *
+     * @return Grid y number
+     */
+    public int getYNum() {
+        return y.length;
+    }
+
+    /**
+     * Get zone number
+     *
+     * @return Zone number
+     */
+    public int getZoneNum() {
+        return zoneNum;
+    }
+
+    /**
+     * Get zone index grid
+     *
+     * @return Zone index of each grid point, -1 outside all zones
+     */
+    public Array getZones() {
+        return Array.factory(DataType.INT, new int[]{y.length, x.length}, zones.clone());
+    }
+
+    /**
+     * Get number of grid points in a zone
+     *
+     * @param zone Zone index
+     * @return Number of grid points
+     */
+    public int getCellNum(int zone) {
+        return zoneStart[zone + 1] - zoneStart[zone];
+    }
+
+    /**
+     * Get missing value
+     *
+     * @return Missing value, NaN if only NaN values are missing
+     */
+    public double getMissingValue() {
+        return missingValue;
+    }
+
+    /**
+     * Set missing value, values equal to it are excluded like NaN values
+     *
+     * @param value Missing value
+     */
+    public void setMissingValue(double value) {
+        this.missingValue = value;
+    }
+
+    /**
+     * Set weights of the grid points for sums and means
+     *
+     * @param weights Weight array with the grid shape, null for equal weights
+     */
+    public void setWeights(Array weights) {
+        if (weights == null) {
+            this.weights = null;
+            return;
+        }
+        if (weights.getSize() != zones.length) {
+            throw new IllegalArgumentException("Weight array size does not match the grid");
+        }
+        double[] w = new double[zones.length];
+        Array a = weights.copyIfView();
+        for (int k = 0; k < w.length; k++) {
+            w[k] = a.getDouble(k);
+        }
+        this.weights = w;
+    }
+
+    /**
+     * Set the cell areas of the grid as the weights, the grid is regarded
+     * as regular
+     *
+     * @param isLonLat Is lon/lat grid or not
+     */
+    public void setCellAreaWeights(boolean isLonLat) {
+        int xNum = x.length;
+        int yNum = y.length;
+        if (xNum < 2 || yNum < 2) {
+            throw new IllegalArgumentException("Cell areas need at least two grid points in each dimension");
+        }
+        double xCell = (x[xNum - 1] - x[0]) / (xNum - 1);
+        double yCell = (y[yNum - 1] - y[0]) / (yNum - 1);
+        Array area = GeoComputation.getGridArea(x[0], xCell, xNum, y[0], yCell, yNum, isLonLat, false);
+        double[] w = new double[zones.length];
+        for (int k = 0; k < w.length; k++) {
+            w[k] = Math.abs(area.getDouble(k));
+        }
+        this.weights = w;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Compute the zonal statistics of each grid slice
+     *
+     * @param data Data array, the last two dimensions are the grid
+     * @param percentiles Percentiles to compute, in (0, 100]
+     * @return Zonal statistics, arrays with the leading dimensions of the data
+     * and the zone dimension
+     */
+    public Result compute(Array data, double... percentiles) {
+        int[] dshape = data.getShape();
+        int sliceSize = zones.length;
+        if (dshape.length < 2 || dshape[dshape.length - 1] != x.length || dshape[dshape.length - 2] != y.length) {
+            throw new IllegalArgumentException("Data shape " + Arrays.toString(dshape) + " does not match the grid");
+        }
+        for (double p : percentiles) {
+            if (!(p > 0 && p <= 100)) {
+                throw new IllegalArgumentException("Percentile out of range (0, 100]: " + p);
+            }
+        }
+        int[] shape = Arrays.copyOf(dshape, dshape.length - 1);
+        shape[shape.length - 1] = zoneNum;
+        final Result r = new Result(shape, percentiles);
+        final Array a = data.copyIfView();
+        final int nSlice = (int) (a.getSize() / Math.max(1, sliceSize));
+        if (nSlice > 1 && ArrayParallel.accept(ArrayParallel.isEnabled(), a.getSize())) {
+            IntStream.range(0, nSlice).parallel().forEach(s -> {
+                double[] buffer = new double[cells.length];
+                for (int z = 0; z < zoneNum; z++) {
+                    compute(a, s, z, r, buffer);
+                }
+            });
+        } else {
+            for (int s = 0; s < nSlice; s++) {
+                final int slice = s;
+                if (zoneNum > 1 && ArrayParallel.accept(ArrayParallel.isEnabled(), sliceSize)) {
+                    IntStream.range(0, zoneNum).parallel().forEach(z ->
+                            compute(a, slice, z, r, new double[getCellNum(z)]));
+                } else {
+                    double[] buffer = new double[cells.length];
+                    for (int z = 0; z < zoneNum; z++) {
+                        compute(a, slice, z, r, buffer);
+                    }
+                }
+            }
+        }
+        return r;
+    }
+
+    private void compute(Array a, int slice, int zone, Result r, double[] buffer) {
+        Object storage = a.getStorage();
+        double[] ds = storage instanceof double[] ? (double[]) storage : null;
+        float[] fs = storage instanceof float[] ? (float[]) storage : null;
+        int offset = slice * zones.length;
+        double sum = 0, wsum = 0;
+        double min = Double.NaN, max = Double.NaN;
+        int n = 0;
+        for (int c = zoneStart[zone]; c < zoneStart[zone + 1]; c++) {
+            int k = cells[c];
+            double v = ds != null ? ds[offset + k] : (fs != null ? fs[offset + k] : a.getDouble(offset + k));
+            if (Double.isNaN(v) || MIMath.doubleEquals(v, missingValue)) {
+                continue;
+            }
+            double w = weights == null ? 1 : weights[k];
+            sum += w * v;
+            wsum += w;
+            if (n == 0) {
+                min = v;
+                max = v;
+            } else if (v < min) {
+                min = v;
+            } else if (v > max) {
+                max = v;
+            }
+            buffer[n++] = v;
+        }
+
+        int i = slice * zoneNum + zone;
+        r.sum.setDouble(i, n == 0 ? Double.NaN : sum);
+        r.mean.setDouble(i, n == 0 || wsum == 0 ? Double.NaN : sum / wsum);
+        r.min.setDouble(i, min);
+        r.max.setDouble(i, max);
+        r.count.setInt(i, n);
+        if (r.percentiles.length > 0) {
+            Arrays.sort(buffer, 0, n);
+            for (int p = 0; p < r.percentiles.length; p++) {
+                r.percentileArrays[p].setDouble(i, percentile(buffer, n, r.percentiles[p]));
+            }
+        }
+    }
+
+    /**
+     * Percentile of sorted values, the same estimate as the default of
+     * commons math Percentile
+     */
+    private static double percentile(double[] sorted, int n, double p) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return sorted[0];
+        }
+        double pos = p * (n + 1) / 100;
+        double fpos = Math.floor(pos);
+        int intPos = (int) fpos;
+        double dif = pos - fpos;
+        if (pos < 1) {
+            return sorted[0];
+        }
+        if (pos >= n) {
+            return sorted[n - 1];
+        }
+        double lower = sorted[intPos - 1];
+        double upper = sorted[intPos];
+        return lower + dif * (upper - lower);
+    }
+    // </editor-fold>
+
+    /**
+     * Zonal statistics result
+     */
+    public static class Result {
+
+        private final Array sum;
+        private final Array mean;
+        private final Array min;
+        private final Array max;
+        private final Array count;
+        private final double[] percentiles;
+        private final Array[] percentileArrays;
+
+        Result(int[] shape, double[] percentiles) {
+            this.sum = Array.factory(DataType.DOUBLE, shape);
+            this.mean = Array.factory(DataType.DOUBLE, shape);
+            this.min = Array.factory(DataType.DOUBLE, shape);
+            this.max = Array.factory(DataType.DOUBLE, shape);
+            this.count = Array.factory(DataType.INT, shape);
+            this.percentiles = percentiles.clone();
+            this.percentileArrays = new Array[percentiles.length];
+            for (int i = 0; i < percentiles.length; i++) {
+                percentileArrays[i] = Array.factory(DataType.DOUBLE, shape);
+            }
+        }
+
+        /**
+         * Get (weighted) sums
+         *
+         * @return Sum array
+         */
+        public Array getSum() {
+            return sum;
+        }
+
+        /**
+         * Get (weighted) means
+         *
+         * @return Mean array
+         */
+        public Array getMean() {
+            return mean;
+        }
+
+        /**
+         * Get minimum values
+         *
+         * @return Minimum array
+         */
+        public Array getMin() {
+            return min;
+        }
+
+        /**
+         * Get maximum values
+         *
+         * @return Maximum array
+         */
+        public Array getMax() {
+            return max;
+        }
+
+        /**
+         * Get numbers of valid values
+         *
+         * @return Count array
+         */
+        public Array getCount() {
+            return count;
+        }
+
+        /**
+         * Get computed percentiles
+         *
+         * @return Percentiles
+         */
+        public double[] getPercentiles() {
+            return percentiles.clone();
+        }
+
+        /**
+         * Get values of a computed percentile
+         *
+         * @param idx Index in the computed percentiles
+         * @return Percentile array
+         */
+        public Array getPercentile(int idx) {
+            return percentileArrays[idx];
+        }
+    }
+}
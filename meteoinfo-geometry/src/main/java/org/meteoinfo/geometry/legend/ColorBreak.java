@@ -21,6 +21,7 @@ package org.meteoinfo.geometry.legend;
  import java.awt.*;
  import java.util.HashMap;
  import java.util.Map;
+ import java.util.concurrent.atomic.AtomicLong;
 
  /**
   * Color break class
@@ -30,6 +31,8 @@ package org.meteoinfo.geometry.legend;
  public class ColorBreak {
      // <editor-fold desc="Variables">
 
+     private static final AtomicLong VERSION = new AtomicLong();
+     private long stamp;
      protected BreakTypes breakType;
      protected Object startValue;
      protected Object endValue;
@@ -56,6 +59,26 @@ package org.meteoinfo.geometry.legend;
      // </editor-fold>
      // <editor-fold desc="Get Set Methods">
 
+     /**
+      * Get global version of break values and colors, increased when the
+      * values or color of any break change. Used to invalidate compiled
+      * legend classifiers.
+      *
+      * @return Version
+      */
+     public static long getVersion() {
+         return VERSION.get();
+     }
+
+     /**
+      * Get the version of the last change of this break
+      *
+      * @return Version stamp
+      */
+     long getStamp() {
+         return stamp;
+     }
+
      /**
       * Get break type
       *
@@ -90,6 +113,7 @@ package org.meteoinfo.geometry.legend;
       */
      public void setStartValue(Object value) {
          startValue = value;
+         stamp = VERSION.incrementAndGet();
      }
 
      /**
@@ -108,6 +132,7 @@ package org.meteoinfo.geometry.legend;
       */
      public void setEndValue(Object value) {
          endValue = value;
+         stamp = VERSION.incrementAndGet();
      }
 
      /**
@@ -126,6 +151,7 @@ package org.meteoinfo.geometry.legend;
       */
      public void setColor(Color c) {
          color = c;
+         stamp = VERSION.incrementAndGet();
      }
 
      /**
@@ -0,0 +1,375 @@
+package org.meteoinfo.geometry.legend;
+
+import org.meteoinfo.common.DataConvert;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiled value to legend break classifier of a legend scheme.
+ * <p>
+ * Break bounds are parsed once into primitive arrays sorted by value, so a
+ * lookup is a binary search (or a direct computation for uniform breaks)
+ * instead of a scan parsing the break values. The results are the same as the
+ * linear scan: the first break in list order whose start equals the value
+ * (start == end) or contains it (start &lt;= value &lt; end). A classifier is
+ * thread safe, {@link LegendScheme#getClassifier()} compiles a new one when
+ * the break list of the scheme (tracked by its modification count), its
+ * type or range, or the values or color of any of its breaks have changed.
+ *
+ * @author wyq
+ */
+public class LegendClassifier {
+
+    private final List<ColorBreak> breaks;
+    private final ColorBreak[] breakRefs;
+    private final long[] stamps;
+    private volatile long version;
+    private final long modCount;
+    private final LegendType legendType;
+    private final double minValue;
+    private final double maxValue;
+    private final int breakNum;
+    private final int[] colors;
+    //Breaks with start == end, sorted by value, the first break of equal values is kept
+    private final double[] pointValues;
+    private final int[] pointIndices;
+    //Breaks with start < end, sorted by start
+    private final double[] starts;
+    private final double[] ends;
+    private final int[] intervalIndices;
+    private final boolean disjoint;
+    private final double uniformStart;
+    private final double uniformWidth;
+    //Unique value breaks, sorted by value, the last break of equal values is kept like the unique value map
+    private final double[] uniqueValues;
+    private final int[] uniqueIndices;
+
+    /**
+     * Constructor
+     *
+     * @param ls The legend scheme
+     */
+    public LegendClassifier(LegendScheme ls) {
+        this.version = ColorBreak.getVersion();
+        this.modCount = ls.getModCount();
+        this.breaks = ls.getLegendBreaks();
+        this.legendType = ls.getLegendType();
+        this.minValue = ls.getMinValue();
+        this.maxValue = ls.getMaxValue();
+        this.breakNum = breaks.size();
+
+        breakRefs = new ColorBreak[breakNum];
+        stamps = new long[breakNum];
+        colors = new int[breakNum];
+        double[] svs = new double[breakNum];
+        double[] evs = new double[breakNum];
+        boolean isDouble = true;
+        for (int i = 0; i < breakNum; i++) {
+            ColorBreak cb = breaks.get(i);
+            breakRefs[i] = cb;
+            stamps[i] = cb.getStamp();
+            colors[i] = cb.getColor() == null ? 0 : cb.getColor().getRGB();
+            svs[i] = parse(cb.getStartValue());
+            evs[i] = parse(cb.getEndValue());
+            if (isDouble && !DataConvert.isDouble(cb.getStartValue().toString())) {
+                isDouble = false;
+            }
+        }
+
+        if (legendType == LegendType.UNIQUE_VALUE) {
+            Integer[] order = sortedOrder(svs, isDouble ? breakNum : 0);
+            int n = 0;
+            double[] values = new double[order.length];
+            int[] indices = new int[order.length];
+            for (int i : order) {
+                if (n > 0 && Double.compare(values[n - 1], svs[i]) == 0) {
+                    indices[n - 1] = Math.max(indices[n - 1], i);
+                } else {
+                    values[n] = svs[i];
+                    indices[n++] = i;
+                }
+            }
+            uniqueValues = Arrays.copyOf(values, n);
+            uniqueIndices = Arrays.copyOf(indices, n);
+        } else {
+            uniqueValues = new double[0];
+            uniqueIndices = new int[0];
+        }
+
+        //Split into point and interval breaks, breaks never matching a value (NaN or start > end) are dropped
+        int pn = 0, in = 0;
+        double[] pvs = new double[breakNum];
+        int[] pis = new int[breakNum];
+        double[] ivs = new double[breakNum];
+        int[] iis = new int[breakNum];
+        for (int i = 0; i < breakNum; i++) {
+            if (svs[i] == evs[i]) {
+                pvs[pn] = svs[i] + 0.0;
+                pis[pn++] = i;
+            } else if (svs[i] < evs[i]) {
+                ivs[in] = svs[i];
+                iis[in++] = i;
+            }
+        }
+
+        Integer[] order = sortedOrder(pvs, pn);
+        int n = 0;
+        double[] values = new double[pn];
+        int[] indices = new int[pn];
+        for (int k : order) {
+            if (n > 0 && values[n - 1] == pvs[k]) {
+                indices[n - 1] = Math.min(indices[n - 1], pis[k]);
+            } else {
+                values[n] = pvs[k];
+                indices[n++] = pis[k];
+            }
+        }
+        pointValues = Arrays.copyOf(values, n);
+        pointIndices = Arrays.copyOf(indices, n);
+
+        order = sortedOrder(ivs, in);
+        starts = new double[in];
+        ends = new double[in];
+        intervalIndices = new int[in];
+        for (int k = 0; k < in; k++) {
+            int i = iis[order[k]];
+            starts[k] = svs[i];
+            ends[k] = evs[i];
+            intervalIndices[k] = i;
+        }
+        boolean dis = true;
+        boolean uniform = in > 1;
+        double width = in > 0 ? ends[0] - starts[0] : 0;
+        for (int k = 1; k < in; k++) {
+            if (ends[k - 1] > starts[k]) {
+                dis = false;
+            }
+            if (ends[k - 1] != starts[k] || Math.abs(ends[k] - starts[k] - width) > Math.abs(width) * 1e-9) {
+                uniform = false;
+            }
+        }
+        disjoint = dis;
+        uniformStart = uniform && dis ? starts[0] : Double.NaN;
+        uniformWidth = uniform && dis ? width : Double.NaN;
+    }
+
+    private static double parse(Object value) {
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    private static Integer[] sortedOrder(double[] values, int n) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Double.compare(values[a], values[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        return order;
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get legend break number
+     *
+     * @return Legend break number
+     */
+    public int getBreakNum() {
+        return breakNum;
+    }
+
+    /**
+     * Get legend break colors
+     *
+     * @return ARGB colors of the legend breaks
+     */
+    public int[] getColors() {
+        return colors.clone();
+    }
+
+    /**
+     * Get whether the interval breaks are contiguous with equal width, so
+     * lookups are computed directly
+     *
+     * @return Uniform or not
+     */
+    public boolean isUniform() {
+        return !Double.isNaN(uniformWidth);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Check whether the classifier is still valid for a legend scheme. The
+     * break stamps are only compared when the values or color of some legend
+     * break have changed since the last check.
+     *
+     * @param ls The legend scheme
+     * @return Valid or not
+     */
+    public boolean isValid(LegendScheme ls) {
+        if (modCount != ls.getModCount() || breaks != ls.getLegendBreaks() || breakNum != breaks.size()
+                || legendType != ls.getLegendType()
+                || Double.compare(minValue, ls.getMinValue()) != 0 || Double.compare(maxValue, ls.getMaxValue()) != 0) {
+            return false;
+        }
+        long v = ColorBreak.getVersion();
+        if (v != version) {
+            for (int i = 0; i < breakNum; i++) {
+                if (breaks.get(i) != breakRefs[i] || breakRefs[i].getStamp() != stamps[i]) {
+                    return false;
+                }
+            }
+            version = v;
+        }
+        return true;
+    }
+
+    /**
+     * Find the first legend break (in list order) matching a value
+     *
+     * @param v The value
+     * @return Legend break index, -1 if no break matches
+     */
+    public int findIndex(double v) {
+        int r = -1;
+        int n = pointValues.length;
+        if (n > 0 && !Double.isNaN(v)) {
+            double pv = v + 0.0;
+            int lo = 0, hi = n - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pointValues[mid] < pv) {
+                    lo = mid + 1;
+                } else if (pointValues[mid] > pv) {
+                    hi = mid - 1;
+                } else {
+                    r = pointIndices[mid];
+                    break;
+                }
+            }
+        }
+
+        n = starts.length;
+        if (n > 0 && v >= starts[0]) {
+            if (disjoint) {
+                int k;
+                if (isUniform()) {
+                    k = (int) Math.min(n - 1, (v - uniformStart) / uniformWidth);
+                    while (k > 0 && v < starts[k]) {
+                        k--;
+                    }
+                    while (k < n - 1 && v >= starts[k + 1]) {
+                        k++;
+                    }
+                } else {
+                    //Last interval with start <= v
+                    int lo = 0, hi = n - 1;
+                    while (lo < hi) {
+                        int mid = (lo + hi + 1) >>> 1;
+                        if (starts[mid] <= v) {
+                            lo = mid;
+                        } else {
+                            hi = mid - 1;
+                        }
+                    }
+                    k = lo;
+                }
+                if (v < ends[k] && (r < 0 || intervalIndices[k] < r)) {
+                    r = intervalIndices[k];
+                }
+            } else {
+                for (int k = 0; k < n && starts[k] <= v; k++) {
+                    if (v < ends[k] && (r < 0 || intervalIndices[k] < r)) {
+                        r = intervalIndices[k];
+                    }
+                }
+            }
+        }
+
+        return r;
+    }
+
+    /**
+     * Get legend break index by value like {@link LegendScheme#legendBreakIndex(double)}
+     *
+     * @param v The value
+     * @return Legend break index, -1 if the value is out of the scheme range
+     */
+    public int legendBreakIndex(double v) {
+        if (v < minValue || v > maxValue) {
+            return -1;
+        }
+        int r = findIndex(v);
+        return r >= 0 ? r : breakNum - 1;
+    }
+
+    /**
+     * Classify a value to a legend break index. A single symbol scheme gives
+     * its only break, a unique value scheme the last break whose start value
+     * equals the value numerically, other schemes the index of
+     * {@link #legendBreakIndex(double)}: -1 outside the scheme minimum and
+     * maximum, else the first matching break or the last break if none
+     * matches.
+     *
+     * @param v The value
+     * @return Legend break index, -1 if no break is found
+     */
+    public int classify(double v) {
+        switch (legendType) {
+            case SINGLE_SYMBOL:
+                return breakNum > 0 ? 0 : -1;
+            case UNIQUE_VALUE:
+                int i = Arrays.binarySearch(uniqueValues, v);
+                return i >= 0 ? uniqueIndices[i] : -1;
+            default:
+                return legendBreakIndex(v);
+        }
+    }
+
+    /**
+     * Classify array values to legend break indices
+     *
+     * @param a The array
+     * @return Legend break indices, -1 if no break is found
+     */
+    public int[] classify(Array a) {
+        final Array data = a.copyIfView();
+        final int[] r = new int[(int) data.getSize()];
+        ArrayParallel.ChunkTask task = (start, end) -> {
+            for (int i = start; i < end; i++) {
+                r[i] = classify(data.getDouble(i));
+            }
+        };
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), r.length)) {
+            ArrayParallel.forEachChunk(r.length, task);
+        } else {
+            task.run(0, r.length);
+        }
+        return r;
+    }
+
+    /**
+     * Classify array values to legend break colors
+     *
+     * @param a The array
+     * @param missing ARGB color of values without legend break
+     * @return ARGB colors
+     */
+    public int[] classifyColors(Array a, int missing) {
+        int[] r = classify(a);
+        for (int i = 0; i < r.length; i++) {
+            r[i] = r[i] < 0 ? missing : colors[r[i]];
+        }
+        return r;
+    }
+    // </editor-fold>
+}
@@ -19,6 +19,7 @@ package org.meteoinfo.geometry.legend;
  import org.meteoinfo.geometry.colors.ExtendType;
  import org.meteoinfo.geometry.colors.Normalize;
  import org.meteoinfo.geometry.shape.ShapeTypes;
+ import org.meteoinfo.ndarray.Array;
  import org.w3c.dom.*;
  import org.xml.sax.SAXException;
 
@@ -59,6 +60,8 @@ package org.meteoinfo.geometry.legend;
      private Map<Object, ColorBreak> uniqueValueMap;
      private ColorMap colorMap;
      private Normalize normalize;
+     private volatile LegendClassifier classifier;
+     private volatile long modCount;
      // </editor-fold>
      // <editor-fold desc="Constructor">
      /**
@@ -66,7 +69,7 @@ package org.meteoinfo.geometry.legend;
       */
      public LegendScheme(){
          this.shapeType = ShapeTypes.IMAGE;
-         legendBreaks = new ArrayList<>();
+         legendBreaks = new BreakList(new ArrayList<>());
      }
 
      /**
@@ -76,7 +79,7 @@ package org.meteoinfo.geometry.legend;
       */
      public LegendScheme(ShapeTypes aShapeType) {
          shapeType = aShapeType;
-         legendBreaks = new ArrayList<>();
+         legendBreaks = new BreakList(new ArrayList<>());
      }
 
      /**
@@ -87,7 +90,7 @@ package org.meteoinfo.geometry.legend;
       */
      public LegendScheme(ShapeTypes aShapeType, int n) {
          shapeType = aShapeType;
-         legendBreaks = new ArrayList<>();
+         legendBreaks = new BreakList(new ArrayList<>());
          ColorBreak cb;
          for (int i = 0; i < n; i++) {
              switch (aShapeType) {
@@ -113,7 +116,7 @@ package org.meteoinfo.geometry.legend;
       * @param lbs Legend breaks
       */
      public LegendScheme(List<ColorBreak> lbs){
-         this.legendBreaks = lbs;
+         this.legendBreaks = new BreakList(lbs);
          ColorBreak lb = lbs.get(0);
          switch (lb.getBreakType()){
              case POINT_BREAK:
@@ -298,6 +301,17 @@ package org.meteoinfo.geometry.legend;
          return legendBreaks;
      }
 
+     /**
+      * Get modification count of the legend breaks, increased when the break
+      * list is set or changed, including changes made through the list
+      * returned by {@link #getLegendBreaks()}
+      *
+      * @return Modification count
+      */
+     public long getModCount() {
+         return modCount;
+     }
+
      /**
       * Get legend break by index
       * @param i Index
@@ -317,7 +331,12 @@ package org.meteoinfo.geometry.legend;
       * @param breaks The legend breaks
       */
      public void setLegendBreaks(List<ColorBreak> breaks) {
-         legendBreaks = breaks;
+         if (breaks instanceof BreakList && ((BreakList) breaks).getScheme() == this) {
+             legendBreaks = breaks;
+         } else {
+             legendBreaks = new BreakList(breaks);
+         }
+         modCount++;
          if (this.legendType == LegendType.UNIQUE_VALUE)
              this.updateUniqueValueMap();
      }
@@ -563,19 +582,9 @@ package org.meteoinfo.geometry.legend;
                      return null;
                  }
              default:
-                 double sv, ev;
-                 for (ColorBreak cb : this.legendBreaks){
-                     sv = Double.parseDouble(cb.getStartValue().toString());
-                     ev = Double.parseDouble(cb.getEndValue().toString());
-                     if (sv == ev){
-                         if (v.doubleValue() == sv)
-                             return cb;
-                     } else {
-                         if (v.doubleValue() >= sv && v.doubleValue() < ev){
-                             return cb;
-                         }
-                     }
-                 }
+                 int idx = this.getClassifier().findIndex(v.doubleValue());
+                 if (idx >= 0)
+                     return this.legendBreaks.get(idx);
                  if (v.doubleValue() >= this.getMaxValue())
                      return this.legendBreaks.get(this.getBreakNum() - 1);
                  else
@@ -601,24 +610,8 @@ package org.meteoinfo.geometry.legend;
                      return null;
                  }
              default:
-                 if (v.doubleValue() < this.minValue || v.doubleValue() > this.maxValue) {
-                     return null;
-                 }
-
-                 double sv, ev;
-                 for (ColorBreak cb : this.legendBreaks){
-                     sv = Double.parseDouble(cb.getStartValue().toString());
-                     ev = Double.parseDouble(cb.getEndValue().toString());
-                     if (sv == ev){
-                         if (v.doubleValue() == sv)
-                             return cb;
-                     } else {
-                         if (v.doubleValue() >= sv && v.doubleValue() < ev){
-                             return cb;
-                         }
-                     }
-                 }
-                 return this.legendBreaks.get(this.getBreakNum() - 1);
+                 int idx = this.getClassifier().legendBreakIndex(v.doubleValue());
+                 return idx < 0 ? null : this.legendBreaks.get(idx);
          }
      }
 
@@ -628,25 +621,42 @@ package org.meteoinfo.geometry.legend;
       * @return Legend break index
       */
      public int legendBreakIndex(double v) {
-         if (v < this.minValue || v > this.maxValue) {
-             return -1;
-         }
+         return this.getClassifier().legendBreakIndex(v);
+     }
 
-         double sv, ev;
-         for (int i = 0; i < this.legendBreaks.size(); i ++){
-             ColorBreak cb = this.legendBreaks.get(i);
-             sv = Double.parseDouble(cb.getStartValue().toString());
-             ev = Double.parseDouble(cb.getEndValue().toString());
-             if (sv == ev){
-                 if (v == sv)
-                     return i;
-             } else {
-                 if (v >= sv && v < ev){
-                     return i;
-                 }
-             }
+     /**
+      * Get compiled classifier, it is compiled again when the legend scheme
+      * or its breaks have changed
+      * @return Legend classifier
+      */
+     public LegendClassifier getClassifier() {
+         LegendClassifier c = this.classifier;
+         if (c == null || !c.isValid(this)) {
+             c = new LegendClassifier(this);
+             this.classifier = c;
          }
-         return this.getBreakNum() - 1;
+         return c;
+     }
+
+     /**
+      * Classify array values to legend break indices like
+      * {@link LegendClassifier#classify(double)}
+      * @param a The array
+      * @return Legend break indices, -1 if no legend break is found
+      */
+     public int[] classify(Array a) {
+         return this.getClassifier().classify(a);
+     }
+
+     /**
+      * Classify array values to legend break colors like
+      * {@link LegendClassifier#classify(double)}
+      * @param a The array
+      * @param missing ARGB color of values without legend break
+      * @return ARGB colors
+      */
+     public int[] classifyColors(Array a, int missing) {
+         return this.getClassifier().classifyColors(a, missing);
      }
 
      /**
@@ -1327,7 +1337,7 @@ package org.meteoinfo.geometry.legend;
       * @param keepShape if keep the legend shape type
       */
      public void importFromXML(Node LSNode, boolean keepShape) {
-         legendBreaks = new ArrayList<>();
+         legendBreaks = new BreakList(new ArrayList<>());
 
          if (LSNode.getAttributes().getNamedItem("FieldName") != null) {
              fieldName = LSNode.getAttributes().getNamedItem("FieldName").getNodeValue();
@@ -1591,7 +1601,7 @@ package org.meteoinfo.geometry.legend;
              sr = new BufferedReader(new FileReader(aFile));
              this.shapeType = ShapeTypes.IMAGE;
              this.legendType = LegendType.UNIQUE_VALUE;
-             this.legendBreaks = new ArrayList<>();
+             this.legendBreaks = new BreakList(new ArrayList<>());
              ColorBreak aCB;
              String[] dataArray;
              sr.readLine();
@@ -1638,7 +1648,7 @@ package org.meteoinfo.geometry.legend;
              sr = new BufferedReader(new FileReader(aFile));
              this.shapeType = ShapeTypes.IMAGE;
              this.legendType = LegendType.GRADUATED_COLOR;
-             this.legendBreaks = new ArrayList<>();
+             this.legendBreaks = new BreakList(new ArrayList<>());
              List<Color> colorList = new ArrayList<>();
              List<Integer> values = new ArrayList<>();
              ColorBreak aCB;
@@ -1718,4 +1728,57 @@ package org.meteoinfo.geometry.legend;
          return bLS;
      }
      // </editor-fold>
- }
+      /**
+      * Legend break list counting its changes in the modification count of
+      * the legend scheme, so compiled classifiers notice breaks replaced,
+      * added, removed or reordered through {@link #getLegendBreaks()}
+      */
+     private class BreakList extends AbstractList<ColorBreak> implements RandomAccess {
+
+         private final List<ColorBreak> list;
+
+         BreakList(List<ColorBreak> list) {
+             this.list = list;
+         }
+
+         LegendScheme getScheme() {
+             return LegendScheme.this;
+         }
+
+         @Override
+         public ColorBreak get(int index) {
+             return list.get(index);
+         }
+
+         @Override
+         public int size() {
+             return list.size();
+         }
+
+         @Override
+         public ColorBreak set(int index, ColorBreak element) {
+             ColorBreak r = list.set(index, element);
+             LegendScheme.this.modCount++;
+             return r;
+         }
+
+         @Override
+         public void add(int index, ColorBreak element) {
+             list.add(index, element);
+             LegendScheme.this.modCount++;
+         }
+
+         @Override
+         public ColorBreak remove(int index) {
+             ColorBreak r = list.remove(index);
+             LegendScheme.this.modCount++;
+             return r;
+         }
+
+         @Override
+         public void clear() {
+             list.clear();
+             LegendScheme.this.modCount++;
+         }
+     }
+}
@@ -34,7 +34,7 @@ import org.meteoinfo.geometry.geoprocess.GeometryUtil;
 public class PolylineShape extends Shape implements Cloneable {
     // <editor-fold desc="Variables">
 
-    private List<? extends Polyline> _polylines;
+    protected List<? extends Polyline> _polylines;
     /**
      * Part number
      */
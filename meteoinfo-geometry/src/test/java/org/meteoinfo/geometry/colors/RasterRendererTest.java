@@ -0,0 +1,180 @@
+package org.meteoinfo.geometry.colors;
+
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.geometry.legend.ColorBreak;
+import org.meteoinfo.geometry.legend.LegendScheme;
+import org.meteoinfo.geometry.legend.LegendType;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RasterRendererTest {
+
+    private static LegendScheme createScheme(LegendType legendType) {
+        LegendScheme ls = new LegendScheme();
+        Color[] colors = {Color.red, Color.green, Color.blue, Color.yellow};
+        for (int i = 0; i < colors.length; i++) {
+            ColorBreak cb = new ColorBreak();
+            if (legendType == LegendType.UNIQUE_VALUE) {
+                cb.setStartValue(i);
+                cb.setEndValue(i);
+            } else {
+                cb.setStartValue(i * 10);
+                cb.setEndValue((i + 1) * 10);
+            }
+            cb.setColor(colors[i]);
+            ls.getLegendBreaks().add(cb);
+        }
+        ls.setLegendType(legendType);
+        return ls;
+    }
+
+    private static Array createData(int height, int width, double scale, double missingValue) {
+        Random random = new Random(1);
+        Array a = Array.factory(DataType.FLOAT, new int[]{height, width});
+        for (int i = 0; i < a.getSize(); i++) {
+            double v = random.nextDouble() * scale - 1;
+            if (i % 17 == 0) {
+                v = Double.NaN;
+            } else if (i % 23 == 0) {
+                v = missingValue;
+            } else if (i % 13 == 0) {
+                v = Math.floor(v);
+            }
+            a.setDouble(i, v);
+        }
+        return a;
+    }
+
+    /**
+     * Per pixel palette rendering of the raster layer before bulk rendering,
+     * with values above the last bound clamped to the last break
+     */
+    private static BufferedImage renderValues(Array data, LegendScheme ls, Color undefColor, double missingValue) {
+        int height = data.getShape()[0], width = data.getShape()[1];
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        double[] values = ls.getValues();
+        int n = values.length;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                double value = data.getDouble(i * width + j);
+                Color color;
+                if (Double.isNaN(value) || value == missingValue) {
+                    color = undefColor;
+                } else {
+                    int idx = Arrays.binarySearch(values, value);
+                    if (ls.getLegendType() == LegendType.UNIQUE_VALUE) {
+                        color = idx < 0 || idx >= n ? undefColor : ls.getLegendBreak(idx).getColor();
+                    } else {
+                        if (idx < 0) {
+                            if (idx == -1)
+                                idx = 0;
+                            else if (idx == -n - 1)
+                                idx = n - 2;
+                            else
+                                idx = -idx - 2;
+                        } else if (idx == n - 1)
+                            idx = n - 2;
+                        color = ls.getLegendBreak(idx).getColor();
+                    }
+                }
+                image.setRGB(j, height - i - 1, color.getRGB());
+            }
+        }
+        return image;
+    }
+
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int i = 0; i < expected.getHeight(); i++) {
+            for (int j = 0; j < expected.getWidth(); j++) {
+                assertEquals(expected.getRGB(j, i), actual.getRGB(j, i), "pixel " + i + ", " + j);
+            }
+        }
+    }
+
+    @Test
+    public void testRenderValues() {
+        double missingValue = -9999;
+        for (LegendType legendType : new LegendType[]{LegendType.GRADUATED_COLOR, LegendType.UNIQUE_VALUE}) {
+            LegendScheme ls = createScheme(legendType);
+            double scale = legendType == LegendType.UNIQUE_VALUE ? 6 : 50;
+            Array data = createData(37, 53, scale, missingValue);
+            ColorLookup lookup = ColorLookup.ofValues(ls, Color.gray);
+            lookup.setMissingValue(missingValue);
+            BufferedImage image = RasterRenderer.render(data, 53, 37, lookup, true, null);
+            assertSameImage(renderValues(data, ls, Color.gray, missingValue), image);
+        }
+    }
+
+    @Test
+    public void testRenderColors() {
+        List<Color> colors = Arrays.asList(Color.red, Color.green, Color.blue);
+        ColorLookup lookup = ColorLookup.ofColors(colors);
+        lookup.setUndefColor(Color.gray);
+        Array data = Array.factory(DataType.DOUBLE, new int[]{2, 3}, new double[]{0, 1.5, 2, Double.NaN, 3, -1});
+        BufferedImage image = RasterRenderer.render(data, lookup, false, null);
+        int[] expected = {Color.red.getRGB(), Color.green.getRGB(), Color.blue.getRGB(),
+                Color.gray.getRGB(), Color.gray.getRGB(), Color.gray.getRGB()};
+        assertArrayEquals(expected, image.getRGB(0, 0, 3, 2, null, 0, 3));
+    }
+
+    @Test
+    public void testRenderRGB() {
+        Array data = Array.factory(DataType.INT, new int[]{2, 2, 3},
+                new int[]{255, 0, 0, 0, 300, 0, 0, 0, -5, 10, 20, 30});
+        BufferedImage image = RasterRenderer.renderRGB(data, true, null);
+        //First data row at the image bottom, out of range channels are clamped
+        assertEquals(new Color(255, 0, 0).getRGB(), image.getRGB(0, 1));
+        assertEquals(new Color(0, 255, 0).getRGB(), image.getRGB(1, 1));
+        assertEquals(new Color(0, 0, 0).getRGB(), image.getRGB(0, 0));
+        assertEquals(new Color(10, 20, 30).getRGB(), image.getRGB(1, 0));
+    }
+
+    @Test
+    public void testRenderFloatRGB() {
+        Array data = Array.factory(DataType.DOUBLE, new int[]{1, 2, 3},
+                new double[]{1, 0.5, 0, 0.2, Double.NaN, 0});
+        BufferedImage image = RasterRenderer.renderRGB(data, false, null);
+        assertEquals(new Color(1f, 0.5f, 0f).getRGB(), image.getRGB(0, 0));
+        assertEquals(Color.white.getRGB(), image.getRGB(1, 0));
+
+        //Channels in [0, 255] are truncated like integer data
+        data = Array.factory(DataType.FLOAT, new int[]{1, 2, 3}, new float[]{255, 127.9f, 0, 10.2f, 20.5f, 30});
+        image = RasterRenderer.renderRGB(data, false, false, null);
+        assertEquals(new Color(255, 127, 0).getRGB(), image.getRGB(0, 0));
+        assertEquals(new Color(10, 20, 30).getRGB(), image.getRGB(1, 0));
+    }
+
+    @Test
+    public void testRenderLong() {
+        List<Color> colors = Arrays.asList(Color.red, Color.green, Color.blue);
+        ColorLookup lookup = ColorLookup.ofColors(colors);
+        lookup.setUndefColor(Color.gray);
+        //Values which wrap around to 0 and 1 if truncated to int
+        Array data = Array.factory(DataType.LONG, new int[]{1, 3}, new long[]{2, 1L << 32, (1L << 32) + 1});
+        BufferedImage image = RasterRenderer.render(data, lookup, false, null);
+        int[] expected = {Color.blue.getRGB(), Color.gray.getRGB(), Color.gray.getRGB()};
+        assertArrayEquals(expected, image.getRGB(0, 0, 3, 1, null, 0, 3));
+    }
+
+    @Test
+    public void testReuseImage() {
+        ColorLookup lookup = ColorLookup.ofColors(Arrays.asList(Color.red, Color.green));
+        Array data = Array.factory(DataType.INT, new int[]{2, 2}, new int[]{0, 1, 1, 0});
+        BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+        assertSame(image, RasterRenderer.render(data, lookup, false, image));
+        BufferedImage other = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+        assertNotSame(other, RasterRenderer.render(data, lookup, false, other));
+        BufferedImage rgb = new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB);
+        assertNotSame(rgb, RasterRenderer.render(data, lookup, false, rgb));
+    }
+}
@@ -0,0 +1,87 @@
+package org.meteoinfo.geometry.geoprocess;
+
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.common.PointD;
+import org.meteoinfo.geometry.shape.PolygonShape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PolygonMaskTest {
+
+    private static List<PointD> ring(double... xy) {
+        List<PointD> points = new ArrayList<>();
+        for (int i = 0; i < xy.length; i += 2) {
+            points.add(new PointD(xy[i], xy[i + 1]));
+        }
+        points.add(new PointD(xy[0], xy[1]));
+        return points;
+    }
+
+    private static List<PolygonShape> createPolygons() {
+        //Concave outline with two holes
+        PolygonShape a = new PolygonShape();
+        a.setPoints(ring(1.3, 1.1, 18.7, 2.2, 17.4, 15.6, 10.1, 8.3, 2.6, 16.9));
+        a.addHole(ring(4.2, 3.1, 8.8, 3.3, 6.1, 7.4));
+        a.addHole(ring(12.5, 4.5, 15.5, 4.5, 15.5, 8.5, 12.5, 8.5));
+        //Triangle with vertices on grid points
+        PolygonShape b = new PolygonShape();
+        b.setPoints(ring(5, 12, 9, 19, 1, 19));
+        return Arrays.asList(a, b);
+    }
+
+    private static double[] range(double start, double end, double delta) {
+        int n = (int) Math.round((end - start) / delta) + 1;
+        double[] r = new double[n];
+        for (int i = 0; i < n; i++) {
+            r[i] = start + i * delta;
+        }
+        return r;
+    }
+
+    private static void assertMask(double[] x, double[] y, List<PolygonShape> polygons) {
+        PolygonMask mask = new PolygonMask(x, y, polygons);
+        int n = 0;
+        for (int i = 0; i < y.length; i++) {
+            for (int j = 0; j < x.length; j++) {
+                boolean expected = GeoComputation.pointInPolygons(polygons, new PointD(x[j], y[i]));
+                assertEquals(expected, mask.get(i, j), "point " + x[j] + ", " + y[i]);
+                if (expected) {
+                    n++;
+                }
+            }
+        }
+        assertTrue(n > 0);
+        assertEquals(n, mask.cardinality());
+    }
+
+    @Test
+    public void testHoles() {
+        List<PolygonShape> polygons = createPolygons();
+        assertMask(range(0, 20, 0.25), range(0, 20, 0.25), polygons);
+        assertMask(range(0.1, 19.9, 0.3), range(0.05, 19.95, 0.45), polygons);
+    }
+
+    @Test
+    public void testDescendingGrid() {
+        List<PolygonShape> polygons = createPolygons();
+        assertMask(range(0, 20, 0.25), range(20, 0, -0.25), polygons);
+        assertMask(range(19.9, 0.1, -0.3), range(19.95, 0.05, -0.45), polygons);
+    }
+
+    @Test
+    public void testCache() {
+        List<PolygonShape> polygons = createPolygons();
+        double[] x = range(0, 20, 0.5);
+        double[] y = range(0, 20, 0.5);
+        PolygonMask m1 = PolygonMask.of(x, y, polygons);
+        assertSame(m1, PolygonMask.of(x.clone(), y.clone(), new ArrayList<>(polygons)));
+
+        //Changed polygon points give a new mask
+        polygons.get(1).setPoints(ring(5, 12, 9, 19, 1, 19, 0.5, 15));
+        assertNotSame(m1, PolygonMask.of(x, y, polygons));
+    }
+}
@@ -0,0 +1,131 @@
+package org.meteoinfo.geometry.geoprocess;
+
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.common.Extent;
+import org.meteoinfo.common.PointD;
+import org.meteoinfo.geometry.shape.PointShape;
+import org.meteoinfo.geometry.shape.PolygonShape;
+import org.meteoinfo.geometry.shape.Shape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class STRTreeTest {
+
+    private static Shape randomShape(Random random) {
+        double x = random.nextDouble() * 360 - 180;
+        double y = random.nextDouble() * 180 - 90;
+        switch (random.nextInt(10)) {
+            case 0:
+                //Missing point
+                return new PointShape(new PointD(Double.NaN, y));
+            case 1:
+            case 2:
+            case 3:
+                return new PointShape(new PointD(x, y));
+            case 4: {
+                PolygonShape shape = new PolygonShape();
+                shape.setExtent(new Extent(Double.NaN, x, y, y + 1));
+                return shape;
+            }
+            case 5: {
+                PolygonShape shape = new PolygonShape();
+                shape.setExtent(null);
+                return shape;
+            }
+            default: {
+                PolygonShape shape = new PolygonShape();
+                double w = random.nextDouble() * random.nextDouble() * 60;
+                double h = random.nextDouble() * random.nextDouble() * 30;
+                shape.setExtent(new Extent(x, x + w, y, y + h));
+                return shape;
+            }
+        }
+    }
+
+    /**
+     * Shape indices found by a brute force scan of the extents
+     */
+    private static int[] scan(List<Shape> shapes, double minX, double minY, double maxX, double maxY) {
+        List<Integer> r = new ArrayList<>();
+        for (int i = 0; i < shapes.size(); i++) {
+            Shape shape = shapes.get(i);
+            double x0, y0, x1, y1;
+            if (shape instanceof PointShape) {
+                PointD p = ((PointShape) shape).getPoint();
+                x0 = x1 = p.X;
+                y0 = y1 = p.Y;
+            } else if (shape.getExtent() == null) {
+                r.add(i);
+                continue;
+            } else {
+                Extent e = shape.getExtent();
+                x0 = e.minX;
+                y0 = e.minY;
+                x1 = e.maxX;
+                y1 = e.maxY;
+            }
+            if (Double.isNaN(x0) || Double.isNaN(y0) || Double.isNaN(x1) || Double.isNaN(y1)
+                    || !(x1 < minX || y1 < minY || maxX < x0 || maxY < y0)) {
+                r.add(i);
+            }
+        }
+        return r.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void testQueryMatchesScan() {
+        Random random = new Random(20);
+        int[] sizes = {0, 1, 2, 15, 16, 17, 100, 1000, 5000};
+        int[] capacities = {2, 4, 16};
+        for (int size : sizes) {
+            for (int capacity : capacities) {
+                List<Shape> shapes = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    shapes.add(randomShape(random));
+                }
+                STRTree tree = new STRTree(shapes, capacity);
+                assertEquals(size, tree.size());
+                for (int q = 0; q < 200; q++) {
+                    double x = random.nextDouble() * 400 - 200;
+                    double y = random.nextDouble() * 200 - 100;
+                    double w, h;
+                    if (q % 10 == 0) {
+                        //Point query
+                        w = h = 0;
+                    } else {
+                        w = random.nextDouble() * random.nextDouble() * 200;
+                        h = random.nextDouble() * random.nextDouble() * 100;
+                    }
+                    int[] expected = scan(shapes, x, y, x + w, y + h);
+                    int[] actual = tree.query(new Extent(x, x + w, y, y + h));
+                    assertArrayEquals(expected, actual, "size " + size + ", capacity " + capacity
+                            + ", query " + Arrays.asList(x, y, x + w, y + h));
+                }
+
+                //Whole extent and disjoint queries
+                assertArrayEquals(scan(shapes, -1000, -1000, 1000, 1000), tree.query(-1000, -1000, 1000, 1000));
+                assertArrayEquals(scan(shapes, 500, 500, 600, 600), tree.query(500, 500, 600, 600));
+            }
+        }
+    }
+
+    @Test
+    public void testPointOnQueryEdge() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            shapes.add(new PointShape(new PointD(i, i)));
+        }
+        STRTree tree = new STRTree(shapes, 4);
+        assertArrayEquals(new int[]{10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20}, tree.query(10, 10, 20, 20));
+        assertArrayEquals(new int[]{25}, tree.query(25, 25, 25, 25));
+        assertArrayEquals(new int[0], tree.query(25.5, 25.5, 25.6, 25.6));
+        Extent extent = tree.getExtent();
+        assertArrayEquals(new double[]{0, 49, 0, 49},
+                new double[]{extent.minX, extent.maxX, extent.minY, extent.maxY});
+    }
+}
@@ -0,0 +1,156 @@
+package org.meteoinfo.geometry.geoprocess;
+
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.common.PointD;
+import org.meteoinfo.geometry.shape.PolygonShape;
+import org.meteoinfo.math.stats.StatsUtil;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.math.ArrayMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZonalStatisticsTest {
+
+    private static final double MISSING = -9999;
+
+    private static PolygonShape rectangle(double x1, double y1, double x2, double y2) {
+        List<PointD> points = new ArrayList<>();
+        points.add(new PointD(x1, y1));
+        points.add(new PointD(x1, y2));
+        points.add(new PointD(x2, y2));
+        points.add(new PointD(x2, y1));
+        points.add(new PointD(x1, y1));
+        PolygonShape polygon = new PolygonShape();
+        polygon.setPoints(points);
+        return polygon;
+    }
+
+    private static List<Number> toList(double[] a) {
+        List<Number> r = new ArrayList<>();
+        for (double v : a) {
+            r.add(v);
+        }
+        return r;
+    }
+
+    /**
+     * Grid slice values with NaN and missing cells
+     */
+    private static Array slice(int ny, int nx, int s) {
+        Array a = Array.factory(DataType.DOUBLE, new int[]{ny, nx});
+        for (int k = 0; k < a.getSize(); k++) {
+            double v = Math.sin(k * 0.37 + s) * 10 + s;
+            if ((k + s) % 11 == 0) {
+                v = Double.NaN;
+            } else if ((k + s) % 13 == 0) {
+                v = MISSING;
+            }
+            a.setDouble(k, v);
+        }
+        return a;
+    }
+
+    /**
+     * Values of a zone by maskout: inside the polygon and not inside the
+     * previous polygons, missing values as NaN
+     */
+    private static Array zoneValues(Array data, double[] x, double[] y, List<PolygonShape> polygons, int zone) {
+        Array r = GeometryUtil.maskout(data, toList(x), toList(y),
+                Collections.singletonList(polygons.get(zone)), Double.NaN);
+        for (int z = 0; z < zone; z++) {
+            Array ones = ArrayMath.add(Array.factory(DataType.DOUBLE, data.getShape()), 1);
+            Array prev = GeometryUtil.maskout(ones, toList(x), toList(y),
+                    Collections.singletonList(polygons.get(z)), Double.NaN);
+            for (int k = 0; k < r.getSize(); k++) {
+                if (!Double.isNaN(prev.getDouble(k))) {
+                    r.setDouble(k, Double.NaN);
+                }
+            }
+        }
+        for (int k = 0; k < r.getSize(); k++) {
+            if (r.getDouble(k) == MISSING) {
+                r.setDouble(k, Double.NaN);
+            }
+        }
+        return r;
+    }
+
+    private static double[] validValues(Array a) {
+        double[] r = new double[(int) a.getSize()];
+        int n = 0;
+        for (int k = 0; k < a.getSize(); k++) {
+            if (!Double.isNaN(a.getDouble(k))) {
+                r[n++] = a.getDouble(k);
+            }
+        }
+        return Arrays.copyOf(r, n);
+    }
+
+    @Test
+    public void testOverlappingZones() {
+        double[] x = new double[21];
+        double[] y = new double[17];
+        for (int j = 0; j < x.length; j++) {
+            x[j] = 100 + j * 0.5;
+        }
+        for (int i = 0; i < y.length; i++) {
+            y[i] = 40 - i * 0.5;
+        }
+        //The second zone overlaps the first one, shared cells belong to the first
+        List<PolygonShape> polygons = Arrays.asList(rectangle(101.2, 33.3, 106.3, 38.1),
+                rectangle(104.1, 35.2, 109.4, 39.6));
+        int nSlice = 3;
+        Array data = Array.factory(DataType.DOUBLE, new int[]{nSlice, y.length, x.length});
+        for (int s = 0, o = 0; s < nSlice; s++) {
+            Array a = slice(y.length, x.length, s);
+            for (int k = 0; k < a.getSize(); k++) {
+                data.setDouble(o++, a.getDouble(k));
+            }
+        }
+
+        ZonalStatistics zs = new ZonalStatistics(x, y, polygons);
+        zs.setMissingValue(MISSING);
+        double[] percentiles = {10, 50, 90};
+        ZonalStatistics.Result r = zs.compute(data, percentiles);
+        zs.setCellAreaWeights(true);
+        ZonalStatistics.Result rw = zs.compute(data);
+        Array area = GeoComputation.getGridArea(x[0], 0.5, x.length, y[0], -0.5, y.length, true, false);
+
+        assertArrayEquals(new int[]{nSlice, 2}, r.getMean().getShape());
+        for (int s = 0; s < nSlice; s++) {
+            Array a = slice(y.length, x.length, s);
+            for (int z = 0; z < 2; z++) {
+                int i = s * 2 + z;
+                Array values = zoneValues(a, x, y, polygons, z);
+                double[] valid = validValues(values);
+                assertTrue(valid.length > 10);
+                assertEquals(valid.length, r.getCount().getInt(i));
+                assertEquals(ArrayMath.mean(values), r.getMean().getDouble(i), 1e-10);
+                assertEquals(Arrays.stream(valid).min().getAsDouble(), r.getMin().getDouble(i));
+                assertEquals(Arrays.stream(valid).max().getAsDouble(), r.getMax().getDouble(i));
+                Array va = Array.factory(DataType.DOUBLE, new int[]{valid.length}, valid);
+                for (int p = 0; p < percentiles.length; p++) {
+                    assertEquals(StatsUtil.percentile(va, percentiles[p]), r.getPercentile(p).getDouble(i), 1e-10);
+                }
+
+                double sum = 0, wsum = 0;
+                for (int k = 0; k < values.getSize(); k++) {
+                    double v = values.getDouble(k);
+                    if (!Double.isNaN(v)) {
+                        double w = Math.abs(area.getDouble(k));
+                        sum += w * v;
+                        wsum += w;
+                    }
+                }
+                assertEquals(sum / wsum, rw.getMean().getDouble(i), 1e-10);
+                assertEquals(sum, rw.getSum().getDouble(i), Math.abs(sum) * 1e-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.meteoinfo.geometry.legend;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LegendClassifierTest {
+
+    private static ColorBreak createBreak(double start, double end, Color color) {
+        ColorBreak cb = new ColorBreak();
+        cb.setStartValue(start);
+        cb.setEndValue(end);
+        cb.setColor(color);
+        return cb;
+    }
+
+    private static LegendScheme createScheme() {
+        List<ColorBreak> breaks = new ArrayList<>();
+        breaks.add(createBreak(0, 10, Color.red));
+        breaks.add(createBreak(10, 20, Color.green));
+        breaks.add(createBreak(20, 30, Color.blue));
+        LegendScheme ls = new LegendScheme(breaks);
+        ls.setLegendType(LegendType.GRADUATED_COLOR);
+        ls.setMinValue(0);
+        ls.setMaxValue(30);
+        return ls;
+    }
+
+    @Test
+    public void testSetExistingBreak() {
+        LegendScheme ls = createScheme();
+        LegendClassifier c = ls.getClassifier();
+        assertEquals(0, c.classify(5));
+
+        ColorBreak cb = ls.getLegendBreak(2);
+        ls.setLegendBreak(0, cb);
+        assertFalse(c.isValid(ls));
+        assertEquals(Color.blue.getRGB(), ls.getClassifier().getColors()[0]);
+        assertEquals(0, ls.getClassifier().classify(25));
+    }
+
+    @Test
+    public void testReorderBreaks() {
+        LegendScheme ls = createScheme();
+        LegendClassifier c = ls.getClassifier();
+        Collections.swap(ls.getLegendBreaks(), 0, 2);
+        assertFalse(c.isValid(ls));
+        c = ls.getClassifier();
+        assertEquals(2, c.classify(5));
+        assertEquals(0, c.classify(25));
+        assertEquals(Color.blue.getRGB(), c.getColors()[0]);
+
+        ls.getLegendBreaks().add(createBreak(30, 40, Color.black));
+        assertFalse(c.isValid(ls));
+        assertEquals(4, ls.getClassifier().getBreakNum());
+
+        c = ls.getClassifier();
+        ls.getLegendBreaks().remove(3);
+        assertFalse(c.isValid(ls));
+        assertEquals(3, ls.getClassifier().getBreakNum());
+
+        c = ls.getClassifier();
+        ls.setLegendBreaks(new ArrayList<>(ls.getLegendBreaks()));
+        assertFalse(c.isValid(ls));
+    }
+
+    @Test
+    public void testBreakChanges() {
+        LegendScheme ls = createScheme();
+        LegendClassifier c = ls.getClassifier();
+
+        //Creating unrelated breaks does not invalidate the classifier
+        for (int i = 0; i < 10; i++) {
+            createBreak(i, i + 1, Color.white);
+        }
+        assertTrue(c.isValid(ls));
+        assertSame(c, ls.getClassifier());
+
+        ls.getLegendBreak(1).setColor(Color.yellow);
+        assertFalse(c.isValid(ls));
+        c = ls.getClassifier();
+        assertEquals(Color.yellow.getRGB(), c.getColors()[1]);
+
+        ls.getLegendBreak(1).setStartValue(15);
+        assertFalse(c.isValid(ls));
+        c = ls.getClassifier();
+        assertEquals(2, c.classify(12));
+        assertEquals(1, c.classify(16));
+    }
+
+    /**
+     * Legend break index by a linear scan of the breaks, as LegendScheme did
+     * before the classifier
+     */
+    private static int linearIndex(LegendScheme ls, double v) {
+        if (v < ls.getMinValue() || v > ls.getMaxValue()) {
+            return -1;
+        }
+        for (int i = 0; i < ls.getBreakNum(); i++) {
+            ColorBreak cb = ls.getLegendBreak(i);
+            double sv = Double.parseDouble(cb.getStartValue().toString());
+            double ev = Double.parseDouble(cb.getEndValue().toString());
+            if (sv == ev) {
+                if (v == sv) {
+                    return i;
+                }
+            } else if (v >= sv && v < ev) {
+                return i;
+            }
+        }
+        return ls.getBreakNum() - 1;
+    }
+
+    private static void assertLinear(LegendScheme ls) {
+        LegendClassifier c = ls.getClassifier();
+        List<Double> values = new ArrayList<>();
+        for (ColorBreak cb : ls.getLegendBreaks()) {
+            double sv = Double.parseDouble(cb.getStartValue().toString());
+            double ev = Double.parseDouble(cb.getEndValue().toString());
+            for (double v : new double[]{sv, ev}) {
+                values.add(v);
+                values.add(Math.nextDown(v));
+                values.add(Math.nextUp(v));
+            }
+            values.add((sv + ev) / 2);
+        }
+        for (double v = ls.getMinValue() - 5; v <= ls.getMaxValue() + 5; v += 0.25) {
+            values.add(v);
+        }
+        values.add(Double.NaN);
+        values.add(Double.NEGATIVE_INFINITY);
+        values.add(Double.POSITIVE_INFINITY);
+        for (double v : values) {
+            assertEquals(linearIndex(ls, v), c.classify(v), "value " + v);
+        }
+    }
+
+    @Test
+    public void testClassify() {
+        LegendScheme ls = createScheme();
+        assertLinear(ls);
+        LegendClassifier c = ls.getClassifier();
+        assertEquals(-1, c.classify(-1));
+        assertEquals(2, c.classify(30));
+
+        //Value in the range but not in any break gives the last break
+        ls.getLegendBreak(1).setEndValue(15);
+        c = ls.getClassifier();
+        assertEquals(2, c.classify(17));
+
+        ls.setLegendType(LegendType.SINGLE_SYMBOL);
+        assertEquals(0, ls.getClassifier().classify(100));
+
+        //Equal start and end values, overlapping breaks and gaps
+        List<ColorBreak> breaks = new ArrayList<>();
+        breaks.add(createBreak(0, 0, Color.white));
+        breaks.add(createBreak(0, 15, Color.red));
+        breaks.add(createBreak(10, 20, Color.green));
+        breaks.add(createBreak(12, 12, Color.yellow));
+        breaks.add(createBreak(20, 20, Color.cyan));
+        breaks.add(createBreak(25, 30, Color.blue));
+        breaks.add(createBreak(5, 28, Color.gray));
+        ls = new LegendScheme(breaks);
+        ls.setLegendType(LegendType.GRADUATED_COLOR);
+        ls.setMinValue(-2);
+        ls.setMaxValue(32);
+        assertLinear(ls);
+
+        ls = new LegendScheme();
+        ls.getLegendBreaks().add(createBreak(1, 1, Color.red));
+        ls.getLegendBreaks().add(createBreak(2, 2, Color.green));
+        ls.getLegendBreaks().add(createBreak(1, 1, Color.blue));
+        ls.setLegendType(LegendType.UNIQUE_VALUE);
+        c = ls.getClassifier();
+        assertEquals(2, c.classify(1));
+        assertEquals(1, c.classify(2));
+        assertEquals(-1, c.classify(3));
+    }
+}
@@ -39,12 +39,14 @@ __all__ = [
 ]
 
 
-def shaperead(fn, encoding=None):
+def shaperead(fn, encoding=None, lazy=False):
     """
     Returns a layer read from a shape file.
     
     :param fn: (*string*) The shape file name (.shp).
     :param encoding: (*string*) Encoding
+    :param lazy: (*boolean*) Memory map polyline and polygon shape files and decode the shape
+        coordinates when they are first drawn or queried. Default is `False`.
     
     :returns: (*MILayer*) The created layer.
     """
@@ -59,7 +61,7 @@ def shaperead(fn, encoding=None):
                 encoding = IOUtil.encodingDetectShp(fn)
                 if encoding == 'ISO8859_1':
                     encoding = 'UTF-8'
-            layer = MILayer(MapDataManage.readMapFile_ShapeFile(fn, encoding))
+            layer = MILayer(MapDataManage.readMapFile_ShapeFile(fn, encoding, lazy))
             if not layer.legend is None:
                 lb = layer.legend.getLegendBreaks()[0]
                 if lb.getBreakType() == BreakTypes.POLYGON_BREAK:
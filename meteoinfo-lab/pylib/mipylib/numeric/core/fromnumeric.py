@@ -83,17 +83,29 @@ def nonzero(a):
     return tuple(r)
 
 
-def where(condition):
+def where(condition, x=None, y=None):
     """
     Return elements, either from x or y, depending on condition.
 
     If only condition is given, return condition.nonzero().
 
-    :param condition: (*array_like*) Input array.
+    :param condition: (*array_like*) Input array. Where True, yield x, otherwise yield y.
+    :param x: (*array_like*) Values from which to choose. Optional.
+    :param y: (*array_like*) Values from which to choose. Optional.
 
-    :returns: (*tuple*) Indices of elements that are non-zero.
+    :returns: (*tuple*) Indices of elements that are non-zero if only condition is given, otherwise
+        (*array*) with elements from x where condition is True, and elements from y elsewhere.
     """
-    return nonzero(condition)
+    if x is None and y is None:
+        return nonzero(condition)
+
+    condition = asarray(condition)
+    x = asarray(x)
+    y = asarray(y)
+    r = ArrayMath.where(condition.asarray(), x.asarray(), y.asarray())
+    if r is None:
+        raise ValueError('Dimension mismatch, can not broadcast!')
+    return NDArray(r)
 
 
 def searchsorted(a, v, side='left', sorter=None):
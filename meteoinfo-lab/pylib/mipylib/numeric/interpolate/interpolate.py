@@ -438,6 +438,8 @@ def griddata(points, values, xi=None, **kwargs):
         method.
     :param centerpoint: (*boolean*) The grid points located at center or border of grid. Default
         is True (pont at center of grid).
+    :param neighbours: (*int*) Only used for 'kriging' method. The number of the nearest points to be used
+        for each grid value interpolation. Default is ``0``, means all points were used.
     :param convexhull: (*boolean*) If the convexhull will be used to mask result grid data. Default is ``False``.
 
     :returns: (*array*) Interpolated grid data (2-D array)
@@ -538,7 +540,9 @@ def griddata(points, values, xi=None, **kwargs):
         r = GeoComputation.interpolation_Surface(x_s.asarray(), y_s.asarray(), values, x_g.asarray(), y_g.asarray())
     elif method == 'kriging':
         beta = kwargs.pop('beta', 1.5)
-        r = InterpUtil.gridDataKriging(x_s.asarray(), y_s.asarray(), values, x_g.asarray(), y_g.asarray(), beta)
+        neighbours = kwargs.pop('neighbours', 0)
+        r = InterpUtil.gridDataKriging(x_s.asarray(), y_s.asarray(), values, x_g.asarray(), y_g.asarray(), beta,
+                                       neighbours)
     else:
         return None
 
@@ -1,9 +1,8 @@
 package org.meteoinfo.math.interpolate;
 
-import org.meteoinfo.math.spatial.KDTree;
+import org.meteoinfo.math.spatial.FlatKDTree;
 import org.meteoinfo.ndarray.Array;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class IDWNDInterpolator extends NearestNDInterpolator{
@@ -56,58 +55,35 @@ public class IDWNDInterpolator extends NearestNDInterpolator{
         this.weightPower = value;
     }
 
-    private void interpolateNeighbours(Array r, List<Array> location, int offset, int endSeg) {
-        int n = location.size();
-        double v, w;
-        for (int i = offset; i < endSeg; i++) {
-            List<KDTree.SearchResult<Double>> srs = kdTree.nearestNeighbours(getCoordinate(location, n, i), pointNum);
-            double v_sum = 0.0;
-            double weight_sum = 0.0;
-            boolean match = false;
-            for (KDTree.SearchResult sr : srs) {
-                v = (double) sr.payload;
-                if (sr.distance == 0) {
-                    r.setDouble(i, v);
-                    match = true;
-                    break;
-                } else {
-                    w = 1. / Math.pow(sr.distance, this.weightPower);
-                    weight_sum += w;
-                    v_sum += v * w;
-                }
-            }
-            if (!match) {
-                r.setDouble(i, v_sum / weight_sum);
+    private double idw(FlatKDTree.Neighbours neighbours, int n) {
+        double v_sum = 0.0;
+        double weight_sum = 0.0;
+        for (int k = 0; k < n; k++) {
+            double v = values[neighbours.getIndex(k)];
+            double distance = neighbours.getDistance(k);
+            if (distance == 0) {
+                return v;
             }
+            double w = 1. / Math.pow(distance, this.weightPower);
+            weight_sum += w;
+            v_sum += v * w;
         }
+        return v_sum / weight_sum;
     }
 
-    private void interpolateRadius(Array r, List<Array> location, int offset, int endSeg) {
-        int n = location.size();
-        double v, w;
+    private void interpolate(Array r, double[][] coords, int offset, int endSeg) {
+        FlatKDTree.Neighbours neighbours = new FlatKDTree.Neighbours();
+        double[] loc = new double[coords.length];
         for (int i = offset; i < endSeg; i++) {
-            List<KDTree.SearchResult<Double>> srs = kdTree.ballSearch_distance(getCoordinate(location, n, i), radius * radius);
-            if (srs == null || srs.size() < this.pointNum) {
-                r.setDouble(i, Double.NaN);
+            for (int d = 0; d < loc.length; d++) {
+                loc[d] = coords[d][i];
+            }
+            if (Double.isNaN(this.radius)) {
+                int n = kdTree.nearestNeighbours(loc, pointNum, neighbours);
+                r.setDouble(i, idw(neighbours, n));
             } else {
-                double v_sum = 0.0;
-                double weight_sum = 0.0;
-                boolean match = false;
-                for (KDTree.SearchResult sr : srs) {
-                    v = (double) sr.payload;
-                    if (sr.distance == 0) {
-                        r.setDouble(i, v);
-                        match = true;
-                        break;
-                    } else {
-                        w = 1. / Math.pow(sr.distance, this.weightPower);
-                        weight_sum += w;
-                        v_sum += v * w;
-                    }
-                }
-                if (!match) {
-                    r.setDouble(i, v_sum / weight_sum);
-                }
+                int n = kdTree.ballSearch(loc, radius * radius, neighbours);
+                r.setDouble(i, n < this.pointNum ? Double.NaN : idw(neighbours, n));
             }
         }
     }
@@ -118,16 +94,9 @@ public class IDWNDInterpolator extends NearestNDInterpolator{
      * @return Interpolated value
      */
     public Array interpolate(List<Array> location) {
-        for (Array a : location) {
-            a = a.copyIfView();
-        }
         int pNum = (int)location.get(0).getSize();
         Array r = Array.factory(this.dataType, location.get(0).getShape());
-        if (Double.isNaN(this.radius)) {
-            interpolateNeighbours(r, location, 0, pNum);
-        } else {
-            interpolateRadius(r, location, 0, pNum);
-        }
+        interpolate(r, getCoordinates(location), 0, pNum);
 
         return r;
     }
@@ -139,48 +108,10 @@ public class IDWNDInterpolator extends NearestNDInterpolator{
      * @return Interpolated value
      */
     public Array interpolate(List<Array> location, int nThreads) {
-        for (Array a : location) {
-            a = a.copyIfView();
-        }
         int pNum = (int)location.get(0).getSize();
         Array r = Array.factory(this.dataType, location.get(0).getShape());
-        int segment = pNum / nThreads;
-        int remainder = pNum % nThreads;
-        int offset = 0;
-        int segEnd;
-        ArrayList<Thread> threads = new ArrayList<>();
-        for (int ti = 0; ti < nThreads; ti++) {
-            // Distribute remainder among first (remainder) threads
-            int segmentSize = (remainder-- > 0) ? segment + 1 : segment;
-            segEnd = offset + segmentSize;
-
-            //Start the thread
-            int finalSegEnd = segEnd;
-            int finalOffset = offset;
-            Thread t = new Thread() {
-                public void run() {
-                    if (Double.isNaN(radius)) {
-                        interpolateNeighbours(r, location, finalOffset, finalSegEnd);
-                    } else {
-                        interpolateRadius(r, location, finalOffset, finalSegEnd);
-                    }
-                }
-            };
-
-            threads.add(t);
-            t.start();
-
-            offset += segmentSize;
-        }
-
-        // Join the threads
-        for (int i = 0; i < threads.size(); i++) {
-            try {
-                threads.get(i).join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        double[][] coords = getCoordinates(location);
+        runSegments(pNum, nThreads, (offset, end) -> interpolate(r, coords, offset, end));
 
         return r;
     }
@@ -11,14 +11,18 @@ import org.apache.commons.math4.legacy.analysis.interpolation.*;
 import org.apache.commons.math4.legacy.analysis.polynomials.PolynomialSplineFunction;
 import org.meteoinfo.common.PointD;
 import org.meteoinfo.ndarray.*;
+import org.meteoinfo.ndarray.math.ArrayParallel;
 import org.meteoinfo.ndarray.math.ArrayUtil;
-import org.meteoinfo.math.spatial.KDTree;
+import org.meteoinfo.math.spatial.FlatKDTree;
 import org.meteoinfo.math.interpolate.KrigingInterpolation1D;
 import org.meteoinfo.math.interpolate.KrigingInterpolation2D;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -26,6 +30,12 @@ import java.util.List;
  */
 public class InterpUtil {
 
+    /**
+     * Number of grid points whose station neighbours are searched together in
+     * one objective analysis block
+     */
+    private static final int ANALYSIS_BLOCK_SIZE = 1 << 16;
+
     /**
      * Make linear interpolation function - PolynomialSplineFunction
      *
@@ -272,168 +282,31 @@ public class InterpUtil {
      */
     public static Array cressman(List<Number> x_s, List<Number> y_s, Array v_s, List<Number> X, List<Number> Y,
             List<Number> radList) {
-        v_s = v_s.copyIfView();
-
-        int xNum = X.size();
-        int yNum = Y.size();
-        int pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{yNum, xNum});
-        int irad = radList.size();
-        int i, j;
-
-        //Loop through each stn report and convert stn lat/lon to grid coordinates
-        double xMin = X.get(0).doubleValue();
-        double xMax;
-        double yMin = Y.get(0).doubleValue();
-        double yMax;
-        double xDelt = X.get(1).doubleValue() - X.get(0).doubleValue();
-        double yDelt = Y.get(1).doubleValue() - Y.get(0).doubleValue();
-        double x, y;
-        double sum;
-        double[][] stationData = new double[pNum][5];
-        for (i = 0; i < pNum; i++) {
-            x = x_s.get(i).doubleValue();
-            y = y_s.get(i).doubleValue();
-            stationData[i][0] = x;
-            stationData[i][1] = y;
-            stationData[i][2] = v_s.getDouble(i);
-            stationData[i][3] = (x - xMin) / xDelt;
-            stationData[i][4] = (y - yMin) / yDelt;
-        }
-
-        //Construct K-D tree
-        KDTree.Euclidean<double[]> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            if (!Double.isNaN(stationData[i][2]))
-                kdTree.addPoint(new double[]{stationData[i][0], stationData[i][1]}, stationData[i]);
-        }
-
-        double HITOP = -999900000000000000000.0;
-        double HIBOT = 999900000000000000000.0;
-        double[][] TOP = new double[yNum][xNum];
-        double[][] BOT = new double[yNum][xNum];
-        for (i = 0; i < yNum; i++) {
-            for (j = 0; j < xNum; j++) {
-                TOP[i][j] = HITOP;
-                BOT[i][j] = HIBOT;
-            }
-        }
-
-        //Initial grid values are average of station reports within the first radius
-        double val, sx, sy, sxi, syi;
-        double rad;
-        int stNum;
-        if (radList.size() > 0) {
-            rad = radList.get(0).doubleValue();
-        } else {
-            rad = 4;
-        }
-        for (i = 0; i < yNum; i++) {
-            y = Y.get(i).doubleValue();
-            for (j = 0; j < xNum; j++) {
-                x = X.get(j).doubleValue();
-                stNum = 0;
-                sum = 0;
-                ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                for (double[] station : neighbours) {
-                    val = station[2];
-                    sum += val;
-                    stNum += 1;
-                    if (TOP[i][j] < val) {
-                        TOP[i][j] = val;
-                    }
-                    if (BOT[i][j] > val) {
-                        BOT[i][j] = val;
-                    }
-                }
-                if (stNum == 0) {
-                    r.setDouble(i * xNum + j, Double.NaN);
-                } else {
-                    r.setDouble(i * xNum + j, sum / stNum);
-                }
-            }
-        }
-
-        //Perform the objective analysis
-        for (int p = 0; p < irad; p++) {
-            rad = radList.get(p).doubleValue();
-            for (i = 0; i < yNum; i++) {
-                y = Y.get(i).doubleValue();
-                for (j = 0; j < xNum; j++) {
-                    if (Double.isNaN(r.getDouble(i * xNum + j))) {
-                        continue;
-                    }
-
-                    x = X.get(j).doubleValue();
-                    sum = 0;
-                    double wSum = 0;
-                    ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                    for (double[] station : neighbours) {
-                        val = station[2];
-                        sx = station[0];
-                        sy = station[1];
-                        sxi = station[3];
-                        syi = station[4];
-                        
-                        if (sxi < 0 || sxi >= xNum - 1 || syi < 0 || syi >= yNum - 1) {
-                            continue;
-                        }
-                        
-                        double dis = Math.sqrt(Math.pow(sx - x, 2) + Math.pow(sy - y, 2));
-
-                        int i1 = (int) syi;
-                        int j1 = (int) sxi;
-                        int i2 = i1 + 1;
-                        int j2 = j1 + 1;
-                        double a = r.getDouble(i1 * xNum + j1);
-                        double b = r.getDouble(i1 * xNum + j2);
-                        double c = r.getDouble(i2 * xNum + j1);
-                        double d = r.getDouble(i2 * xNum + j2);
-                        List<Double> dList = new ArrayList<>();
-                        if (!Double.isNaN(a)) {
-                            dList.add(a);
-                        }
-                        if (!Double.isNaN(b)) {
-                            dList.add(b);
-                        }
-                        if (!Double.isNaN(c)) {
-                            dList.add(c);
-                        }
-                        if (Double.isNaN(d)) {
-                            dList.add(d);
-                        }
-
-                        double calVal;
-                        if (dList.isEmpty()) {
-                            continue;
-                        } else if (dList.size() == 1) {
-                            calVal = dList.get(0);
-                        } else if (dList.size() <= 3) {
-                            double aSum = 0;
-                            for (double dd : dList) {
-                                aSum += dd;
-                            }
-                            calVal = aSum / dList.size();
-                        } else {
-                            double x1val = a + (c - a) * (syi - i1);
-                            double x2val = b + (d - b) * (syi - i1);
-                            calVal = x1val + (x2val - x1val) * (sxi - j1);
-                        }
-                        double eVal = val - calVal;
-                        double w = (rad * rad - dis * dis) / (rad * rad + dis * dis);
-                        sum += eVal * w;
-                        wSum += w;
-                    }
-                    if (wSum >= 0.000001) {
-                        double aData = r.getDouble(i * xNum + j) + sum / wSum;
-                        r.setDouble(i * xNum + j, Math.max(BOT[i][j], Math.min(TOP[i][j], aData)));
-                    }
-                }
-            }
-        }
+        return cressman(x_s, y_s, v_s, X, Y, radList, false);
+    }
 
-        //Return
-        return r;
+    /**
+     * Cressman analysis
+     *
+     * @param x_s scatter X array
+     * @param y_s scatter Y array
+     * @param v_s scatter value array
+     * @param X x array
+     * @param Y y array
+     * @param radList radii list
+     * @param parallel Search the station neighbours of grid rows in parallel
+     * or not. The analysis values are the same either way
+     * @return result grid data
+     */
+    public static Array cressman(List<Number> x_s, List<Number> y_s, Array v_s, List<Number> X, List<Number> Y,
+            List<Number> radList, boolean parallel) {
+        double[] x = toDouble(X);
+        double[] y = toDouble(Y);
+        double[] r = objectiveAnalysis(toDouble(x_s), toDouble(y_s), toDouble(v_s), x, y, radList,
+                (rad, dis) -> 1,
+                (rad, dis) -> (rad * rad - dis) / (rad * rad + dis), parallel);
+
+        return Array.factory(DataType.DOUBLE, new int[]{y.length, x.length}, r);
     }
 
     /**
@@ -453,173 +326,35 @@ public class InterpUtil {
      */
     public static Array barnes(List<Number> x_s, List<Number> y_s, Array v_s, List<Number> X, List<Number> Y,
             List<Number> radList, double kappa, double gamma) {
-        v_s = v_s.copyIfView();
-
-        int xNum = X.size();
-        int yNum = Y.size();
-        int pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{yNum, xNum});
-        int irad = radList.size();
-        int i, j;
-
-        //Loop through each stn report and convert stn lat/lon to grid coordinates
-        double xMin = X.get(0).doubleValue();
-        double xMax;
-        double yMin = Y.get(0).doubleValue();
-        double yMax;
-        double xDelt = X.get(1).doubleValue() - X.get(0).doubleValue();
-        double yDelt = Y.get(1).doubleValue() - Y.get(0).doubleValue();
-        double x, y;
-        double sum, wSum, w;
-        double[][] stationData = new double[pNum][5];
-        for (i = 0; i < pNum; i++) {
-            x = x_s.get(i).doubleValue();
-            y = y_s.get(i).doubleValue();
-            stationData[i][0] = x;
-            stationData[i][1] = y;
-            stationData[i][2] = v_s.getDouble(i);
-            stationData[i][3] = (x - xMin) / xDelt;
-            stationData[i][4] = (y - yMin) / yDelt;
-        }
-
-        //Construct K-D tree
-        KDTree.Euclidean<double[]> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            if (!Double.isNaN(stationData[i][2]))
-                kdTree.addPoint(new double[]{stationData[i][0], stationData[i][1]}, stationData[i]);
-        }
-
-        double HITOP = -999900000000000000000.0;
-        double HIBOT = 999900000000000000000.0;
-        double[][] TOP = new double[yNum][xNum];
-        double[][] BOT = new double[yNum][xNum];
-        for (i = 0; i < yNum; i++) {
-            for (j = 0; j < xNum; j++) {
-                TOP[i][j] = HITOP;
-                BOT[i][j] = HIBOT;
-            }
-        }
-
-        //Initial grid values are average of station reports within the first radius
-        double val, sx, sy, sxi, syi;
-        double rad;
-        int stNum;
-        if (radList.size() > 0) {
-            rad = radList.get(0).doubleValue();
-        } else {
-            rad = 4;
-        }
-        for (i = 0; i < yNum; i++) {
-            y = Y.get(i).doubleValue();
-            for (j = 0; j < xNum; j++) {
-                x = X.get(j).doubleValue();
-                stNum = 0;
-                sum = 0;
-                wSum = 0;
-                ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                for (double[] station : neighbours) {
-                    val = station[2];
-                    sx = station[0];
-                    sy = station[1];
-                    double dis = Math.pow(sx - x, 2) + Math.pow(sy - y, 2);
-                    w = Math.exp(-dis / (4 * kappa));
-                    wSum += w;
-                    sum += w * val;
-                    stNum += 1;
-                    if (TOP[i][j] < val) {
-                        TOP[i][j] = val;
-                    }
-                    if (BOT[i][j] > val) {
-                        BOT[i][j] = val;
-                    }
-                }
-                if (stNum == 0) {
-                    r.setDouble(i * xNum + j, Double.NaN);
-                } else {
-                    r.setDouble(i * xNum + j, sum / stNum);
-                }
-            }
-        }
-
-        //Perform the objective analysis
-        for (int p = 0; p < irad; p++) {
-            rad = radList.get(p).doubleValue();
-            for (i = 0; i < yNum; i++) {
-                y = Y.get(i).doubleValue();
-                for (j = 0; j < xNum; j++) {
-                    if (Double.isNaN(r.getDouble(i * xNum + j))) {
-                        continue;
-                    }
-
-                    x = X.get(j).doubleValue();
-                    sum = 0;
-                    wSum = 0;
-                    ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                    for (double[] station : neighbours) {
-                        val = station[2];
-                        sx = station[0];
-                        sy = station[1];
-                        sxi = station[3];
-                        syi = station[4];
-                        
-                        if (sxi < 0 || sxi >= xNum - 1 || syi < 0 || syi >= yNum - 1) {
-                            continue;
-                        }
-                        
-                        double dis = Math.pow(sx - x, 2) + Math.pow(sy - y, 2);
-                        int i1 = (int) syi;
-                        int j1 = (int) sxi;
-                        int i2 = i1 + 1;
-                        int j2 = j1 + 1;
-                        double a = r.getDouble(i1 * xNum + j1);
-                        double b = r.getDouble(i1 * xNum + j2);
-                        double c = r.getDouble(i2 * xNum + j1);
-                        double d = r.getDouble(i2 * xNum + j2);
-                        List<Double> dList = new ArrayList<>();
-                        if (!Double.isNaN(a)) {
-                            dList.add(a);
-                        }
-                        if (!Double.isNaN(b)) {
-                            dList.add(b);
-                        }
-                        if (!Double.isNaN(c)) {
-                            dList.add(c);
-                        }
-                        if (Double.isNaN(d)) {
-                            dList.add(d);
-                        }
-
-                        double calVal;
-                        if (dList.isEmpty()) {
-                            continue;
-                        } else if (dList.size() == 1) {
-                            calVal = dList.get(0);
-                        } else if (dList.size() <= 3) {
-                            double aSum = 0;
-                            for (double dd : dList) {
-                                aSum += dd;
-                            }
-                            calVal = aSum / dList.size();
-                        } else {
-                            double x1val = a + (c - a) * (syi - i1);
-                            double x2val = b + (d - b) * (syi - i1);
-                            calVal = x1val + (x2val - x1val) * (sxi - j1);
-                        }
-                        double eVal = val - calVal;
-                        w = Math.exp(-dis / (4 * kappa * gamma));
-                        sum += eVal * w;
-                        wSum += w;
-                    }
-                    if (wSum >= 0.000001) {
-                        double aData = r.getDouble(i * xNum + j) + sum / wSum;
-                        r.setDouble(i * xNum + j, Math.max(BOT[i][j], Math.min(TOP[i][j], aData)));
-                    }
-                }
-            }
-        }
+        return barnes(x_s, y_s, v_s, X, Y, radList, kappa, gamma, false);
+    }
 
-        //Return
-        return r;
+    /**
+     * Barnes analysis
+     *
+     * @param x_s scatter X array
+     * @param y_s scatter Y array
+     * @param v_s scatter value array
+     * @param X x array
+     * @param Y y array
+     * @param radList radii list
+     * @param kappa A falloff parameter that controls the width of the Gaussian
+     * function
+     * @param gamma The smoothing parameter, is constrained to be between 0.2
+     * and 1.0
+     * @param parallel Search the station neighbours of grid rows in parallel
+     * or not. The analysis values are the same either way
+     * @return result grid data
+     */
+    public static Array barnes(List<Number> x_s, List<Number> y_s, Array v_s, List<Number> X, List<Number> Y,
+            List<Number> radList, double kappa, double gamma, boolean parallel) {
+        double[] x = toDouble(X);
+        double[] y = toDouble(Y);
+        double[] r = objectiveAnalysis(toDouble(x_s), toDouble(y_s), toDouble(v_s), x, y, radList,
+                (rad, dis) -> Math.exp(-dis / (4 * kappa)),
+                (rad, dis) -> Math.exp(-dis / (4 * kappa * gamma)), parallel);
+
+        return Array.factory(DataType.DOUBLE, new int[]{y.length, x.length}, r);
     }
 
     /**
@@ -641,171 +376,219 @@ public class InterpUtil {
                                List<Double> radList, double kappa, double gamma) {
         int xNum = X.length;
         int yNum = Y.length;
-        int pNum = x_s.length;
+        double[] data = objectiveAnalysis(x_s, y_s, v_s, X, Y, radList,
+                (rad, dis) -> Math.exp(-dis / (4 * kappa)),
+                (rad, dis) -> Math.exp(-dis / (4 * kappa * gamma)), false);
         double[][] r = new double[yNum][xNum];
-        int irad = radList.size();
-        int i, j;
+        for (int i = 0; i < yNum; i++) {
+            System.arraycopy(data, i * xNum, r[i], 0, xNum);
+        }
+
+        return r;
+    }
+
+    /**
+     * Successive correction objective analysis shared by Cressman and Barnes
+     * methods
+     *
+     * @param x_s Scatter X coordinates
+     * @param y_s Scatter Y coordinates
+     * @param v_s Scatter values
+     * @param X Grid X coordinates
+     * @param Y Grid Y coordinates
+     * @param radList Radii list
+     * @param firstWeight First guess weight function of radius and squared distance
+     * @param weight Analysis weight function of radius and squared distance
+     * @param parallel Analyse grid rows in parallel or not
+     * @return Result grid data
+     */
+    private static double[] objectiveAnalysis(double[] x_s, double[] y_s, double[] v_s, double[] X, double[] Y,
+            List<? extends Number> radList, DoubleBinaryOperator firstWeight, DoubleBinaryOperator weight,
+            boolean parallel) {
+        int xNum = X.length;
+        int yNum = Y.length;
+        int pNum = x_s.length;
+        double[] r = new double[yNum * xNum];
 
         //Loop through each stn report and convert stn lat/lon to grid coordinates
-        double xMin = X[0];
-        double xMax;
-        double yMin = Y[0];
-        double yMax;
         double xDelt = X[1] - X[0];
         double yDelt = Y[1] - Y[0];
-        double x, y;
-        double sum, wSum, w;
-        double[][] stationData = new double[pNum][5];
-        for (i = 0; i < pNum; i++) {
-            x = x_s[i];
-            y = y_s[i];
-            stationData[i][0] = x;
-            stationData[i][1] = y;
-            stationData[i][2] = v_s[i];
-            stationData[i][3] = (x - xMin) / xDelt;
-            stationData[i][4] = (y - yMin) / yDelt;
+        double[] sxi = new double[pNum];
+        double[] syi = new double[pNum];
+        int[] stations = new int[pNum];
+        int stNum = 0;
+        for (int s = 0; s < pNum; s++) {
+            sxi[s] = (x_s[s] - X[0]) / xDelt;
+            syi[s] = (y_s[s] - Y[0]) / yDelt;
+            if (!Double.isNaN(v_s[s])) {
+                stations[stNum++] = s;
+            }
         }
-
-        //Construct K-D tree
-        KDTree.Euclidean<double[]> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            if (!Double.isNaN(stationData[i][2]))
-                kdTree.addPoint(new double[]{stationData[i][0], stationData[i][1]}, stationData[i]);
+        double[][] points = new double[2][stNum];
+        for (int k = 0; k < stNum; k++) {
+            points[0][k] = x_s[stations[k]];
+            points[1][k] = y_s[stations[k]];
         }
+        FlatKDTree kdTree = new FlatKDTree(points);
 
         double HITOP = -999900000000000000000.0;
         double HIBOT = 999900000000000000000.0;
-        double[][] TOP = new double[yNum][xNum];
-        double[][] BOT = new double[yNum][xNum];
-        for (i = 0; i < yNum; i++) {
-            for (j = 0; j < xNum; j++) {
-                TOP[i][j] = HITOP;
-                BOT[i][j] = HIBOT;
-            }
-        }
+        double[] TOP = new double[yNum * xNum];
+        double[] BOT = new double[yNum * xNum];
+        ThreadLocal<FlatKDTree.Neighbours> buffers = ThreadLocal.withInitial(FlatKDTree.Neighbours::new);
 
         //Initial grid values are average of station reports within the first radius
-        double val, sx, sy, sxi, syi;
-        double rad;
-        int stNum;
-        if (radList.size() > 0) {
-            rad = radList.get(0).doubleValue();
-        } else {
-            rad = 4;
-        }
-        for (i = 0; i < yNum; i++) {
-            y = Y[i];
-            for (j = 0; j < xNum; j++) {
-                x = X[j];
-                stNum = 0;
-                sum = 0;
-                wSum = 0;
-                ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                for (double[] station : neighbours) {
-                    val = station[2];
-                    sx = station[0];
-                    sy = station[1];
-                    double dis = Math.pow(sx - x, 2) + Math.pow(sy - y, 2);
-                    w = Math.exp(-dis / (4 * kappa));
-                    wSum += w;
-                    sum += w * val;
-                    stNum += 1;
-                    if (TOP[i][j] < val) {
-                        TOP[i][j] = val;
-                    }
-                    if (BOT[i][j] > val) {
-                        BOT[i][j] = val;
-                    }
-                }
-                if (stNum == 0) {
-                    r[i][j] = Double.NaN;
-                } else {
-                    r[i][j] = sum / stNum;
+        double rad0 = radList.isEmpty() ? 4 : radList.get(0).doubleValue();
+        forEachRow(yNum, parallel, i -> {
+            FlatKDTree.Neighbours buffer = buffers.get();
+            double[] loc = new double[]{0, Y[i]};
+            for (int j = 0; j < xNum; j++) {
+                loc[0] = X[j];
+                int n = kdTree.ballSearch(loc, rad0 * rad0, buffer);
+                double sum = 0;
+                double top = HITOP;
+                double bot = HIBOT;
+                for (int k = 0; k < n; k++) {
+                    double val = v_s[stations[buffer.getIndex(k)]];
+                    sum += firstWeight.applyAsDouble(rad0, buffer.getDistance(k)) * val;
+                    top = Math.max(top, val);
+                    bot = Math.min(bot, val);
                 }
+                int idx = i * xNum + j;
+                r[idx] = n == 0 ? Double.NaN : sum / n;
+                TOP[idx] = top;
+                BOT[idx] = bot;
             }
-        }
-
-        //Perform the objective analysis
-        for (int p = 0; p < irad; p++) {
-            rad = radList.get(p).doubleValue();
-            for (i = 0; i < yNum; i++) {
-                y = Y[i];
-                for (j = 0; j < xNum; j++) {
-                    if (Double.isNaN(r[i][j])) {
-                        continue;
-                    }
-
-                    x = X[j];
-                    sum = 0;
-                    wSum = 0;
-                    ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                    for (double[] station : neighbours) {
-                        val = station[2];
-                        sx = station[0];
-                        sy = station[1];
-                        sxi = station[3];
-                        syi = station[4];
-
-                        if (sxi < 0 || sxi >= xNum - 1 || syi < 0 || syi >= yNum - 1) {
+        });
+
+        //Perform the objective analysis. The neighbour search and weights of a
+        //block of rows run in parallel, the corrections are applied in grid
+        //order as each one reads the grid values corrected before it
+        int blockRows = Math.max(1, ANALYSIS_BLOCK_SIZE / xNum);
+        int[][] neighbours = new int[Math.min(yNum, blockRows) * xNum][];
+        double[][] weights = new double[neighbours.length][];
+        for (Number radius : radList) {
+            double rad = radius.doubleValue();
+            for (int i0 = 0; i0 < yNum; i0 += blockRows) {
+                int start = i0;
+                int end = Math.min(yNum, i0 + blockRows);
+                forEachRow(end - start, parallel, ii -> {
+                    FlatKDTree.Neighbours buffer = buffers.get();
+                    double[] loc = new double[]{0, Y[start + ii]};
+                    for (int j = 0; j < xNum; j++) {
+                        int c = ii * xNum + j;
+                        if (Double.isNaN(r[(start + ii) * xNum + j])) {
+                            neighbours[c] = null;
                             continue;
                         }
 
-                        double dis = Math.pow(sx - x, 2) + Math.pow(sy - y, 2);
-                        int i1 = (int) syi;
-                        int j1 = (int) sxi;
-                        int i2 = i1 + 1;
-                        int j2 = j1 + 1;
-                        double a = r[i1][j1];
-                        double b = r[i1][j2];
-                        double c = r[i2][j1];
-                        double d = r[i2][j2];
-                        List<Double> dList = new ArrayList<>();
-                        if (!Double.isNaN(a)) {
-                            dList.add(a);
-                        }
-                        if (!Double.isNaN(b)) {
-                            dList.add(b);
-                        }
-                        if (!Double.isNaN(c)) {
-                            dList.add(c);
-                        }
-                        if (Double.isNaN(d)) {
-                            dList.add(d);
+                        loc[0] = X[j];
+                        int n = kdTree.ballSearch(loc, rad * rad, buffer);
+                        int[] st = new int[n];
+                        double[] w = new double[n];
+                        for (int k = 0; k < n; k++) {
+                            st[k] = stations[buffer.getIndex(k)];
+                            w[k] = weight.applyAsDouble(rad, buffer.getDistance(k));
                         }
+                        neighbours[c] = st;
+                        weights[c] = w;
+                    }
+                });
 
-                        double calVal;
-                        if (dList.isEmpty()) {
+                for (int c = 0, idx = start * xNum; idx < end * xNum; c++, idx++) {
+                    int[] st = neighbours[c];
+                    if (st == null) {
+                        continue;
+                    }
+
+                    double[] w = weights[c];
+                    double sum = 0;
+                    double wSum = 0;
+                    for (int k = 0; k < st.length; k++) {
+                        int s = st[k];
+                        double calVal = background(r, xNum, yNum, sxi[s], syi[s]);
+                        if (Double.isNaN(calVal)) {
                             continue;
-                        } else if (dList.size() == 1) {
-                            calVal = dList.get(0);
-                        } else if (dList.size() <= 3) {
-                            double aSum = 0;
-                            for (double dd : dList) {
-                                aSum += dd;
-                            }
-                            calVal = aSum / dList.size();
-                        } else {
-                            double x1val = a + (c - a) * (syi - i1);
-                            double x2val = b + (d - b) * (syi - i1);
-                            calVal = x1val + (x2val - x1val) * (sxi - j1);
                         }
-                        double eVal = val - calVal;
-                        w = Math.exp(-dis / (4 * kappa * gamma));
-                        sum += eVal * w;
-                        wSum += w;
+                        sum += (v_s[s] - calVal) * w[k];
+                        wSum += w[k];
                     }
                     if (wSum >= 0.000001) {
-                        double aData = r[i][j] + sum / wSum;
-                        r[i][j] = Math.max(BOT[i][j], Math.min(TOP[i][j], aData));
+                        double aData = r[idx] + sum / wSum;
+                        r[idx] = Math.max(BOT[idx], Math.min(TOP[idx], aData));
                     }
                 }
             }
         }
 
-        //Return
         return r;
     }
 
+    /**
+     * Interpolate grid data to a station from the four surrounding grid points
+     *
+     * @param r Grid data
+     * @param xNum Grid x number
+     * @param yNum Grid y number
+     * @param sxi Station x grid coordinate
+     * @param syi Station y grid coordinate
+     * @return Background value, NaN if the station is out of the grid or the
+     * surrounding grid points are all NaN
+     */
+    private static double background(double[] r, int xNum, int yNum, double sxi, double syi) {
+        if (sxi < 0 || sxi >= xNum - 1 || syi < 0 || syi >= yNum - 1) {
+            return Double.NaN;
+        }
+
+        int i1 = (int) syi;
+        int j1 = (int) sxi;
+        double a = r[i1 * xNum + j1];
+        double b = r[i1 * xNum + j1 + 1];
+        double c = r[(i1 + 1) * xNum + j1];
+        double d = r[(i1 + 1) * xNum + j1 + 1];
+        if (Double.isNaN(a) || Double.isNaN(b) || Double.isNaN(c) || Double.isNaN(d)) {
+            double aSum = 0;
+            int n = 0;
+            for (double dd : new double[]{a, b, c, d}) {
+                if (!Double.isNaN(dd)) {
+                    aSum += dd;
+                    n += 1;
+                }
+            }
+            return n == 0 ? Double.NaN : aSum / n;
+        } else {
+            double x1val = a + (c - a) * (syi - i1);
+            double x2val = b + (d - b) * (syi - i1);
+            return x1val + (x2val - x1val) * (sxi - j1);
+        }
+    }
+
+    private static double[] toDouble(List<? extends Number> values) {
+        double[] r = new double[values.size()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = values.get(i).doubleValue();
+        }
+        return r;
+    }
+
+    private static double[] toDouble(Array a) {
+        double[] r = new double[(int) a.getSize()];
+        IndexIterator iter = a.getIndexIterator();
+        for (int i = 0; i < r.length; i++) {
+            r[i] = iter.getDoubleNext();
+        }
+        return r;
+    }
+
+    private static void forEachRow(int rowNum, boolean parallel, IntConsumer row) {
+        if (parallel) {
+            IntStream.range(0, rowNum).parallel().forEach(row);
+        } else {
+            for (int i = 0; i < rowNum; i++) {
+                row.accept(i);
+            }
+        }
+    }
     /**
      * Barnes analysis
      *
@@ -912,7 +695,7 @@ public class InterpUtil {
                     if (!Double.isNaN(c)) {
                         dList.add(c);
                     }
-                    if (Double.isNaN(d)) {
+                    if (!Double.isNaN(d)) {
                         dList.add(d);
                     }
 
@@ -1517,51 +1300,9 @@ public class InterpUtil {
      */
     public static Array interpolation_Nearest(List<Number> x_s, List<Number> y_s, Array a, List<Number> X, List<Number> Y,
                                               double radius) {
-        int rowNum, colNum, pNum;
-        colNum = X.size();
-        rowNum = Y.size();
-        pNum = x_s.size();
-        Array rdata = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        double gx, gy;
-
-        //Construct K-D tree
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        IndexIterator iter = a.getIndexIterator();
-        double v;
-        for (int i = 0; i < pNum; i++) {
-            v = iter.getDoubleNext();
-//            if (!Double.isNaN(v)) {
-//                kdTree.addPoint(new double[]{x_s.get(i).doubleValue(), y_s.get(i).doubleValue()}, v);
-//            }
-            kdTree.addPoint(new double[]{x_s.get(i).doubleValue(), y_s.get(i).doubleValue()}, v);
-        }
-
-        //Loop
-        if (radius == Double.POSITIVE_INFINITY) {
-            for (int i = 0; i < rowNum; i++) {
-                gy = Y.get(i).doubleValue();
-                for (int j = 0; j < colNum; j++) {
-                    gx = X.get(j).doubleValue();
-                    KDTree.SearchResult r = kdTree.nearestNeighbours(new double[]{gx, gy}, 1).get(0);
-                    rdata.setDouble(i * colNum + j, ((double) r.payload));
-                }
-            }
-        } else {
-            for (int i = 0; i < rowNum; i++) {
-                gy = Y.get(i).doubleValue();
-                for (int j = 0; j < colNum; j++) {
-                    gx = X.get(j).doubleValue();
-                    KDTree.SearchResult r = kdTree.nearestNeighbours(new double[]{gx, gy}, 1).get(0);
-                    if (Math.sqrt(r.distance) <= radius) {
-                        rdata.setDouble(i * colNum + j, ((double) r.payload));
-                    } else {
-                        rdata.setDouble(i * colNum + j, Double.NaN);
-                    }
-                }
-            }
-        }
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s)}, toDouble(a), false);
 
-        return rdata;
+        return gridNearest(kdTree, new double[][]{toDouble(X), toDouble(Y)}, radius);
     }
 
     /**
@@ -1577,56 +1318,9 @@ public class InterpUtil {
      */
     public static Array interpolation_Nearest(Array x_s, Array y_s, Array a, Array X, Array Y,
                                               double radius) {
-        x_s = x_s.copyIfView();
-        y_s = y_s.copyIfView();
-        a = a.copyIfView();
-        X = X.copyIfView();
-        Y = Y.copyIfView();
-
-        int rowNum, colNum, pNum;
-        colNum = (int)X.getSize();
-        rowNum = (int)Y.getSize();
-        pNum = (int)x_s.getSize();
-        Array rdata = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        double gx, gy;
-
-        //Construct K-D tree
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        double v;
-        for (int i = 0; i < pNum; i++) {
-            v = a.getDouble(i);
-//            if (!Double.isNaN(v)) {
-//                kdTree.addPoint(new double[]{x_s.get(i).doubleValue(), y_s.get(i).doubleValue()}, v);
-//            }
-            kdTree.addPoint(new double[]{x_s.getDouble(i), y_s.getDouble(i)}, v);
-        }
-
-        //Loop
-        if (radius == Double.POSITIVE_INFINITY) {
-            for (int i = 0; i < rowNum; i++) {
-                gy = Y.getDouble(i);
-                for (int j = 0; j < colNum; j++) {
-                    gx = X.getDouble(j);
-                    KDTree.SearchResult r = kdTree.nearestNeighbours(new double[]{gx, gy}, 1).get(0);
-                    rdata.setDouble(i * colNum + j, ((double) r.payload));
-                }
-            }
-        } else {
-            for (int i = 0; i < rowNum; i++) {
-                gy = Y.getDouble(i);
-                for (int j = 0; j < colNum; j++) {
-                    gx = X.getDouble(j);
-                    KDTree.SearchResult r = kdTree.nearestNeighbours(new double[]{gx, gy}, 1).get(0);
-                    if (Math.sqrt(r.distance) <= radius) {
-                        rdata.setDouble(i * colNum + j, ((double) r.payload));
-                    } else {
-                        rdata.setDouble(i * colNum + j, Double.NaN);
-                    }
-                }
-            }
-        }
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s)}, toDouble(a), false);
 
-        return rdata;
+        return gridNearest(kdTree, new double[][]{toDouble(X), toDouble(Y)}, radius);
     }
 
     /**
@@ -1644,66 +1338,10 @@ public class InterpUtil {
      */
     public static Array interpolation_Nearest(Array x_s, Array y_s, Array z_s, Array a, Array X, Array Y,
                                               Array Z, double radius) {
-        x_s = x_s.copyIfView();
-        y_s = y_s.copyIfView();
-        z_s = z_s.copyIfView();
-        a = a.copyIfView();
-        X = X.copyIfView();
-        Y = Y.copyIfView();
-        Z = Z.copyIfView();
-
-        int xNum, yNum, zNum, pNum;
-        xNum = (int)X.getSize();
-        yNum = (int)Y.getSize();
-        zNum = (int)Z.getSize();
-        pNum = (int)x_s.getSize();
-        Array rdata = Array.factory(DataType.DOUBLE, new int[]{zNum, yNum, xNum});
-        double gx, gy, gz;
-
-        //Construct K-D tree
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(3);
-        double v;
-        for (int i = 0; i < pNum; i++) {
-            v = a.getDouble(i);
-            kdTree.addPoint(new double[]{x_s.getDouble(i), y_s.getDouble(i), z_s.getDouble(i)}, v);
-        }
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s), toDouble(z_s)},
+                toDouble(a), false);
 
-        //Loop
-        if (radius == Double.POSITIVE_INFINITY) {
-            int ii = 0;
-            for (int k = 0; k < zNum; k++) {
-                gz = Z.getDouble(k);
-                for (int i = 0; i < yNum; i++) {
-                    gy = Y.getDouble(i);
-                    for (int j = 0; j < xNum; j++) {
-                        gx = X.getDouble(j);
-                        KDTree.SearchResult r = kdTree.nearestNeighbours(new double[]{gx, gy, gz}, 1).get(0);
-                        rdata.setDouble(ii, ((double) r.payload));
-                        ii += 1;
-                    }
-                }
-            }
-        } else {
-            int ii = 0;
-            for (int k = 0; k < zNum; k++) {
-                gz = Z.getDouble(k);
-                for (int i = 0; i < yNum; i++) {
-                    gy = Y.getDouble(i);
-                    for (int j = 0; j < xNum; j++) {
-                        gx = X.getDouble(j);
-                        KDTree.SearchResult r = kdTree.nearestNeighbours(new double[]{gx, gy, gz}, 1).get(0);
-                        if (Math.sqrt(r.distance) <= radius) {
-                            rdata.setDouble(ii, ((double) r.payload));
-                        } else {
-                            rdata.setDouble(ii, Double.NaN);
-                        }
-                        ii += 1;
-                    }
-                }
-            }
-        }
-
-        return rdata;
+        return gridNearest(kdTree, new double[][]{toDouble(X), toDouble(Y), toDouble(Z)}, radius);
     }
 
     /**
@@ -1720,57 +1358,9 @@ public class InterpUtil {
      */
     public static Array interpolation_IDW_Radius(List<Number> x_s, List<Number> y_s, Array a,
                                                  List<Number> X, List<Number> Y, int neededPointNum, double radius) {
-        int rowNum, colNum, pNum;
-        colNum = X.size();
-        rowNum = Y.size();
-        pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        int i, j;
-        double w, gx, gy, v;
-        boolean match;
-
-        //Construct K-D tree
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        IndexIterator iter = a.getIndexIterator();
-        for (i = 0; i < pNum; i++) {
-            v = iter.getDoubleNext();
-            if (!Double.isNaN(v)) {
-                kdTree.addPoint(new double[]{x_s.get(i).doubleValue(), y_s.get(i).doubleValue()}, v);
-            }
-        }
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s)}, toDouble(a), true);
 
-        //---- Do interpolation
-        for (i = 0; i < rowNum; i++) {
-            gy = Y.get(i).doubleValue();
-            for (j = 0; j < colNum; j++) {
-                gx = X.get(j).doubleValue();
-                List<KDTree.SearchResult<Double>> srs = kdTree.ballSearch_distance(new double[]{gx, gy}, radius * radius);
-                if (srs == null || srs.size() < neededPointNum) {
-                    r.setDouble(i * colNum + j, Double.NaN);
-                } else {
-                    double v_sum = 0.0;
-                    double weight_sum = 0.0;
-                    match = false;
-                    for (KDTree.SearchResult sr : srs) {
-                        v = (double) sr.payload;
-                        if (sr.distance == 0) {
-                            r.setDouble(i * colNum + j, v);
-                            match = true;
-                            break;
-                        } else {
-                            w = 1. / sr.distance;
-                            weight_sum += w;
-                            v_sum += v * w;
-                        }
-                    }
-                    if (!match) {
-                        r.setDouble(i * colNum + j, v_sum / weight_sum);
-                    }
-                }
-            }
-        }
-
-        return r;
+        return gridIDWRadius(kdTree, new double[][]{toDouble(X), toDouble(Y)}, neededPointNum, radius);
     }
 
     /**
@@ -1787,62 +1377,9 @@ public class InterpUtil {
      */
     public static Array interpolation_IDW_Radius(Array x_s, Array y_s, Array a,
                                                  Array X, Array Y, int neededPointNum, double radius) {
-        x_s = x_s.copyIfView();
-        y_s = y_s.copyIfView();
-        a = a.copyIfView();
-        X = X.copyIfView();
-        Y = Y.copyIfView();
-
-        int rowNum, colNum, pNum;
-        colNum = (int)X.getSize();
-        rowNum = (int)Y.getSize();
-        pNum = (int)x_s.getSize();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        int i, j;
-        double w, gx, gy, v;
-        boolean match;
-
-        //Construct K-D tree
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            v = a.getDouble(i);
-            if (!Double.isNaN(v)) {
-                kdTree.addPoint(new double[]{x_s.getDouble(i), y_s.getDouble(i)}, v);
-            }
-        }
-
-        //---- Do interpolation
-        for (i = 0; i < rowNum; i++) {
-            gy = Y.getDouble(i);
-            for (j = 0; j < colNum; j++) {
-                gx = X.getDouble(j);
-                List<KDTree.SearchResult<Double>> srs = kdTree.ballSearch_distance(new double[]{gx, gy}, radius * radius);
-                if (srs == null || srs.size() < neededPointNum) {
-                    r.setDouble(i * colNum + j, Double.NaN);
-                } else {
-                    double v_sum = 0.0;
-                    double weight_sum = 0.0;
-                    match = false;
-                    for (KDTree.SearchResult sr : srs) {
-                        v = (double) sr.payload;
-                        if (sr.distance == 0) {
-                            r.setDouble(i * colNum + j, v);
-                            match = true;
-                            break;
-                        } else {
-                            w = 1. / sr.distance;
-                            weight_sum += w;
-                            v_sum += v * w;
-                        }
-                    }
-                    if (!match) {
-                        r.setDouble(i * colNum + j, v_sum / weight_sum);
-                    }
-                }
-            }
-        }
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s)}, toDouble(a), true);
 
-        return r;
+        return gridIDWRadius(kdTree, new double[][]{toDouble(X), toDouble(Y)}, neededPointNum, radius);
     }
 
     /**
@@ -1861,70 +1398,10 @@ public class InterpUtil {
      */
     public static Array interpolation_IDW_Radius(Array x_s, Array y_s, Array z_s, Array a,
                                                  Array X, Array Y, Array Z, int neededPointNum, double radius) {
-        x_s = x_s.copyIfView();
-        y_s = y_s.copyIfView();
-        z_s = z_s.copyIfView();
-        a = a.copyIfView();
-        X = X.copyIfView();
-        Y = Y.copyIfView();
-        Z = Z.copyIfView();
-
-        int xNum, yNum, zNum, pNum;
-        xNum = (int)X.getSize();
-        yNum = (int)Y.getSize();
-        zNum = (int)Z.getSize();
-        pNum = (int)x_s.getSize();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{zNum, yNum, xNum});
-        int i, j;
-        double w, gx, gy, gz, v;
-        boolean match;
-
-        //Construct K-D tree
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            v = a.getDouble(i);
-            if (!Double.isNaN(v)) {
-                kdTree.addPoint(new double[]{x_s.getDouble(i), y_s.getDouble(i), z_s.getDouble(i)}, v);
-            }
-        }
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s), toDouble(z_s)},
+                toDouble(a), true);
 
-        //---- Do interpolation
-        int ii = 0;
-        for (int k = 0; k < zNum; k++) {
-            gz = Z.getDouble(k);
-            for (i = 0; i < yNum; i++) {
-                gy = Y.getDouble(i);
-                for (j = 0; j < xNum; j++) {
-                    gx = X.getDouble(j);
-                    List<KDTree.SearchResult<Double>> srs = kdTree.ballSearch_distance(new double[]{gx, gy, gz}, radius * radius);
-                    if (srs == null || srs.size() < neededPointNum) {
-                        r.setDouble(ii, Double.NaN);
-                    } else {
-                        double v_sum = 0.0;
-                        double weight_sum = 0.0;
-                        match = false;
-                        for (KDTree.SearchResult sr : srs) {
-                            v = (double) sr.payload;
-                            if (sr.distance == 0) {
-                                r.setDouble(ii, v);
-                                match = true;
-                                break;
-                            } else {
-                                w = 1. / sr.distance;
-                                weight_sum += w;
-                                v_sum += v * w;
-                            }
-                        }
-                        if (!match) {
-                            r.setDouble(ii, v_sum / weight_sum);
-                        }
-                    }
-                    ii += 1;
-                }
-            }
-        }
-
-        return r;
+        return gridIDWRadius(kdTree, new double[][]{toDouble(X), toDouble(Y), toDouble(Z)}, neededPointNum, radius);
     }
 
     /**
@@ -1940,57 +1417,9 @@ public class InterpUtil {
      */
     public static Array interpolation_IDW_Neighbor(List<Number> x_s, List<Number> y_s, Array a,
                                                    List<Number> X, List<Number> Y, Integer points) {
-        int colNum = X.size();
-        int rowNum = Y.size();
-        int pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        int i, j;
-        double w, v, gx, gy;
-        boolean match;
-
-        //Construct K-D tree
-        int n = 0;
-        IndexIterator iter = a.getIndexIterator();
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            v = iter.getDoubleNext();
-            if (!Double.isNaN(v)) {
-                kdTree.addPoint(new double[]{x_s.get(i).doubleValue(), y_s.get(i).doubleValue()}, v);
-                n += 1;
-            }
-        }
-        if (points == null) {
-            points = n;
-        }
-
-        //---- Do interpolation with IDW method
-        for (i = 0; i < rowNum; i++) {
-            gy = Y.get(i).doubleValue();
-            for (j = 0; j < colNum; j++) {
-                gx = X.get(j).doubleValue();
-                List<KDTree.SearchResult<Double>> srs = kdTree.nearestNeighbours(new double[]{gx, gy}, points);
-                double v_sum = 0.0;
-                double weight_sum = 0.0;
-                match = false;
-                for (KDTree.SearchResult sr : srs) {
-                    v = (double) sr.payload;
-                    if (sr.distance == 0) {
-                        r.setDouble(i * colNum + j, v);
-                        match = true;
-                        break;
-                    } else {
-                        w = 1. / sr.distance;
-                        weight_sum += w;
-                        v_sum += v * w;
-                    }
-                }
-                if (!match) {
-                    r.setDouble(i * colNum + j, v_sum / weight_sum);
-                }
-            }
-        }
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s)}, toDouble(a), true);
 
-        return r;
+        return gridIDWNeighbor(kdTree, new double[][]{toDouble(X), toDouble(Y)}, points);
     }
 
     /**
@@ -2006,61 +1435,9 @@ public class InterpUtil {
      */
     public static Array interpolation_IDW_Neighbor(Array x_s, Array y_s, Array a,
                                                    Array X, Array Y, Integer points) {
-        x_s = x_s.copyIfView();
-        y_s = y_s.copyIfView();
-        a = a.copyIfView();
-        X = X.copyIfView();
-        Y = Y.copyIfView();
-        int colNum = (int)X.getSize();
-        int rowNum = (int)Y.getSize();
-        int pNum = (int)x_s.getSize();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        int i, j;
-        double w, v, gx, gy;
-        boolean match;
-
-        //Construct K-D tree
-        int n = 0;
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            v = a.getDouble(i);
-            if (!Double.isNaN(v)) {
-                kdTree.addPoint(new double[]{x_s.getDouble(i), y_s.getDouble(i)}, v);
-                n += 1;
-            }
-        }
-        if (points == null) {
-            points = n;
-        }
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s)}, toDouble(a), true);
 
-        //---- Do interpolation with IDW method
-        for (i = 0; i < rowNum; i++) {
-            gy = Y.getDouble(i);
-            for (j = 0; j < colNum; j++) {
-                gx = X.getDouble(j);
-                List<KDTree.SearchResult<Double>> srs = kdTree.nearestNeighbours(new double[]{gx, gy}, points);
-                double v_sum = 0.0;
-                double weight_sum = 0.0;
-                match = false;
-                for (KDTree.SearchResult sr : srs) {
-                    v = (double) sr.payload;
-                    if (sr.distance == 0) {
-                        r.setDouble(i * colNum + j, v);
-                        match = true;
-                        break;
-                    } else {
-                        w = 1. / sr.distance;
-                        weight_sum += w;
-                        v_sum += v * w;
-                    }
-                }
-                if (!match) {
-                    r.setDouble(i * colNum + j, v_sum / weight_sum);
-                }
-            }
-        }
-
-        return r;
+        return gridIDWNeighbor(kdTree, new double[][]{toDouble(X), toDouble(Y)}, points);
     }
 
     /**
@@ -2078,71 +1455,140 @@ public class InterpUtil {
      */
     public static Array interpolation_IDW_Neighbor(Array x_s, Array y_s, Array z_s, Array a,
                                                    Array X, Array Y, Array Z, Integer points) {
-        x_s = x_s.copyIfView();
-        y_s = y_s.copyIfView();
-        z_s = z_s.copyIfView();
-        a = a.copyIfView();
-        X = X.copyIfView();
-        Y = Y.copyIfView();
-        Z = Z.copyIfView();
-        int xNum = (int)X.getSize();
-        int yNum = (int)Y.getSize();
-        int zNum = (int)Z.getSize();
-        int pNum = (int)x_s.getSize();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{zNum, yNum, xNum});
-        int i, j;
-        double w, v, gx, gy, gz;
-        boolean match;
+        ScatterTree kdTree = buildTree(new double[][]{toDouble(x_s), toDouble(y_s), toDouble(z_s)},
+                toDouble(a), true);
 
-        //Construct K-D tree
-        int n = 0;
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(3);
-        for (i = 0; i < pNum; i++) {
-            v = a.getDouble(i);
-            if (!Double.isNaN(v)) {
-                kdTree.addPoint(new double[]{x_s.getDouble(i), y_s.getDouble(i), z_s.getDouble(i)}, v);
-                n += 1;
-            }
-        }
-        if (points == null) {
-            points = n;
-        }
+        return gridIDWNeighbor(kdTree, new double[][]{toDouble(X), toDouble(Y), toDouble(Z)}, points);
+    }
 
-        //---- Do interpolation with IDW method
-        int ii = 0;
-        for (int k = 0; k < zNum; k++) {
-            gz = Z.getDouble(k);
-            for (i = 0; i < yNum; i++) {
-                gy = Y.getDouble(i);
-                for (j = 0; j < xNum; j++) {
-                    gx = X.getDouble(j);
-                    List<KDTree.SearchResult<Double>> srs = kdTree.nearestNeighbours(new double[]{gx, gy, gz}, points);
-                    double v_sum = 0.0;
-                    double weight_sum = 0.0;
-                    match = false;
-                    for (KDTree.SearchResult sr : srs) {
-                        v = (double) sr.payload;
-                        if (sr.distance == 0) {
-                            r.setDouble(ii, v);
-                            match = true;
-                            break;
-                        } else {
-                            w = 1. / sr.distance;
-                            weight_sum += w;
-                            v_sum += v * w;
+    /**
+     * Construct K-D tree of scatter points
+     *
+     * @param coords Scatter coordinates of each dimension
+     * @param values Scatter values
+     * @param skipNaN Skip NaN values or not
+     * @return Scatter tree
+     */
+    private static ScatterTree buildTree(double[][] coords, double[] values, boolean skipNaN) {
+        if (skipNaN) {
+            int n = 0;
+            for (double v : values) {
+                if (!Double.isNaN(v)) {
+                    n += 1;
+                }
+            }
+            if (n < values.length) {
+                double[][] valid = new double[coords.length][n];
+                double[] validValues = new double[n];
+                for (int i = 0, k = 0; i < values.length; i++) {
+                    if (!Double.isNaN(values[i])) {
+                        for (int d = 0; d < coords.length; d++) {
+                            valid[d][k] = coords[d][i];
                         }
+                        validValues[k++] = values[i];
                     }
-                    if (!match) {
-                        r.setDouble(ii, v_sum / weight_sum);
-                    }
-                    ii += 1;
                 }
+                coords = valid;
+                values = validValues;
             }
         }
+        return new ScatterTree(new FlatKDTree(coords, ArrayParallel.isEnabled()), values);
+    }
+
+    /**
+     * Evaluate a function on each grid point. Grid rows are evaluated in
+     * parallel when parallel computing is enabled, each thread with its own
+     * search buffer.
+     *
+     * @param coords Grid coordinates of each dimension (x, y[, z])
+     * @param func Function of the grid point location and a search buffer
+     * @return Grid data with shape [z, ]y, x
+     */
+    private static Array gridEvaluate(double[][] coords, GridFunction func) {
+        double[] X = coords[0];
+        double[] Y = coords[1];
+        double[] Z = coords.length > 2 ? coords[2] : new double[1];
+        int xNum = X.length;
+        int yNum = Y.length;
+        int[] shape = coords.length > 2 ? new int[]{Z.length, yNum, xNum} : new int[]{yNum, xNum};
+        Array r = Array.factory(DataType.DOUBLE, shape);
+        double[] data = (double[]) r.getStorage();
+        ThreadLocal<FlatKDTree.Neighbours> buffers = ThreadLocal.withInitial(FlatKDTree.Neighbours::new);
+        boolean parallel = ArrayParallel.accept(ArrayParallel.isEnabled(), data.length);
+        forEachRow(Z.length * yNum, parallel, row -> {
+            FlatKDTree.Neighbours buffer = buffers.get();
+            double[] loc = new double[coords.length];
+            loc[1] = Y[row % yNum];
+            if (loc.length > 2) {
+                loc[2] = Z[row / yNum];
+            }
+            for (int j = 0; j < xNum; j++) {
+                loc[0] = X[j];
+                data[row * xNum + j] = func.apply(loc, buffer);
+            }
+        });
 
         return r;
     }
 
+    private static Array gridNearest(ScatterTree st, double[][] coords, double radius) {
+        double radius2 = radius * radius;
+        return gridEvaluate(coords, (loc, buffer) -> {
+            int idx = st.tree.nearest(loc, buffer);
+            if (idx < 0 || buffer.getDistance(0) > radius2) {
+                return Double.NaN;
+            }
+            return st.values[idx];
+        });
+    }
+
+    private static Array gridIDWRadius(ScatterTree st, double[][] coords, int neededPointNum, double radius) {
+        return gridEvaluate(coords, (loc, buffer) -> {
+            int n = st.tree.ballSearch(loc, radius * radius, buffer);
+            if (n < neededPointNum) {
+                return Double.NaN;
+            }
+            return idw(st.values, buffer, n);
+        });
+    }
+
+    private static Array gridIDWNeighbor(ScatterTree st, double[][] coords, Integer points) {
+        int K = points == null ? st.tree.size() : points;
+        return gridEvaluate(coords, (loc, buffer) -> idw(st.values, buffer, st.tree.nearestNeighbours(loc, K, buffer)));
+    }
+
+    private static double idw(double[] values, FlatKDTree.Neighbours buffer, int n) {
+        int[] indices = buffer.getIndices();
+        double[] distances = buffer.getDistances();
+        double v_sum = 0.0;
+        double weight_sum = 0.0;
+        for (int k = 0; k < n; k++) {
+            double v = values[indices[k]];
+            if (distances[k] == 0) {
+                return v;
+            }
+            double w = 1. / distances[k];
+            weight_sum += w;
+            v_sum += v * w;
+        }
+        return v_sum / weight_sum;
+    }
+
+    private static class ScatterTree {
+        final FlatKDTree tree;
+        final double[] values;
+
+        ScatterTree(FlatKDTree tree, double[] values) {
+            this.tree = tree;
+            this.values = values;
+        }
+    }
+
+    @FunctionalInterface
+    private interface GridFunction {
+        double apply(double[] location, FlatKDTree.Neighbours buffer);
+    }
+
     /**
      * Interpolation with Kriging2D method
      *
@@ -2156,32 +1602,45 @@ public class InterpUtil {
      */
     public static Array gridDataKriging(Array x_s, Array y_s, Array a,
                                         Array X, Array Y, double beta) {
-        X = X.copyIfView();
-        Y = Y.copyIfView();
-        double[] xd = (double[]) ArrayUtil.copyToNDJavaArray_Double(x_s);
-        double[] yd = (double[]) ArrayUtil.copyToNDJavaArray_Double(y_s);
-        double[] ad = (double[]) ArrayUtil.copyToNDJavaArray_Double(a);
+        return gridDataKriging(x_s, y_s, a, X, Y, beta, 0);
+    }
 
-        int rowNum, colNum, pNum;
-        colNum = (int)X.getSize();
-        rowNum = (int)Y.getSize();
-        pNum = (int)x_s.getSize();
+    /**
+     * Interpolation with Kriging2D method. Grid rows are interpolated in
+     * parallel when parallel computing is enabled.
+     *
+     * @param x_s scatter X array
+     * @param y_s scatter Y array
+     * @param a scatter value array
+     * @param X grid X array
+     * @param Y grid Y array
+     * @param beta Beta
+     * @param neighbours Number of nearest points used for each grid point,
+     *                   all points are used if it is not positive
+     * @return interpolated grid data
+     */
+    public static Array gridDataKriging(Array x_s, Array y_s, Array a,
+                                        Array X, Array Y, double beta, int neighbours) {
+        double[] xd = toDouble(x_s);
+        double[] yd = toDouble(y_s);
+        double[] ad = toDouble(a);
+        double[] gx = toDouble(X);
+        double[] gy = toDouble(Y);
+
+        int colNum = gx.length;
+        int rowNum = gy.length;
         Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        int i, j;
-        double w, gx, gy, v;
-        boolean match;
+        double[] data = (double[]) r.getStorage();
 
         //Construct Kriging2D interpolation
-        KrigingInterpolation2D ki2d = new KrigingInterpolation2D(xd, yd, ad, beta);
+        KrigingInterpolation2D ki2d = new KrigingInterpolation2D(xd, yd, ad, beta, neighbours);
 
         //---- Do interpolation
-        for (i = 0; i < rowNum; i++) {
-            gy = Y.getDouble(i);
-            for (j = 0; j < colNum; j++) {
-                gx = X.getDouble(j);
-                r.setDouble(i * colNum + j, ki2d.interpolate(gx, gy));
+        forEachRow(rowNum, ArrayParallel.accept(ArrayParallel.isEnabled(), data.length), i -> {
+            for (int j = 0; j < colNum; j++) {
+                data[i * colNum + j] = ki2d.interpolate(gx[j], gy[i]);
             }
-        }
+        });
 
         return r;
     }
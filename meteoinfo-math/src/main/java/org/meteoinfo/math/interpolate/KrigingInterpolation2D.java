@@ -18,24 +18,40 @@
 package org.meteoinfo.math.interpolate;
 
 import org.meteoinfo.math.MathEx;
+import org.meteoinfo.math.blas.Layout;
+import org.meteoinfo.math.blas.LinearAlgebra;
 import org.meteoinfo.math.blas.UPLO;
 import org.meteoinfo.math.matrix.Matrix;
+import org.meteoinfo.math.spatial.FlatKDTree;
+
+import java.util.Arrays;
 
 /**
  * Kriging interpolation for the data points irregularly distributed in space.
  * Kriging belongs to the family of linear least squares estimation algorithms,
  * also known as Gauss-Markov estimation or Gaussian process regression.
  * This class implements ordinary kriging for interpolation with power variogram.
+ * <p>
+ * With a neighbour number, the moving neighbourhood mode only uses the nearest
+ * data points of each location. The small kriging system of a neighbourhood is
+ * solved once and reused for the following locations with the same
+ * neighbours, and interpolation is thread safe.
  *
  * @author Haifeng Li
  */
 public class KrigingInterpolation2D implements Interpolation2D {
 
+    private static final long serialVersionUID = 1L;
+
     private double[] x1;
     private double[] x2;
     private double[] yvi;
     private double alpha;
     private double beta;
+    private double[] y;
+    private int neighbours;
+    private FlatKDTree kdTree;
+    private transient ThreadLocal<Neighbourhood> neighbourhoods;
 
     /**
      * Constructor. The power variogram is employed for interpolation.
@@ -59,6 +75,20 @@ public class KrigingInterpolation2D implements Interpolation2D {
      *             large as 1.99.
      */
     public KrigingInterpolation2D(double[] x1, double[] x2, double[] y, double beta) {
+        this(x1, x2, y, beta, 0);
+    }
+
+    /**
+     * Constructor. The power variogram is employed for interpolation.
+     * @param x1 the 1st dimension of data points.
+     * @param x2 the 2nd dimension of data points.
+     * @param y the function values.
+     * @param beta the parameter of power variogram.
+     * @param neighbours the number of nearest data points used for each
+     *                   location. All data points are used if it is not
+     *                   positive or not less than the data point number.
+     */
+    public KrigingInterpolation2D(double[] x1, double[] x2, double[] y, double beta, int neighbours) {
         if (beta < 1.0 || beta >= 2.0) {
             throw new IllegalArgumentException("Invalid beta: " + beta);
         }
@@ -74,9 +104,18 @@ public class KrigingInterpolation2D implements Interpolation2D {
         this.x1 = x1;
         this.x2 = x2;
         this.beta = beta;
-        pow(x1, x2, y);
 
         int n = x1.length;
+        if (neighbours > 0 && neighbours < n) {
+            //Ordinary kriging weights do not depend on the power variogram scale
+            this.alpha = 1;
+            this.y = y;
+            this.neighbours = neighbours;
+            this.kdTree = new FlatKDTree(new double[][]{x1, x2});
+            return;
+        }
+
+        pow(x1, x2, y);
         yvi = new double[n + 1];
 
         Matrix v = new Matrix(n + 1, n + 1);
@@ -104,8 +143,20 @@ public class KrigingInterpolation2D implements Interpolation2D {
         yvi = svd.solve(yvi);
     }
 
+    /**
+     * Get the number of nearest data points used for each location
+     * @return Neighbour number, 0 if all data points are used
+     */
+    public int getNeighbours() {
+        return this.neighbours;
+    }
+
     @Override
     public double interpolate(double x1, double x2) {
+        if (kdTree != null) {
+            return interpolateLocal(x1, x2);
+        }
+
         int n = this.x1.length;
         double y = yvi[n];
         for (int i = 0; i < n; i++) {
@@ -119,6 +170,109 @@ public class KrigingInterpolation2D implements Interpolation2D {
         return y;
     }
 
+    private double interpolateLocal(double x1, double x2) {
+        Neighbourhood nb = neighbourhood();
+        nb.location[0] = x1;
+        nb.location[1] = x2;
+        int k = kdTree.nearestNeighbours(nb.location, neighbours, nb.result);
+        int[] idx = nb.result.getIndices();
+        System.arraycopy(idx, 0, nb.sorted, 0, k);
+        Arrays.sort(nb.sorted, 0, k);
+        if (!nb.sameAs(k)) {
+            nb.solve(k);
+        }
+
+        double y = nb.coef[k];
+        for (int i = 0; i < k; i++) {
+            double d1 = x1 - this.x1[nb.indices[i]];
+            double d2 = x2 - this.x2[nb.indices[i]];
+            y += nb.coef[i] * variogram(d1 * d1 + d2 * d2);
+        }
+
+        return y;
+    }
+
+    private Neighbourhood neighbourhood() {
+        ThreadLocal<Neighbourhood> tl = neighbourhoods;
+        if (tl == null) {
+            synchronized (this) {
+                if (neighbourhoods == null) {
+                    neighbourhoods = ThreadLocal.withInitial(Neighbourhood::new);
+                }
+                tl = neighbourhoods;
+            }
+        }
+        return tl.get();
+    }
+
+    /**
+     * Per thread neighbourhood state with the solved kriging system of the
+     * last neighbour set.
+     */
+    private class Neighbourhood {
+        final double[] location = new double[2];
+        final FlatKDTree.Neighbours result = new FlatKDTree.Neighbours(neighbours);
+        final int[] sorted = new int[neighbours];
+        final int[] indices = new int[neighbours];
+        final double[] coef = new double[neighbours + 1];
+        final double[] a = new double[(neighbours + 1) * (neighbours + 1)];
+        final int[] ipiv = new int[neighbours + 1];
+        int k = -1;
+
+        boolean sameAs(int n) {
+            if (n != k) {
+                return false;
+            }
+            for (int i = 0; i < n; i++) {
+                if (sorted[i] != indices[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void solve(int n) {
+            k = n;
+            System.arraycopy(sorted, 0, indices, 0, n);
+            int m = n + 1;
+            for (int i = 0; i < n; i++) {
+                int pi = indices[i];
+                coef[i] = y[pi];
+                for (int j = i; j < n; j++) {
+                    int pj = indices[j];
+                    double d1 = x1[pi] - x1[pj];
+                    double d2 = x2[pi] - x2[pj];
+                    double var = variogram(d1 * d1 + d2 * d2);
+                    a[i + j * m] = var;
+                    a[j + i * m] = var;
+                }
+                a[n + i * m] = 1.0;
+                a[i + n * m] = 1.0;
+            }
+            a[n + n * m] = 0.0;
+            coef[n] = 0.0;
+
+            int info = LinearAlgebra.engine.sysv(Layout.COL_MAJOR, UPLO.LOWER, m, 1, a, m, ipiv, coef, m);
+            if (info != 0) {
+                //Singular system, e.g. duplicated data points
+                double[][] v = new double[m][m];
+                double[] b = new double[m];
+                for (int i = 0; i < n; i++) {
+                    b[i] = y[indices[i]];
+                    for (int j = 0; j < n; j++) {
+                        double d1 = x1[indices[i]] - x1[indices[j]];
+                        double d2 = x2[indices[i]] - x2[indices[j]];
+                        v[i][j] = variogram(d1 * d1 + d2 * d2);
+                    }
+                    v[i][n] = 1.0;
+                    v[n][i] = 1.0;
+                }
+                double[] r = new Matrix(v).svd(true, true).solve(b);
+                System.arraycopy(r, 0, coef, 0, m);
+            }
+        }
+    }
+
     private void pow(double[] x1, double[] x2, double[] y) {
         int n = x1.length;
 
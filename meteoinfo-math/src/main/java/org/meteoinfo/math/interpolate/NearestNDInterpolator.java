@@ -1,14 +1,19 @@
 package org.meteoinfo.math.interpolate;
 
+import org.meteoinfo.math.spatial.FlatKDTree;
 import org.meteoinfo.math.spatial.KDTree;
 import org.meteoinfo.ndarray.Array;
 import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.IndexIterator;
+import org.meteoinfo.ndarray.math.ArrayParallel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class NearestNDInterpolator {
-    protected KDTree.Euclidean<Double> kdTree;
+    protected FlatKDTree kdTree;
+    protected double[] values;
     protected DataType dataType;
     protected boolean excludeNaN = true;
     protected double radius = Double.NaN;
@@ -32,26 +37,12 @@ public class NearestNDInterpolator {
         this.excludeNaN = excludeNaN;
 
         int n = points.size();
-        this.kdTree = new KDTree.Euclidean<>(n);
-        for (Array a : points) {
-            a = a.copyIfView();
+        double[][] coords = new double[n][];
+        for (int i = 0; i < n; i++) {
+            coords[i] = toDouble(points.get(i));
         }
-        values = values.copyIfView();
         this.dataType = values.getDataType();
-        int pNum = (int) points.get(0).getSize();
-        if (excludeNaN) {
-            double v;
-            for (int i = 0; i < pNum; i++) {
-                v = values.getDouble(i);
-                if (!Double.isNaN(v)) {
-                    kdTree.addPoint(getCoordinate(points, n, i), v);
-                }
-            }
-        } else {
-            for (int i = 0; i < pNum; i++) {
-                kdTree.addPoint(getCoordinate(points, n, i), values.getDouble(i));
-            }
-        }
+        buildTree(coords, toDouble(values));
     }
 
     /**
@@ -76,22 +67,36 @@ public class NearestNDInterpolator {
         int[] shape = points.getShape();
         int n = shape[0];
         int pNum = shape[1];
-        this.kdTree = new KDTree.Euclidean<>(n);
-        values = values.copyIfView();
+        double[][] coords = new double[n][pNum];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < pNum; j++) {
+                coords[i][j] = points.getDouble(i * pNum + j);
+            }
+        }
         this.dataType = values.getDataType();
+        buildTree(coords, toDouble(values));
+    }
+
+    private void buildTree(double[][] coords, double[] v) {
         if (excludeNaN) {
-            double v;
-            for (int i = 0; i < pNum; i++) {
-                v = values.getDouble(i);
-                if (!Double.isNaN(v)) {
-                    kdTree.addPoint(getCoordinate(points, n, pNum, i), v);
+            int pNum = 0;
+            for (int i = 0; i < v.length; i++) {
+                if (!Double.isNaN(v[i])) {
+                    for (double[] coord : coords) {
+                        coord[pNum] = coord[i];
+                    }
+                    v[pNum++] = v[i];
                 }
             }
-        } else {
-            for (int i = 0; i < pNum; i++) {
-                kdTree.addPoint(getCoordinate(points, n, pNum, i), values.getDouble(i));
+            if (pNum < v.length) {
+                for (int i = 0; i < coords.length; i++) {
+                    coords[i] = Arrays.copyOf(coords[i], pNum);
+                }
+                v = Arrays.copyOf(v, pNum);
             }
         }
+        this.kdTree = new FlatKDTree(coords, true);
+        this.values = v;
     }
 
     /**
@@ -134,7 +139,9 @@ public class NearestNDInterpolator {
      * @return Nearest value
      */
     public KDTree.SearchResult nearest(double[] location) {
-        return this.kdTree.nearestNeighbours(location, 1).get(0);
+        FlatKDTree.Neighbours neighbours = new FlatKDTree.Neighbours(1);
+        int idx = this.kdTree.nearest(location, neighbours);
+        return idx < 0 ? null : new KDTree.SearchResult<>(neighbours.getDistance(0), values[idx]);
     }
 
     /**
@@ -144,7 +151,12 @@ public class NearestNDInterpolator {
      * @return Nearest points list
      */
     public List<KDTree.SearchResult<Double>> nearest(double[] location, int K) {
-        List<KDTree.SearchResult<Double>> r = this.kdTree.nearestNeighbours(location, K);
+        FlatKDTree.Neighbours neighbours = new FlatKDTree.Neighbours(K);
+        int n = this.kdTree.nearestNeighbours(location, K, neighbours);
+        List<KDTree.SearchResult<Double>> r = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            r.add(new KDTree.SearchResult<>(neighbours.getDistance(i), values[neighbours.getIndex(i)]));
+        }
         return r;
     }
 
@@ -154,29 +166,9 @@ public class NearestNDInterpolator {
      * @return Nearest values
      */
     public Array nearest(List<Array> location) {
-        for (Array a : location) {
-            a = a.copyIfView();
-        }
-        int n = location.size();
         int pNum = (int)location.get(0).getSize();
         Array r = Array.factory(this.dataType, location.get(0).getShape());
-
-        KDTree.SearchResult sr;
-        if (Double.isNaN(this.radius)) {
-            for (int i = 0; i < pNum; i++) {
-                sr = nearest(getCoordinate(location, n, i));
-                r.setObject(i, sr.payload);
-            }
-        } else {
-            for (int i = 0; i < pNum; i++) {
-                sr = nearest(getCoordinate(location, n, i));
-                if (sr.distance <= radius) {
-                    r.setObject(i, sr.payload);
-                } else {
-                    r.setObject(i, Double.NaN);
-                }
-            }
-        }
+        nearest(r, getCoordinates(location), 0, pNum);
 
         return r;
     }
@@ -188,47 +180,66 @@ public class NearestNDInterpolator {
      * @return Nearest values
      */
     public Array nearest(List<Array> location, int nThreads) {
-        for (Array a : location) {
-            a = a.copyIfView();
-        }
-        int n = location.size();
         int pNum = (int)location.get(0).getSize();
         Array r = Array.factory(this.dataType, location.get(0).getShape());
+        double[][] coords = getCoordinates(location);
+        runSegments(pNum, nThreads, (offset, end) -> nearest(r, coords, offset, end));
+
+        return r;
+    }
+
+    private void nearest(Array r, double[][] coords, int offset, int end) {
+        FlatKDTree.Neighbours neighbours = new FlatKDTree.Neighbours(1);
+        double[] loc = new double[coords.length];
+        for (int i = offset; i < end; i++) {
+            for (int d = 0; d < loc.length; d++) {
+                loc[d] = coords[d][i];
+            }
+            int idx = this.kdTree.nearest(loc, neighbours);
+            if (idx >= 0 && (Double.isNaN(radius) || neighbours.getDistance(0) <= radius)) {
+                r.setDouble(i, values[idx]);
+            } else {
+                r.setDouble(i, Double.NaN);
+            }
+        }
+    }
+
+    protected static double[] toDouble(Array a) {
+        double[] r = new double[(int) a.getSize()];
+        IndexIterator iter = a.getIndexIterator();
+        for (int i = 0; i < r.length; i++) {
+            r[i] = iter.getDoubleNext();
+        }
+
+        return r;
+    }
+
+    protected double[][] getCoordinates(List<Array> location) {
+        double[][] coords = new double[location.size()][];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = toDouble(location.get(i));
+        }
+
+        return coords;
+    }
 
+    /**
+     * Run a segment task on threads, each thread handles a contiguous segment
+     * @param pNum Number of points
+     * @param nThreads Number of threads
+     * @param task Segment task of start and end point index
+     */
+    protected void runSegments(int pNum, int nThreads, ArrayParallel.ChunkTask task) {
         int segment = pNum / nThreads;
         int remainder = pNum % nThreads;
         int offset = 0;
-        int segEnd;
         ArrayList<Thread> threads = new ArrayList<>();
         for (int ti = 0; ti < nThreads; ti++) {
             // Distribute remainder among first (remainder) threads
             int segmentSize = (remainder-- > 0) ? segment + 1 : segment;
-            segEnd = offset + segmentSize;
-
-            //Start the thread
-            int finalSegEnd = segEnd;
             int finalOffset = offset;
-            Thread t = new Thread() {
-                public void run() {
-                    KDTree.SearchResult sr;
-                    if (Double.isNaN(radius)) {
-                        for (int i = finalOffset; i < finalSegEnd; i++) {
-                            sr = nearest(getCoordinate(location, n, i));
-                            r.setObject(i, sr.payload);
-                        }
-                    } else {
-                        for (int i = finalOffset; i < finalSegEnd; i++) {
-                            sr = nearest(getCoordinate(location, n, i));
-                            if (sr.distance <= radius) {
-                                r.setObject(i, sr.payload);
-                            } else {
-                                r.setObject(i, Double.NaN);
-                            }
-                        }
-                    }
-                }
-            };
-
+            int finalSegEnd = offset + segmentSize;
+            Thread t = new Thread(() -> task.run(finalOffset, finalSegEnd));
             threads.add(t);
             t.start();
 
@@ -243,7 +254,5 @@ public class NearestNDInterpolator {
                 e.printStackTrace();
             }
         }
-
-        return r;
     }
 }
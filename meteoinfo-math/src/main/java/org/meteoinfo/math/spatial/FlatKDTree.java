@@ -0,0 +1,474 @@
+package org.meteoinfo.math.spatial;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable Euclidean KD-tree bulk loaded from all points at once.
+ * <p>
+ * The tree is balanced by median splits and stored in flat arrays: point
+ * coordinates in one double array in tree order, original point indices in an
+ * int array and node bounding boxes in another double array. Nodes are
+ * implicit (children of node i are 2i+1 and 2i+2), so searching allocates
+ * nothing but the caller supplied {@link Neighbours} buffer. Distances are
+ * squared like {@link KDTree.Euclidean}.
+ *
+ * @author wyq
+ */
+public class FlatKDTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int LEAF_SIZE = 32;
+    private static final int PARALLEL_SIZE = 1 << 15;
+
+    private final int dims;
+    private final int size;
+    private final int depth;
+    private final double[] coords;
+    private final int[] indices;
+    private final int[] starts;
+    private final int[] ends;
+    private final double[] bounds;
+
+    /**
+     * Constructor
+     *
+     * @param points Point coordinates of each dimension
+     */
+    public FlatKDTree(double[][] points) {
+        this(points, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param points Point coordinates of each dimension
+     * @param parallel Build tree levels in parallel or not
+     */
+    public FlatKDTree(double[][] points, boolean parallel) {
+        dims = points.length;
+        size = points[0].length;
+        coords = new double[size * dims];
+        indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+            for (int d = 0; d < dims; d++) {
+                coords[i * dims + d] = points[d][i];
+            }
+        }
+
+        int n = 0;
+        while ((size + (1 << n) - 1) >> n > LEAF_SIZE) {
+            n++;
+        }
+        depth = n;
+        int nodeNum = (1 << (depth + 1)) - 1;
+        starts = new int[nodeNum];
+        ends = new int[nodeNum];
+        bounds = new double[nodeNum * 2 * dims];
+        ends[0] = size;
+
+        //Nodes of one level cover disjoint point ranges, so they are built independently
+        parallel = parallel && size >= PARALLEL_SIZE;
+        for (int level = 0; level <= depth; level++) {
+            int first = (1 << level) - 1;
+            int last = (1 << (level + 1)) - 1;
+            boolean leaf = level == depth;
+            if (parallel && last - first > 1) {
+                IntStream.range(first, last).parallel().forEach(node -> build(node, leaf));
+            } else {
+                for (int node = first; node < last; node++) {
+                    build(node, leaf);
+                }
+            }
+        }
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get dimensions
+     *
+     * @return Dimensions
+     */
+    public int dimensions() {
+        return dims;
+    }
+
+    /**
+     * Get number of points
+     *
+     * @return Number of points
+     */
+    public int size() {
+        return size;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Build">
+    private void build(int node, boolean leaf) {
+        int start = starts[node];
+        int end = ends[node];
+        int offset = node * 2 * dims;
+        for (int d = 0; d < dims; d++) {
+            bounds[offset + 2 * d] = Double.POSITIVE_INFINITY;
+            bounds[offset + 2 * d + 1] = Double.NEGATIVE_INFINITY;
+        }
+        for (int i = start; i < end; i++) {
+            for (int d = 0; d < dims; d++) {
+                double v = coords[i * dims + d];
+                if (v < bounds[offset + 2 * d]) {
+                    bounds[offset + 2 * d] = v;
+                }
+                if (v > bounds[offset + 2 * d + 1]) {
+                    bounds[offset + 2 * d + 1] = v;
+                }
+            }
+        }
+        if (leaf) {
+            return;
+        }
+
+        int splitDim = 0;
+        double spread = -1;
+        for (int d = 0; d < dims; d++) {
+            double s = bounds[offset + 2 * d + 1] - bounds[offset + 2 * d];
+            if (s > spread) {
+                spread = s;
+                splitDim = d;
+            }
+        }
+        int mid = (start + end) >>> 1;
+        if (end - start > 1) {
+            select(start, end - 1, mid, splitDim);
+        }
+        starts[2 * node + 1] = start;
+        ends[2 * node + 1] = mid;
+        starts[2 * node + 2] = mid;
+        ends[2 * node + 2] = end;
+    }
+
+    /**
+     * Partially sort points in [left, right] so the k-th point along a
+     * dimension is at its sorted position (Hoare quickselect)
+     */
+    private void select(int left, int right, int k, int dim) {
+        while (right > left) {
+            int m = (left + right) >>> 1;
+            double pivot = coords[m * dims + dim];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coords[i * dims + dim] < pivot) {
+                    i++;
+                }
+                while (coords[j * dims + dim] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int t = indices[i];
+        indices[i] = indices[j];
+        indices[j] = t;
+        for (int d = 0, a = i * dims, b = j * dims; d < dims; d++, a++, b++) {
+            double v = coords[a];
+            coords[a] = coords[b];
+            coords[b] = v;
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Search">
+    private double pointDist(int i, double[] location) {
+        double distance = 0;
+        int offset = i * dims;
+        for (int d = 0; d < dims; d++) {
+            double diff = coords[offset + d] - location[d];
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    private double rectDist(int node, double[] location) {
+        double distance = 0;
+        int offset = node * 2 * dims;
+        for (int d = 0; d < dims; d++, offset += 2) {
+            double v = location[d];
+            double diff = 0;
+            if (v < bounds[offset]) {
+                diff = bounds[offset] - v;
+            } else if (v > bounds[offset + 1]) {
+                diff = v - bounds[offset + 1];
+            }
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    private boolean overlaps(int node, double[] mins, double[] maxs) {
+        int offset = node * 2 * dims;
+        for (int d = 0; d < dims; d++, offset += 2) {
+            if (mins[d] > bounds[offset + 1] || maxs[d] < bounds[offset]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * K nearest neighbours search, results are sorted closest first
+     *
+     * @param location Search location
+     * @param K Number of neighbours
+     * @param result Result buffer, cleared before the search
+     * @return Number of results, less than K if the tree has less points
+     */
+    public int nearestNeighbours(double[] location, int K, Neighbours result) {
+        result.clear();
+        if (size > 0 && K > 0) {
+            result.ensureCapacity(K);
+            nearest(0, 0, location, K, result);
+        }
+        return result.size;
+    }
+
+    private void nearest(int node, int level, double[] location, int K, Neighbours result) {
+        if (level == depth) {
+            for (int i = starts[node]; i < ends[node]; i++) {
+                double distance = pointDist(i, location);
+                if (result.size < K || distance < result.distances[K - 1]) {
+                    result.insert(distance, indices[i], K);
+                }
+            }
+            return;
+        }
+
+        int less = 2 * node + 1;
+        int more = less + 1;
+        double dLess = rectDist(less, location);
+        double dMore = rectDist(more, location);
+        if (dMore < dLess) {
+            int t = less;
+            less = more;
+            more = t;
+            double d = dLess;
+            dLess = dMore;
+            dMore = d;
+        }
+        if (result.size < K || dLess < result.distances[K - 1]) {
+            nearest(less, level + 1, location, K, result);
+        }
+        if (result.size < K || dMore < result.distances[K - 1]) {
+            nearest(more, level + 1, location, K, result);
+        }
+    }
+
+    /**
+     * Nearest point search
+     *
+     * @param location Search location
+     * @param result Result buffer, cleared before the search
+     * @return Original index of the nearest point, -1 if the tree is empty
+     */
+    public int nearest(double[] location, Neighbours result) {
+        return nearestNeighbours(location, 1, result) == 0 ? -1 : result.indices[0];
+    }
+
+    /**
+     * Ball search
+     *
+     * @param location Search location
+     * @param radius Search radius as squared distance
+     * @param result Result buffer, cleared before the search
+     * @return Number of results
+     */
+    public int ballSearch(double[] location, double radius, Neighbours result) {
+        result.clear();
+        if (size > 0) {
+            ball(0, 0, location, radius, result);
+        }
+        return result.size;
+    }
+
+    private void ball(int node, int level, double[] location, double radius, Neighbours result) {
+        if (rectDist(node, location) > radius) {
+            return;
+        }
+        if (level == depth) {
+            for (int i = starts[node]; i < ends[node]; i++) {
+                double distance = pointDist(i, location);
+                if (distance <= radius) {
+                    result.add(distance, indices[i]);
+                }
+            }
+            return;
+        }
+        ball(2 * node + 1, level + 1, location, radius, result);
+        ball(2 * node + 2, level + 1, location, radius, result);
+    }
+
+    /**
+     * Rectangle search, the result distances are zero
+     *
+     * @param mins Minimum coordinates
+     * @param maxs Maximum coordinates
+     * @param result Result buffer, cleared before the search
+     * @return Number of results
+     */
+    public int rectSearch(double[] mins, double[] maxs, Neighbours result) {
+        result.clear();
+        if (size > 0) {
+            rect(0, 0, mins, maxs, result);
+        }
+        return result.size;
+    }
+
+    private void rect(int node, int level, double[] mins, double[] maxs, Neighbours result) {
+        if (!overlaps(node, mins, maxs)) {
+            return;
+        }
+        if (level == depth) {
+            for (int i = starts[node]; i < ends[node]; i++) {
+                boolean inside = true;
+                for (int d = 0; d < dims; d++) {
+                    double v = coords[i * dims + d];
+                    if (v < mins[d] || v > maxs[d]) {
+                        inside = false;
+                        break;
+                    }
+                }
+                if (inside) {
+                    result.add(0, indices[i]);
+                }
+            }
+            return;
+        }
+        rect(2 * node + 1, level + 1, mins, maxs, result);
+        rect(2 * node + 2, level + 1, mins, maxs, result);
+    }
+    // </editor-fold>
+
+    /**
+     * Reusable search result buffer of original point indices and squared
+     * distances. A buffer must not be shared by threads searching at the same
+     * time.
+     */
+    public static class Neighbours {
+
+        private int[] indices;
+        private double[] distances;
+        private int size;
+
+        /**
+         * Constructor
+         */
+        public Neighbours() {
+            this(16);
+        }
+
+        /**
+         * Constructor
+         *
+         * @param capacity Initial capacity
+         */
+        public Neighbours(int capacity) {
+            indices = new int[Math.max(1, capacity)];
+            distances = new double[Math.max(1, capacity)];
+        }
+
+        /**
+         * Get number of results
+         *
+         * @return Number of results
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Get original point index of a result
+         *
+         * @param i Result index
+         * @return Point index
+         */
+        public int getIndex(int i) {
+            return indices[i];
+        }
+
+        /**
+         * Get squared distance of a result
+         *
+         * @param i Result index
+         * @return Squared distance
+         */
+        public double getDistance(int i) {
+            return distances[i];
+        }
+
+        /**
+         * Get result point indices, only the first size() elements are valid
+         *
+         * @return Point indices
+         */
+        public int[] getIndices() {
+            return indices;
+        }
+
+        /**
+         * Get result squared distances, only the first size() elements are
+         * valid
+         *
+         * @return Squared distances
+         */
+        public double[] getDistances() {
+            return distances;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (indices.length < capacity) {
+                indices = Arrays.copyOf(indices, capacity);
+                distances = Arrays.copyOf(distances, capacity);
+            }
+        }
+
+        void add(double distance, int index) {
+            if (size == indices.length) {
+                ensureCapacity(size * 2);
+            }
+            distances[size] = distance;
+            indices[size] = index;
+            size++;
+        }
+
+        void insert(double distance, int index, int K) {
+            int i = size < K ? size++ : K - 1;
+            while (i > 0 && distances[i - 1] > distance) {
+                distances[i] = distances[i - 1];
+                indices[i] = indices[i - 1];
+                i--;
+            }
+            distances[i] = distance;
+            indices[i] = index;
+        }
+    }
+}
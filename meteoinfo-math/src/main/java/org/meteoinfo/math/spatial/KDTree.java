@@ -385,7 +385,7 @@ public abstract class KDTree<T> {
         public double distance;
         public S payload;
 
-        SearchResult(double dist, S load) {
+        public SearchResult(double dist, S load) {
             distance = dist;
             payload = load;
         }
@@ -0,0 +1,115 @@
+package org.meteoinfo.math.interpolate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InterpUtilTest {
+
+    private final Random random = new Random(7);
+
+    @AfterEach
+    public void tearDown() {
+        ArrayParallel.setEnabled(false);
+        ArrayParallel.setThreshold(1 << 16);
+    }
+
+    private Array random(int n, double scale) {
+        double[] data = new double[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = random.nextDouble() * scale;
+        }
+        return Array.factory(DataType.DOUBLE, new int[]{n}, data);
+    }
+
+    private static Array range(int n) {
+        double[] data = new double[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = i;
+        }
+        return Array.factory(DataType.DOUBLE, new int[]{n}, data);
+    }
+
+    private static List<Number> list(Array a) {
+        List<Number> r = new ArrayList<>();
+        for (int i = 0; i < a.getSize(); i++) {
+            r.add(a.getDouble(i));
+        }
+        return r;
+    }
+
+    private static void assertArray(Array expected, Array actual) {
+        assertArrayEquals(expected.getShape(), actual.getShape());
+        for (int i = 0; i < expected.getSize(); i++) {
+            assertEquals(expected.getDouble(i), actual.getDouble(i), 0, "element " + i);
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        Array x = random(300, 40);
+        Array y = random(300, 30);
+        Array v = random(300, 10);
+        Array X = range(40);
+        Array Y = range(30);
+        Array idw = InterpUtil.interpolation_IDW_Radius(x, y, v, X, Y, 2, 5);
+        Array neighbor = InterpUtil.interpolation_IDW_Neighbor(x, y, v, X, Y, 6);
+        Array nearest = InterpUtil.interpolation_Nearest(x, y, v, X, Y, 2);
+        List<Number> xs = list(x);
+        List<Number> ys = list(y);
+        List<Number> gx = list(X);
+        List<Number> gy = list(Y);
+        List<Number> radList = list(Array.factory(DataType.DOUBLE, new int[]{3}, new double[]{10, 7, 4}));
+        Array cressman = InterpUtil.cressman(xs, ys, v, gx, gy, radList);
+        Array barnes = InterpUtil.barnes(xs, ys, v, gx, gy, radList, 2, 0.5);
+
+        ArrayParallel.setEnabled(true);
+        ArrayParallel.setThreshold(1);
+        assertArray(idw, InterpUtil.interpolation_IDW_Radius(x, y, v, X, Y, 2, 5));
+        assertArray(neighbor, InterpUtil.interpolation_IDW_Neighbor(x, y, v, X, Y, 6));
+        assertArray(nearest, InterpUtil.interpolation_Nearest(x, y, v, X, Y, 2));
+
+        assertArray(cressman, InterpUtil.cressman(xs, ys, v, gx, gy, radList, true));
+        assertArray(barnes, InterpUtil.barnes(xs, ys, v, gx, gy, radList, 2, 0.5, true));
+    }
+
+    @Test
+    public void testLocalKriging() {
+        int n = 400;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextDouble() * 100;
+            y[i] = random.nextDouble() * 100;
+            v[i] = Math.sin(x[i] / 20) + Math.cos(y[i] / 15);
+        }
+        KrigingInterpolation2D local = new KrigingInterpolation2D(x, y, v, 1.5, 12);
+        assertEquals(12, local.getNeighbours());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(v[i], local.interpolate(x[i], y[i]), 1e-8);
+        }
+
+        Array xs = Array.factory(DataType.DOUBLE, new int[]{n}, x);
+        Array ys = Array.factory(DataType.DOUBLE, new int[]{n}, y);
+        Array vs = Array.factory(DataType.DOUBLE, new int[]{n}, v);
+        Array X = range(100);
+        Array Y = range(100);
+        Array expected = InterpUtil.gridDataKriging(xs, ys, vs, X, Y, 1.5, 12);
+        ArrayParallel.setEnabled(true);
+        ArrayParallel.setThreshold(1);
+        assertArray(expected, InterpUtil.gridDataKriging(xs, ys, vs, X, Y, 1.5, 12));
+        Array global = InterpUtil.gridDataKriging(xs, ys, vs, X, Y, 1.5);
+        for (int i = 0; i < global.getSize(); i += 97) {
+            assertEquals(global.getDouble(i), expected.getDouble(i), 0.2);
+        }
+    }
+}
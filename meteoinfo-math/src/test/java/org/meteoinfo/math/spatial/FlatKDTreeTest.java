@@ -0,0 +1,74 @@
+package org.meteoinfo.math.spatial;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlatKDTreeTest {
+
+    private static double dist(double[][] points, int i, double[] loc) {
+        double d = 0;
+        for (int k = 0; k < loc.length; k++) {
+            d += (points[k][i] - loc[k]) * (points[k][i] - loc[k]);
+        }
+        return d;
+    }
+
+    @Test
+    public void testSearch() {
+        Random random = new Random(3);
+        for (int n : new int[]{0, 1, 15, 100, 5000}) {
+            double[][] points = new double[3][n];
+            for (double[] p : points) {
+                for (int i = 0; i < n; i++) {
+                    p[i] = Math.floor(random.nextDouble() * 100);
+                }
+            }
+            FlatKDTree tree = new FlatKDTree(points, n > 100);
+            assertEquals(n, tree.size());
+            FlatKDTree.Neighbours result = new FlatKDTree.Neighbours(1);
+            for (int q = 0; q < 20; q++) {
+                double[] loc = {random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble() * 100};
+                double[] all = new double[n];
+                for (int i = 0; i < n; i++) {
+                    all[i] = dist(points, i, loc);
+                }
+                double[] sorted = all.clone();
+                Arrays.sort(sorted);
+
+                int k = tree.nearestNeighbours(loc, 7, result);
+                assertEquals(Math.min(7, n), k);
+                for (int i = 0; i < k; i++) {
+                    assertEquals(sorted[i], result.getDistance(i));
+                    assertEquals(sorted[i], all[result.getIndex(i)]);
+                }
+
+                int count = 0;
+                for (double d : all) {
+                    if (d <= 400) {
+                        count += 1;
+                    }
+                }
+                assertEquals(count, tree.ballSearch(loc, 400, result));
+                for (int i = 0; i < count; i++) {
+                    assertEquals(all[result.getIndex(i)], result.getDistance(i));
+                }
+
+                double[] mins = {loc[0] - 20, loc[1] - 30, loc[2] - 10};
+                double[] maxs = {loc[0] + 20, loc[1] + 30, loc[2] + 10};
+                count = 0;
+                for (int i = 0; i < n; i++) {
+                    boolean inside = true;
+                    for (int d = 0; d < 3; d++) {
+                        inside &= points[d][i] >= mins[d] && points[d][i] <= maxs[d];
+                    }
+                    count += inside ? 1 : 0;
+                }
+                assertEquals(count, tree.rectSearch(mins, maxs, result));
+            }
+        }
+    }
+}
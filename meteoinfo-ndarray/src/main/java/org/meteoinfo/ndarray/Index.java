@@ -527,6 +527,26 @@ public class Index implements Cloneable {
         return shape[index];
     }
 
+    /**
+     * Get the strides: step in the 1D backing array for each dimension.
+     *
+     * @return the strides
+     */
+    public int[] getStride() {
+        int[] result = new int[stride.length];
+        System.arraycopy(stride, 0, result, 0, stride.length);
+        return result;
+    }
+
+    /**
+     * Get the offset of the first element in the 1D backing array.
+     *
+     * @return the offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
     /**
      * Get an index iterator for traversing the array in canonical order.
      *
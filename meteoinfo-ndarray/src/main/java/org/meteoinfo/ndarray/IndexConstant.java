@@ -61,6 +61,18 @@ public class IndexConstant extends Index {
     return 0;
   }
 
+  /** always return 0 strides */
+  @Override
+  public int[] getStride() {
+    return new int[rank];
+  }
+
+  /** always return 0 */
+  @Override
+  public int getOffset() {
+    return 0;
+  }
+
   @Override
   Index flip(int index) {
     return this;
@@ -0,0 +1,690 @@
+package org.meteoinfo.ndarray.math;
+
+import org.meteoinfo.ndarray.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Lazy element-wise array expression.
+ * <p>
+ * Operators only record an expression tree, nothing is computed until
+ * {@link #eval()} is called. The whole tree is then evaluated in one fused
+ * pass over the result elements, so an expression like
+ * {@code (t - 273.15) * 1.8 + 32} allocates only the result array instead of
+ * one temporary array per operator. Operands are broadcast with the same rules
+ * as {@link ArrayMath#broadcast(int[], int[])}.
+ * <p>
+ * Elements are evaluated in double precision. Integer missing values
+ * (Integer.MIN_VALUE) are read as NaN and NaN is written back as
+ * Integer.MIN_VALUE when the result data type is INT.
+ * <p>
+ * This differs from {@link ArrayMath} for INT operands: ArrayMath keeps
+ * Integer.MIN_VALUE as missing only in add and mul, and the other operators
+ * use plain int arithmetic (e.g. {@code ArrayMath.sub(a, 1)} turns
+ * Integer.MIN_VALUE into Integer.MAX_VALUE), while an expression keeps it as
+ * missing through every operator. INT results out of the int range are
+ * clamped by the double to int conversion instead of wrapping around.
+ *
+ * @author wyq
+ */
+public abstract class ArrayExpression {
+
+    /**
+     * Number of elements evaluated at a time along a row
+     */
+    static final int BLOCK = 1024;
+
+    protected final int[] shape;
+    protected final DataType dataType;
+
+    /**
+     * Constructor
+     *
+     * @param shape Result shape
+     * @param dataType Result data type
+     */
+    protected ArrayExpression(int[] shape, DataType dataType) {
+        this.shape = shape;
+        this.dataType = dataType;
+    }
+
+    // <editor-fold desc="Factory">
+    /**
+     * Create an expression from an array
+     *
+     * @param a The array
+     * @return Expression
+     */
+    public static ArrayExpression of(Array a) {
+        return new Leaf(a);
+    }
+
+    /**
+     * Create an expression from a number
+     *
+     * @param v The number
+     * @return Expression
+     */
+    public static ArrayExpression of(Number v) {
+        return new Constant(v);
+    }
+
+    /**
+     * Create an expression from an array, a number or an expression
+     *
+     * @param o The object
+     * @return Expression
+     */
+    public static ArrayExpression of(Object o) {
+        if (o instanceof ArrayExpression) {
+            return (ArrayExpression) o;
+        } else if (o instanceof Array) {
+            return of((Array) o);
+        } else if (o instanceof Number) {
+            return of((Number) o);
+        }
+        throw new IllegalArgumentException("Not supported operand: " + o);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get result shape
+     *
+     * @return Result shape
+     */
+    public int[] getShape() {
+        return shape.clone();
+    }
+
+    /**
+     * Get result data type
+     *
+     * @return Result data type
+     */
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * Get result size
+     *
+     * @return Result size
+     */
+    public long getSize() {
+        return Index.computeSize(shape);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Operators">
+    /**
+     * Add
+     *
+     * @param b Array, number or expression
+     * @return Expression
+     */
+    public ArrayExpression add(Object b) {
+        return new Binary(ArrayParallel.Operator.ADD, this, of(b));
+    }
+
+    /**
+     * Subtract
+     *
+     * @param b Array, number or expression
+     * @return Expression
+     */
+    public ArrayExpression sub(Object b) {
+        return new Binary(ArrayParallel.Operator.SUB, this, of(b));
+    }
+
+    /**
+     * Multiply
+     *
+     * @param b Array, number or expression
+     * @return Expression
+     */
+    public ArrayExpression mul(Object b) {
+        return new Binary(ArrayParallel.Operator.MUL, this, of(b));
+    }
+
+    /**
+     * Divide
+     *
+     * @param b Array, number or expression
+     * @return Expression
+     */
+    public ArrayExpression div(Object b) {
+        return new Binary(ArrayParallel.Operator.DIV, this, of(b));
+    }
+
+    /**
+     * Power
+     *
+     * @param b Array, number or expression
+     * @return Expression
+     */
+    public ArrayExpression pow(Object b) {
+        return new Binary(ArrayParallel.Operator.POW, this, of(b));
+    }
+
+    /**
+     * Negative
+     *
+     * @return Expression
+     */
+    public ArrayExpression neg() {
+        return new Unary("-", this, dataType, v -> -v);
+    }
+
+    /**
+     * Absolute value
+     *
+     * @return Expression
+     */
+    public ArrayExpression abs() {
+        return new Unary("abs", this, dataType, Math::abs);
+    }
+
+    /**
+     * Square root
+     *
+     * @return Expression
+     */
+    public ArrayExpression sqrt() {
+        return new Unary("sqrt", this, DataType.DOUBLE, Math::sqrt);
+    }
+
+    /**
+     * Exponent
+     *
+     * @return Expression
+     */
+    public ArrayExpression exp() {
+        return new Unary("exp", this, DataType.DOUBLE, Math::exp);
+    }
+
+    /**
+     * Natural logarithm
+     *
+     * @return Expression
+     */
+    public ArrayExpression log() {
+        return new Unary("log", this, DataType.DOUBLE, Math::log);
+    }
+
+    /**
+     * Base 10 logarithm
+     *
+     * @return Expression
+     */
+    public ArrayExpression log10() {
+        return new Unary("log10", this, DataType.DOUBLE, Math::log10);
+    }
+
+    /**
+     * Sine
+     *
+     * @return Expression
+     */
+    public ArrayExpression sin() {
+        return new Unary("sin", this, DataType.DOUBLE, Math::sin);
+    }
+
+    /**
+     * Cosine
+     *
+     * @return Expression
+     */
+    public ArrayExpression cos() {
+        return new Unary("cos", this, DataType.DOUBLE, Math::cos);
+    }
+
+    /**
+     * Tangent
+     *
+     * @return Expression
+     */
+    public ArrayExpression tan() {
+        return new Unary("tan", this, DataType.DOUBLE, Math::tan);
+    }
+
+    /**
+     * Apply a function to each element
+     *
+     * @param f The function
+     * @return Expression with DOUBLE result data type
+     */
+    public ArrayExpression map(DoubleUnaryOperator f) {
+        return new Unary("map", this, DataType.DOUBLE, f);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Evaluate">
+    /**
+     * Evaluate the expression
+     *
+     * @return Result array
+     */
+    public Array eval() {
+        return eval(ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Evaluate the expression
+     *
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public Array eval(boolean parallel) {
+        //Leaf positions and scratch slots belong to this call, so the nodes
+        //stay immutable and an expression can be evaluated from several threads
+        List<Leaf> leaves = new ArrayList<>();
+        int[] slots = new int[1];
+        Block block = compile(leaves, slots);
+        ArrayKernel.Layout[] layouts = new ArrayKernel.Layout[leaves.size()];
+        for (int k = 0; k < layouts.length; k++) {
+            layouts[k] = ArrayKernel.layout(leaves.get(k).array, shape);
+        }
+
+        Array r = Array.factory(dataType, shape);
+        long size = r.getSize();
+        if (ArrayParallel.accept(parallel, size)) {
+            ArrayParallel.forEachChunk(size, (start, end) ->
+                    ArrayKernel.walk(shape, layouts, start, end, new Evaluator(r, block, layouts.length, slots[0])));
+        } else {
+            ArrayKernel.walk(shape, layouts, 0, (int) size, new Evaluator(r, block, layouts.length, slots[0]));
+        }
+
+        return r;
+    }
+
+    /**
+     * Compile the expression into an evaluation block, collecting the array
+     * leaves and assigning scratch buffer slots
+     *
+     * @param leaves Leaf list to fill, a leaf is read from the frame position of its list index
+     * @param slots Number of scratch slots used, updated by the nodes
+     * @return Evaluation block
+     */
+    abstract Block compile(List<Leaf> leaves, int[] slots);
+    // </editor-fold>
+
+    // <editor-fold desc="Nodes">
+    /**
+     * Compiled evaluation of a node
+     */
+    interface Block {
+        /**
+         * Evaluate a block of elements
+         *
+         * @param frame Evaluation frame
+         * @param n Number of elements
+         * @param out Output buffer
+         */
+        void eval(Frame frame, int n, double[] out);
+    }
+
+    /**
+     * Per thread evaluation state
+     */
+    static class Frame {
+        final int[] pos;
+        final int[] strides;
+        final double[][] scratch;
+
+        Frame(int nLeaves, int nSlots) {
+            pos = new int[nLeaves];
+            strides = new int[nLeaves];
+            scratch = new double[nSlots][BLOCK];
+        }
+    }
+
+    private class Evaluator implements ArrayKernel.RowVisitor {
+        final Array r;
+        final Block block;
+        final Frame frame;
+        final double[] out = new double[BLOCK];
+
+        Evaluator(Array r, Block block, int nLeaves, int nSlots) {
+            this.r = r;
+            this.block = block;
+            this.frame = new Frame(nLeaves, nSlots);
+        }
+
+        @Override
+        public void visit(int rPos, int[] pos, int[] strides, int n) {
+            System.arraycopy(strides, 0, frame.strides, 0, strides.length);
+            for (int off = 0; off < n; off += BLOCK) {
+                int m = Math.min(BLOCK, n - off);
+                for (int k = 0; k < pos.length; k++) {
+                    frame.pos[k] = pos[k] + off * strides[k];
+                }
+                block.eval(frame, m, out);
+                store(rPos + off, m);
+            }
+        }
+
+        private void store(int rPos, int m) {
+            switch (dataType) {
+                case INT:
+                    int[] ri = (int[]) r.getStorage();
+                    for (int i = 0; i < m; i++) {
+                        ri[rPos + i] = Double.isNaN(out[i]) ? Integer.MIN_VALUE : (int) out[i];
+                    }
+                    break;
+                case FLOAT:
+                    float[] rf = (float[]) r.getStorage();
+                    for (int i = 0; i < m; i++) {
+                        rf[rPos + i] = (float) out[i];
+                    }
+                    break;
+                default:
+                    System.arraycopy(out, 0, (double[]) r.getStorage(), rPos, m);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Normalize a data type to the result types used by the expressions
+     */
+    static DataType resultType(DataType type) {
+        switch (type) {
+            case BYTE:
+            case UBYTE:
+            case SHORT:
+            case USHORT:
+            case INT:
+                return DataType.INT;
+            case FLOAT:
+                return DataType.FLOAT;
+            default:
+                return DataType.DOUBLE;
+        }
+    }
+
+    /**
+     * Array leaf
+     */
+    static class Leaf extends ArrayExpression {
+        final Array array;
+        final double[] ds;
+        final float[] fs;
+        final int[] is;
+
+        Leaf(Array a) {
+            super(a.getShape(), resultType(a.getDataType()));
+            DataType type = a.getDataType();
+            if (type == DataType.COMPLEX || !(type.isNumeric() || type.isUnsigned())) {
+                throw new IllegalArgumentException("Not numeric data type: " + a.getDataType());
+            }
+            if (ArrayKernel.storageType(a) == null) {
+                a = ArrayUtil.toDouble(a);
+            }
+            this.array = a;
+            Object storage = a.getStorage();
+            this.ds = storage instanceof double[] ? (double[]) storage : null;
+            this.fs = storage instanceof float[] ? (float[]) storage : null;
+            this.is = storage instanceof int[] ? (int[]) storage : null;
+        }
+
+        @Override
+        Block compile(List<Leaf> leaves, int[] slots) {
+            final int id = leaves.size();
+            leaves.add(this);
+            return (frame, n, out) -> read(frame.pos[id], frame.strides[id], n, out);
+        }
+
+        private void read(int p, int s, int n, double[] out) {
+            if (ds != null) {
+                if (s == 1) {
+                    System.arraycopy(ds, p, out, 0, n);
+                } else {
+                    for (int i = 0; i < n; i++, p += s) {
+                        out[i] = ds[p];
+                    }
+                }
+            } else if (fs != null) {
+                for (int i = 0; i < n; i++, p += s) {
+                    out[i] = fs[p];
+                }
+            } else {
+                int v;
+                for (int i = 0; i < n; i++, p += s) {
+                    v = is[p];
+                    out[i] = v == Integer.MIN_VALUE ? Double.NaN : v;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "array" + java.util.Arrays.toString(shape);
+        }
+    }
+
+    /**
+     * Number constant
+     */
+    static class Constant extends ArrayExpression {
+        final Number number;
+        final double value;
+
+        Constant(Number v) {
+            super(new int[0], v instanceof Integer || v instanceof Short || v instanceof Byte ?
+                    DataType.INT : (v instanceof Float ? DataType.FLOAT : DataType.DOUBLE));
+            this.number = v;
+            this.value = v.doubleValue();
+        }
+
+        @Override
+        Block compile(List<Leaf> leaves, int[] slots) {
+            return (frame, n, out) -> java.util.Arrays.fill(out, 0, n, value);
+        }
+
+        @Override
+        public String toString() {
+            return number.toString();
+        }
+    }
+
+    /**
+     * Unary function node
+     */
+    static class Unary extends ArrayExpression {
+        final String name;
+        final ArrayExpression a;
+        final DoubleUnaryOperator f;
+
+        Unary(String name, ArrayExpression a, DataType dataType, DoubleUnaryOperator f) {
+            super(a.shape, dataType);
+            this.name = name;
+            this.a = a;
+            this.f = f;
+        }
+
+        @Override
+        Block compile(List<Leaf> leaves, int[] slots) {
+            Block ab = a.compile(leaves, slots);
+            return (frame, n, out) -> {
+                ab.eval(frame, n, out);
+                for (int i = 0; i < n; i++) {
+                    out[i] = f.applyAsDouble(out[i]);
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + a + ")";
+        }
+    }
+
+    /**
+     * Binary operator node
+     */
+    static class Binary extends ArrayExpression {
+        final ArrayParallel.Operator op;
+        final ArrayExpression a;
+        final ArrayExpression b;
+
+        Binary(ArrayParallel.Operator op, ArrayExpression a, ArrayExpression b) {
+            super(broadcastShape(a.shape, b.shape), binaryType(op, a.dataType, b.dataType));
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+
+        private static int[] broadcastShape(int[] ashape, int[] bshape) {
+            if (ArrayMath.broadcastCheck(ashape, bshape) < 0) {
+                throw new IllegalArgumentException("Dimension mismatch, can not broadcast!");
+            }
+            return ArrayMath.broadcast(ashape, bshape);
+        }
+
+        private static DataType binaryType(ArrayParallel.Operator op, DataType aType, DataType bType) {
+            DataType type = resultType(ArrayMath.commonType(aType, bType));
+            switch (op) {
+                case DIV:
+                    return type == DataType.INT ? DataType.DOUBLE : type;
+                case POW:
+                    return type == DataType.FLOAT ? DataType.DOUBLE : type;
+                default:
+                    return type;
+            }
+        }
+
+        @Override
+        Block compile(List<Leaf> leaves, int[] slots) {
+            if (b instanceof Constant) {
+                Block ab = a.compile(leaves, slots);
+                double v = ((Constant) b).value;
+                return (frame, n, out) -> {
+                    ab.eval(frame, n, out);
+                    scalar(out, v, n, false);
+                };
+            } else if (a instanceof Constant) {
+                Block bb = b.compile(leaves, slots);
+                double v = ((Constant) a).value;
+                return (frame, n, out) -> {
+                    bb.eval(frame, n, out);
+                    scalar(out, v, n, true);
+                };
+            } else {
+                int slot = slots[0]++;
+                Block ab = a.compile(leaves, slots);
+                Block bb = b.compile(leaves, slots);
+                return (frame, n, out) -> {
+                    double[] t = frame.scratch[slot];
+                    ab.eval(frame, n, out);
+                    bb.eval(frame, n, t);
+                    combine(out, t, n);
+                };
+            }
+        }
+
+        private void combine(double[] out, double[] t, int n) {
+            switch (op) {
+                case ADD:
+                    for (int i = 0; i < n; i++) {
+                        out[i] += t[i];
+                    }
+                    break;
+                case SUB:
+                    for (int i = 0; i < n; i++) {
+                        out[i] -= t[i];
+                    }
+                    break;
+                case MUL:
+                    for (int i = 0; i < n; i++) {
+                        out[i] *= t[i];
+                    }
+                    break;
+                case DIV:
+                    for (int i = 0; i < n; i++) {
+                        out[i] /= t[i];
+                    }
+                    break;
+                case POW:
+                    for (int i = 0; i < n; i++) {
+                        out[i] = Math.pow(out[i], t[i]);
+                    }
+                    break;
+            }
+        }
+
+        private void scalar(double[] out, double v, int n, boolean reversed) {
+            switch (op) {
+                case ADD:
+                    for (int i = 0; i < n; i++) {
+                        out[i] += v;
+                    }
+                    break;
+                case SUB:
+                    if (reversed) {
+                        for (int i = 0; i < n; i++) {
+                            out[i] = v - out[i];
+                        }
+                    } else {
+                        for (int i = 0; i < n; i++) {
+                            out[i] -= v;
+                        }
+                    }
+                    break;
+                case MUL:
+                    for (int i = 0; i < n; i++) {
+                        out[i] *= v;
+                    }
+                    break;
+                case DIV:
+                    if (reversed) {
+                        for (int i = 0; i < n; i++) {
+                            out[i] = v / out[i];
+                        }
+                    } else {
+                        for (int i = 0; i < n; i++) {
+                            out[i] /= v;
+                        }
+                    }
+                    break;
+                case POW:
+                    if (reversed) {
+                        for (int i = 0; i < n; i++) {
+                            out[i] = Math.pow(v, out[i]);
+                        }
+                    } else {
+                        for (int i = 0; i < n; i++) {
+                            out[i] = Math.pow(out[i], v);
+                        }
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public String toString() {
+            String symbol;
+            switch (op) {
+                case ADD:
+                    symbol = " + ";
+                    break;
+                case SUB:
+                    symbol = " - ";
+                    break;
+                case MUL:
+                    symbol = " * ";
+                    break;
+                case DIV:
+                    symbol = " / ";
+                    break;
+                default:
+                    symbol = " ** ";
+                    break;
+            }
+            return "(" + a + symbol + b + ")";
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,825 @@
+package org.meteoinfo.ndarray.math;
+
+import org.meteoinfo.ndarray.*;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Primitive typed kernels working directly on the backing storage of
+ * ArrayInt, ArrayFloat and ArrayDouble.
+ * <p>
+ * Contiguous operands are processed with plain indexed loops which the JIT
+ * compiler can vectorise. Strided sections and broadcast operands are walked
+ * row by row along the innermost dimension using stride tables precomputed
+ * from their Index, so no Index or IndexIterator is touched per element.
+ * Every kernel returns null (or false) when the operands are not supported
+ * and the caller falls back to the generic code.
+ *
+ * @author wyq
+ */
+public class ArrayKernel {
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Row visitor
+     */
+    interface RowVisitor {
+        /**
+         * Visit a row of elements along the innermost dimension
+         *
+         * @param rPos Result element index of the row start
+         * @param pos Storage positions of the operands at the row start
+         * @param strides Storage strides of the operands along the row
+         * @param n Row length
+         */
+        void visit(int rPos, int[] pos, int[] strides, int n);
+    }
+
+    /**
+     * Storage layout of an operand broadcast to a result shape
+     */
+    static class Layout {
+        final Object storage;
+        final int offset;
+        final int[] strides;
+
+        Layout(Object storage, int offset, int[] strides) {
+            this.storage = storage;
+            this.offset = offset;
+            this.strides = strides;
+        }
+    }
+
+    /**
+     * Get whether the primitive kernels are enabled
+     *
+     * @return Enabled or not
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set whether the primitive kernels are enabled
+     *
+     * @param value Enabled or not
+     */
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    /**
+     * Get primitive storage data type of an array
+     *
+     * @param a The array
+     * @return DOUBLE, FLOAT or INT, null if the storage is not supported
+     */
+    static DataType storageType(Array a) {
+        if (a instanceof ArrayDouble) {
+            return DataType.DOUBLE;
+        } else if (a instanceof ArrayFloat) {
+            return DataType.FLOAT;
+        } else if (a instanceof ArrayInt && !a.isUnsigned()) {
+            return DataType.INT;
+        }
+        return null;
+    }
+
+    /**
+     * Get the storage layout of an array broadcast to a shape
+     *
+     * @param a The array
+     * @param shape The result shape
+     * @return Layout
+     */
+    static Layout layout(Array a, int[] shape) {
+        Index index = a.getIndexPrivate();
+        int[] aShape = index.getShape();
+        int[] aStride = index.getStride();
+        int shift = shape.length - aShape.length;
+        int[] strides = new int[shape.length];
+        for (int j = 0; j < aShape.length; j++) {
+            strides[j + shift] = aShape[j] == 1 ? 0 : aStride[j];
+        }
+        return new Layout(a.getStorage(), index.getOffset(), strides);
+    }
+
+    /**
+     * Get the layout of a scalar broadcast to a shape
+     *
+     * @param storage One element storage
+     * @param shape The result shape
+     * @return Layout
+     */
+    static Layout scalarLayout(Object storage, int[] shape) {
+        return new Layout(storage, 0, new int[shape.length]);
+    }
+
+    /**
+     * Walk the elements [start, end) of a result shape row by row
+     *
+     * @param shape The result shape
+     * @param layouts Operand layouts
+     * @param start Start element index
+     * @param end End element index (exclusive)
+     * @param visitor Row visitor
+     */
+    static void walk(int[] shape, Layout[] layouts, int start, int end, RowVisitor visitor) {
+        int m = layouts.length;
+        int[] pos = new int[m];
+        int[] inner = new int[m];
+        int rank = shape.length;
+        if (rank == 0) {
+            if (end > start) {
+                for (int k = 0; k < m; k++) {
+                    pos[k] = layouts[k].offset;
+                }
+                visitor.visit(start, pos, inner, 1);
+            }
+            return;
+        }
+
+        int last = rank - 1;
+        for (int k = 0; k < m; k++) {
+            inner[k] = layouts[k].strides[last];
+        }
+        int[] counter = ArrayParallel.counterOf(start, shape);
+        int i = start;
+        int n, p;
+        while (i < end) {
+            for (int k = 0; k < m; k++) {
+                p = layouts[k].offset;
+                for (int d = 0; d < rank; d++) {
+                    p += counter[d] * layouts[k].strides[d];
+                }
+                pos[k] = p;
+            }
+            n = Math.min(shape[last] - counter[last], end - i);
+            visitor.visit(i, pos, inner, n);
+            i += n;
+            counter[last] += n - 1;
+            ArrayParallel.incr(counter, shape);
+        }
+    }
+
+    /**
+     * Walk all elements of a result shape, optionally in parallel chunks
+     *
+     * @param shape The result shape
+     * @param layouts Operand layouts
+     * @param parallel Run in parallel or not
+     * @param visitor Row visitor
+     */
+    static void run(int[] shape, Layout[] layouts, boolean parallel, RowVisitor visitor) {
+        long size = Index.computeSize(shape);
+        if (parallel) {
+            ArrayParallel.forEachChunk(size, (start, end) -> walk(shape, layouts, start, end, visitor));
+        } else {
+            walk(shape, layouts, 0, (int) size, visitor);
+        }
+    }
+
+    // <editor-fold desc="Arithmetic">
+    /**
+     * Binary operation of two arrays with same primitive storage type
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param op The operator
+     * @param parallel Run in parallel or not
+     * @return Result array, null if not supported
+     */
+    public static Array binary(Array a, Array b, ArrayParallel.Operator op, boolean parallel) {
+        if (!enabled || ArrayMath.broadcastCheck(a, b) < 0) {
+            return null;
+        }
+        DataType type = storageType(a);
+        if (type == null || type != storageType(b) || !sameResultType(type, op)) {
+            return null;
+        }
+
+        int[] shape = ArrayMath.broadcast(a, b);
+        Array r = Array.factory(type, shape);
+        Layout[] layouts = new Layout[]{layout(a, shape), layout(b, shape)};
+        binary(type, op, op.intMissing, r, shape, layouts, parallel);
+
+        return r;
+    }
+
+    /**
+     * Binary operation of an array and a number
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param op The operator
+     * @param parallel Run in parallel or not
+     * @return Result array, null if not supported
+     */
+    public static Array binary(Array a, Number b, ArrayParallel.Operator op, boolean parallel) {
+        return scalar(a, b, op, false, parallel);
+    }
+
+    /**
+     * Binary operation of a number and an array
+     *
+     * @param a Number a
+     * @param b Array b
+     * @param op The operator
+     * @param parallel Run in parallel or not
+     * @return Result array, null if not supported
+     */
+    public static Array binary(Number a, Array b, ArrayParallel.Operator op, boolean parallel) {
+        return scalar(b, a, op, true, parallel);
+    }
+
+    /**
+     * Check whether an operator keeps the storage type of its operands, as the
+     * serial ArrayMath functions do
+     */
+    private static boolean sameResultType(DataType type, ArrayParallel.Operator op) {
+        switch (type) {
+            case INT:
+                return op != ArrayParallel.Operator.DIV;
+            case FLOAT:
+                return op != ArrayParallel.Operator.POW;
+            default:
+                return true;
+        }
+    }
+
+    private static Array scalar(Array a, Number v, ArrayParallel.Operator op, boolean reversed,
+                                boolean parallel) {
+        if (!enabled) {
+            return null;
+        }
+        DataType sType = storageType(a);
+        if (sType == null) {
+            return null;
+        }
+        DataType type = ArrayMath.commonType(a.getDataType(), ArrayMath.getDataType(v));
+        int[] shape = a.getShape();
+        Layout la = layout(a, shape);
+        if (type == sType && sameResultType(type, op)) {
+            Object storage;
+            switch (type) {
+                case INT:
+                    storage = new int[]{v.intValue()};
+                    break;
+                case FLOAT:
+                    storage = new float[]{v.floatValue()};
+                    break;
+                default:
+                    storage = new double[]{v.doubleValue()};
+                    break;
+            }
+            Layout lv = scalarLayout(storage, shape);
+            Array r = Array.factory(type, shape);
+            Layout[] layouts = reversed ? new Layout[]{lv, la} : new Layout[]{la, lv};
+            binary(type, op, op.intMissing, r, shape, layouts, parallel);
+            return r;
+        }
+
+        //Operations with double result from int or float storage
+        double dv;
+        switch (type) {
+            case INT:
+                if (op != ArrayParallel.Operator.DIV) {
+                    return null;
+                }
+                dv = v.intValue();
+                break;
+            case FLOAT:
+                if (op != ArrayParallel.Operator.POW || sType != DataType.FLOAT) {
+                    return null;
+                }
+                dv = v.doubleValue();
+                break;
+            case DOUBLE:
+                dv = v.doubleValue();
+                break;
+            default:
+                return null;
+        }
+        final DoubleBinaryOperator f = op.doubleOp;
+        final Array r = Array.factory(DataType.DOUBLE, shape);
+        final double[] z = (double[]) r.getStorage();
+        Layout[] layouts = new Layout[]{la};
+        if (sType == DataType.FLOAT) {
+            final float[] x = (float[]) la.storage;
+            run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                for (int j = 0, p = pos[0]; j < n; j++, p += st[0]) {
+                    z[rp + j] = reversed ? f.applyAsDouble(dv, x[p]) : f.applyAsDouble(x[p], dv);
+                }
+            });
+        } else if (sType == DataType.INT) {
+            final int[] x = (int[]) la.storage;
+            run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                for (int j = 0, p = pos[0]; j < n; j++, p += st[0]) {
+                    z[rp + j] = reversed ? f.applyAsDouble(dv, x[p]) : f.applyAsDouble(x[p], dv);
+                }
+            });
+        } else {
+            return null;
+        }
+
+        return r;
+    }
+
+    private static void binary(DataType type, ArrayParallel.Operator op, boolean missing, Array r, int[] shape,
+                               Layout[] layouts, boolean parallel) {
+        switch (type) {
+            case DOUBLE: {
+                final double[] x = (double[]) layouts[0].storage;
+                final double[] y = (double[]) layouts[1].storage;
+                final double[] z = (double[]) r.getStorage();
+                run(shape, layouts, parallel, (rp, pos, st, n) ->
+                        rowDouble(op, x, pos[0], st[0], y, pos[1], st[1], z, rp, n));
+                break;
+            }
+            case FLOAT: {
+                final float[] x = (float[]) layouts[0].storage;
+                final float[] y = (float[]) layouts[1].storage;
+                final float[] z = (float[]) r.getStorage();
+                run(shape, layouts, parallel, (rp, pos, st, n) ->
+                        rowFloat(op, x, pos[0], st[0], y, pos[1], st[1], z, rp, n));
+                break;
+            }
+            case INT: {
+                final int[] x = (int[]) layouts[0].storage;
+                final int[] y = (int[]) layouts[1].storage;
+                final int[] z = (int[]) r.getStorage();
+                run(shape, layouts, parallel, (rp, pos, st, n) ->
+                        rowInt(op, missing, x, pos[0], st[0], y, pos[1], st[1], z, rp, n));
+                break;
+            }
+        }
+    }
+
+    /**
+     * Binary operation of two arrays into an output array with the same
+     * primitive storage type
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param out Contiguous output array, may be a or b
+     * @param op The operator
+     * @param parallel Run in parallel or not
+     * @return Whether the operation was done
+     */
+    public static boolean binary(Array a, Array b, Array out, ArrayParallel.Operator op, boolean parallel) {
+        if (!enabled || !out.getIndexPrivate().isFastIterator()) {
+            return false;
+        }
+        DataType type = storageType(out);
+        if (type == null || type != storageType(a) || type != storageType(b) || !sameResultType(type, op)) {
+            return false;
+        }
+
+        int[] shape = out.getShape();
+        Layout[] layouts = new Layout[]{layout(a, shape), layout(b, shape)};
+        binary(type, op, op.intMissing, out, shape, layouts, parallel);
+
+        return true;
+    }
+
+    /**
+     * Apply a function to an array into a contiguous DOUBLE or FLOAT output
+     * array
+     *
+     * @param a Array a
+     * @param out Contiguous output array, may be a
+     * @param f The function
+     * @param parallel Run in parallel or not
+     * @return Whether the operation was done
+     */
+    public static boolean map(Array a, Array out, DoubleUnaryOperator f, boolean parallel) {
+        if (!enabled || !out.getIndexPrivate().isFastIterator()) {
+            return false;
+        }
+        DataType type = storageType(out);
+        DataType aType = storageType(a);
+        if (aType == null || (type != DataType.DOUBLE && type != DataType.FLOAT)) {
+            return false;
+        }
+
+        int[] shape = out.getShape();
+        Layout[] layouts = new Layout[]{layout(a, shape)};
+        final Object x = layouts[0].storage;
+        if (type == DataType.DOUBLE) {
+            final double[] z = (double[]) out.getStorage();
+            run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                for (int j = 0, p = pos[0]; j < n; j++, p += st[0]) {
+                    z[rp + j] = f.applyAsDouble(element(x, aType, p));
+                }
+            });
+        } else {
+            final float[] z = (float[]) out.getStorage();
+            run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                for (int j = 0, p = pos[0]; j < n; j++, p += st[0]) {
+                    z[rp + j] = (float) f.applyAsDouble(element(x, aType, p));
+                }
+            });
+        }
+
+        return true;
+    }
+
+    private static double element(Object storage, DataType type, int p) {
+        switch (type) {
+            case DOUBLE:
+                return ((double[]) storage)[p];
+            case FLOAT:
+                return ((float[]) storage)[p];
+            default:
+                return ((int[]) storage)[p];
+        }
+    }
+
+    // </editor-fold>
+
+    // <editor-fold desc="Select">
+    /**
+     * Return elements chosen from x or y depending on condition
+     *
+     * @param condition Boolean condition array
+     * @param x Values where condition is true
+     * @param y Values where condition is false
+     * @param parallel Run in parallel or not
+     * @return Result array, null if not supported
+     */
+    public static Array where(Array condition, Array x, Array y, boolean parallel) {
+        if (!enabled || !(condition instanceof ArrayBoolean)) {
+            return null;
+        }
+        DataType type = storageType(x);
+        if (type == null || type != storageType(y)) {
+            return null;
+        }
+        if (ArrayMath.broadcastCheck(x, y) < 0) {
+            return null;
+        }
+        int[] shape = ArrayMath.broadcast(x, y);
+        if (ArrayMath.broadcastCheck(shape, condition.getShape()) < 0) {
+            return null;
+        }
+        shape = ArrayMath.broadcast(shape, condition.getShape());
+
+        Array r = Array.factory(type, shape);
+        Layout[] layouts = new Layout[]{layout(condition, shape), layout(x, shape), layout(y, shape)};
+        final boolean[] c = (boolean[]) layouts[0].storage;
+        switch (type) {
+            case DOUBLE: {
+                final double[] xs = (double[]) layouts[1].storage;
+                final double[] ys = (double[]) layouts[2].storage;
+                final double[] z = (double[]) r.getStorage();
+                run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                    int cp = pos[0], xp = pos[1], yp = pos[2];
+                    if (st[0] == 1 && st[1] == 1 && st[2] == 1) {
+                        for (int j = 0; j < n; j++) {
+                            z[rp + j] = c[cp + j] ? xs[xp + j] : ys[yp + j];
+                        }
+                    } else {
+                        for (int j = 0; j < n; j++) {
+                            z[rp + j] = c[cp + j * st[0]] ? xs[xp + j * st[1]] : ys[yp + j * st[2]];
+                        }
+                    }
+                });
+                break;
+            }
+            case FLOAT: {
+                final float[] xs = (float[]) layouts[1].storage;
+                final float[] ys = (float[]) layouts[2].storage;
+                final float[] z = (float[]) r.getStorage();
+                run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                    int cp = pos[0], xp = pos[1], yp = pos[2];
+                    if (st[0] == 1 && st[1] == 1 && st[2] == 1) {
+                        for (int j = 0; j < n; j++) {
+                            z[rp + j] = c[cp + j] ? xs[xp + j] : ys[yp + j];
+                        }
+                    } else {
+                        for (int j = 0; j < n; j++) {
+                            z[rp + j] = c[cp + j * st[0]] ? xs[xp + j * st[1]] : ys[yp + j * st[2]];
+                        }
+                    }
+                });
+                break;
+            }
+            case INT: {
+                final int[] xs = (int[]) layouts[1].storage;
+                final int[] ys = (int[]) layouts[2].storage;
+                final int[] z = (int[]) r.getStorage();
+                run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                    int cp = pos[0], xp = pos[1], yp = pos[2];
+                    if (st[0] == 1 && st[1] == 1 && st[2] == 1) {
+                        for (int j = 0; j < n; j++) {
+                            z[rp + j] = c[cp + j] ? xs[xp + j] : ys[yp + j];
+                        }
+                    } else {
+                        for (int j = 0; j < n; j++) {
+                            z[rp + j] = c[cp + j * st[0]] ? xs[xp + j * st[1]] : ys[yp + j * st[2]];
+                        }
+                    }
+                });
+                break;
+            }
+        }
+
+        return r;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Convert">
+    /**
+     * Set missing value to NaN in place for float and double arrays
+     *
+     * @param a The array
+     * @param missingValue Missing value
+     * @param parallel Run in parallel or not
+     * @return Whether the array was processed
+     */
+    public static boolean missingToNaN(Array a, Number missingValue, boolean parallel) {
+        if (!enabled) {
+            return false;
+        }
+        DataType type = storageType(a);
+        if (type == null || type == DataType.INT) {
+            return false;
+        }
+
+        int[] shape = a.getShape();
+        Layout[] layouts = new Layout[]{layout(a, shape)};
+        if (type == DataType.FLOAT) {
+            final float[] x = (float[]) layouts[0].storage;
+            final float mv = missingValue.floatValue();
+            run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                for (int j = 0, p = pos[0]; j < n; j++, p += st[0]) {
+                    if (x[p] == mv) {
+                        x[p] = Float.NaN;
+                    }
+                }
+            });
+        } else {
+            final double[] x = (double[]) layouts[0].storage;
+            final double mv = missingValue.doubleValue();
+            run(shape, layouts, parallel, (rp, pos, st, n) -> {
+                for (int j = 0, p = pos[0]; j < n; j++, p += st[0]) {
+                    if (x[p] == mv) {
+                        x[p] = Double.NaN;
+                    }
+                }
+            });
+        }
+
+        return true;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Row kernels">
+    private static void rowDouble(ArrayParallel.Operator op, double[] a, int ap, int as, double[] b, int bp, int bs,
+                                double[] r, int rp, int n) {
+        if (as == 1 && bs == 1) {
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] + b[bp + j];
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] - b[bp + j];
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] * b[bp + j];
+                    }
+                    return;
+                case DIV:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] / b[bp + j];
+                    }
+                    return;
+            }
+        } else if (as == 1 && bs == 0) {
+            double vb = b[bp];
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] + vb;
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] - vb;
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] * vb;
+                    }
+                    return;
+                case DIV:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] / vb;
+                    }
+                    return;
+            }
+        } else if (as == 0 && bs == 1) {
+            double va = a[ap];
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va + b[bp + j];
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va - b[bp + j];
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va * b[bp + j];
+                    }
+                    return;
+                case DIV:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va / b[bp + j];
+                    }
+                    return;
+            }
+        }
+        DoubleBinaryOperator f = op.doubleOp;
+        for (int j = 0; j < n; j++) {
+            r[rp + j] = f.applyAsDouble(a[ap + j * as], b[bp + j * bs]);
+        }
+    }
+
+    private static void rowFloat(ArrayParallel.Operator op, float[] a, int ap, int as, float[] b, int bp, int bs,
+                                float[] r, int rp, int n) {
+        if (as == 1 && bs == 1) {
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] + b[bp + j];
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] - b[bp + j];
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] * b[bp + j];
+                    }
+                    return;
+                case DIV:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] / b[bp + j];
+                    }
+                    return;
+            }
+        } else if (as == 1 && bs == 0) {
+            float vb = b[bp];
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] + vb;
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] - vb;
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] * vb;
+                    }
+                    return;
+                case DIV:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] / vb;
+                    }
+                    return;
+            }
+        } else if (as == 0 && bs == 1) {
+            float va = a[ap];
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va + b[bp + j];
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va - b[bp + j];
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va * b[bp + j];
+                    }
+                    return;
+                case DIV:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va / b[bp + j];
+                    }
+                    return;
+            }
+        }
+        DoubleBinaryOperator f = op.doubleOp;
+        for (int j = 0; j < n; j++) {
+            r[rp + j] = (float) f.applyAsDouble(a[ap + j * as], b[bp + j * bs]);
+        }
+    }
+
+    private static void rowInt(ArrayParallel.Operator op, boolean missing, int[] a, int ap, int as, int[] b, int bp, int bs,
+                                int[] r, int rp, int n) {
+        if (as == 1 && bs == 1) {
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        int va = a[ap + j], vb = b[bp + j];
+                        r[rp + j] = missing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) ?
+                                Integer.MIN_VALUE : va + vb;
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] - b[bp + j];
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        int va = a[ap + j], vb = b[bp + j];
+                        r[rp + j] = missing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) ?
+                                Integer.MIN_VALUE : va * vb;
+                    }
+                    return;
+            }
+        } else if (as == 1 && bs == 0) {
+            int vb = b[bp];
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        int va = a[ap + j];
+                        r[rp + j] = missing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) ?
+                                Integer.MIN_VALUE : va + vb;
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = a[ap + j] - vb;
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        int va = a[ap + j];
+                        r[rp + j] = missing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) ?
+                                Integer.MIN_VALUE : va * vb;
+                    }
+                    return;
+            }
+        } else if (as == 0 && bs == 1) {
+            int va = a[ap];
+            switch (op) {
+                case ADD:
+                    for (int j = 0; j < n; j++) {
+                        int vb = b[bp + j];
+                        r[rp + j] = missing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) ?
+                                Integer.MIN_VALUE : va + vb;
+                    }
+                    return;
+                case SUB:
+                    for (int j = 0; j < n; j++) {
+                        r[rp + j] = va - b[bp + j];
+                    }
+                    return;
+                case MUL:
+                    for (int j = 0; j < n; j++) {
+                        int vb = b[bp + j];
+                        r[rp + j] = missing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) ?
+                                Integer.MIN_VALUE : va * vb;
+                    }
+                    return;
+            }
+        }
+        IntBinaryOperator f = op.intOp;
+        int va, vb;
+        for (int j = 0; j < n; j++) {
+            va = a[ap + j * as];
+            vb = b[bp + j * bs];
+            if (missing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE)) {
+                r[rp + j] = Integer.MIN_VALUE;
+            } else {
+                r[rp + j] = f.applyAsInt(va, vb);
+            }
+        }
+    }
+    // </editor-fold>
+}
@@ -9,6 +9,7 @@ import org.meteoinfo.ndarray.*;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  *
@@ -166,8 +167,17 @@ public class ArrayMath {
      * @return Can broadcast (1), can not broadcast (-1), same dimensions (0)
      */
     public static int broadcastCheck(Array a, Array b) {
-        int[] ashape = a.getShape();
-        int[] bshape = b.getShape();
+        return broadcastCheck(a.getShape(), b.getShape());
+    }
+
+    /**
+     * Broadcast check for two shapes.
+     *
+     * @param ashape Shape a
+     * @param bshape Shape b
+     * @return Can broadcast (1), can not broadcast (-1), same dimensions (0)
+     */
+    public static int broadcastCheck(int[] ashape, int[] bshape) {
         int n = ashape.length;
         int m = bshape.length;
         if (n != m) {
@@ -210,8 +220,17 @@ public class ArrayMath {
      * @return Broadcast shape
      */
     public static int[] broadcast(Array a, Array b) {
-        int[] ashape = a.getShape();
-        int[] bshape = b.getShape();
+        return broadcast(a.getShape(), b.getShape());
+    }
+
+    /**
+     * Get broadcast shape from two shapes
+     *
+     * @param ashape Shape a
+     * @param bshape Shape b
+     * @return Broadcast shape
+     */
+    public static int[] broadcast(int[] ashape, int[] bshape) {
         int n = ashape.length;
         int m = bshape.length;
         if (n == m) {
@@ -304,6 +323,26 @@ public class ArrayMath {
      * @return Added array
      */
     public static Array add(Array a, Array b) {
+        return add(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array add
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Added array
+     */
+    public static Array add(Array a, Array b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a, b);
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.ADD, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.ADD);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType type = ArrayMath.commonType(a.getDataType(), b.getDataType());
         switch (type) {
             case SHORT:
@@ -333,6 +372,26 @@ public class ArrayMath {
      * @return Added array
      */
     public static Array add(Array a, Number b) {
+        return add(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array add
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Added array
+     */
+    public static Array add(Array a, Number b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a.getSize());
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.ADD, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.ADD);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType bType = ArrayMath.getDataType(b);
         DataType type = ArrayMath.commonType(a.getDataType(), bType);
         switch (type) {
@@ -432,8 +491,14 @@ public class ArrayMath {
     private static Array addInt(Array a, int b) {
         Array r = Array.factory(DataType.INT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
+            int v;
             for (int i = 0; i < r.getSize(); i++) {
-                r.setInt(i, a.getInt(i) + b);
+                v = a.getInt(i);
+                if (v == Integer.MIN_VALUE) {
+                    r.setInt(i, Integer.MIN_VALUE);
+                } else {
+                    r.setInt(i, v + b);
+                }
             }
         } else {
             IndexIterator iterR = r.getIndexIterator();
@@ -513,8 +578,14 @@ public class ArrayMath {
     private static Array addLong(Array a, long b) {
         Array r = Array.factory(DataType.LONG, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
+            long v;
             for (int i = 0; i < r.getSize(); i++) {
-                r.setLong(i, a.getInt(i) + b);
+                v = a.getLong(i);
+                if (v == Long.MIN_VALUE) {
+                    r.setLong(i, Long.MIN_VALUE);
+                } else {
+                    r.setLong(i, v + b);
+                }
             }
         } else {
             IndexIterator iterR = r.getIndexIterator();
@@ -781,6 +852,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array sub(Array a, Array b) {
+        return sub(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array subtract
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array sub(Array a, Array b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a, b);
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.SUB, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.SUB);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType type = ArrayMath.commonType(a.getDataType(), b.getDataType());
         switch (type) {
             case SHORT:
@@ -813,6 +904,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array sub(Array a, Number b) {
+        return sub(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array subtract
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array sub(Array a, Number b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a.getSize());
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.SUB, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.SUB);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType bType = ArrayMath.getDataType(b);
         DataType type = ArrayMath.commonType(a.getDataType(), bType);
         switch (type) {
@@ -857,6 +968,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array sub(Number b, Array a) {
+        return sub(b, a, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array subtract
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array sub(Number b, Array a, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a.getSize());
+        Array r = ArrayKernel.binary(b, a, ArrayParallel.Operator.SUB, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(b, a, ArrayParallel.Operator.SUB);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType bType = ArrayMath.getDataType(b);
         DataType type = ArrayMath.commonType(a.getDataType(), bType);
         switch (type) {
@@ -1008,7 +1139,7 @@ public class ArrayMath {
     }
 
     private static Array subLong(Array a, long b) {
-        Array r = Array.factory(DataType.INT, a.getShape());
+        Array r = Array.factory(DataType.LONG, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
                 r.setLong(i, a.getLong(i) - b);
@@ -1371,6 +1502,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array mul(Array a, Array b) {
+        return mul(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array mutiply
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array mul(Array a, Array b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a, b);
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.MUL, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.MUL);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType type = ArrayMath.commonType(a.getDataType(), b.getDataType());
         switch (type) {
             case SHORT:
@@ -1400,6 +1551,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array mul(Array a, Number b) {
+        return mul(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array multiply
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array mul(Array a, Number b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a.getSize());
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.MUL, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.MUL);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType bType = ArrayMath.getDataType(b);
         DataType type = ArrayMath.commonType(a.getDataType(), bType);
         switch (type) {
@@ -1496,8 +1667,14 @@ public class ArrayMath {
     private static Array mulInt(Array a, int b) {
         Array r = Array.factory(DataType.INT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
+            int v;
             for (int i = 0; i < r.getSize(); i++) {
-                r.setInt(i, a.getInt(i) * b);
+                v = a.getInt(i);
+                if (v == Integer.MIN_VALUE) {
+                    r.setInt(i, Integer.MIN_VALUE);
+                } else {
+                    r.setInt(i, v * b);
+                }
             }
         } else {
             IndexIterator iterR = r.getIndexIterator();
@@ -1577,15 +1754,21 @@ public class ArrayMath {
     private static Array mulLong(Array a, long b) {
         Array r = Array.factory(DataType.LONG, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
+            long v;
             for (int i = 0; i < r.getSize(); i++) {
-                r.setLong(i, a.getLong(i) * b);
+                v = a.getLong(i);
+                if (v == Long.MIN_VALUE) {
+                    r.setLong(i, Long.MIN_VALUE);
+                } else {
+                    r.setLong(i, v * b);
+                }
             }
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
             long v;
             while (iterA.hasNext()) {
-                v = iterA.getIntNext();
+                v = iterA.getLongNext();
                 if (v == Long.MIN_VALUE) {
                     iterR.setLongNext(Long.MIN_VALUE);
                 } else {
@@ -1899,6 +2082,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array div(Array a, Array b) {
+        return div(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array divide
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array div(Array a, Array b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a, b);
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.DIV, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.DIV);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType type = ArrayMath.commonType(a.getDataType(), b.getDataType());
         switch (type) {
             case SHORT:
@@ -1927,6 +2130,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array div(Array a, Number b) {
+        return div(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array divide
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array div(Array a, Number b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a.getSize());
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.DIV, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.DIV);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType bType = ArrayMath.getDataType(b);
         DataType type = ArrayMath.commonType(a.getDataType(), bType);
         switch (type) {
@@ -1967,6 +2190,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array div(Number b, Array a) {
+        return div(b, a, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array divide
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array div(Number b, Array a, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a.getSize());
+        Array r = ArrayKernel.binary(b, a, ArrayParallel.Operator.DIV, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(b, a, ArrayParallel.Operator.DIV);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType bType = ArrayMath.getDataType(b);
         DataType type = ArrayMath.commonType(a.getDataType(), bType);
         switch (type) {
@@ -3381,6 +3624,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array pow(Array a, Number b) {
+        return pow(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array pow function
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array pow(Array a, Number b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a.getSize());
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.POW, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.POW);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType bType = ArrayMath.getDataType(b);
         DataType type = ArrayMath.commonType(a.getDataType(), bType);
         switch (type) {
@@ -3421,6 +3684,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array pow(Number a, Array b) {
+        return pow(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array pow function
+     *
+     * @param a Number a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array pow(Number a, Array b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, b.getSize());
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.POW, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.POW);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType bType = ArrayMath.getDataType(a);
         DataType type = ArrayMath.commonType(b.getDataType(), bType);
         switch (type) {
@@ -3461,6 +3744,26 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array pow(Array a, Array b) {
+        return pow(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array pow function
+     *
+     * @param a Number a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array pow(Array a, Array b, boolean parallel) {
+        boolean inParallel = ArrayParallel.accept(parallel, a, b);
+        Array r = ArrayKernel.binary(a, b, ArrayParallel.Operator.POW, inParallel);
+        if (r == null && inParallel) {
+            r = ArrayParallel.binary(a, b, ArrayParallel.Operator.POW);
+        }
+        if (r != null) {
+            return r;
+        }
         DataType type = ArrayMath.commonType(a.getDataType(), b.getDataType());
         switch (type) {
             case SHORT:
@@ -3602,11 +3905,7 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.DOUBLE, a.getShape());
                 for (int i = 0; i < a.getSize(); i++) {
-                    if (Double.isNaN(a.getDouble(i)) || Double.isNaN(b.getDouble(i))) {
-                        r.setDouble(i, Double.NaN);
-                    } else {
-                        r.setDouble(i, Math.pow(a.getDouble(i), b.getDouble(i)));
-                    }
+                    r.setDouble(i, Math.pow(a.getDouble(i), b.getDouble(i)));
                 }
                 return r;
             case 1:
@@ -3622,11 +3921,7 @@ public class ArrayMath {
                 for (int i = 0; i < r.getSize(); i++) {
                     current = index.getCurrentCounter();
                     setIndex(aindex, bindex, current, n, na, nb);
-                    if (Double.isNaN(a.getDouble(aindex)) || Double.isNaN(b.getDouble(bindex))) {
-                        r.setDouble(i, Double.NaN);
-                    } else {
-                        r.setDouble(i, Math.pow(a.getDouble(aindex), b.getDouble(bindex)));
-                    }
+                    r.setDouble(i, Math.pow(a.getDouble(aindex), b.getDouble(bindex)));
                     index.incr();
                 }
                 return r;
@@ -3800,7 +4095,18 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array sqrt(Array a) {
-        return ArrayMath.pow(a, 0.5);
+        return sqrt(a, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Sqrt function
+     *
+     * @param a Array a
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array sqrt(Array a, boolean parallel) {
+        return ArrayMath.pow(a, 0.5, parallel);
     }
 
     /**
@@ -3810,6 +4116,23 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array exp(Array a) {
+        return exp(a, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Exponent function
+     *
+     * @param a Array a
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array exp(Array a, boolean parallel) {
+        if (!isComplex(a) && ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.mapDouble(a, Math::exp);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r;
         if (isComplex(a)) {
             r = Array.factory(DataType.COMPLEX, a.getShape());
@@ -3833,6 +4156,23 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array log(Array a) {
+        return log(a, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Log function
+     *
+     * @param a Array a
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array log(Array a, boolean parallel) {
+        if (!isComplex(a) && ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.mapDouble(a, Math::log);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r;
         if (isComplex(a)) {
             r = Array.factory(DataType.COMPLEX, a.getShape());
@@ -3872,6 +4212,23 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array log10(Array a) {
+        return log10(a, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Log10 function
+     *
+     * @param a Array a
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array log10(Array a, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.mapDouble(a, Math::log10);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4161,6 +4518,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array equal(Array a, Array b) {
+        return equal(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array equal
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array equal(Array a, Array b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.EQ);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < r.getSize(); i++) {
@@ -4186,6 +4561,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array equal(Array a, Number b) {
+        return equal(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array equal
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array equal(Array a, Number b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.EQ);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         double v = b.doubleValue();
         if (Double.isNaN(v)) {
@@ -4384,6 +4777,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array lessThan(Array a, Array b) {
+        return lessThan(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array less than
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array lessThan(Array a, Array b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.LT);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4409,6 +4820,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array lessThan(Array a, Number b) {
+        return lessThan(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array less than
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array lessThan(Array a, Number b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.LT);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4433,6 +4862,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array lessThanOrEqual(Array a, Array b) {
+        return lessThanOrEqual(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array less than or equal
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array lessThanOrEqual(Array a, Array b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.LE);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4458,6 +4905,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array lessThanOrEqual(Array a, Number b) {
+        return lessThanOrEqual(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array less than or equal
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array lessThanOrEqual(Array a, Number b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.LE);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4482,6 +4947,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array greaterThan(Array a, Array b) {
+        return greaterThan(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array greater than
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array greaterThan(Array a, Array b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.GT);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4507,6 +4990,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array greaterThan(Array a, Number b) {
+        return greaterThan(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array greater than
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array greaterThan(Array a, Number b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.GT);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4531,6 +5032,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array greaterThanOrEqual(Array a, Array b) {
+        return greaterThanOrEqual(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array greater than or equal
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array greaterThanOrEqual(Array a, Array b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.GE);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4556,6 +5075,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array greaterThanOrEqual(Array a, Number b) {
+        return greaterThanOrEqual(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array greater than or equal
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array greaterThanOrEqual(Array a, Number b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.GE);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4580,6 +5117,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array notEqual(Array a, Array b) {
+        return notEqual(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array not equal
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array notEqual(Array a, Array b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.NE);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
             for (int i = 0; i < a.getSize(); i++) {
@@ -4605,6 +5160,24 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array notEqual(Array a, Number b) {
+        return notEqual(a, b, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Array not equal
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array notEqual(Array a, Number b, boolean parallel) {
+        if (ArrayParallel.accept(parallel, a.getSize())) {
+            Array r = ArrayParallel.compare(a, b, ArrayParallel.Comparison.NE);
+            if (r != null) {
+                return r;
+            }
+        }
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         double v = b.doubleValue();
         if (Double.isNaN(v)) {
@@ -5606,6 +6179,367 @@ public class ArrayMath {
         return r;
     }
 
+    /**
+     * Check an output array against the result shape
+     *
+     * @param shape Result shape
+     * @param out Output array
+     */
+    private static void checkOut(int[] shape, Array out) {
+        if (!Arrays.equals(shape, out.getShape())) {
+            throw new IllegalArgumentException("Output array shape " + Arrays.toString(out.getShape()) +
+                    " does not match result shape " + Arrays.toString(shape));
+        }
+        DataType type = out.getDataType();
+        if (type == DataType.COMPLEX || !(type.isNumeric() || type.isUnsigned())) {
+            throw new IllegalArgumentException("Output array data type is not numeric: " + out.getDataType());
+        }
+    }
+
+    /**
+     * Create a one element array from a number to broadcast with an array
+     *
+     * @param b The number
+     * @return One element array
+     */
+    private static Array scalarArray(Number b) {
+        Array r;
+        if (b instanceof Integer || b instanceof Short || b instanceof Byte) {
+            r = Array.factory(DataType.INT, new int[]{1});
+            r.setInt(0, b.intValue());
+        } else if (b instanceof Long) {
+            r = Array.factory(DataType.LONG, new int[]{1});
+            r.setLong(0, b.longValue());
+        } else if (b instanceof Float) {
+            r = Array.factory(DataType.FLOAT, new int[]{1});
+            r.setFloat(0, b.floatValue());
+        } else {
+            r = Array.factory(DataType.DOUBLE, new int[]{1});
+            r.setDouble(0, b.doubleValue());
+        }
+        return r;
+    }
+
+    /**
+     * Binary operation of two arrays into an output array
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param out Output array
+     * @param op The operator
+     * @return Output array
+     */
+    private static Array binary(Array a, Array b, Array out, ArrayParallel.Operator op) {
+        if (broadcastCheck(a, b) < 0) {
+            throw new IllegalArgumentException("Dimension mismatch, can not broadcast!");
+        }
+        int[] shape = out.getShape();
+        checkOut(broadcast(a, b), out);
+        if (ArrayKernel.binary(a, b, out, op, ArrayParallel.accept(ArrayParallel.isEnabled(), out.getSize()))) {
+            return out;
+        }
+
+        int[] ashape = a.getShape();
+        int[] bshape = b.getShape();
+        int na = shape.length - ashape.length;
+        int nb = shape.length - bshape.length;
+        Index aindex = a.getIndex();
+        Index bindex = b.getIndex();
+        Index index = out.getIndex();
+        DataType type = out.getDataType();
+        boolean integral = type.isIntegral() && a.getDataType().isIntegral() && b.getDataType().isIntegral() &&
+                (op == ArrayParallel.Operator.ADD || op == ArrayParallel.Operator.SUB ||
+                        op == ArrayParallel.Operator.MUL);
+        int[] current;
+        for (long i = 0; i < out.getSize(); i++) {
+            current = index.getCurrentCounter();
+            for (int j = 0; j < ashape.length; j++) {
+                aindex.setDim(j, ashape[j] == 1 ? 0 : current[j + na]);
+            }
+            for (int j = 0; j < bshape.length; j++) {
+                bindex.setDim(j, bshape[j] == 1 ? 0 : current[j + nb]);
+            }
+            if (integral && type == DataType.LONG) {
+                long va = a.getLong(aindex);
+                long vb = b.getLong(bindex);
+                out.setLong(index, op.intMissing && (va == Long.MIN_VALUE || vb == Long.MIN_VALUE) ?
+                        Long.MIN_VALUE : op.longOp.applyAsLong(va, vb));
+            } else if (integral) {
+                int va = a.getInt(aindex);
+                int vb = b.getInt(bindex);
+                out.setInt(index, op.intMissing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) ?
+                        Integer.MIN_VALUE : op.intOp.applyAsInt(va, vb));
+            } else {
+                out.setDouble(index, op.doubleOp.applyAsDouble(a.getDouble(aindex), b.getDouble(bindex)));
+            }
+            index.incr();
+        }
+
+        return out;
+    }
+
+    /**
+     * Apply a function to an array into an output array
+     *
+     * @param a Array a
+     * @param out Output array
+     * @param f The function
+     * @return Output array
+     */
+    private static Array map(Array a, Array out, DoubleUnaryOperator f) {
+        if (broadcastCheck(a.getShape(), out.getShape()) < 0) {
+            throw new IllegalArgumentException("Dimension mismatch, can not broadcast!");
+        }
+        int[] shape = out.getShape();
+        checkOut(broadcast(a.getShape(), shape), out);
+        if (ArrayKernel.map(a, out, f, ArrayParallel.accept(ArrayParallel.isEnabled(), out.getSize()))) {
+            return out;
+        }
+
+        int[] ashape = a.getShape();
+        int na = shape.length - ashape.length;
+        Index aindex = a.getIndex();
+        Index index = out.getIndex();
+        int[] current;
+        for (long i = 0; i < out.getSize(); i++) {
+            current = index.getCurrentCounter();
+            for (int j = 0; j < ashape.length; j++) {
+                aindex.setDim(j, ashape[j] == 1 ? 0 : current[j + na]);
+            }
+            out.setDouble(index, f.applyAsDouble(a.getDouble(aindex)));
+            index.incr();
+        }
+
+        return out;
+    }
+
+    /**
+     * Array add into an output array
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param out Output array with the broadcast shape of a and b
+     * @return Output array
+     */
+    public static Array add(Array a, Array b, Array out) {
+        return binary(a, b, out, ArrayParallel.Operator.ADD);
+    }
+
+    /**
+     * Array add into an output array
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param out Output array with the shape of a
+     * @return Output array
+     */
+    public static Array add(Array a, Number b, Array out) {
+        return binary(a, scalarArray(b), out, ArrayParallel.Operator.ADD);
+    }
+
+    /**
+     * Array add in place, the result is stored in array a
+     *
+     * @param a Array a
+     * @param b Array b, must broadcast to the shape of a
+     * @return Array a
+     */
+    public static Array addInPlace(Array a, Array b) {
+        return binary(a, b, a, ArrayParallel.Operator.ADD);
+    }
+
+    /**
+     * Array add in place, the result is stored in array a
+     *
+     * @param a Array a
+     * @param b Number b
+     * @return Array a
+     */
+    public static Array addInPlace(Array a, Number b) {
+        return binary(a, scalarArray(b), a, ArrayParallel.Operator.ADD);
+    }
+
+    /**
+     * Array subtract into an output array
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param out Output array with the broadcast shape of a and b
+     * @return Output array
+     */
+    public static Array sub(Array a, Array b, Array out) {
+        return binary(a, b, out, ArrayParallel.Operator.SUB);
+    }
+
+    /**
+     * Array subtract into an output array
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param out Output array with the shape of a
+     * @return Output array
+     */
+    public static Array sub(Array a, Number b, Array out) {
+        return binary(a, scalarArray(b), out, ArrayParallel.Operator.SUB);
+    }
+
+    /**
+     * Array subtract in place, the result is stored in array a
+     *
+     * @param a Array a
+     * @param b Array b, must broadcast to the shape of a
+     * @return Array a
+     */
+    public static Array subInPlace(Array a, Array b) {
+        return binary(a, b, a, ArrayParallel.Operator.SUB);
+    }
+
+    /**
+     * Array subtract in place, the result is stored in array a
+     *
+     * @param a Array a
+     * @param b Number b
+     * @return Array a
+     */
+    public static Array subInPlace(Array a, Number b) {
+        return binary(a, scalarArray(b), a, ArrayParallel.Operator.SUB);
+    }
+
+    /**
+     * Array multiply into an output array
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param out Output array with the broadcast shape of a and b
+     * @return Output array
+     */
+    public static Array mul(Array a, Array b, Array out) {
+        return binary(a, b, out, ArrayParallel.Operator.MUL);
+    }
+
+    /**
+     * Array multiply into an output array
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param out Output array with the shape of a
+     * @return Output array
+     */
+    public static Array mul(Array a, Number b, Array out) {
+        return binary(a, scalarArray(b), out, ArrayParallel.Operator.MUL);
+    }
+
+    /**
+     * Array multiply in place, the result is stored in array a
+     *
+     * @param a Array a
+     * @param b Array b, must broadcast to the shape of a
+     * @return Array a
+     */
+    public static Array mulInPlace(Array a, Array b) {
+        return binary(a, b, a, ArrayParallel.Operator.MUL);
+    }
+
+    /**
+     * Array multiply in place, the result is stored in array a
+     *
+     * @param a Array a
+     * @param b Number b
+     * @return Array a
+     */
+    public static Array mulInPlace(Array a, Number b) {
+        return binary(a, scalarArray(b), a, ArrayParallel.Operator.MUL);
+    }
+
+    /**
+     * Array divide into an output array
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param out Output array with the broadcast shape of a and b
+     * @return Output array
+     */
+    public static Array div(Array a, Array b, Array out) {
+        return binary(a, b, out, ArrayParallel.Operator.DIV);
+    }
+
+    /**
+     * Array divide into an output array
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param out Output array with the shape of a
+     * @return Output array
+     */
+    public static Array div(Array a, Number b, Array out) {
+        return binary(a, scalarArray(b), out, ArrayParallel.Operator.DIV);
+    }
+
+    /**
+     * Array divide in place, the result is stored in array a
+     *
+     * @param a Array a
+     * @param b Array b, must broadcast to the shape of a
+     * @return Array a
+     */
+    public static Array divInPlace(Array a, Array b) {
+        return binary(a, b, a, ArrayParallel.Operator.DIV);
+    }
+
+    /**
+     * Array divide in place, the result is stored in array a
+     *
+     * @param a Array a
+     * @param b Number b
+     * @return Array a
+     */
+    public static Array divInPlace(Array a, Number b) {
+        return binary(a, scalarArray(b), a, ArrayParallel.Operator.DIV);
+    }
+
+    /**
+     * Sqrt function into an output array
+     *
+     * @param a Array a
+     * @param out Output array, may be a for in place operation
+     * @return Output array
+     */
+    public static Array sqrt(Array a, Array out) {
+        return map(a, out, Math::sqrt);
+    }
+
+    /**
+     * Exponent function into an output array
+     *
+     * @param a Array a
+     * @param out Output array, may be a for in place operation
+     * @return Output array
+     */
+    public static Array exp(Array a, Array out) {
+        return map(a, out, Math::exp);
+    }
+
+    /**
+     * Log function into an output array
+     *
+     * @param a Array a
+     * @param out Output array, may be a for in place operation
+     * @return Output array
+     */
+    public static Array log(Array a, Array out) {
+        return map(a, out, Math::log);
+    }
+
+    /**
+     * Log10 function into an output array
+     *
+     * @param a Array a
+     * @param out Output array, may be a for in place operation
+     * @return Output array
+     */
+    public static Array log10(Array a, Array out) {
+        return map(a, out, Math::log10);
+    }
     // </editor-fold>
     // <editor-fold desc="Matrix">
     /**
@@ -7212,42 +8146,7 @@ public class ArrayMath {
      * @throws InvalidRangeException
      */
     public static Array min(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(a.getDataType(), shape);
-        double s;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            s = min(a, ranges);
-            r.setDouble(i, s);
-            indexr.incr();
-        }
-
-        return r;
+        return ArrayReduce.min(a, Arrays.asList(axis), true);
     }
 
     /**
@@ -7311,42 +8210,7 @@ public class ArrayMath {
      * @throws InvalidRangeException
      */
     public static Array max(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(a.getDataType(), shape);
-        double s;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            s = max(a, ranges);
-            r.setDouble(i, s);
-            indexr.incr();
-        }
-
-        return r;
+        return ArrayReduce.max(a, Arrays.asList(axis), true);
     }
 
     /**
@@ -7363,64 +8227,29 @@ public class ArrayMath {
         IndexIterator ii = a.getRangeIterator(ranges);
         while (ii.hasNext()) {
             v = ii.getDoubleNext();
-            if (!Double.isNaN(v)) {
-                if (v > max) {
-                    max = v;
-                }
-            }
-        }
-        if (max == -1.797693134862316E+307D) {
-            return Double.NaN;
-        } else {
-            return max;
-        }
-    }
-
-    /**
-     * Compute sum value of an array along an axis (dimension)
-     *
-     * @param a Array a
-     * @param axis Axis
-     * @return Sum value array
-     * @throws InvalidRangeException
-     */
-    public static Array sum(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(a.getDataType(), shape);
-        double s;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
+            if (!Double.isNaN(v)) {
+                if (v > max) {
+                    max = v;
                 }
             }
-            s = sumRange(a, ranges);
-            r.setDouble(i, s);
-            indexr.incr();
         }
+        if (max == -1.797693134862316E+307D) {
+            return Double.NaN;
+        } else {
+            return max;
+        }
+    }
 
-        return r;
+    /**
+     * Compute sum value of an array along an axis (dimension)
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Sum value array
+     * @throws InvalidRangeException
+     */
+    public static Array sum(Array a, int axis) throws InvalidRangeException {
+        return sum(a, Arrays.asList(axis));
     }
 
     /**
@@ -7432,38 +8261,20 @@ public class ArrayMath {
      * @throws InvalidRangeException
      */
     public static Array sum(Array a, List<Integer> axes) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - axes.size()];
-        int idx = 0;
-        for (int i = 0; i < dataShape.length; i++) {
-            if (axes.contains(i)) {
-                continue;
-            }
-            shape[idx] = dataShape[i];
-            idx += 1;
-        }
-        Array r = Array.factory(a.getDataType(), shape);
-        double s;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            idx = 0;
-            for (int j = 0; j < dataShape.length; j++) {
-                if (axes.contains(j)) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                    idx += 1;
-                }
-            }
-            s = sumRange(a, ranges);
-            r.setDouble(i, s);
-            indexr.incr();
-        }
+        return ArrayReduce.sum(a, axes, true, ArrayReduce.Summation.NAIVE);
+    }
 
-        return r;
+    /**
+     * Compute sum value of an array along axes (dimension) into an output
+     * array
+     *
+     * @param a Array a
+     * @param axes Axes
+     * @param out Output array with the reduced shape
+     * @return The output array
+     */
+    public static Array sum(Array a, List<Integer> axes, Array out) {
+        return ArrayReduce.sum(a, axes, true, ArrayReduce.Summation.NAIVE, out);
     }
 
     /**
@@ -8115,42 +8926,7 @@ public class ArrayMath {
      * @throws InvalidRangeException
      */
     public static Array mean(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            mean = meanRange(a, ranges);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
-
-        return r;
+        return mean(a, Arrays.asList(axis));
     }
 
     /**
@@ -8162,38 +8938,20 @@ public class ArrayMath {
      * @throws InvalidRangeException
      */
     public static Array mean(Array a, List<Integer> axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - axis.size()];
-        int idx = 0;
-        for (int i = 0; i < dataShape.length; i++) {
-            if (axis.contains(i)) {
-                continue;
-            }
-            shape[idx] = dataShape[i];
-            idx += 1;
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            idx = 0;
-            for (int j = 0; j < dataShape.length; j++) {
-                if (axis.contains(j)) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                    idx += 1;
-                }
-            }
-            mean = meanRange(a, ranges);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
+        return ArrayReduce.mean(a, axis, true, ArrayReduce.Summation.NAIVE);
+    }
 
-        return r;
+    /**
+     * Compute mean value of an array along axes (dimension) into an output
+     * array
+     *
+     * @param a Array a
+     * @param axes Axes
+     * @param out Output array with the reduced shape
+     * @return The output array
+     */
+    public static Array mean(Array a, List<Integer> axes, Array out) {
+        return ArrayReduce.mean(a, axes, true, ArrayReduce.Summation.NAIVE, out);
     }
 
     /**
@@ -8293,42 +9051,7 @@ public class ArrayMath {
      * @throws InvalidRangeException
      */
     public static Array std(Array a, int axis, int ddof) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            mean = std(a, ranges, ddof);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
-
-        return r;
+        return ArrayReduce.std(a, Arrays.asList(axis), ddof, true);
     }
 
     /**
@@ -8473,42 +9196,7 @@ public class ArrayMath {
      * @throws InvalidRangeException
      */
     public static Array var(Array a, int axis, int ddof) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            mean = var(a, ranges, ddof);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
-
-        return r;
+        return ArrayReduce.var(a, Arrays.asList(axis), ddof, true);
     }
 
     /**
@@ -8563,42 +9251,7 @@ public class ArrayMath {
      * @throws InvalidRangeException
      */
     public static Array median(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            mean = median(a, ranges);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
-
-        return r;
+        return ArrayReduce.median(a, Arrays.asList(axis), true);
     }
 
     /**
@@ -9069,6 +9722,11 @@ public class ArrayMath {
             return;
         }
 
+        if (ArrayKernel.missingToNaN(a, missingValue,
+                ArrayParallel.accept(ArrayParallel.isEnabled(), a.getSize()))) {
+            return;
+        }
+
         IndexIterator iterA = a.getIndexIterator();
         switch (a.getDataType()) {
             case INT:
@@ -9079,6 +9737,7 @@ public class ArrayMath {
                         iterA.setFloatCurrent(Float.NaN);
                     }
                 }
+                break;
             default:
                 while (iterA.hasNext()) {
                     double val = iterA.getDoubleNext();
@@ -9089,6 +9748,67 @@ public class ArrayMath {
         }
     }
 
+    /**
+     * Return elements chosen from x or y depending on condition
+     *
+     * @param condition Condition array, where true yield x, otherwise yield y
+     * @param x Array x
+     * @param y Array y
+     * @return Result array
+     */
+    public static Array where(Array condition, Array x, Array y) {
+        return where(condition, x, y, ArrayParallel.isEnabled());
+    }
+
+    /**
+     * Return elements chosen from x or y depending on condition
+     *
+     * @param condition Condition array, where true yield x, otherwise yield y
+     * @param x Array x
+     * @param y Array y
+     * @param parallel Run in parallel or not
+     * @return Result array
+     */
+    public static Array where(Array condition, Array x, Array y, boolean parallel) {
+        if (broadcastCheck(x, y) < 0) {
+            return null;
+        }
+        int[] shape = broadcast(x, y);
+        if (broadcastCheck(shape, condition.getShape()) < 0) {
+            return null;
+        }
+        shape = broadcast(shape, condition.getShape());
+
+        Array r = ArrayKernel.where(condition, x, y,
+                ArrayParallel.accept(parallel, Index.computeSize(shape)));
+        if (r != null) {
+            return r;
+        }
+
+        DataType type = commonType(x.getDataType(), y.getDataType());
+        r = Array.factory(type, shape);
+        Index index = r.getIndex();
+        Index cindex = condition.getIndex();
+        Index xindex = x.getIndex();
+        Index yindex = y.getIndex();
+        int n = r.getRank();
+        int nc = condition.getRank();
+        int[] current;
+        for (int i = 0; i < r.getSize(); i++) {
+            current = index.getCurrentCounter();
+            setIndex(xindex, yindex, current, n, x.getRank(), y.getRank());
+            setIndex(cindex, cindex, current, n, nc, nc);
+            if (condition.getBoolean(cindex)) {
+                r.setObject(i, x.getObject(xindex));
+            } else {
+                r.setObject(i, y.getObject(yindex));
+            }
+            index.incr();
+        }
+
+        return r;
+    }
+
     /**
      * Set value
      *
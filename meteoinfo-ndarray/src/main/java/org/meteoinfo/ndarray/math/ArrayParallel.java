@@ -0,0 +1,735 @@
+package org.meteoinfo.ndarray.math;
+
+import org.meteoinfo.ndarray.*;
+
+import java.util.Arrays;
+import java.util.function.*;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel execution engine for element-wise array operations.
+ * <p>
+ * The result array is split into fixed size chunks which are evaluated on the
+ * common fork-join pool. Chunk boundaries only depend on the array size, so the
+ * results are identical to the serial ones whatever the number of threads.
+ * Missing values follow the serial rules of {@link ArrayMath}: Integer.MIN_VALUE
+ * and Long.MIN_VALUE for integer data, NaN for floating point data.
+ *
+ * @author wyq
+ */
+public class ArrayParallel {
+
+    private static volatile boolean enabled = false;
+    private static volatile int threshold = 1 << 16;
+    private static volatile int chunkSize = 1 << 14;
+
+    /**
+     * Binary arithmetic operators
+     */
+    public enum Operator {
+        ADD(true, (a, b) -> a + b, (a, b) -> a + b, (a, b) -> a + b),
+        SUB(false, (a, b) -> a - b, (a, b) -> a - b, (a, b) -> a - b),
+        MUL(true, (a, b) -> a * b, (a, b) -> a * b, (a, b) -> a * b),
+        DIV(false, (a, b) -> a / b, (a, b) -> a / b, (a, b) -> a / b),
+        POW(false, (a, b) -> (int) Math.pow(a, b), (a, b) -> (long) Math.pow(a, b), Math::pow);
+
+        final boolean intMissing;
+        final IntBinaryOperator intOp;
+        final LongBinaryOperator longOp;
+        final DoubleBinaryOperator doubleOp;
+
+        /**
+         * Constructor
+         *
+         * @param intMissing Whether integer array operations propagate the
+         *                   MIN_VALUE missing value, as the serial ones do
+         * @param intOp Int operator
+         * @param longOp Long operator
+         * @param doubleOp Double operator
+         */
+        Operator(boolean intMissing, IntBinaryOperator intOp, LongBinaryOperator longOp,
+                 DoubleBinaryOperator doubleOp) {
+            this.intMissing = intMissing;
+            this.intOp = intOp;
+            this.longOp = longOp;
+            this.doubleOp = doubleOp;
+        }
+    }
+
+    /**
+     * Comparison operators
+     */
+    public enum Comparison {
+        EQ, NE, LT, LE, GT, GE;
+
+        boolean test(double a, double b) {
+            switch (this) {
+                case EQ:
+                    return a == b;
+                case NE:
+                    return a != b;
+                case LT:
+                    return a < b;
+                case LE:
+                    return a <= b;
+                case GT:
+                    return a > b;
+                default:
+                    return a >= b;
+            }
+        }
+    }
+
+    /**
+     * Chunk task
+     */
+    public interface ChunkTask {
+        /**
+         * Run the task over a chunk
+         *
+         * @param start Start element index (inclusive)
+         * @param end End element index (exclusive)
+         */
+        void run(int start, int end);
+    }
+
+    /**
+     * Get whether parallel execution is enabled by default
+     *
+     * @return Enabled or not
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set whether parallel execution is enabled by default
+     *
+     * @param value Enabled or not
+     */
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    /**
+     * Get the minimum array size for parallel execution
+     *
+     * @return Size threshold
+     */
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Set the minimum array size for parallel execution
+     *
+     * @param value Size threshold
+     */
+    public static void setThreshold(int value) {
+        threshold = Math.max(1, value);
+    }
+
+    /**
+     * Get the number of elements of each parallel chunk
+     *
+     * @return Chunk size
+     */
+    public static int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the number of elements of each parallel chunk
+     *
+     * @param value Chunk size
+     */
+    public static void setChunkSize(int value) {
+        chunkSize = Math.max(1, value);
+    }
+
+    /**
+     * Check whether an operation of the given size should run in parallel
+     *
+     * @param parallel Parallel requested or not
+     * @param size Number of result elements
+     * @return Run in parallel or not
+     */
+    public static boolean accept(boolean parallel, long size) {
+        return parallel && size >= threshold && size <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Check whether a binary operation of two arrays should run in parallel
+     *
+     * @param parallel Parallel requested or not
+     * @param a Array a
+     * @param b Array b
+     * @return Run in parallel or not
+     */
+    public static boolean accept(boolean parallel, Array a, Array b) {
+        if (!parallel) {
+            return false;
+        }
+        return accept(true, Index.computeSize(ArrayMath.broadcast(a, b)));
+    }
+
+    /**
+     * Run a task over [0, size) split into chunks on the fork-join pool
+     *
+     * @param size Total number of elements
+     * @param task The chunk task
+     */
+    public static void forEachChunk(long size, ChunkTask task) {
+        final int n = (int) size;
+        final int cs = chunkSize;
+        int nChunks = (int) ((size + cs - 1) / cs);
+        if (nChunks <= 1) {
+            task.run(0, n);
+            return;
+        }
+        IntStream.range(0, nChunks).parallel().forEach(c -> {
+            int start = c * cs;
+            task.run(start, Math.min(n, start + cs));
+        });
+    }
+
+    // <editor-fold desc="Operations">
+    /**
+     * Binary operation of two arrays
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param op The operator
+     * @return Result array, null if the data types or shapes are not supported
+     */
+    public static Array binary(Array a, Array b, Operator op) {
+        if (ArrayMath.broadcastCheck(a, b) < 0) {
+            return null;
+        }
+        DataType type = ArrayMath.commonType(a.getDataType(), b.getDataType());
+        switch (type) {
+            case SHORT:
+            case USHORT:
+            case INT:
+            case UINT:
+            case BOOLEAN:
+                switch (op) {
+                    case DIV:
+                        return binaryDouble(a, b, op.doubleOp);
+                    case POW:
+                        if (type == DataType.BOOLEAN) {
+                            return null;
+                        }
+                        return binaryInt(a, b, op.intOp, op.intMissing);
+                    default:
+                        return binaryInt(a, b, op.intOp, op.intMissing);
+                }
+            case LONG:
+            case ULONG:
+                switch (op) {
+                    case DIV:
+                        return binaryDouble(a, b, op.doubleOp);
+                    default:
+                        return binaryLong(a, b, op.longOp, op.intMissing);
+                }
+            case FLOAT:
+                if (op == Operator.POW) {
+                    return binaryDouble(a, b, op.doubleOp);
+                }
+                return binaryFloat(a, b, op.doubleOp);
+            case DOUBLE:
+                return binaryDouble(a, b, op.doubleOp);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Binary operation of an array and a number
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param op The operator
+     * @return Result array, null if the data type is not supported
+     */
+    public static Array binary(Array a, Number b, Operator op) {
+        DataType type = ArrayMath.commonType(a.getDataType(), ArrayMath.getDataType(b));
+        switch (type) {
+            case SHORT:
+            case USHORT:
+            case INT:
+            case UINT:
+            case BOOLEAN:
+            case LONG:
+            case ULONG:
+                if (op == Operator.DIV) {
+                    final double bv = b.intValue();
+                    return mapDouble(a, v -> v / bv);
+                }
+                if (type == DataType.LONG || type == DataType.ULONG) {
+                    final long bv = b.longValue();
+                    final LongBinaryOperator f = op.longOp;
+                    if (op.intMissing) {
+                        return mapLong(a, v -> v == Long.MIN_VALUE ? v : f.applyAsLong(v, bv));
+                    }
+                    return mapLong(a, v -> f.applyAsLong(v, bv));
+                } else {
+                    final int bv = b.intValue();
+                    final IntBinaryOperator f = op.intOp;
+                    if (op.intMissing) {
+                        return mapInt(a, v -> v == Integer.MIN_VALUE ? v : f.applyAsInt(v, bv));
+                    }
+                    return mapInt(a, v -> f.applyAsInt(v, bv));
+                }
+            case FLOAT:
+                if (op != Operator.POW) {
+                    final double bv = b.floatValue();
+                    final DoubleBinaryOperator f = op.doubleOp;
+                    return mapFloat(a, v -> f.applyAsDouble(v, bv));
+                }
+                return mapDouble(a, b.doubleValue(), op, false);
+            case DOUBLE:
+                return mapDouble(a, b.doubleValue(), op, false);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Binary operation of a number and an array
+     *
+     * @param a Number a
+     * @param b Array b
+     * @param op The operator
+     * @return Result array, null if the data type is not supported
+     */
+    public static Array binary(Number a, Array b, Operator op) {
+        DataType type = ArrayMath.commonType(b.getDataType(), ArrayMath.getDataType(a));
+        switch (type) {
+            case SHORT:
+            case USHORT:
+            case INT:
+            case UINT:
+            case BOOLEAN:
+            case LONG:
+            case ULONG:
+                if (op == Operator.DIV) {
+                    final double av = a.intValue();
+                    return mapDouble(b, v -> av / v);
+                }
+                if (type == DataType.LONG || type == DataType.ULONG) {
+                    final long av = a.longValue();
+                    final LongBinaryOperator f = op.longOp;
+                    if (op.intMissing) {
+                        return mapLong(b, v -> v == Long.MIN_VALUE ? v : f.applyAsLong(av, v));
+                    }
+                    return mapLong(b, v -> f.applyAsLong(av, v));
+                } else {
+                    final int av = a.intValue();
+                    final IntBinaryOperator f = op.intOp;
+                    if (op.intMissing) {
+                        return mapInt(b, v -> v == Integer.MIN_VALUE ? v : f.applyAsInt(av, v));
+                    }
+                    return mapInt(b, v -> f.applyAsInt(av, v));
+                }
+            case FLOAT:
+                if (op != Operator.POW) {
+                    final double av = a.floatValue();
+                    final DoubleBinaryOperator f = op.doubleOp;
+                    return mapFloat(b, v -> f.applyAsDouble(av, v));
+                }
+                return mapDouble(b, a.doubleValue(), op, true);
+            case DOUBLE:
+                return mapDouble(b, a.doubleValue(), op, true);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Compare two arrays with same shape
+     *
+     * @param a Array a
+     * @param b Array b
+     * @param cmp The comparison
+     * @return Boolean result array, null if the shapes are not same
+     */
+    public static Array compare(Array a, Array b, Comparison cmp) {
+        if (ArrayMath.broadcastCheck(a, b) != 0 || !a.getDataType().isNumeric()
+                || !b.getDataType().isNumeric()) {
+            return null;
+        }
+        final int[] shape = a.getShape();
+        final Array r = Array.factory(DataType.BOOLEAN, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            Cursor cb = new Cursor(b, shape);
+            int[] counter = ca.isDirect() && cb.isDirect() ? null : counterOf(start, shape);
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    cb.moveTo(counter);
+                    incr(counter, shape);
+                }
+                r.setBoolean(i, cmp.test(ca.getDouble(i), cb.getDouble(i)));
+            }
+        });
+
+        return r;
+    }
+
+    /**
+     * Compare an array with a number
+     *
+     * @param a Array a
+     * @param b Number b
+     * @param cmp The comparison
+     * @return Boolean result array, null if the data type is not supported
+     */
+    public static Array compare(Array a, Number b, Comparison cmp) {
+        if (!a.getDataType().isNumeric()) {
+            return null;
+        }
+        final double v = b.doubleValue();
+        if (Double.isNaN(v)) {
+            switch (cmp) {
+                case EQ:
+                    return test(a, x -> Double.isNaN(x));
+                case NE:
+                    return test(a, x -> !Double.isNaN(x));
+            }
+        }
+        return test(a, x -> cmp.test(x, v));
+    }
+
+    /**
+     * Binary operation of an array and a double value with double result
+     *
+     * @param a The array
+     * @param v The value
+     * @param op The operator
+     * @param reversed Whether the value is the first operand
+     * @return Double result array
+     */
+    private static Array mapDouble(Array a, double v, Operator op, boolean reversed) {
+        final DoubleBinaryOperator f = op.doubleOp;
+        if (reversed) {
+            return mapDouble(a, x -> f.applyAsDouble(v, x));
+        }
+        return mapDouble(a, x -> f.applyAsDouble(x, v));
+    }
+
+    /**
+     * Apply a double function to each element
+     *
+     * @param a The array
+     * @param f The function
+     * @return Double result array
+     */
+    public static Array mapDouble(Array a, DoubleUnaryOperator f) {
+        final int[] shape = a.getShape();
+        final Array r = Array.factory(DataType.DOUBLE, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            int[] counter = ca.isDirect() ? null : counterOf(start, shape);
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    incr(counter, shape);
+                }
+                r.setDouble(i, f.applyAsDouble(ca.getDouble(i)));
+            }
+        });
+
+        return r;
+    }
+
+    /**
+     * Apply a function to each element computed in double precision and stored
+     * as float. Float +, -, *, / and sqrt are exactly rounded this way.
+     *
+     * @param a The array
+     * @param f The function
+     * @return Float result array
+     */
+    public static Array mapFloat(Array a, DoubleUnaryOperator f) {
+        final int[] shape = a.getShape();
+        final Array r = Array.factory(DataType.FLOAT, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            int[] counter = ca.isDirect() ? null : counterOf(start, shape);
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    incr(counter, shape);
+                }
+                r.setFloat(i, (float) f.applyAsDouble(ca.getFloat(i)));
+            }
+        });
+
+        return r;
+    }
+
+    /**
+     * Apply an int function to each element
+     *
+     * @param a The array
+     * @param f The function
+     * @return Int result array
+     */
+    public static Array mapInt(Array a, IntUnaryOperator f) {
+        final int[] shape = a.getShape();
+        final Array r = Array.factory(DataType.INT, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            int[] counter = ca.isDirect() ? null : counterOf(start, shape);
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    incr(counter, shape);
+                }
+                r.setInt(i, f.applyAsInt(ca.getInt(i)));
+            }
+        });
+
+        return r;
+    }
+
+    /**
+     * Apply a long function to each element
+     *
+     * @param a The array
+     * @param f The function
+     * @return Long result array
+     */
+    public static Array mapLong(Array a, LongUnaryOperator f) {
+        final int[] shape = a.getShape();
+        final Array r = Array.factory(DataType.LONG, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            int[] counter = ca.isDirect() ? null : counterOf(start, shape);
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    incr(counter, shape);
+                }
+                r.setLong(i, f.applyAsLong(ca.getLong(i)));
+            }
+        });
+
+        return r;
+    }
+
+    /**
+     * Test each element with a predicate
+     *
+     * @param a The array
+     * @param f The predicate
+     * @return Boolean result array
+     */
+    public static Array test(Array a, DoublePredicate f) {
+        final int[] shape = a.getShape();
+        final Array r = Array.factory(DataType.BOOLEAN, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            int[] counter = ca.isDirect() ? null : counterOf(start, shape);
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    incr(counter, shape);
+                }
+                r.setBoolean(i, f.test(ca.getDouble(i)));
+            }
+        });
+
+        return r;
+    }
+
+    private static Array binaryInt(Array a, Array b, IntBinaryOperator f, boolean missing) {
+        final int[] shape = ArrayMath.broadcast(a, b);
+        final Array r = Array.factory(DataType.INT, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            Cursor cb = new Cursor(b, shape);
+            int[] counter = ca.isDirect() && cb.isDirect() ? null : counterOf(start, shape);
+            int va, vb;
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    cb.moveTo(counter);
+                    incr(counter, shape);
+                }
+                va = ca.getInt(i);
+                vb = cb.getInt(i);
+                if (missing && (va == Integer.MIN_VALUE || vb == Integer.MIN_VALUE)) {
+                    r.setInt(i, Integer.MIN_VALUE);
+                } else {
+                    r.setInt(i, f.applyAsInt(va, vb));
+                }
+            }
+        });
+
+        return r;
+    }
+
+    private static Array binaryLong(Array a, Array b, LongBinaryOperator f, boolean missing) {
+        final int[] shape = ArrayMath.broadcast(a, b);
+        final Array r = Array.factory(DataType.LONG, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            Cursor cb = new Cursor(b, shape);
+            int[] counter = ca.isDirect() && cb.isDirect() ? null : counterOf(start, shape);
+            long va, vb;
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    cb.moveTo(counter);
+                    incr(counter, shape);
+                }
+                va = ca.getLong(i);
+                vb = cb.getLong(i);
+                if (missing && (va == Long.MIN_VALUE || vb == Long.MIN_VALUE)) {
+                    r.setLong(i, Long.MIN_VALUE);
+                } else {
+                    r.setLong(i, f.applyAsLong(va, vb));
+                }
+            }
+        });
+
+        return r;
+    }
+
+    private static Array binaryFloat(Array a, Array b, DoubleBinaryOperator f) {
+        final int[] shape = ArrayMath.broadcast(a, b);
+        final Array r = Array.factory(DataType.FLOAT, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            Cursor cb = new Cursor(b, shape);
+            int[] counter = ca.isDirect() && cb.isDirect() ? null : counterOf(start, shape);
+            float va, vb;
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    cb.moveTo(counter);
+                    incr(counter, shape);
+                }
+                va = ca.getFloat(i);
+                vb = cb.getFloat(i);
+                if (Float.isNaN(va) || Float.isNaN(vb)) {
+                    r.setFloat(i, Float.NaN);
+                } else {
+                    r.setFloat(i, (float) f.applyAsDouble(va, vb));
+                }
+            }
+        });
+
+        return r;
+    }
+
+    private static Array binaryDouble(Array a, Array b, DoubleBinaryOperator f) {
+        final int[] shape = ArrayMath.broadcast(a, b);
+        final Array r = Array.factory(DataType.DOUBLE, shape);
+        forEachChunk(r.getSize(), (start, end) -> {
+            Cursor ca = new Cursor(a, shape);
+            Cursor cb = new Cursor(b, shape);
+            int[] counter = ca.isDirect() && cb.isDirect() ? null : counterOf(start, shape);
+            for (int i = start; i < end; i++) {
+                if (counter != null) {
+                    ca.moveTo(counter);
+                    cb.moveTo(counter);
+                    incr(counter, shape);
+                }
+                r.setDouble(i, f.applyAsDouble(ca.getDouble(i), cb.getDouble(i)));
+            }
+        });
+
+        return r;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Index">
+    /**
+     * Get the index counter of an element in canonical order
+     *
+     * @param element The element index
+     * @param shape The shape
+     * @return Counter
+     */
+    static int[] counterOf(long element, int[] shape) {
+        int[] counter = new int[shape.length];
+        for (int i = shape.length - 1; i >= 0; i--) {
+            if (shape[i] > 0) {
+                counter[i] = (int) (element % shape[i]);
+                element /= shape[i];
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Increment an index counter in canonical order
+     *
+     * @param counter The counter
+     * @param shape The shape
+     */
+    static void incr(int[] counter, int[] shape) {
+        for (int i = counter.length - 1; i >= 0; i--) {
+            counter[i]++;
+            if (counter[i] < shape[i]) {
+                return;
+            }
+            counter[i] = 0;
+        }
+    }
+
+    /**
+     * Element accessor of an operand array broadcast to a result shape. Each
+     * chunk uses its own cursor since the underlying index is mutable.
+     */
+    private static class Cursor {
+        private final Array array;
+        private final Index index;
+        private final int[] shape;
+        private final int shift;
+
+        Cursor(Array array, int[] rShape) {
+            this.array = array;
+            this.shape = array.getShape();
+            this.shift = rShape.length - shape.length;
+            if (array.getIndexPrivate().isFastIterator() && Arrays.equals(shape, rShape)) {
+                this.index = null;
+            } else {
+                this.index = array.getIndex();
+            }
+        }
+
+        boolean isDirect() {
+            return index == null;
+        }
+
+        void moveTo(int[] counter) {
+            if (index != null) {
+                for (int j = 0; j < shape.length; j++) {
+                    index.setDim(j, shape[j] == 1 ? 0 : counter[j + shift]);
+                }
+            }
+        }
+
+        int getInt(int i) {
+            return index == null ? array.getInt(i) : array.getInt(index);
+        }
+
+        long getLong(int i) {
+            return index == null ? array.getLong(i) : array.getLong(index);
+        }
+
+        float getFloat(int i) {
+            return index == null ? array.getFloat(i) : array.getFloat(index);
+        }
+
+        double getDouble(int i) {
+            return index == null ? array.getDouble(i) : array.getDouble(index);
+        }
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,664 @@
+package org.meteoinfo.ndarray.math;
+
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.Index;
+import org.meteoinfo.ndarray.IndexIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Axis reductions computed in one pass over the array in storage order.
+ * <p>
+ * Adjacent dimensions which are both reduced or both kept, and contiguous
+ * in the storage, are merged, and each result element gets a result stride
+ * per dimension (zero along the reduced axes), so the array is walked row by
+ * row along its innermost dimension with the storage strides of the array,
+ * section and permuted views included, and every value is accumulated
+ * straight into its result element. The values of each result element are visited in the same
+ * order as iterating its range, so naive sums are the same as summing the
+ * range. In parallel mode the result is split into blocks along a kept
+ * dimension and the blocks are reduced by separate tasks.
+ *
+ * @author wyq
+ */
+public class ArrayReduce {
+
+    /**
+     * Summation algorithm
+     */
+    public enum Summation {
+        NAIVE,
+        KAHAN
+    }
+
+    //Maximum number of buffered values of a median block
+    private static final int MEDIAN_BLOCK_SIZE = 1 << 22;
+
+    private final Array a;
+    private final int offset;
+    private final int[] shape;
+    private final boolean[] reduced;
+    private final int[] strides;
+    private final int[] outStrides;
+    private final int[] resultShape;
+    private final int resultSize;
+    private final long reduceSize;
+    private final int partAxis;
+
+    /**
+     * Row kernel accumulating a row of values into result elements
+     */
+    private interface RowKernel {
+        /**
+         * Accumulate a row
+         *
+         * @param src Values
+         * @param offset Offset of the row in the values
+         * @param n Row length
+         * @param out Result element index of the row start
+         * @param step Result element step along the row, 0 or 1
+         * @param local Block local result element index of the row start
+         */
+        void run(double[] src, int offset, int n, int out, int step, int local);
+    }
+
+    private ArrayReduce(Array a, List<Integer> axes) {
+        int rank = a.getRank();
+        int[] dataShape = a.getShape();
+        boolean[] isReduced = new boolean[rank];
+        for (int axis : axes) {
+            if (axis < 0) {
+                axis += rank;
+            }
+            if (axis < 0 || axis >= rank) {
+                throw new IllegalArgumentException("Axis out of range: " + axis);
+            }
+            isReduced[axis] = true;
+        }
+        List<Integer> rShape = new ArrayList<>();
+        long rSize = 1;
+        for (int i = 0; i < rank; i++) {
+            if (isReduced[i]) {
+                rSize *= dataShape[i];
+            } else {
+                rShape.add(dataShape[i]);
+            }
+        }
+        this.resultShape = new int[rShape.size()];
+        for (int i = 0; i < resultShape.length; i++) {
+            resultShape[i] = rShape.get(i);
+        }
+        this.resultSize = (int) Index.computeSize(resultShape);
+        this.reduceSize = rSize;
+        //Views of storage types without a primitive row reader are copied
+        this.a = ArrayKernel.storageType(a) == null ? a.copyIfView() : a;
+        Index index = this.a.getIndexPrivate();
+        int[] dataStrides = index.getStride();
+        this.offset = index.getOffset();
+
+        //Merge adjacent dimensions of the same kind which are contiguous in
+        //the storage, dimensions of length 1 are dropped
+        List<Integer> mShape = new ArrayList<>();
+        List<Integer> mStrides = new ArrayList<>();
+        List<Boolean> mReduced = new ArrayList<>();
+        for (int i = 0; i < rank; i++) {
+            if (dataShape[i] == 1) {
+                continue;
+            }
+            int last = mShape.size() - 1;
+            if (last >= 0 && mReduced.get(last) == isReduced[i]
+                    && mStrides.get(last) == dataStrides[i] * dataShape[i]) {
+                mShape.set(last, mShape.get(last) * dataShape[i]);
+                mStrides.set(last, dataStrides[i]);
+            } else {
+                mShape.add(dataShape[i]);
+                mStrides.add(dataStrides[i]);
+                mReduced.add(isReduced[i]);
+            }
+        }
+        if (mShape.isEmpty()) {
+            mShape.add(1);
+            mStrides.add(1);
+            mReduced.add(false);
+        }
+        int n = mShape.size();
+        this.shape = new int[n];
+        this.reduced = new boolean[n];
+        this.strides = new int[n];
+        this.outStrides = new int[n];
+        int outStride = 1;
+        for (int i = n - 1; i >= 0; i--) {
+            shape[i] = mShape.get(i);
+            reduced[i] = mReduced.get(i);
+            strides[i] = mStrides.get(i);
+            if (reduced[i]) {
+                outStrides[i] = 0;
+            } else {
+                outStrides[i] = outStride;
+                outStride *= shape[i];
+            }
+        }
+
+        //Kept dimension to split the result into blocks, the outermost one
+        //with enough extent, otherwise the largest one
+        int want = ForkJoinPool.getCommonPoolParallelism() * 4;
+        int axis = -1;
+        for (int i = 0; i < n; i++) {
+            if (!reduced[i] && shape[i] > 1) {
+                if (axis < 0 || shape[axis] < want && shape[i] > shape[axis]) {
+                    axis = i;
+                }
+            }
+        }
+        this.partAxis = axis;
+    }
+
+    /**
+     * Reduce the array by a kernel
+     *
+     * @param factory Kernel factory, called with the block start and end on
+     *                the split dimension
+     * @param maxBlockValues Maximum number of values of a block, 0 for no limit
+     */
+    private void run(BlockKernelFactory factory, long maxBlockValues) {
+        if (a.getSize() == 0) {
+            return;
+        }
+        int blockNum = 1;
+        if (partAxis >= 0) {
+            int extent = shape[partAxis];
+            if (ArrayParallel.accept(ArrayParallel.isEnabled(), a.getSize())) {
+                blockNum = Math.min(extent, ForkJoinPool.getCommonPoolParallelism() * 4);
+            }
+            if (maxBlockValues > 0) {
+                long need = (a.getSize() + maxBlockValues - 1) / maxBlockValues;
+                blockNum = (int) Math.min(extent, Math.max(blockNum, need));
+            }
+        }
+        if (blockNum <= 1) {
+            int end = partAxis >= 0 ? shape[partAxis] : 1;
+            walk(0, end, factory.create(0, end));
+            return;
+        }
+        final int extent = shape[partAxis];
+        final int nb = blockNum;
+        IntStream stream = IntStream.range(0, nb);
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), a.getSize())) {
+            stream = stream.parallel();
+        }
+        stream.forEach(b -> {
+            int lo = (int) ((long) extent * b / nb);
+            int hi = (int) ((long) extent * (b + 1) / nb);
+            if (hi > lo) {
+                walk(lo, hi, factory.create(lo, hi));
+            }
+        });
+    }
+
+    private interface BlockKernelFactory {
+        RowKernel create(int lo, int hi);
+    }
+
+    /**
+     * Walk the rows of a block in storage order
+     */
+    private void walk(int lo, int hi, RowKernel kernel) {
+        final int n = shape.length;
+        final int last = n - 1;
+        final Object storage = a.getStorage();
+        final double[] ds = storage instanceof double[] ? (double[]) storage : null;
+        final float[] fs = storage instanceof float[] ? (float[]) storage : null;
+        final int[] is = ArrayKernel.storageType(a) == DataType.INT ? (int[]) storage : null;
+
+        //Block local result strides
+        int[] localStrides = new int[n];
+        int ls = 1;
+        for (int i = last; i >= 0; i--) {
+            if (!reduced[i]) {
+                localStrides[i] = ls;
+                ls *= i == partAxis ? hi - lo : shape[i];
+            }
+        }
+
+        int rowStart = partAxis == last ? lo : 0;
+        int rowLength = partAxis == last ? hi - lo : shape[last];
+        int rowStride = strides[last];
+        int step = reduced[last] ? 0 : 1;
+        boolean direct = ds != null && rowStride == 1;
+        double[] row = direct ? null : new double[rowLength];
+        int[] counter = new int[n];
+        if (partAxis >= 0 && partAxis < last) {
+            counter[partAxis] = lo;
+        }
+        while (true) {
+            int p = offset + rowStart * rowStride;
+            int out = rowStart * outStrides[last];
+            int local = 0;
+            for (int d = 0; d < last; d++) {
+                p += counter[d] * strides[d];
+                out += counter[d] * outStrides[d];
+                local += (d == partAxis ? counter[d] - lo : counter[d]) * localStrides[d];
+            }
+            if (direct) {
+                kernel.run(ds, p, rowLength, out, step, local);
+            } else {
+                if (ds != null) {
+                    for (int i = 0; i < rowLength; i++, p += rowStride) {
+                        row[i] = ds[p];
+                    }
+                } else if (fs != null) {
+                    for (int i = 0; i < rowLength; i++, p += rowStride) {
+                        row[i] = fs[p];
+                    }
+                } else if (is != null) {
+                    for (int i = 0; i < rowLength; i++, p += rowStride) {
+                        row[i] = is[p];
+                    }
+                } else {
+                    for (int i = 0; i < rowLength; i++, p += rowStride) {
+                        row[i] = a.getDouble(p);
+                    }
+                }
+                kernel.run(row, 0, rowLength, out, step, local);
+            }
+
+            //Next row
+            int d = last - 1;
+            for (; d >= 0; d--) {
+                int end = d == partAxis ? hi : shape[d];
+                if (++counter[d] < end) {
+                    break;
+                }
+                counter[d] = d == partAxis ? lo : 0;
+            }
+            if (d < 0) {
+                break;
+            }
+        }
+    }
+
+    private Array toResult(double[] r, DataType dataType) {
+        if (dataType == DataType.DOUBLE) {
+            return Array.factory(DataType.DOUBLE, resultShape, r);
+        }
+        Array result = Array.factory(dataType, resultShape);
+        for (int i = 0; i < r.length; i++) {
+            result.setDouble(i, r[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Check an output array and get its storage if the result can be
+     * accumulated in it directly
+     *
+     * @param out Output array
+     * @return Contiguous double storage of the output array, null if the
+     * result has to be copied into it
+     */
+    private double[] target(Array out) {
+        if (!Arrays.equals(resultShape, out.getShape())) {
+            throw new IllegalArgumentException("Output array shape " + Arrays.toString(out.getShape()) +
+                    " does not match result shape " + Arrays.toString(resultShape));
+        }
+        DataType type = out.getDataType();
+        if (type == DataType.COMPLEX || !(type.isNumeric() || type.isUnsigned())) {
+            throw new IllegalArgumentException("Output array data type is not numeric: " + type);
+        }
+        if (ArrayKernel.storageType(out) != DataType.DOUBLE || out.isView()
+                || out.getIndexPrivate().getOffset() != 0) {
+            return null;
+        }
+        double[] storage = (double[]) out.getStorage();
+        return storage.length == resultSize ? storage : null;
+    }
+
+    private static Array toOut(double[] r, double[] target, Array out) {
+        if (target == null) {
+            IndexIterator iter = out.getIndexIterator();
+            for (double v : r) {
+                iter.setDoubleNext(v);
+            }
+        }
+        return out;
+    }
+
+    // <editor-fold desc="Sum">
+    private double[] sum(boolean skipNaN, Summation summation, int[] count, double[] target) {
+        final double[] s;
+        if (target == null) {
+            s = new double[resultSize];
+        } else {
+            s = target;
+            Arrays.fill(s, 0);
+        }
+        final double[] c = summation == Summation.KAHAN ? new double[resultSize] : null;
+        run((lo, hi) -> (src, offset, n, out, step, local) -> {
+            if (step == 0) {
+                double sum = s[out];
+                double comp = c == null ? 0 : c[out];
+                int valid = 0;
+                for (int i = offset, end = offset + n; i < end; i++) {
+                    double v = src[i];
+                    if (skipNaN && Double.isNaN(v)) {
+                        continue;
+                    }
+                    if (c == null) {
+                        sum += v;
+                    } else {
+                        double t = sum + v;
+                        comp += Math.abs(sum) >= Math.abs(v) ? (sum - t) + v : (v - t) + sum;
+                        sum = t;
+                    }
+                    valid++;
+                }
+                s[out] = sum;
+                if (c != null) {
+                    c[out] = comp;
+                }
+                if (count != null) {
+                    count[out] += valid;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    double v = src[offset + i];
+                    if (skipNaN && Double.isNaN(v)) {
+                        continue;
+                    }
+                    int o = out + i;
+                    if (c == null) {
+                        s[o] += v;
+                    } else {
+                        double sum = s[o];
+                        double t = sum + v;
+                        c[o] += Math.abs(sum) >= Math.abs(v) ? (sum - t) + v : (v - t) + sum;
+                        s[o] = t;
+                    }
+                    if (count != null) {
+                        count[o]++;
+                    }
+                }
+            }
+        }, 0);
+        if (c != null) {
+            for (int i = 0; i < resultSize; i++) {
+                s[i] += c[i];
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Compute sum along axes
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param skipNaN Skip NaN values or not
+     * @param summation Summation algorithm
+     * @return Sum array with the data type of the array, NaN where there is
+     * no valid value
+     */
+    public static Array sum(Array a, List<Integer> axes, boolean skipNaN, Summation summation) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        int[] count = new int[reduce.resultSize];
+        double[] s = reduce.sum(skipNaN, summation, count, null);
+        for (int i = 0; i < s.length; i++) {
+            if (count[i] == 0) {
+                s[i] = Double.NaN;
+            }
+        }
+        return reduce.toResult(s, a.getDataType());
+    }
+
+    /**
+     * Compute sum along axes into an output array. The sums are accumulated
+     * in the storage of the output array if it is a contiguous double array.
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param skipNaN Skip NaN values or not
+     * @param summation Summation algorithm
+     * @param out Output array with the result shape
+     * @return The output array, NaN where there is no valid value
+     */
+    public static Array sum(Array a, List<Integer> axes, boolean skipNaN, Summation summation, Array out) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        double[] target = reduce.target(out);
+        int[] count = new int[reduce.resultSize];
+        double[] s = reduce.sum(skipNaN, summation, count, target);
+        for (int i = 0; i < s.length; i++) {
+            if (count[i] == 0) {
+                s[i] = Double.NaN;
+            }
+        }
+        return toOut(s, target, out);
+    }
+
+    /**
+     * Compute mean along axes
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param skipNaN Skip NaN values or not
+     * @param summation Summation algorithm
+     * @return Mean array, NaN where there is no valid value
+     */
+    public static Array mean(Array a, List<Integer> axes, boolean skipNaN, Summation summation) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        int[] count = new int[reduce.resultSize];
+        double[] s = reduce.sum(skipNaN, summation, count, null);
+        for (int i = 0; i < s.length; i++) {
+            s[i] = count[i] == 0 ? Double.NaN : s[i] / count[i];
+        }
+        return reduce.toResult(s, DataType.DOUBLE);
+    }
+
+    /**
+     * Compute mean along axes into an output array. The sums are accumulated
+     * in the storage of the output array if it is a contiguous double array.
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param skipNaN Skip NaN values or not
+     * @param summation Summation algorithm
+     * @param out Output array with the result shape
+     * @return The output array, NaN where there is no valid value
+     */
+    public static Array mean(Array a, List<Integer> axes, boolean skipNaN, Summation summation, Array out) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        double[] target = reduce.target(out);
+        int[] count = new int[reduce.resultSize];
+        double[] s = reduce.sum(skipNaN, summation, count, target);
+        for (int i = 0; i < s.length; i++) {
+            s[i] = count[i] == 0 ? Double.NaN : s[i] / count[i];
+        }
+        return toOut(s, target, out);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Minimum and maximum">
+    private double[] extreme(boolean skipNaN, boolean isMax) {
+        final double[] r = new double[resultSize];
+        Arrays.fill(r, Double.NaN);
+        //Result elements already set to NaN by a NaN value
+        final boolean[] nan = skipNaN ? null : new boolean[resultSize];
+        run((lo, hi) -> (src, offset, n, out, step, local) -> {
+            for (int i = 0; i < n; i++) {
+                double v = src[offset + i];
+                int o = out + i * step;
+                if (Double.isNaN(v)) {
+                    if (nan != null) {
+                        nan[o] = true;
+                        r[o] = Double.NaN;
+                    }
+                    continue;
+                }
+                if (nan != null && nan[o]) {
+                    continue;
+                }
+                double m = r[o];
+                if (Double.isNaN(m) || (isMax ? v > m : v < m)) {
+                    r[o] = v;
+                }
+            }
+        }, 0);
+        return r;
+    }
+
+    /**
+     * Compute minimum along axes
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param skipNaN Skip NaN values or not
+     * @return Minimum array with the data type of the array, NaN where there
+     * is no valid value
+     */
+    public static Array min(Array a, List<Integer> axes, boolean skipNaN) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        return reduce.toResult(reduce.extreme(skipNaN, false), a.getDataType());
+    }
+
+    /**
+     * Compute maximum along axes
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param skipNaN Skip NaN values or not
+     * @return Maximum array with the data type of the array, NaN where there
+     * is no valid value
+     */
+    public static Array max(Array a, List<Integer> axes, boolean skipNaN) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        return reduce.toResult(reduce.extreme(skipNaN, true), a.getDataType());
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Variance">
+    private double[] var(boolean skipNaN, int ddof) {
+        //Welford's online algorithm
+        final double[] mean = new double[resultSize];
+        final double[] m2 = new double[resultSize];
+        final int[] count = new int[resultSize];
+        run((lo, hi) -> (src, offset, n, out, step, local) -> {
+            for (int i = 0; i < n; i++) {
+                double v = src[offset + i];
+                if (skipNaN && Double.isNaN(v)) {
+                    continue;
+                }
+                int o = out + i * step;
+                int k = ++count[o];
+                double d = v - mean[o];
+                mean[o] += d / k;
+                m2[o] += d * (v - mean[o]);
+            }
+        }, 0);
+        for (int i = 0; i < resultSize; i++) {
+            m2[i] = count[i] == 0 ? Double.NaN : m2[i] / (count[i] - ddof);
+        }
+        return m2;
+    }
+
+    /**
+     * Compute variance along axes
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param ddof Delta degree of freedom
+     * @param skipNaN Skip NaN values or not
+     * @return Variance array, NaN where there is no valid value
+     */
+    public static Array var(Array a, List<Integer> axes, int ddof, boolean skipNaN) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        return reduce.toResult(reduce.var(skipNaN, ddof), DataType.DOUBLE);
+    }
+
+    /**
+     * Compute standard deviation along axes
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param ddof Delta degree of freedom
+     * @param skipNaN Skip NaN values or not
+     * @return Standard deviation array, NaN where there is no valid value
+     */
+    public static Array std(Array a, List<Integer> axes, int ddof, boolean skipNaN) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        double[] r = reduce.var(skipNaN, ddof);
+        for (int i = 0; i < r.length; i++) {
+            r[i] = Math.sqrt(r[i]);
+        }
+        return reduce.toResult(r, DataType.DOUBLE);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Median">
+    /**
+     * Compute median along axes. The values of each result element are
+     * gathered block by block, so at most a block of values is buffered.
+     *
+     * @param a The array
+     * @param axes Axes to reduce
+     * @param skipNaN Skip NaN values or not
+     * @return Median array, NaN where there are no more than 3 valid values
+     * like {@link ArrayMath#quantile(Array, int)}
+     */
+    public static Array median(Array a, List<Integer> axes, boolean skipNaN) {
+        ArrayReduce reduce = new ArrayReduce(a, axes);
+        return reduce.toResult(reduce.median(skipNaN), DataType.DOUBLE);
+    }
+
+    private double[] median(boolean skipNaN) {
+        final double[] r = new double[resultSize];
+        final int rs = (int) reduceSize;
+        if (a.getSize() == 0) {
+            Arrays.fill(r, Double.NaN);
+            return r;
+        }
+        run((lo, hi) -> {
+            final int blockSize = partAxis >= 0 ? resultSize / shape[partAxis] * (hi - lo) : resultSize;
+            final double[] buf = new double[blockSize * rs];
+            final int[] count = new int[blockSize];
+            final int[] global = new int[blockSize];
+            final boolean[] nan = new boolean[blockSize];
+            return new RowKernel() {
+                private int done = 0;
+
+                @Override
+                public void run(double[] src, int offset, int n, int out, int step, int local) {
+                    for (int i = 0; i < n; i++) {
+                        double v = src[offset + i];
+                        int o = local + i * step;
+                        global[o] = out + i * step;
+                        if (Double.isNaN(v)) {
+                            nan[o] = true;
+                            continue;
+                        }
+                        buf[o * rs + count[o]++] = v;
+                    }
+                    done += n;
+                    if (done == (long) blockSize * rs) {
+                        for (int o = 0; o < blockSize; o++) {
+                            int c = count[o];
+                            if (c <= 3 || (!skipNaN && nan[o])) {
+                                r[global[o]] = Double.NaN;
+                                continue;
+                            }
+                            int from = o * rs;
+                            Arrays.sort(buf, from, from + c);
+                            r[global[o]] = c % 2 == 0 ? (buf[from + c / 2] + buf[from + c / 2 - 1]) / 2.0 :
+                                    buf[from + c / 2];
+                        }
+                    }
+                }
+            };
+        }, MEDIAN_BLOCK_SIZE);
+        return r;
+    }
+    // </editor-fold>
+}
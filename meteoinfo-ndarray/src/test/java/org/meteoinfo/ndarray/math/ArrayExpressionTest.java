@@ -0,0 +1,126 @@
+package org.meteoinfo.ndarray.math;
+
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.InvalidRangeException;
+import org.meteoinfo.ndarray.Range;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArrayExpressionTest {
+
+    private static Array array(DataType dataType, int[] shape) {
+        Array a = Array.factory(dataType, shape);
+        for (int i = 0; i < a.getSize(); i++) {
+            a.setDouble(i, i * 0.5 + 250);
+        }
+        return a;
+    }
+
+    private static void assertArray(Array expected, Array actual) {
+        assertEquals(expected.getDataType(), actual.getDataType());
+        assertArrayEquals(expected.getShape(), actual.getShape());
+        for (int i = 0; i < expected.getSize(); i++) {
+            assertEquals(expected.getDouble(i), actual.getDouble(i), 1e-9, "element " + i);
+        }
+    }
+
+    @Test
+    public void testFused() {
+        Array t = array(DataType.DOUBLE, new int[]{3, 2000});
+        Array expected = ArrayMath.add(ArrayMath.mul(ArrayMath.sub(t, 273.15), 1.8), 32);
+        ArrayExpression e = ArrayExpression.of(t).sub(273.15).mul(1.8).add(32);
+        assertArray(expected, e.eval(false));
+        assertArray(expected, e.eval(true));
+
+        Array u = array(DataType.FLOAT, new int[]{4, 5});
+        Array v = array(DataType.FLOAT, new int[]{4, 5});
+        expected = ArrayMath.sqrt(ArrayMath.add(ArrayMath.mul(u, u), ArrayMath.mul(v, v)));
+        ArrayExpression ws = ArrayExpression.of(u).mul(u).add(ArrayExpression.of(v).mul(v)).sqrt();
+        assertArray(expected, ws.eval());
+    }
+
+    @Test
+    public void testBroadcast() throws InvalidRangeException {
+        Array a = array(DataType.DOUBLE, new int[]{2, 3, 4});
+        Array b = array(DataType.INT, new int[]{3, 1});
+        assertArray(ArrayMath.div(ArrayMath.sub(a, b), b),
+                ArrayExpression.of(a).sub(b).div(b).eval());
+
+        Array s = a.section(Arrays.asList(new Range(0, 1), new Range(0, 2, 2), new Range(1, 3, 2)));
+        assertArray(ArrayMath.sub(10, s), ArrayExpression.of(10).sub(s).eval());
+
+        Array c = array(DataType.INT, new int[]{3, 4});
+        assertArray(ArrayMath.add(c, c), ArrayExpression.of(c).add(c).eval());
+        assertEquals(DataType.DOUBLE, ArrayExpression.of(c).div(2).getDataType());
+        assertThrows(IllegalArgumentException.class, () -> ArrayExpression.of(a).add(array(DataType.DOUBLE, new int[]{5})));
+    }
+
+    @Test
+    public void testIntMissing() {
+        Array a = array(DataType.INT, new int[]{4});
+        a.setInt(1, Integer.MIN_VALUE);
+
+        //ArrayMath keeps the missing value in add only, sub wraps around it
+        assertEquals(Integer.MIN_VALUE, ArrayMath.add(a, 1).getInt(1));
+        assertEquals(Integer.MAX_VALUE, ArrayMath.sub(a, 1).getInt(1));
+
+        //Expressions keep the missing value through every operator
+        for (ArrayExpression e : Arrays.asList(ArrayExpression.of(a).add(1),
+                ArrayExpression.of(a).sub(1), ArrayExpression.of(a).mul(2),
+                ArrayExpression.of(a).sub(1).add(1))) {
+            assertEquals(DataType.INT, e.getDataType());
+            assertEquals(Integer.MIN_VALUE, e.eval(false).getInt(1));
+            assertEquals(Integer.MIN_VALUE, e.eval(true).getInt(1));
+        }
+        Array r = ArrayExpression.of(a).sub(1).eval();
+        for (int i : new int[]{0, 2, 3}) {
+            assertEquals(a.getInt(i) - 1, r.getInt(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentEval() throws Exception {
+        Array a = array(DataType.DOUBLE, new int[]{50, 40});
+        Array b = array(DataType.FLOAT, new int[]{40});
+        //A shared sub expression gets different leaf positions and slots in its parents
+        ArrayExpression shared = ArrayExpression.of(a).mul(b).sub(ArrayExpression.of(b).div(3));
+        ArrayExpression e1 = shared.add(a);
+        ArrayExpression e2 = ArrayExpression.of(b).mul(2).add(ArrayExpression.of(a).sub(b)).mul(shared);
+        Array expected1 = e1.eval(false);
+        Array expected2 = e2.eval(false);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final boolean first = t % 2 == 0;
+                futures.add(pool.submit(() -> {
+                    for (int k = 0; k < 200; k++) {
+                        Array r = first ? e1.eval(false) : e2.eval(false);
+                        Array expected = first ? expected1 : expected2;
+                        for (int i = 0; i < r.getSize(); i++) {
+                            if (r.getDouble(i) != expected.getDouble(i)) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> f : futures) {
+                assertTrue(f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.meteoinfo.ndarray.math;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.InvalidRangeException;
+import org.meteoinfo.ndarray.Range;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArrayKernelTest {
+
+    @AfterEach
+    public void tearDown() {
+        ArrayKernel.setEnabled(true);
+    }
+
+    private static Array array(DataType dataType, int[] shape) {
+        Array a = Array.factory(dataType, shape);
+        for (int i = 0; i < a.getSize(); i++) {
+            if (i % 7 == 0) {
+                a.setObject(i, dataType == DataType.INT ? Integer.MIN_VALUE : Double.NaN);
+            } else {
+                a.setDouble(i, i * 0.75 - 9);
+            }
+        }
+        return a;
+    }
+
+    private static void assertSame(Supplier<Array> op) {
+        ArrayKernel.setEnabled(false);
+        Array expected = op.get();
+        ArrayKernel.setEnabled(true);
+        Array actual = op.get();
+        assertEquals(expected.getDataType(), actual.getDataType());
+        assertArrayEquals(expected.getShape(), actual.getShape());
+        for (int i = 0; i < expected.getSize(); i++) {
+            assertEquals(expected.getObject(i), actual.getObject(i), "element " + i);
+        }
+    }
+
+    @Test
+    public void testContiguous() {
+        for (DataType dataType : new DataType[]{DataType.DOUBLE, DataType.FLOAT, DataType.INT}) {
+            Array a = array(dataType, new int[]{3, 4, 5});
+            Array b = ArrayMath.add(array(dataType, new int[]{3, 4, 5}), 2);
+            assertSame(() -> ArrayMath.add(a, b));
+            assertSame(() -> ArrayMath.sub(a, b));
+            assertSame(() -> ArrayMath.mul(a, b));
+            assertSame(() -> ArrayMath.div(a, b));
+            assertSame(() -> ArrayMath.pow(a, b));
+            assertSame(() -> ArrayMath.add(a, 3));
+            assertSame(() -> ArrayMath.sub(3, a));
+            assertSame(() -> ArrayMath.div(a, 4));
+            assertSame(() -> ArrayMath.div(2.5, a));
+            assertSame(() -> ArrayMath.sub(a, 273.15));
+            assertSame(() -> ArrayMath.pow(a, 2));
+        }
+    }
+
+    @Test
+    public void testStridedAndBroadcast() throws InvalidRangeException {
+        Array a = array(DataType.DOUBLE, new int[]{6, 8});
+        Array s = a.section(Arrays.asList(new Range(1, 5, 2), new Range(0, 7, 3)));
+        Array b = array(DataType.DOUBLE, s.getShape());
+        assertSame(() -> ArrayMath.add(s, b));
+        assertSame(() -> ArrayMath.mul(b, s));
+        assertSame(() -> ArrayMath.sub(s, 1.5));
+
+        Array c = array(DataType.FLOAT, new int[]{2, 3, 4});
+        Array d = array(DataType.FLOAT, new int[]{3, 1});
+        assertSame(() -> ArrayMath.add(c, d));
+        assertSame(() -> ArrayMath.div(d, c));
+        Array e = array(DataType.INT, new int[]{4});
+        Array f = array(DataType.INT, new int[]{2, 3, 4});
+        assertSame(() -> ArrayMath.mul(e, f));
+    }
+
+    @Test
+    public void testWhere() {
+        Array x = array(DataType.DOUBLE, new int[]{3, 4});
+        Array y = array(DataType.DOUBLE, new int[]{4});
+        Array condition = ArrayMath.greaterThan(x, -3);
+        assertSame(() -> ArrayMath.where(condition, x, y));
+        Array r = ArrayMath.where(condition, x, y);
+        assertEquals(x.getDouble(9), r.getDouble(9));
+        assertEquals(y.getDouble(1), r.getDouble(5));
+    }
+
+    @Test
+    public void testMissingToNaN() {
+        Array a = array(DataType.FLOAT, new int[]{10});
+        a.setFloat(3, -9999.0f);
+        a.setFloat(6, -9999.0f);
+        ArrayMath.missingToNaN(a, -9999);
+        assertTrue(Float.isNaN(a.getFloat(3)));
+        assertTrue(Float.isNaN(a.getFloat(6)));
+        assertFalse(Float.isNaN(a.getFloat(4)));
+    }
+
+    @Test
+    public void testPowNaN() {
+        Array a = Array.factory(DataType.DOUBLE, new int[]{4}, new double[]{Double.NaN, Double.NaN, 2, 1});
+        Array b = Array.factory(DataType.DOUBLE, new int[]{4}, new double[]{0, 2, Double.NaN, Double.NaN});
+        Array c = Array.factory(DataType.DOUBLE, new int[]{2, 1}, new double[]{0, 3});
+        assertSame(() -> ArrayMath.pow(a, b));
+        assertSame(() -> ArrayMath.pow(a, 0));
+        assertSame(() -> ArrayMath.pow(0.5, a));
+        assertSame(() -> ArrayMath.pow(a, c));
+        //IEEE 754 pow as Math.pow, so pow(NaN, 0) and pow(1, NaN) are 1
+        Array r = ArrayMath.pow(a, b);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Math.pow(a.getDouble(i), b.getDouble(i)), r.getDouble(i), "element " + i);
+        }
+        assertEquals(1.0, ArrayMath.pow(a, 0).getDouble(0));
+        r = ArrayMath.pow(a, c);
+        assertEquals(1.0, r.getDouble(0));
+        assertTrue(Double.isNaN(r.getDouble(4)));
+        assertEquals(8.0, r.getDouble(6));
+        assertEquals(1.0, ArrayParallel.binary(a, b, ArrayParallel.Operator.POW).getDouble(0));
+        assertEquals(1.0, ArrayParallel.binary(a, 0, ArrayParallel.Operator.POW).getDouble(0));
+        assertEquals(1.0, ArrayExpression.of(a).pow(0).eval(false).getDouble(0));
+    }
+
+    @Test
+    public void testIntMissing() throws InvalidRangeException {
+        Array a = Array.factory(DataType.INT, new int[]{4}, new int[]{1, Integer.MIN_VALUE, 3, 4});
+        Array s = Array.factory(DataType.INT, new int[]{8}, new int[]{1, 0, Integer.MIN_VALUE, 0, 3, 0, 4, 0})
+                .section(Arrays.asList(new Range(0, 7, 2)));
+        for (Array x : new Array[]{a, s}) {
+            assertSame(() -> ArrayMath.add(x, 1));
+            assertSame(() -> ArrayMath.mul(x, 2));
+            assertEquals(Integer.MIN_VALUE, ArrayMath.add(x, 1).getInt(1));
+            assertEquals(Integer.MIN_VALUE, ArrayMath.mul(x, 2).getInt(1));
+            assertEquals(Integer.MIN_VALUE, ArrayParallel.binary(x, 2, ArrayParallel.Operator.MUL).getInt(1));
+            assertEquals(8, ArrayMath.mul(x, 2).getInt(3));
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.meteoinfo.ndarray.math;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.Index;
+import org.meteoinfo.ndarray.InvalidRangeException;
+import org.meteoinfo.ndarray.Range;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArrayMathTest {
+
+    @AfterEach
+    public void tearDown() {
+        ArrayKernel.setEnabled(true);
+    }
+
+    private static Array array(DataType dataType, int[] shape) {
+        Array a = Array.factory(dataType, shape);
+        for (int i = 0; i < a.getSize(); i++) {
+            if (i % 5 == 0 && dataType.isFloatingPoint()) {
+                a.setDouble(i, Double.NaN);
+            } else {
+                a.setDouble(i, i * 0.25 - 3);
+            }
+        }
+        return a;
+    }
+
+    private static void assertArray(Array expected, Array actual) {
+        assertArrayEquals(expected.getShape(), actual.getShape());
+        for (int i = 0; i < expected.getSize(); i++) {
+            assertEquals(expected.getDouble(i), actual.getDouble(i), 1e-12, "element " + i);
+        }
+    }
+
+    @Test
+    public void testOut() {
+        for (boolean kernel : new boolean[]{true, false}) {
+            ArrayKernel.setEnabled(kernel);
+            Array a = array(DataType.DOUBLE, new int[]{3, 4});
+            Array b = array(DataType.DOUBLE, new int[]{4});
+            Array out = Array.factory(DataType.DOUBLE, new int[]{3, 4});
+            assertSame(out, ArrayMath.add(a, b, out));
+            assertArray(ArrayMath.add(a, b), out);
+            assertArray(ArrayMath.div(a, 2.5), ArrayMath.div(a, 2.5, out));
+            assertArray(ArrayMath.exp(a), ArrayMath.exp(a, out));
+
+            Array expected = ArrayMath.mul(a, b);
+            assertSame(a, ArrayMath.mulInPlace(a, b));
+            assertArray(expected, a);
+
+            Array c = array(DataType.INT, new int[]{2, 3});
+            expected = ArrayMath.sub(c, 2);
+            assertArray(expected, ArrayMath.subInPlace(c, 2));
+            assertThrows(IllegalArgumentException.class, () -> ArrayMath.addInPlace(b, a));
+        }
+    }
+
+    @Test
+    public void testSumMeanAxes() throws InvalidRangeException {
+        Array a = array(DataType.DOUBLE, new int[]{4, 1, 3, 5});
+        for (List<Integer> axes : Arrays.asList(Arrays.asList(0), Arrays.asList(2), Arrays.asList(3, 0),
+                Arrays.asList(1, 2))) {
+            Array sum = ArrayMath.sum(a, axes);
+            Array mean = ArrayMath.mean(a, axes);
+            int[] shape = sum.getShape();
+            int[] current = new int[shape.length];
+            for (int i = 0; i < sum.getSize(); i++) {
+                List<Range> ranges = new ArrayList<>();
+                int idx = 0;
+                for (int j = 0; j < a.getRank(); j++) {
+                    if (axes.contains(j)) {
+                        ranges.add(new Range(0, a.getShape()[j] - 1, 1));
+                    } else {
+                        ranges.add(new Range(current[idx], current[idx], 1));
+                        idx += 1;
+                    }
+                }
+                assertEquals(ArrayMath.sumRange(a, ranges), sum.getDouble(i));
+                assertEquals(ArrayMath.meanRange(a, ranges), mean.getDouble(i));
+                ArrayParallel.incr(current, shape);
+            }
+        }
+    }
+
+    @Test
+    public void testSumMeanOut() throws InvalidRangeException {
+        Array a = array(DataType.DOUBLE, new int[]{4, 3, 5});
+        List<Integer> axes = Arrays.asList(2, 0);
+        Array out = Array.factory(DataType.DOUBLE, new int[]{3});
+        out.setDouble(0, 100);
+        assertSame(out, ArrayMath.sum(a, axes, out));
+        assertArray(ArrayMath.sum(a, axes), out);
+        assertSame(out, ArrayMath.mean(a, axes, out));
+        assertArray(ArrayMath.mean(a, axes), out);
+
+        //Output views and other data types are written element by element
+        Array big = Array.factory(DataType.DOUBLE, new int[]{2, 3});
+        Array view = big.section(new int[]{1, 0}, new int[]{1, 3}).reduce();
+        ArrayMath.mean(a, axes, view);
+        assertArray(ArrayMath.mean(a, axes), view.copy());
+        assertEquals(0, big.getDouble(0));
+        Array fout = Array.factory(DataType.FLOAT, new int[]{3});
+        ArrayMath.sum(a, axes, fout);
+        Array expected = ArrayMath.sum(a, axes);
+        for (int i = 0; i < 3; i++) {
+            assertEquals((float) expected.getDouble(i), fout.getFloat(i));
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ArrayMath.sum(a, axes, Array.factory(DataType.DOUBLE, new int[]{4})));
+    }
+
+    @Test
+    public void testReduceAxes() throws InvalidRangeException {
+        for (DataType dataType : new DataType[]{DataType.DOUBLE, DataType.FLOAT, DataType.INT}) {
+            Array a = array(dataType, new int[]{6, 1, 5, 7});
+            for (List<Integer> axes : Arrays.asList(Arrays.asList(0), Arrays.asList(2), Arrays.asList(-1),
+                    Arrays.asList(3, 0), Arrays.asList(1, 2), Arrays.asList(0, 2, 3))) {
+                Array min = ArrayReduce.min(a, axes, true);
+                Array max = ArrayReduce.max(a, axes, true);
+                Array std = ArrayReduce.std(a, axes, 1, true);
+                Array var = ArrayReduce.var(a, axes, 0, true);
+                Array median = ArrayReduce.median(a, axes, true);
+                Array sum = ArrayReduce.sum(a, axes, true, ArrayReduce.Summation.KAHAN);
+                Array nanSum = ArrayReduce.sum(a, axes, false, ArrayReduce.Summation.NAIVE);
+                assertEquals(a.getDataType(), min.getDataType());
+                int[] shape = min.getShape();
+                int[] current = new int[shape.length];
+                for (int i = 0; i < min.getSize(); i++) {
+                    List<Range> ranges = new ArrayList<>();
+                    int idx = 0;
+                    for (int j = 0; j < a.getRank(); j++) {
+                        if (axes.contains(j) || axes.contains(j - a.getRank())) {
+                            ranges.add(new Range(0, a.getShape()[j] - 1, 1));
+                        } else {
+                            ranges.add(new Range(current[idx], current[idx], 1));
+                            idx += 1;
+                        }
+                    }
+                    assertEquals(ArrayMath.min(a, ranges), min.getDouble(i));
+                    assertEquals(ArrayMath.max(a, ranges), max.getDouble(i));
+                    assertEquals(ArrayMath.std(a, ranges, 1), std.getDouble(i), 1e-9);
+                    assertEquals(ArrayMath.var(a, ranges, 0), var.getDouble(i), 1e-9);
+                    assertEquals(ArrayMath.median(a, ranges), median.getDouble(i), 1e-12);
+                    assertEquals(ArrayMath.sumRange(a, ranges), sum.getDouble(i), 1e-9);
+                    Array section = a.section(ranges).copy();
+                    boolean hasNaN = false;
+                    for (int k = 0; k < section.getSize(); k++) {
+                        hasNaN = hasNaN || Double.isNaN(section.getDouble(k));
+                    }
+                    assertEquals(hasNaN, Double.isNaN(nanSum.getDouble(i)));
+                    ArrayParallel.incr(current, shape);
+                }
+                assertReference(a, axes);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> ArrayReduce.min(array(DataType.DOUBLE, new int[]{2, 3}),
+                Arrays.asList(2), true));
+    }
+
+    /**
+     * Values of each result element of a reduction, gathered by a plain loop
+     */
+    private static List<List<Double>> gather(Array a, List<Integer> axes) {
+        int rank = a.getRank();
+        int[] shape = a.getShape();
+        boolean[] reduced = new boolean[rank];
+        int size = 1;
+        for (int axis : axes) {
+            reduced[axis < 0 ? axis + rank : axis] = true;
+        }
+        for (int d = 0; d < rank; d++) {
+            if (!reduced[d]) {
+                size *= shape[d];
+            }
+        }
+        List<List<Double>> values = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            values.add(new ArrayList<>());
+        }
+        Index index = a.getIndex();
+        int[] counter = new int[rank];
+        for (int i = 0; i < a.getSize(); i++) {
+            int o = 0;
+            for (int d = 0; d < rank; d++) {
+                if (!reduced[d]) {
+                    o = o * shape[d] + counter[d];
+                }
+            }
+            values.get(o).add(a.getDouble(index.set(counter)));
+            ArrayParallel.incr(counter, shape);
+        }
+        return values;
+    }
+
+    /**
+     * Check the reductions skipping NaN against plain loops, variance with
+     * the two pass algorithm
+     */
+    private static void assertReference(Array a, List<Integer> axes) {
+        Array min = ArrayReduce.min(a, axes, true);
+        Array max = ArrayReduce.max(a, axes, true);
+        Array sum = ArrayReduce.sum(a, axes, true, ArrayReduce.Summation.NAIVE);
+        Array var = ArrayReduce.var(a, axes, 1, true);
+        Array median = ArrayReduce.median(a, axes, true);
+        List<List<Double>> values = gather(a, axes);
+        for (int i = 0; i < values.size(); i++) {
+            double mn = Double.NaN, mx = Double.NaN, s = 0;
+            List<Double> valid = new ArrayList<>();
+            for (double v : values.get(i)) {
+                if (Double.isNaN(v)) {
+                    continue;
+                }
+                mn = Double.isNaN(mn) || v < mn ? v : mn;
+                mx = Double.isNaN(mx) || v > mx ? v : mx;
+                s += v;
+                valid.add(v);
+            }
+            int n = valid.size();
+            double mean = s / n;
+            double ss = 0;
+            for (double v : valid) {
+                ss += (v - mean) * (v - mean);
+            }
+            assertEquals(mn, min.getDouble(i), "min " + i);
+            assertEquals(mx, max.getDouble(i), "max " + i);
+            assertEquals(n == 0 ? Double.NaN : s, sum.getDouble(i), "sum " + i);
+            assertEquals(n == 0 ? Double.NaN : ss / (n - 1), var.getDouble(i),
+                    1e-12 * Math.max(1, Math.abs(ss / (n - 1))), "var " + i);
+            if (n > 3) {
+                Collections.sort(valid);
+                double m = n % 2 == 0 ? (valid.get(n / 2) + valid.get(n / 2 - 1)) / 2 : valid.get(n / 2);
+                assertEquals(m, median.getDouble(i), "median " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testReduceViews() throws InvalidRangeException {
+        for (DataType dataType : new DataType[]{DataType.DOUBLE, DataType.FLOAT, DataType.INT, DataType.SHORT}) {
+            Array a = array(dataType, new int[]{7, 6, 9});
+            Array section = a.section(Arrays.asList(new Range(1, 6, 2), new Range(0, 5), new Range(0, 8, 3)));
+            Array permuted = a.permute(new int[]{2, 0, 1});
+            for (Array v : new Array[]{section, permuted, a.flip(1)}) {
+                Array copy = v.copy();
+                for (List<Integer> axes : Arrays.asList(Arrays.asList(0), Arrays.asList(1), Arrays.asList(2),
+                        Arrays.asList(0, 2), Arrays.asList(1, 2))) {
+                    assertReference(v, axes);
+                    assertArray(ArrayReduce.sum(copy, axes, true, ArrayReduce.Summation.NAIVE),
+                            ArrayReduce.sum(v, axes, true, ArrayReduce.Summation.NAIVE));
+                    assertArray(ArrayReduce.var(copy, axes, 0, true), ArrayReduce.var(v, axes, 0, true));
+                }
+            }
+        }
+    }
+}
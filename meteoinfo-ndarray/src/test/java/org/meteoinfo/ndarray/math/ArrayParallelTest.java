@@ -0,0 +1,148 @@
+package org.meteoinfo.ndarray.math;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.InvalidRangeException;
+import org.meteoinfo.ndarray.Range;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArrayParallelTest {
+    private int threshold;
+    private int chunkSize;
+
+    @BeforeEach
+    public void setUp() {
+        threshold = ArrayParallel.getThreshold();
+        chunkSize = ArrayParallel.getChunkSize();
+        ArrayParallel.setThreshold(1);
+        ArrayParallel.setChunkSize(7);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ArrayParallel.setThreshold(threshold);
+        ArrayParallel.setChunkSize(chunkSize);
+    }
+
+    private static Array doubleArray(int[] shape) {
+        Array a = Array.factory(DataType.DOUBLE, shape);
+        for (int i = 0; i < a.getSize(); i++) {
+            a.setDouble(i, i % 5 == 0 ? Double.NaN : i * 0.5 - 10);
+        }
+        return a;
+    }
+
+    private static Array intArray(int[] shape) {
+        Array a = Array.factory(DataType.INT, shape);
+        for (int i = 0; i < a.getSize(); i++) {
+            a.setInt(i, i % 7 == 0 ? Integer.MIN_VALUE : i - 20);
+        }
+        return a;
+    }
+
+    private static Array longArray(int[] shape) {
+        Array a = Array.factory(DataType.LONG, shape);
+        for (int i = 0; i < a.getSize(); i++) {
+            a.setLong(i, i % 7 == 0 ? Long.MIN_VALUE : i * 10000000000L - 20);
+        }
+        return a;
+    }
+
+    private static void assertArrayEqual(Array expected, Array actual) {
+        assertEquals(expected.getDataType(), actual.getDataType());
+        assertArrayEquals(expected.getShape(), actual.getShape());
+        for (int i = 0; i < expected.getSize(); i++) {
+            assertEquals(expected.getObject(i), actual.getObject(i), "element " + i);
+        }
+    }
+
+    @Test
+    public void testSameShape() {
+        int[] shape = new int[]{4, 5, 6};
+        Array a = doubleArray(shape);
+        Array b = ArrayMath.add(doubleArray(shape), 3.5, false);
+        assertArrayEqual(ArrayMath.add(a, b, false), ArrayMath.add(a, b, true));
+        assertArrayEqual(ArrayMath.sub(a, b, false), ArrayMath.sub(a, b, true));
+        assertArrayEqual(ArrayMath.mul(a, b, false), ArrayMath.mul(a, b, true));
+        assertArrayEqual(ArrayMath.div(a, b, false), ArrayMath.div(a, b, true));
+        assertArrayEqual(ArrayMath.pow(a, b, false), ArrayMath.pow(a, b, true));
+        assertArrayEqual(ArrayMath.lessThan(a, b, false), ArrayMath.lessThan(a, b, true));
+        assertArrayEqual(ArrayMath.equal(a, Double.NaN, false), ArrayMath.equal(a, Double.NaN, true));
+        assertArrayEqual(ArrayMath.sqrt(a, false), ArrayMath.sqrt(a, true));
+        assertArrayEqual(ArrayMath.exp(a, false), ArrayMath.exp(a, true));
+        assertArrayEqual(ArrayMath.log(a, false), ArrayMath.log(a, true));
+
+        Array ia = intArray(shape);
+        Array ib = ArrayMath.add(intArray(shape), 3, false);
+        assertArrayEqual(ArrayMath.add(ia, ib, false), ArrayMath.add(ia, ib, true));
+        assertArrayEqual(ArrayMath.mul(ia, ib, false), ArrayMath.mul(ia, ib, true));
+        assertArrayEqual(ArrayMath.div(ia, ib, false), ArrayMath.div(ia, ib, true));
+        assertArrayEqual(ArrayMath.sub(5, ia, false), ArrayMath.sub(5, ia, true));
+        assertArrayEqual(ArrayMath.div(ia, 3, false), ArrayMath.div(ia, 3, true));
+
+        Array fa = ArrayUtil.toFloat(a);
+        assertArrayEqual(ArrayMath.add(fa, 1.5f, false), ArrayMath.add(fa, 1.5f, true));
+        assertArrayEqual(ArrayMath.div(fa, fa, false), ArrayMath.div(fa, fa, true));
+    }
+
+    @Test
+    public void testBroadcast() {
+        Array a = doubleArray(new int[]{3, 4, 5});
+        Array b = doubleArray(new int[]{4, 1});
+        assertArrayEqual(ArrayMath.add(a, b, false), ArrayMath.add(a, b, true));
+        assertArrayEqual(ArrayMath.mul(b, a, false), ArrayMath.mul(b, a, true));
+
+        Array ia = intArray(new int[]{3, 4, 5});
+        Array ib = intArray(new int[]{5});
+        assertArrayEqual(ArrayMath.sub(ia, ib, false), ArrayMath.sub(ia, ib, true));
+    }
+
+    @Test
+    public void testSection() throws InvalidRangeException {
+        Array a = doubleArray(new int[]{6, 8});
+        Array s = a.section(Arrays.asList(new Range(1, 5, 2), new Range(0, 7, 3)));
+        assertFalse(s.getIndexPrivate().isFastIterator());
+        Array b = doubleArray(s.getShape());
+        assertArrayEqual(ArrayMath.add(s.copy(), b, false), ArrayMath.add(s, b, true));
+        assertArrayEqual(ArrayMath.mul(s.copy(), 2.0, false), ArrayMath.mul(s, 2.0, true));
+    }
+
+    @Test
+    public void testLongMissing() throws InvalidRangeException {
+        int[] shape = new int[]{4, 5, 6};
+        Array la = longArray(shape);
+        Array lb = ArrayMath.add(longArray(shape), 3, false);
+        assertArrayEqual(ArrayMath.add(la, lb, false), ArrayMath.add(la, lb, true));
+        assertArrayEqual(ArrayMath.sub(la, lb, false), ArrayMath.sub(la, lb, true));
+        assertArrayEqual(ArrayMath.mul(la, lb, false), ArrayMath.mul(la, lb, true));
+        assertArrayEqual(ArrayMath.add(la, 1, false), ArrayMath.add(la, 1, true));
+        assertArrayEqual(ArrayMath.sub(la, 1, false), ArrayMath.sub(la, 1, true));
+        assertArrayEqual(ArrayMath.mul(la, 2, false), ArrayMath.mul(la, 2, true));
+        assertArrayEqual(ArrayMath.sub(5, la, false), ArrayMath.sub(5, la, true));
+
+        //Add and multiply keep the missing value, subtract wraps as for INT
+        Array r = ArrayMath.add(la, 1, false);
+        assertEquals(DataType.LONG, r.getDataType());
+        assertEquals(Long.MIN_VALUE, r.getLong(0));
+        assertEquals(10000000000L - 19, r.getLong(1));
+        assertEquals(Long.MIN_VALUE, ArrayMath.mul(la, 2, false).getLong(7));
+        r = ArrayMath.sub(la, 1, false);
+        assertEquals(DataType.LONG, r.getDataType());
+        assertEquals(Long.MAX_VALUE, r.getLong(0));
+        assertEquals(10000000000L - 21, r.getLong(1));
+
+        //Strided views take the iterator paths
+        Array s = la.section(Arrays.asList(new Range(0, 3, 2), new Range(0, 4, 2), new Range(0, 5, 1)));
+        assertFalse(s.getIndexPrivate().isFastIterator());
+        assertArrayEqual(ArrayMath.add(s.copy(), 1, false), ArrayMath.add(s, 1, false));
+        assertArrayEqual(ArrayMath.mul(s.copy(), 2, false), ArrayMath.mul(s, 2, false));
+        assertArrayEqual(ArrayMath.add(s.copy(), 1, false), ArrayMath.add(s, 1, true));
+        assertArrayEqual(ArrayMath.sub(s.copy(), 1, false), ArrayMath.sub(s, 1, true));
+    }
+}
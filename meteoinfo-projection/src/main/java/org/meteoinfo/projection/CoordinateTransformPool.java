@@ -0,0 +1,116 @@
+package org.meteoinfo.projection;
+
+import org.locationtech.proj4j.CoordinateReferenceSystem;
+import org.locationtech.proj4j.CoordinateTransform;
+import org.locationtech.proj4j.CoordinateTransformFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of coordinate transforms keyed by source and destination projections.
+ * <p>
+ * proj4j transforms keep intermediate coordinates and are not thread safe, so
+ * each thread gets its own transform instance of a projection pair. The
+ * projections are compared by their proj4 parameter strings, so equal
+ * projections created separately share the cached transforms. The least
+ * recently used projection pairs are evicted when the cache is full.
+ *
+ * @author wyq
+ */
+public class CoordinateTransformPool {
+
+    private static final CoordinateTransformFactory ctFactory = new CoordinateTransformFactory();
+    private static final int MAX_SIZE = 256;
+    private static final LinkedHashMap<Key, ThreadLocal<CoordinateTransform>> transforms =
+            new LinkedHashMap<Key, ThreadLocal<CoordinateTransform>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, ThreadLocal<CoordinateTransform>> eldest) {
+                    return size() > MAX_SIZE;
+                }
+            };
+
+    private static final class Key {
+        private final Object source;
+        private final Object dest;
+        private final int hash;
+
+        Key(CoordinateReferenceSystem source, CoordinateReferenceSystem dest) {
+            this.source = keyOf(source);
+            this.dest = keyOf(dest);
+            this.hash = 31 * this.source.hashCode() + this.dest.hashCode();
+        }
+
+        private static Object keyOf(CoordinateReferenceSystem crs) {
+            String params = crs.getParameterString();
+            return params == null || params.isEmpty() ? crs : params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && Objects.equals(source, k.source) && Objects.equals(dest, k.dest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Get the coordinate transform of the current thread for a projection pair
+     *
+     * @param source Source projection info
+     * @param dest Destination projection info
+     * @return Coordinate transform, only to be used by the current thread
+     */
+    public static CoordinateTransform get(ProjectionInfo source, ProjectionInfo dest) {
+        return get(source.getCoordinateReferenceSystem(), dest.getCoordinateReferenceSystem());
+    }
+
+    /**
+     * Get the coordinate transform of the current thread for a coordinate
+     * reference system pair
+     *
+     * @param source Source coordinate reference system
+     * @param dest Destination coordinate reference system
+     * @return Coordinate transform, only to be used by the current thread
+     */
+    public static CoordinateTransform get(CoordinateReferenceSystem source, CoordinateReferenceSystem dest) {
+        Key key = new Key(source, dest);
+        ThreadLocal<CoordinateTransform> local;
+        synchronized (transforms) {
+            local = transforms.get(key);
+            if (local == null) {
+                local = ThreadLocal.withInitial(() -> ctFactory.createTransform(source, dest));
+                transforms.put(key, local);
+            }
+        }
+        return local.get();
+    }
+
+    /**
+     * Get number of cached projection pairs
+     *
+     * @return Number of cached projection pairs
+     */
+    public static int size() {
+        synchronized (transforms) {
+            return transforms.size();
+        }
+    }
+
+    /**
+     * Remove all cached transforms
+     */
+    public static void clear() {
+        synchronized (transforms) {
+            transforms.clear();
+        }
+    }
+}
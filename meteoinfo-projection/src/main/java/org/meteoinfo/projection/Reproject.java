@@ -18,10 +18,9 @@ import org.meteoinfo.common.Extent;
 import org.meteoinfo.common.PointD;
 import org.meteoinfo.common.ResampleMethods;
 import org.meteoinfo.ndarray.*;
+import org.meteoinfo.ndarray.math.ArrayParallel;
 import org.meteoinfo.ndarray.math.ArrayUtil;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -30,8 +29,6 @@ import java.util.List;
  */
 public class Reproject {
 
-    private static final CoordinateTransformFactory ctFactory = new CoordinateTransformFactory();
-
     /**
      * Reproject a point
      * @param x X
@@ -80,7 +77,7 @@ public class Reproject {
      * @param numPoints Point number
      */
     public static void reprojectPoints(double[][] points, ProjectionInfo source, ProjectionInfo dest, int startIndex, int numPoints) {
-        CoordinateTransform trans = ctFactory.createTransform(source.getCoordinateReferenceSystem(), dest.getCoordinateReferenceSystem());
+        CoordinateTransform trans = CoordinateTransformPool.get(source, dest);
         if (source.getProjectionName() == ProjectionNames.LongLat) {
             for (int i = startIndex; i < startIndex + numPoints; i++) {
                 if (i >= points.length) {
@@ -93,6 +90,8 @@ public class Reproject {
                 }
             }
         }
+        ProjCoordinate p1 = new ProjCoordinate();
+        ProjCoordinate p2 = new ProjCoordinate();
         for (int i = startIndex; i < startIndex + numPoints; i++) {
             if (i >= points.length) {
                 break;
@@ -101,8 +100,7 @@ public class Reproject {
                 points[i][0] = Double.NaN;
                 points[i][1] = Double.NaN;
             } else {
-                ProjCoordinate p1 = new ProjCoordinate(points[i][0], points[i][1]);
-                ProjCoordinate p2 = new ProjCoordinate();
+                p1.setValue(points[i][0], points[i][1]);
                 try {
                     trans.transform(p1, p2);
                     points[i][0] = p2.x;
@@ -114,7 +112,131 @@ public class Reproject {
             }
         }
     }
-    
+
+    /**
+     * Reproject points of packed coordinate arrays in place
+     *
+     * @param x X coordinates
+     * @param y Y coordinates
+     * @param source Source projection info
+     * @param dest Destination projection info
+     */
+    public static void reprojectPoints(double[] x, double[] y, ProjectionInfo source, ProjectionInfo dest) {
+        reprojectPoints(x, y, source, dest, 0, x.length);
+    }
+
+    /**
+     * Reproject points of packed coordinate arrays in place. Large point
+     * sets are split into chunks reprojected in parallel.
+     *
+     * @param x X coordinates
+     * @param y Y coordinates
+     * @param source Source projection info
+     * @param dest Destination projection info
+     * @param startIndex Start index
+     * @param numPoints Point number
+     */
+    public static void reprojectPoints(double[] x, double[] y, ProjectionInfo source, ProjectionInfo dest,
+                                       int startIndex, int numPoints) {
+        final int n = Math.min(x.length, startIndex + numPoints) - startIndex;
+        if (n <= 0) {
+            return;
+        }
+        final boolean isLonLat = source.getProjectionName() == ProjectionNames.LongLat;
+        ArrayParallel.ChunkTask task = (start, end) -> {
+            CoordinateTransform trans = CoordinateTransformPool.get(source, dest);
+            ProjCoordinate p1 = new ProjCoordinate();
+            ProjCoordinate p2 = new ProjCoordinate();
+            for (int i = startIndex + start; i < startIndex + end; i++) {
+                if (isLonLat) {
+                    if (x[i] > 180.0) {
+                        x[i] -= 360;
+                    } else if (x[i] < -180) {
+                        x[i] += 360;
+                    }
+                }
+                if (Double.isNaN(x[i]) || Double.isNaN(y[i])) {
+                    x[i] = Double.NaN;
+                    y[i] = Double.NaN;
+                } else {
+                    p1.setValue(x[i], y[i]);
+                    try {
+                        trans.transform(p1, p2);
+                        x[i] = p2.x;
+                        y[i] = p2.y;
+                    } catch (ProjectionException e) {
+                        x[i] = Double.NaN;
+                        y[i] = Double.NaN;
+                    }
+                }
+            }
+        };
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), n)) {
+            ArrayParallel.forEachChunk(n, task);
+        } else {
+            task.run(0, n);
+        }
+    }
+
+    /**
+     * Get the source coordinates of target grid points, by the inverse
+     * transform from the target projection to the source projection
+     *
+     * @param rx Target x coordinates
+     * @param ry Target y coordinates
+     * @param fromProj Source projection
+     * @param toProj Target projection
+     * @return Packed source x and y coordinates
+     */
+    private static double[][] sourcePoints(Array rx, Array ry, ProjectionInfo fromProj, ProjectionInfo toProj) {
+        double[] xs = toDoubles(rx);
+        double[] ys = toDoubles(ry);
+        if (!fromProj.equals(toProj)) {
+            reprojectPoints(xs, ys, toProj, fromProj);
+        }
+        return new double[][]{xs, ys};
+    }
+
+    private static double[] toDoubles(Array a) {
+        double[] r = new double[(int) a.getSize()];
+        IndexIterator iter = a.getIndexIterator();
+        for (int i = 0; i < r.length; i++) {
+            r[i] = iter.getDoubleNext();
+        }
+        return r;
+    }
+
+    private static double[] toDoubles(List<Number> values) {
+        double[] r = new double[values.size()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = values.get(i).doubleValue();
+        }
+        return r;
+    }
+
+    /**
+     * Get result shape of reprojecting data to target points
+     */
+    private static int[] resultShape(Array data, Array rx) {
+        int[] shape;
+        if (rx.getRank() == 1) {
+            shape = new int[1];
+            shape[0] = rx.getShape()[0];
+        } else {
+            shape = new int[data.getRank()];
+            for (int i = 0; i < shape.length; i++) {
+                if (i == shape.length - 2) {
+                    shape[i] = rx.getShape()[0];
+                } else if (i == shape.length - 1) {
+                    shape[i] = rx.getShape()[1];
+                } else {
+                    shape[i] = data.getShape()[i];
+                }
+            }
+        }
+        return shape;
+    }
+
     /**
      * Project grid data
      *
@@ -263,131 +385,11 @@ public class Reproject {
      */
     public static Array reproject(Array data, List<Number> x, List<Number> y, Array rx, Array ry,
             ProjectionInfo fromProj, ProjectionInfo toProj, double fill_value, ResampleMethods resampleMethod) throws InvalidRangeException {
-        int n = (int) rx.getSize();
-        int[] dshape = data.getShape();
-        int[] shape;
-        if (rx.getRank() == 1) {
-            shape = new int[1];
-            shape[0] = rx.getShape()[0];
-        } else {
-            shape = new int[data.getRank()];
-            for (int i = 0; i < shape.length; i++) {
-                if (i == shape.length - 2) {
-                    shape[i] = rx.getShape()[0];
-                } else if (i == shape.length - 1) {
-                    shape[i] = rx.getShape()[1];
-                } else {
-                    shape[i] = data.getShape()[i];
-                }
-            }
-        }
-        Array r = Array.factory(data.getDataType(), shape);
-
-        double[][] points = new double[n][];
-        for (int i = 0; i < n; i++) {
-            points[i] = new double[]{rx.getDouble(i), ry.getDouble(i)};
-        }
-        if (!fromProj.equals(toProj)) {
-            Reproject.reprojectPoints(points, toProj, fromProj, 0, points.length);
-        }
-        double xx, yy;
-        if (resampleMethod == ResampleMethods.Bilinear) {
-            if (shape.length <= 2) {
-                for (int i = 0; i < n; i++) {
-                    xx = points[i][0];
-                    yy = points[i][1];
-                    if (Double.isNaN(xx) || Double.isNaN(yy)) {
-                        r.setObject(i, Double.NaN);
-                    } else {
-                        r.setObject(i, ArrayUtil.toStation(data, x, y, xx, yy, fill_value));
-                    }
-                }
-            } else {
-                Index indexr = r.getIndex();
-                int[] current, cc = null;
-                boolean isNew;
-                Array ndata = null;
-                int k;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = indexr.getCurrentCounter();
-                    isNew = true;
-                    if (i > 0) {
-                        for (int j = 0; j < shape.length - 2; j++) {
-                            if (cc[j] != current[j]) {
-                                isNew = false;
-                                break;
-                            }
-                        }
-                    }
-                    cc = Arrays.copyOf(current, current.length);
-                    if (isNew) {
-                        List<Range> ranges = new ArrayList<>();
-                        for (int j = 0; j < shape.length - 2; j++) {
-                            ranges.add(new Range(current[j], current[j], 1));
-                        }
-                        ranges.add(new Range(0, dshape[dshape.length - 2] - 1, 1));
-                        ranges.add(new Range(0, dshape[dshape.length - 1] - 1, 1));
-                        ndata = data.section(ranges).reduce();
-                    }
-                    k = current[shape.length - 2] * shape[shape.length - 1] + current[shape.length - 1];
-                    xx = points[k][0];
-                    yy = points[k][1];
-                    if (Double.isNaN(xx) || Double.isNaN(yy)) {
-                        r.setObject(i, Double.NaN);
-                    } else {
-                        r.setObject(i, ArrayUtil.toStation(ndata, x, y, xx, yy, fill_value));
-                    }
-                    indexr.incr();
-                }
-            }
-        } else if (shape.length <= 2) {
-            for (int i = 0; i < n; i++) {
-                xx = points[i][0];
-                yy = points[i][1];
-                if (Double.isNaN(xx) || Double.isNaN(yy)) {
-                    r.setObject(i, Double.NaN);
-                } else {
-                    r.setObject(i, ArrayUtil.toStation_Neighbor(data, x, y, xx, yy, fill_value));
-                }
-            }
-        } else {
-            Index indexr = r.getIndex();
-            int[] current, cc = null;
-            boolean isNew;
-            Array ndata = null;
-            int k;
-            for (int i = 0; i < r.getSize(); i++) {
-                current = indexr.getCurrentCounter();
-                isNew = true;
-                if (i > 0) {
-                    for (int j = 0; j < shape.length - 2; j++) {
-                        if (cc[j] != current[j]) {
-                            isNew = false;
-                            break;
-                        }
-                    }
-                }
-                cc = Arrays.copyOf(current, current.length);
-                if (isNew) {
-                    List<Range> ranges = new ArrayList<>();
-                    for (int j = 0; j < shape.length - 2; j++) {
-                        ranges.add(new Range(current[j], current[j], 1));
-                    }
-                    ranges.add(new Range(0, dshape[dshape.length - 2] - 1, 1));
-                    ranges.add(new Range(0, dshape[dshape.length - 1] - 1, 1));
-                    ndata = data.section(ranges).reduce();
-                }
-                k = current[shape.length - 2] * shape[shape.length - 1] + current[shape.length - 1];
-                xx = points[k][0];
-                yy = points[k][1];
-                if (Double.isNaN(xx) || Double.isNaN(yy)) {
-                    r.setObject(i, Double.NaN);
-                } else {
-                    r.setObject(i, ArrayUtil.toStation_Neighbor(ndata, x, y, xx, yy, fill_value));
-                }
-                indexr.incr();
-            }
-        }
+        Array r = Array.factory(data.getDataType(), resultShape(data, rx));
+        double[][] points = sourcePoints(rx, ry, fromProj, toProj);
+        ResamplePlan plan = new ResamplePlan(toDoubles(x), toDoubles(y), points[0], points[1], rx.getShape(),
+                resampleMethod);
+        plan.apply(data, fill_value, r);
 
         return r;
     }
@@ -408,115 +410,11 @@ public class Reproject {
      */
     public static Array reproject(Array data, List<Number> x, List<Number> y, Array rx, Array ry,
             ProjectionInfo fromProj, ProjectionInfo toProj, ResampleMethods resampleMethod) throws InvalidRangeException {
-        int n = (int) rx.getSize();
-        int[] dshape = data.getShape();
-        int[] shape;
-        if (rx.getRank() == 1) {
-            shape = new int[1];
-            shape[0] = rx.getShape()[0];
-        } else {
-            shape = new int[data.getRank()];
-            for (int i = 0; i < shape.length; i++) {
-                if (i == shape.length - 2) {
-                    shape[i] = rx.getShape()[0];
-                } else if (i == shape.length - 1) {
-                    shape[i] = rx.getShape()[1];
-                } else {
-                    shape[i] = data.getShape()[i];
-                }
-            }
-        }
-        Array r = Array.factory(data.getDataType(), shape);
-
-        double[][] points = new double[n][];
-        for (int i = 0; i < n; i++) {
-            points[i] = new double[]{rx.getDouble(i), ry.getDouble(i)};
-        }
-        if (!fromProj.equals(toProj)) {
-            Reproject.reprojectPoints(points, toProj, fromProj, 0, points.length);
-        }
-        double xx, yy;
-        if (resampleMethod == ResampleMethods.Bilinear) {
-            if (shape.length <= 2) {
-                for (int i = 0; i < n; i++) {
-                    xx = points[i][0];
-                    yy = points[i][1];
-                    r.setObject(i, ArrayUtil.toStation(data, x, y, xx, yy));
-                }
-            } else {
-                Index indexr = r.getIndex();
-                int[] current, cc = null;
-                boolean isNew;
-                Array ndata = null;
-                int k;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = indexr.getCurrentCounter();
-                    isNew = true;
-                    if (i > 0) {
-                        for (int j = 0; j < shape.length - 2; j++) {
-                            if (cc[j] != current[j]) {
-                                isNew = false;
-                                break;
-                            }
-                        }
-                    }
-                    cc = Arrays.copyOf(current, current.length);
-                    if (isNew) {
-                        List<Range> ranges = new ArrayList<>();
-                        for (int j = 0; j < shape.length - 2; j++) {
-                            ranges.add(new Range(current[j], current[j], 1));
-                        }
-                        ranges.add(new Range(0, dshape[dshape.length - 2] - 1, 1));
-                        ranges.add(new Range(0, dshape[dshape.length - 1] - 1, 1));
-                        ndata = data.section(ranges).reduce();
-                    }
-                    k = current[shape.length - 2] * shape[shape.length - 1] + current[shape.length - 1];
-                    xx = points[k][0];
-                    yy = points[k][1];
-                    r.setObject(i, ArrayUtil.toStation(ndata, x, y, xx, yy));
-                    indexr.incr();
-                }
-            }
-        } else if (shape.length == 2) {
-            for (int i = 0; i < n; i++) {
-                xx = points[i][0];
-                yy = points[i][1];
-                r.setObject(i, ArrayUtil.toStation_Neighbor(data, x, y, xx, yy));
-            }
-        } else {
-            Index indexr = r.getIndex();
-            int[] current, cc = null;
-            boolean isNew;
-            Array ndata = null;
-            int k;
-            for (int i = 0; i < r.getSize(); i++) {
-                current = indexr.getCurrentCounter();
-                isNew = true;
-                if (i > 0) {
-                    for (int j = 0; j < shape.length - 2; j++) {
-                        if (cc[j] != current[j]) {
-                            isNew = false;
-                            break;
-                        }
-                    }
-                }
-                cc = Arrays.copyOf(current, current.length);
-                if (isNew) {
-                    List<Range> ranges = new ArrayList<>();
-                    for (int j = 0; j < shape.length - 2; j++) {
-                        ranges.add(new Range(current[j], current[j], 1));
-                    }
-                    ranges.add(new Range(0, dshape[dshape.length - 2] - 1, 1));
-                    ranges.add(new Range(0, dshape[dshape.length - 1] - 1, 1));
-                    ndata = data.section(ranges).reduce();
-                }
-                k = current[shape.length - 2] * shape[shape.length - 1] + current[shape.length - 1];
-                xx = points[k][0];
-                yy = points[k][1];
-                r.setObject(i, ArrayUtil.toStation_Neighbor(ndata, x, y, xx, yy));
-                indexr.incr();
-            }
-        }
+        Array r = Array.factory(data.getDataType(), resultShape(data, rx));
+        double[][] points = sourcePoints(rx, ry, fromProj, toProj);
+        ResamplePlan plan = new ResamplePlan(toDoubles(x), toDoubles(y), points[0], points[1], rx.getShape(),
+                resampleMethod);
+        plan.apply(data, Double.NaN, r);
 
         return r;
     }
@@ -537,115 +435,11 @@ public class Reproject {
      */
     public static Array reproject(Array data, Array x, Array y, Array rx, Array ry,
                                   ProjectionInfo fromProj, ProjectionInfo toProj, ResampleMethods resampleMethod) throws InvalidRangeException {
-        int n = (int) rx.getSize();
-        int[] dshape = data.getShape();
-        int[] shape;
-        if (rx.getRank() == 1) {
-            shape = new int[1];
-            shape[0] = rx.getShape()[0];
-        } else {
-            shape = new int[data.getRank()];
-            for (int i = 0; i < shape.length; i++) {
-                if (i == shape.length - 2) {
-                    shape[i] = rx.getShape()[0];
-                } else if (i == shape.length - 1) {
-                    shape[i] = rx.getShape()[1];
-                } else {
-                    shape[i] = data.getShape()[i];
-                }
-            }
-        }
-        Array r = Array.factory(data.getDataType(), shape);
-
-        double[][] points = new double[n][];
-        for (int i = 0; i < n; i++) {
-            points[i] = new double[]{rx.getDouble(i), ry.getDouble(i)};
-        }
-        if (!fromProj.equals(toProj)) {
-            Reproject.reprojectPoints(points, toProj, fromProj, 0, points.length);
-        }
-        double xx, yy;
-        if (resampleMethod == ResampleMethods.Bilinear) {
-            if (shape.length <= 2) {
-                for (int i = 0; i < n; i++) {
-                    xx = points[i][0];
-                    yy = points[i][1];
-                    r.setDouble(i, ArrayUtil.toStation(data, x, y, xx, yy));
-                }
-            } else {
-                Index indexr = r.getIndex();
-                int[] current, cc = null;
-                boolean isNew;
-                Array ndata = null;
-                int k;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = indexr.getCurrentCounter();
-                    isNew = true;
-                    if (i > 0) {
-                        for (int j = 0; j < shape.length - 2; j++) {
-                            if (cc[j] != current[j]) {
-                                isNew = false;
-                                break;
-                            }
-                        }
-                    }
-                    cc = Arrays.copyOf(current, current.length);
-                    if (isNew) {
-                        List<Range> ranges = new ArrayList<>();
-                        for (int j = 0; j < shape.length - 2; j++) {
-                            ranges.add(new Range(current[j], current[j], 1));
-                        }
-                        ranges.add(new Range(0, dshape[dshape.length - 2] - 1, 1));
-                        ranges.add(new Range(0, dshape[dshape.length - 1] - 1, 1));
-                        ndata = data.section(ranges).reduce();
-                    }
-                    k = current[shape.length - 2] * shape[shape.length - 1] + current[shape.length - 1];
-                    xx = points[k][0];
-                    yy = points[k][1];
-                    r.setObject(i, ArrayUtil.toStation(ndata, x, y, xx, yy));
-                    indexr.incr();
-                }
-            }
-        } else if (shape.length == 2) {
-            for (int i = 0; i < n; i++) {
-                xx = points[i][0];
-                yy = points[i][1];
-                r.setObject(i, ArrayUtil.toStation_Neighbor(data, x, y, xx, yy));
-            }
-        } else {
-            Index indexr = r.getIndex();
-            int[] current, cc = null;
-            boolean isNew;
-            Array ndata = null;
-            int k;
-            for (int i = 0; i < r.getSize(); i++) {
-                current = indexr.getCurrentCounter();
-                isNew = true;
-                if (i > 0) {
-                    for (int j = 0; j < shape.length - 2; j++) {
-                        if (cc[j] != current[j]) {
-                            isNew = false;
-                            break;
-                        }
-                    }
-                }
-                cc = Arrays.copyOf(current, current.length);
-                if (isNew) {
-                    List<Range> ranges = new ArrayList<>();
-                    for (int j = 0; j < shape.length - 2; j++) {
-                        ranges.add(new Range(current[j], current[j], 1));
-                    }
-                    ranges.add(new Range(0, dshape[dshape.length - 2] - 1, 1));
-                    ranges.add(new Range(0, dshape[dshape.length - 1] - 1, 1));
-                    ndata = data.section(ranges).reduce();
-                }
-                k = current[shape.length - 2] * shape[shape.length - 1] + current[shape.length - 1];
-                xx = points[k][0];
-                yy = points[k][1];
-                r.setObject(i, ArrayUtil.toStation_Neighbor(ndata, x, y, xx, yy));
-                indexr.incr();
-            }
-        }
+        Array r = Array.factory(data.getDataType(), resultShape(data, rx));
+        double[][] points = sourcePoints(rx, ry, fromProj, toProj);
+        ResamplePlan plan = new ResamplePlan(toDoubles(x), toDoubles(y), points[0], points[1], rx.getShape(),
+                resampleMethod);
+        plan.apply(data, Double.NaN, r);
 
         return r;
     }
@@ -666,33 +460,25 @@ public class Reproject {
      */
     public static Array reproject(Array data, List<Number> x, List<Number> y, List<Number> rx, List<Number> ry,
             ProjectionInfo fromProj, ProjectionInfo toProj, double fill_value, ResampleMethods resampleMethod) {
-        int n = rx.size() * ry.size();
-        int[] shape = new int[]{ry.size(), rx.size()};
+        int nx = rx.size();
+        int n = nx * ry.size();
+        int[] shape = new int[]{ry.size(), nx};
         Array r = Array.factory(data.getDataType(), shape);
 
-        double[][] points = new double[n][];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
         for (int i = 0; i < ry.size(); i++) {
-            for (int j = 0; j < rx.size(); j++) {
-                points[i * rx.size() + j] = new double[]{rx.get(j).doubleValue(), ry.get(i).doubleValue()};
+            double yy = ry.get(i).doubleValue();
+            for (int j = 0; j < nx; j++) {
+                xs[i * nx + j] = rx.get(j).doubleValue();
+                ys[i * nx + j] = yy;
             }
         }
         if (!fromProj.equals(toProj)) {
-            Reproject.reprojectPoints(points, toProj, fromProj, 0, points.length);
-        }
-        double xx, yy;
-        if (resampleMethod == ResampleMethods.Bilinear) {
-            for (int i = 0; i < n; i++) {
-                xx = points[i][0];
-                yy = points[i][1];
-                r.setObject(i, ArrayUtil.toStation(data, x, y, xx, yy, fill_value));
-            }
-        } else {
-            for (int i = 0; i < n; i++) {
-                xx = points[i][0];
-                yy = points[i][1];
-                r.setObject(i, ArrayUtil.toStation_Neighbor(data, x, y, xx, yy, fill_value));
-            }
+            reprojectPoints(xs, ys, toProj, fromProj);
         }
+        ResamplePlan plan = new ResamplePlan(toDoubles(x), toDoubles(y), xs, ys, shape, resampleMethod);
+        plan.apply(data, fill_value, r);
 
         return r;
     }
@@ -707,20 +493,11 @@ public class Reproject {
      * @return Result arrays
      */
     public static Array[] reproject(Array x, Array y, ProjectionInfo fromProj, ProjectionInfo toProj) {
-        Array rx = Array.factory(DataType.DOUBLE, x.getShape());
-        Array ry = Array.factory(DataType.DOUBLE, x.getShape());
-        int n = (int) x.getSize();
-        double[][] points = new double[n][];
-        IndexIterator iterX = x.getIndexIterator();
-        IndexIterator iterY = y.getIndexIterator();
-        for (int i = 0; i < n; i++) {
-            points[i] = new double[]{iterX.getDoubleNext(), iterY.getDoubleNext()};
-        }
-        Reproject.reprojectPoints(points, fromProj, toProj, 0, points.length);
-        for (int i = 0; i < n; i++) {
-            rx.setDouble(i, points[i][0]);
-            ry.setDouble(i, points[i][1]);
-        }
+        double[] xs = toDoubles(x);
+        double[] ys = toDoubles(y);
+        reprojectPoints(xs, ys, fromProj, toProj);
+        Array rx = Array.factory(DataType.DOUBLE, x.getShape(), xs);
+        Array ry = Array.factory(DataType.DOUBLE, x.getShape(), ys);
 
         return new Array[]{rx, ry};
     }
@@ -757,14 +534,9 @@ public class Reproject {
         }
         Array r = Array.factory(data.getDataType(), newShape);
 
-        int n = ny * nx;
-        double[][] points = new double[n][];
-        for (int i = 0; i < n; i++) {
-            points[i] = new double[]{rx.getDouble(i), ry.getDouble(i)};
-        }
-        if (!fromProj.equals(toProj)) {
-            Reproject.reprojectPoints(points, toProj, fromProj, 0, points.length);
-        }
+        double[][] points = sourcePoints(rx, ry, fromProj, toProj);
+        double[] xs = points[0];
+        double[] ys = points[1];
 
         double minX = x.getDouble(0);
         double maxX = x.getDouble((int) x.getSize() - 1);
@@ -780,8 +552,8 @@ public class Reproject {
             for (int i = 0; i < ny; i++) {
                 for (int j = 0; j < nx; j++) {
                     ii = i * nx + j;
-                    xx = points[ii][0];
-                    yy = points[ii][1];
+                    xx = xs[ii];
+                    yy = ys[ii];
                     if (xx < minX || xx > maxX)
                         xi = -1;
                     else
@@ -804,8 +576,8 @@ public class Reproject {
             for (int i = 0; i < ny; i++) {
                 for (int j = 0; j < nx; j++) {
                     ii = i * nx + j;
-                    xx = points[ii][0];
-                    yy = points[ii][1];
+                    xx = xs[ii];
+                    yy = ys[ii];
                     if (xx < minX || xx > maxX)
                         xi = -1;
                     else
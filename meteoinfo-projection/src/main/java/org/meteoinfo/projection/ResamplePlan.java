@@ -0,0 +1,548 @@
+package org.meteoinfo.projection;
+
+import org.meteoinfo.common.MIMath;
+import org.meteoinfo.common.ResampleMethods;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.IndexIterator;
+import org.meteoinfo.ndarray.math.ArrayParallel;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Precomputed resampling plan from a source grid to target points.
+ * <p>
+ * The target points are transformed to the source projection once, and the
+ * source cell index and bilinear weights of each point are stored, so any
+ * number of data slices on the same grids can be resampled by a tight loop
+ * over the plan without transforming or searching again. Bilinear results
+ * are the same as ArrayUtil.toStation (within rounding), nearest neighbour
+ * results the same as ArrayUtil.toStation_Neighbor. Points out of the
+ * source grid or projection get NaN.
+ * <p>
+ * Plans can be saved to a small versioned binary file and reused for the
+ * same grids later. A plan keeps a fingerprint of the source grid
+ * coordinates and of the source and target projections, which is checked
+ * when a plan is loaded or applied with the grid coordinates, so a plan is
+ * not silently applied to another grid of the same shape.
+ *
+ * @author wyq
+ */
+public class ResamplePlan {
+
+    private static final int MAGIC = 0x4D495250;    //MIRP
+    private static final int FORMAT_VERSION = 1;
+
+    private final int sourceXNum;
+    private final int sourceYNum;
+    private final int[] targetShape;
+    private final ResampleMethods method;
+    //Source storage index of each target point in a source slice: the lower
+    //left cell corner for bilinear, the nearest node for nearest neighbour,
+    //-1 for invalid points
+    private final int[] index;
+    //Bilinear weights along x and y in the source cell
+    private final double[] wx;
+    private final double[] wy;
+    //Fingerprints of the source grid coordinates and of the projections
+    private final long gridHash;
+    private final long projHash;
+
+    /**
+     * Constructor
+     *
+     * @param x Source grid x coordinates, ascending
+     * @param y Source grid y coordinates, ascending
+     * @param xs Target point x coordinates in the source projection
+     * @param ys Target point y coordinates in the source projection
+     * @param targetShape Target shape, its size is the number of points
+     * @param method Resample method
+     */
+    public ResamplePlan(double[] x, double[] y, double[] xs, double[] ys, int[] targetShape,
+                        ResampleMethods method) {
+        this(x, y, xs, ys, targetShape, method, projectionHash(null, null));
+    }
+
+    private ResamplePlan(double[] x, double[] y, double[] xs, double[] ys, int[] targetShape,
+                         ResampleMethods method, long projHash) {
+        this.gridHash = gridHash(x, y);
+        this.projHash = projHash;
+        this.sourceXNum = x.length;
+        this.sourceYNum = y.length;
+        this.targetShape = targetShape.clone();
+        this.method = method == ResampleMethods.Bilinear ? ResampleMethods.Bilinear : ResampleMethods.NearestNeighbor;
+        final int n = xs.length;
+        final boolean bilinear = this.method == ResampleMethods.Bilinear;
+        this.index = new int[n];
+        this.wx = bilinear ? new double[n] : null;
+        this.wy = bilinear ? new double[n] : null;
+        final int nx = x.length;
+        final int ny = y.length;
+        ArrayParallel.ChunkTask task = (start, end) -> {
+            for (int k = start; k < end; k++) {
+                double xx = xs[k];
+                double yy = ys[k];
+                if (Double.isNaN(xx) || Double.isNaN(yy) || nx < 2 || ny < 2
+                        || xx < x[0] || xx > x[nx - 1] || yy < y[0] || yy > y[ny - 1]) {
+                    index[k] = -1;
+                    continue;
+                }
+                int j1 = cellIndex(x, xx);
+                int i1 = cellIndex(y, yy);
+                int j2 = j1 + 1;
+                int i2 = i1 + 1;
+                if (bilinear) {
+                    index[k] = i1 * nx + j1;
+                    wx[k] = (xx - x[j1]) / (x[j2] - x[j1]);
+                    wy[k] = (yy - y[i1]) / (y[i2] - y[i1]);
+                } else {
+                    int i = Math.abs(yy - y[i1]) < Math.abs(y[i2] - yy) ? i1 : i2;
+                    int j = Math.abs(xx - x[j1]) < Math.abs(x[j2] - xx) ? j1 : j2;
+                    index[k] = i * nx + j;
+                }
+            }
+        };
+        if (ArrayParallel.accept(ArrayParallel.isEnabled(), n)) {
+            ArrayParallel.forEachChunk(n, task);
+        } else {
+            task.run(0, n);
+        }
+    }
+
+    /**
+     * Create a resampling plan from a source grid to target points
+     *
+     * @param x Source grid x coordinates, ascending
+     * @param y Source grid y coordinates, ascending
+     * @param rx Target x coordinates, 2D grid or 1D points
+     * @param ry Target y coordinates, same shape as rx
+     * @param fromProj Source projection
+     * @param toProj Target projection
+     * @param method Resample method
+     * @return Resampling plan
+     */
+    public static ResamplePlan create(Array x, Array y, Array rx, Array ry, ProjectionInfo fromProj,
+                                      ProjectionInfo toProj, ResampleMethods method) {
+        double[] xs = toDoubles(rx);
+        double[] ys = toDoubles(ry);
+        if (!fromProj.equals(toProj)) {
+            Reproject.reprojectPoints(xs, ys, toProj, fromProj);
+        }
+        return new ResamplePlan(toDoubles(x), toDoubles(y), xs, ys, rx.getShape(), method,
+                projectionHash(fromProj, toProj));
+    }
+
+    private ResamplePlan(int sourceXNum, int sourceYNum, int[] targetShape, ResampleMethods method, int[] index,
+                         double[] wx, double[] wy, long gridHash, long projHash) {
+        this.sourceXNum = sourceXNum;
+        this.sourceYNum = sourceYNum;
+        this.targetShape = targetShape;
+        this.method = method;
+        this.index = index;
+        this.wx = wx;
+        this.wy = wy;
+        this.gridHash = gridHash;
+        this.projHash = projHash;
+    }
+
+    private static long hash(long h, long v) {
+        //FNV-1a over 64 bit words
+        return (h ^ v) * 0x100000001b3L;
+    }
+
+    private static long gridHash(double[] x, double[] y) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, x.length);
+        for (double v : x) {
+            h = hash(h, Double.doubleToLongBits(v));
+        }
+        h = hash(h, y.length);
+        for (double v : y) {
+            h = hash(h, Double.doubleToLongBits(v));
+        }
+        return h;
+    }
+
+    private static long projectionHash(ProjectionInfo fromProj, ProjectionInfo toProj) {
+        long h = 0xcbf29ce484222325L;
+        for (ProjectionInfo proj : new ProjectionInfo[]{fromProj, toProj}) {
+            String s = proj == null ? "" : proj.toProj4String();
+            h = hash(h, s.length());
+            for (int i = 0; i < s.length(); i++) {
+                h = hash(h, s.charAt(i));
+            }
+        }
+        return h;
+    }
+
+    private static double[] toDoubles(Array a) {
+        double[] r = new double[(int) a.getSize()];
+        IndexIterator iter = a.getIndexIterator();
+        for (int i = 0; i < r.length; i++) {
+            r[i] = iter.getDoubleNext();
+        }
+        return r;
+    }
+
+    /**
+     * Get the lower cell index of a coordinate like ArrayUtil.toStation: the
+     * first i > 0 with v &lt; a[i], minus one, or the last cell
+     */
+    private static int cellIndex(double[] a, double v) {
+        int lo = 1, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (v < a[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo < a.length ? lo - 1 : a.length - 2;
+    }
+
+    // <editor-fold desc="Get Set Methods">
+    /**
+     * Get source grid x number
+     *
+     * @return Source grid x number
+     */
+    public int getSourceXNum() {
+        return sourceXNum;
+    }
+
+    /**
+     * Get source grid y number
+     *
+     * @return Source grid y number
+     */
+    public int getSourceYNum() {
+        return sourceYNum;
+    }
+
+    /**
+     * Get target shape
+     *
+     * @return Target shape
+     */
+    public int[] getTargetShape() {
+        return targetShape.clone();
+    }
+
+    /**
+     * Get number of target points
+     *
+     * @return Number of target points
+     */
+    public int getPointNum() {
+        return index.length;
+    }
+
+    /**
+     * Get resample method
+     *
+     * @return Resample method
+     */
+    public ResampleMethods getMethod() {
+        return method;
+    }
+
+    /**
+     * Get whether a target point is inside the source grid
+     *
+     * @param k Target point index
+     * @return Valid or not
+     */
+    public boolean isValid(int k) {
+        return index[k] >= 0;
+    }
+
+    /**
+     * Get fingerprint of the source grid coordinates and projections
+     *
+     * @return Fingerprint
+     */
+    public long getFingerprint() {
+        return hash(gridHash, projHash);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Methods">
+    /**
+     * Check whether the plan was created for a source grid
+     *
+     * @param x Source grid x coordinates
+     * @param y Source grid y coordinates
+     * @return Matched or not
+     */
+    public boolean matches(Array x, Array y) {
+        return x.getSize() == sourceXNum && y.getSize() == sourceYNum
+                && gridHash(toDoubles(x), toDoubles(y)) == gridHash;
+    }
+
+    /**
+     * Check whether the plan was created for a source grid and projections
+     *
+     * @param x Source grid x coordinates
+     * @param y Source grid y coordinates
+     * @param fromProj Source projection
+     * @param toProj Target projection
+     * @return Matched or not
+     */
+    public boolean matches(Array x, Array y, ProjectionInfo fromProj, ProjectionInfo toProj) {
+        return matches(x, y) && projectionHash(fromProj, toProj) == projHash;
+    }
+
+    /**
+     * Resample data
+     *
+     * @param data Data array, the last two dimensions are the source grid
+     * @return Resampled array, with the leading dimensions of the data and
+     * the target shape as the trailing dimensions
+     */
+    public Array apply(Array data) {
+        return apply(data, Double.NaN);
+    }
+
+    /**
+     * Resample data
+     *
+     * @param data Data array, the last two dimensions are the source grid
+     * @param fillValue Fill value excluded from bilinear interpolation
+     * @return Resampled array, with the leading dimensions of the data and
+     * the target shape as the trailing dimensions
+     */
+    public Array apply(Array data, double fillValue) {
+        int[] dshape = data.getShape();
+        int lead = Math.max(0, dshape.length - 2);
+        int[] shape = Arrays.copyOf(dshape, lead + targetShape.length);
+        System.arraycopy(targetShape, 0, shape, lead, targetShape.length);
+        Array r = Array.factory(data.getDataType(), shape);
+        apply(data, fillValue, r);
+        return r;
+    }
+
+    /**
+     * Resample data on a source grid, which is checked against the grid the
+     * plan was created for
+     *
+     * @param data Data array, the last two dimensions are the source grid
+     * @param x Source grid x coordinates
+     * @param y Source grid y coordinates
+     * @param fillValue Fill value excluded from bilinear interpolation
+     * @return Resampled array, with the leading dimensions of the data and
+     * the target shape as the trailing dimensions
+     */
+    public Array apply(Array data, Array x, Array y, double fillValue) {
+        if (!matches(x, y)) {
+            throw new IllegalArgumentException("Source grid coordinates do not match the grid of the plan");
+        }
+        return apply(data, fillValue);
+    }
+
+    /**
+     * Resample data into a result array. Each slice of the result (number of
+     * target points) is resampled from the corresponding source grid slice.
+     *
+     * @param data Data array, the last two dimensions are the source grid
+     * @param fillValue Fill value excluded from bilinear interpolation, NaN
+     *                  if only NaN values are excluded
+     * @param r Result array
+     */
+    public void apply(Array data, double fillValue, Array r) {
+        int[] dshape = data.getShape();
+        if (dshape[dshape.length - 1] != sourceXNum || (dshape.length > 1 && dshape[dshape.length - 2] != sourceYNum)) {
+            throw new IllegalArgumentException("Data shape " + Arrays.toString(dshape)
+                    + " does not match the source grid of the plan");
+        }
+        final Array a = data.copyIfView();
+        final int sliceSize = sourceXNum * sourceYNum;
+        final int n = index.length;
+        final int nSlice = (int) (r.getSize() / Math.max(1, n));
+        final boolean bilinear = method == ResampleMethods.Bilinear;
+        final Object storage = a.getStorage();
+        final double[] ds = storage instanceof double[] ? (double[]) storage : null;
+        final float[] fs = storage instanceof float[] ? (float[]) storage : null;
+        for (int s = 0; s < nSlice; s++) {
+            final int dOffset = s * sliceSize;
+            final int rOffset = s * n;
+            ArrayParallel.ChunkTask task = (start, end) -> {
+                for (int k = start; k < end; k++) {
+                    int idx = index[k];
+                    double v;
+                    if (idx < 0) {
+                        v = Double.NaN;
+                    } else if (bilinear) {
+                        int o = dOffset + idx;
+                        if (ds != null) {
+                            v = bilinear(ds[o], ds[o + 1], ds[o + sourceXNum], ds[o + sourceXNum + 1],
+                                    fillValue, wx[k], wy[k]);
+                        } else if (fs != null) {
+                            v = bilinear(fs[o], fs[o + 1], fs[o + sourceXNum], fs[o + sourceXNum + 1],
+                                    fillValue, wx[k], wy[k]);
+                        } else {
+                            v = bilinear(a.getDouble(o), a.getDouble(o + 1), a.getDouble(o + sourceXNum),
+                                    a.getDouble(o + sourceXNum + 1), fillValue, wx[k], wy[k]);
+                        }
+                    } else {
+                        v = a.getDouble(dOffset + idx);
+                    }
+                    r.setDouble(rOffset + k, v);
+                }
+            };
+            if (ArrayParallel.accept(ArrayParallel.isEnabled(), n)) {
+                ArrayParallel.forEachChunk(n, task);
+            } else {
+                task.run(0, n);
+            }
+        }
+    }
+
+    private static double bilinear(double a, double b, double c, double d, double fillValue, double tx, double ty) {
+        boolean va = !Double.isNaN(a) && !MIMath.doubleEquals(a, fillValue);
+        boolean vb = !Double.isNaN(b) && !MIMath.doubleEquals(b, fillValue);
+        boolean vc = !Double.isNaN(c) && !MIMath.doubleEquals(c, fillValue);
+        boolean vd = !Double.isNaN(d) && !MIMath.doubleEquals(d, fillValue);
+        if (va && vb && vc && vd) {
+            double x1val = a + (c - a) * ty;
+            double x2val = b + (d - b) * ty;
+            return x1val + (x2val - x1val) * tx;
+        }
+        //Average of the valid corners
+        int n = 0;
+        double sum = 0;
+        if (va) {
+            sum += a;
+            n++;
+        }
+        if (vb) {
+            sum += b;
+            n++;
+        }
+        if (vc) {
+            sum += c;
+            n++;
+        }
+        if (vd) {
+            sum += d;
+            n++;
+        }
+        if (n == 0) {
+            return Double.NaN;
+        }
+        return n == 1 ? sum : sum / n;
+    }
+
+    /**
+     * Save the plan to a file
+     *
+     * @param fileName File name
+     * @throws IOException
+     */
+    public void save(String fileName) throws IOException {
+        boolean bilinear = method == ResampleMethods.Bilinear;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(bilinear);
+            out.writeInt(sourceXNum);
+            out.writeInt(sourceYNum);
+            out.writeLong(gridHash);
+            out.writeLong(projHash);
+            out.writeInt(targetShape.length);
+            for (int s : targetShape) {
+                out.writeInt(s);
+            }
+            out.writeInt(index.length);
+            for (int k = 0; k < index.length; k++) {
+                out.writeInt(index[k]);
+                if (bilinear) {
+                    out.writeDouble(wx[k]);
+                    out.writeDouble(wy[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load a plan from a file
+     *
+     * @param fileName File name
+     * @return Resampling plan
+     * @throws IOException
+     */
+    public static ResamplePlan load(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a resample plan file: " + fileName);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported resample plan version " + version + ": " + fileName);
+            }
+            boolean bilinear = in.readBoolean();
+            int nx = in.readInt();
+            int ny = in.readInt();
+            long gridHash = in.readLong();
+            long projHash = in.readLong();
+            int rank = in.readInt();
+            if (nx < 0 || ny < 0 || (long) nx * ny > Integer.MAX_VALUE || rank < 0 || rank > 32) {
+                throw new IOException("Invalid resample plan file: " + fileName);
+            }
+            int[] targetShape = new int[rank];
+            long size = 1;
+            for (int i = 0; i < rank; i++) {
+                targetShape[i] = in.readInt();
+                size *= Math.max(0, targetShape[i]);
+            }
+            int n = in.readInt();
+            if (n != size || targetShape.length == 0) {
+                throw new IOException("Invalid resample plan file: " + fileName);
+            }
+            int[] index = new int[n];
+            double[] wx = bilinear ? new double[n] : null;
+            double[] wy = bilinear ? new double[n] : null;
+            for (int k = 0; k < n; k++) {
+                int idx = in.readInt();
+                //A bilinear index is the lower left corner of a cell
+                boolean valid = idx == -1 || (idx >= 0 && idx < nx * ny
+                        && (!bilinear || (idx % nx < nx - 1 && idx / nx < ny - 1)));
+                if (!valid) {
+                    throw new IOException("Invalid resample plan file: " + fileName);
+                }
+                index[k] = idx;
+                if (bilinear) {
+                    wx[k] = in.readDouble();
+                    wy[k] = in.readDouble();
+                }
+            }
+            return new ResamplePlan(nx, ny, targetShape, bilinear ? ResampleMethods.Bilinear :
+                    ResampleMethods.NearestNeighbor, index, wx, wy, gridHash, projHash);
+        } catch (EOFException ex) {
+            throw new IOException("Truncated resample plan file: " + fileName, ex);
+        }
+    }
+
+    /**
+     * Load a plan from a file and check that it was created for a source
+     * grid and projections
+     *
+     * @param fileName File name
+     * @param x Source grid x coordinates
+     * @param y Source grid y coordinates
+     * @param fromProj Source projection
+     * @param toProj Target projection
+     * @return Resampling plan
+     * @throws IOException If the file is invalid or the plan does not match
+     */
+    public static ResamplePlan load(String fileName, Array x, Array y, ProjectionInfo fromProj,
+                                    ProjectionInfo toProj) throws IOException {
+        ResamplePlan plan = load(fileName);
+        if (!plan.matches(x, y, fromProj, toProj)) {
+            throw new IOException("Resample plan does not match the grid and projections: " + fileName);
+        }
+        return plan;
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,185 @@
+package org.meteoinfo.projection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.meteoinfo.common.ResampleMethods;
+import org.meteoinfo.ndarray.Array;
+import org.meteoinfo.ndarray.DataType;
+import org.meteoinfo.ndarray.math.ArrayUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResamplePlanTest {
+
+    private static Array range(int n, double start, double delta) {
+        Array a = Array.factory(DataType.DOUBLE, new int[]{n});
+        for (int i = 0; i < n; i++) {
+            a.setDouble(i, start + i * delta);
+        }
+        return a;
+    }
+
+    private static Array data(int ny, int nx) {
+        Array a = Array.factory(DataType.DOUBLE, new int[]{ny, nx});
+        for (int i = 0; i < a.getSize(); i++) {
+            a.setDouble(i, i % 7 == 0 ? Double.NaN : Math.sin(i * 0.1) * 10);
+        }
+        return a;
+    }
+
+    private static List<Number> list(Array a) {
+        List<Number> r = new ArrayList<>();
+        for (int i = 0; i < a.getSize(); i++) {
+            r.add(a.getDouble(i));
+        }
+        return r;
+    }
+
+    @Test
+    public void testToStation() {
+        //Uneven x spacing, NaN and fill value corners
+        double fillValue = -9999;
+        Array x = Array.factory(DataType.DOUBLE, new int[]{8}, new double[]{0, 1, 2, 4, 5, 7, 8, 10});
+        Array y = range(6, -3, 1.5);
+        Array d = data(6, 8);
+        d.setDouble(2 * 8 + 3, fillValue);
+        d.setDouble(4 * 8 + 6, fillValue);
+        d.setDouble(4 * 8 + 5, Double.NaN);
+        d.setDouble(5 * 8 + 5, Double.NaN);
+        d.setDouble(5 * 8 + 6, Double.NaN);
+
+        List<Double> px = new ArrayList<>();
+        List<Double> py = new ArrayList<>();
+        //Grid nodes, cell edges and the last grid lines
+        for (int i = 0; i < y.getSize(); i++) {
+            for (int j = 0; j < x.getSize(); j++) {
+                px.add(x.getDouble(j));
+                py.add(y.getDouble(i));
+                px.add(j + 1 < x.getSize() ? (x.getDouble(j) + x.getDouble(j + 1)) / 2 : x.getDouble(j));
+                py.add(y.getDouble(i));
+                px.add(x.getDouble(j));
+                py.add(i + 1 < y.getSize() ? y.getDouble(i) + 0.75 : y.getDouble(i));
+            }
+        }
+        //Out of the grid
+        double[][] outside = {{-0.5, 0}, {10.5, 0}, {5, -3.5}, {5, 4.6}, {Double.NaN, 1}};
+        for (double[] p : outside) {
+            px.add(p[0]);
+            py.add(p[1]);
+        }
+        Random random = new Random(3);
+        for (int k = 0; k < 200; k++) {
+            px.add(random.nextDouble() * 11 - 0.5);
+            py.add(random.nextDouble() * 8.5 - 3.5);
+        }
+        int n = px.size();
+        Array rx = Array.factory(DataType.DOUBLE, new int[]{n});
+        Array ry = Array.factory(DataType.DOUBLE, new int[]{n});
+        for (int k = 0; k < n; k++) {
+            rx.setDouble(k, px.get(k));
+            ry.setDouble(k, py.get(k));
+        }
+
+        List<Number> xl = list(x);
+        List<Number> yl = list(y);
+        ProjectionInfo proj = ProjectionInfo.LONG_LAT;
+        Array bilinear = ResamplePlan.create(x, y, rx, ry, proj, proj, ResampleMethods.Bilinear).apply(d, fillValue);
+        Array nearest = ResamplePlan.create(x, y, rx, ry, proj, proj, ResampleMethods.NearestNeighbor)
+                .apply(d, fillValue);
+        for (int k = 0; k < n; k++) {
+            double xx = px.get(k), yy = py.get(k);
+            String msg = "point " + xx + ", " + yy;
+            double expected = Double.isNaN(xx) ? Double.NaN : ArrayUtil.toStation(d, xl, yl, xx, yy, fillValue);
+            assertEquals(expected, bilinear.getDouble(k), 1e-10, msg);
+            expected = Double.isNaN(xx) ? Double.NaN : ArrayUtil.toStation_Neighbor(d, xl, yl, xx, yy, fillValue);
+            assertEquals(expected, nearest.getDouble(k), 0, msg);
+        }
+    }
+
+    @Test
+    public void testSaveLoad(@TempDir Path dir) throws IOException {
+        ProjectionInfo fromProj = ProjectionInfo.LONG_LAT;
+        ProjectionInfo toProj = ProjectionInfo.factory("+proj=merc +lon_0=100");
+        Array x = range(30, 80, 1);
+        Array y = range(20, 10, 1);
+        Array rx = range(15, 0, 80000);
+        Array ry = range(15, 1200000, 80000);
+        for (ResampleMethods method : new ResampleMethods[]{ResampleMethods.Bilinear, ResampleMethods.NearestNeighbor}) {
+            ResamplePlan plan = ResamplePlan.create(x, y, rx, ry, fromProj, toProj, method);
+            String fn = dir.resolve("plan_" + method + ".bin").toString();
+            plan.save(fn);
+
+            ResamplePlan loaded = ResamplePlan.load(fn, x, y, fromProj, toProj);
+            assertEquals(plan.getFingerprint(), loaded.getFingerprint());
+            assertEquals(method, loaded.getMethod());
+            assertArrayEquals(plan.getTargetShape(), loaded.getTargetShape());
+            Array d = data(20, 30);
+            Array r1 = plan.apply(d, x, y, Double.NaN);
+            Array r2 = loaded.apply(d, x, y, Double.NaN);
+            for (int i = 0; i < r1.getSize(); i++) {
+                assertEquals(r1.getDouble(i), r2.getDouble(i));
+            }
+        }
+    }
+
+    @Test
+    public void testMismatch(@TempDir Path dir) throws IOException {
+        ProjectionInfo fromProj = ProjectionInfo.LONG_LAT;
+        ProjectionInfo toProj = ProjectionInfo.factory("+proj=merc +lon_0=100");
+        Array x = range(30, 80, 1);
+        Array y = range(20, 10, 1);
+        ResamplePlan plan = ResamplePlan.create(x, y, range(15, 0, 80000), range(15, 1200000, 80000),
+                fromProj, toProj, ResampleMethods.Bilinear);
+        String fn = dir.resolve("plan.bin").toString();
+        plan.save(fn);
+
+        //Same shape, shifted grid
+        Array x2 = range(30, 81, 1);
+        assertFalse(plan.matches(x2, y));
+        assertThrows(IllegalArgumentException.class, () -> plan.apply(data(20, 30), x2, y, Double.NaN));
+        assertThrows(IOException.class, () -> ResamplePlan.load(fn, x2, y, fromProj, toProj));
+
+        ProjectionInfo toProj2 = ProjectionInfo.factory("+proj=merc +lon_0=110");
+        assertTrue(plan.matches(x, y));
+        assertFalse(plan.matches(x, y, fromProj, toProj2));
+        assertThrows(IOException.class, () -> ResamplePlan.load(fn, x, y, fromProj, toProj2));
+    }
+
+    @Test
+    public void testInvalidFile(@TempDir Path dir) throws IOException {
+        Array x = range(5, 0, 1);
+        Array y = range(4, 0, 1);
+        ResamplePlan plan = ResamplePlan.create(x, y, range(3, 0.5, 1), range(3, 0.5, 1),
+                ProjectionInfo.LONG_LAT, ProjectionInfo.LONG_LAT, ResampleMethods.Bilinear);
+        File file = dir.resolve("plan.bin").toFile();
+        plan.save(file.getPath());
+
+        //Index out of the source grid
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4 + 4 + 1 + 4 + 4 + 8 + 8 + 4 + 4 + 4);
+            raf.writeInt(1000);
+        }
+        assertThrows(IOException.class, () -> ResamplePlan.load(file.getPath()));
+
+        //Truncated
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(20);
+        }
+        assertThrows(IOException.class, () -> ResamplePlan.load(file.getPath()));
+
+        //Not a plan file
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.writeInt(0xACED0005);
+        }
+        assertThrows(IOException.class, () -> ResamplePlan.load(file.getPath()));
+    }
+}